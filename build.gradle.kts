@@ -53,6 +53,7 @@ dependencies {
     implementation("org.dcm4che:dcm4che-core:${dcm4cheVersion}")
     implementation("org.dcm4che:dcm4che-net:${dcm4cheVersion}")
     implementation("org.dcm4che:dcm4che-json:${dcm4cheVersion}")
+    implementation("org.dcm4che:dcm4che-imageio:${dcm4cheVersion}")
 
     implementation("jakarta.json:jakarta.json-api:2.1.3")
     implementation("org.eclipse.parsson:parsson:1.1.7")
@@ -67,6 +68,10 @@ dependencies {
 
 tasks.withType<Test> {
     useJUnitPlatform()
+    // benchmarks only run on request, e.g. -Dmupacs.benchmark=true
+    listOf("mupacs.benchmark", "mupacs.benchmark.instances", "mupacs.benchmark.bulkdata-size").forEach { name ->
+        System.getProperty(name)?.let { systemProperty(name, it) }
+    }
     reports {
         junitXml.required.set(true)
         html.required.set(true)
@@ -1,6 +1,8 @@
 package de.famst;
 
+import de.famst.data.TextIndex;
 import de.famst.service.FolderImportManager;
+import de.famst.service.StudyExportService;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
@@ -11,13 +13,19 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
 
+import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * Handles command line arguments for the MuPACS application.
- * Supports importing DICOM folders via the -i/--import option.
+ * Supports importing DICOM folders via the -i/--import option, rebuilding the text index
+ * from the database via the --rebuild-text-index option and exporting studies into a ZIP
+ * file via the -e/--export option with one or more --study options and an optional --dicomdir.
  * <p>
  * Created by jens on 05/10/2016.
  */
@@ -28,12 +36,22 @@ public class CommandLineHandler implements CommandLineRunner
 
     private static final String IMPORT_OPTION = "i";
     private static final String IMPORT_LONG_OPTION = "import";
+    private static final String REBUILD_TEXT_INDEX_LONG_OPTION = "rebuild-text-index";
+    private static final String EXPORT_OPTION = "e";
+    private static final String EXPORT_LONG_OPTION = "export";
+    private static final String STUDY_LONG_OPTION = "study";
+    private static final String DICOMDIR_LONG_OPTION = "dicomdir";
 
     private final FolderImportManager importManager;
+    private final TextIndex textIndex;
+    private final StudyExportService exportService;
 
-    public CommandLineHandler(FolderImportManager importManager)
+    public CommandLineHandler(FolderImportManager importManager, TextIndex textIndex,
+                              StudyExportService exportService)
     {
         this.importManager = importManager;
+        this.textIndex = textIndex;
+        this.exportService = exportService;
     }
 
     @Override
@@ -51,7 +69,9 @@ public class CommandLineHandler implements CommandLineRunner
         {
             CommandLine cmd = parseArguments(args);
             logArguments(cmd);
+            processRebuildTextIndexOption(cmd);
             processImportOption(cmd);
+            processExportOption(cmd);
         }
         catch (ParseException e)
         {
@@ -71,6 +91,14 @@ public class CommandLineHandler implements CommandLineRunner
         Options options = new Options();
         options.addOption(IMPORT_OPTION, IMPORT_LONG_OPTION, true,
             "Path to folder containing DICOM files to be imported");
+        options.addOption(null, REBUILD_TEXT_INDEX_LONG_OPTION, false,
+            "Rebuild the full-text index of descriptions and comments from the database");
+        options.addOption(EXPORT_OPTION, EXPORT_LONG_OPTION, true,
+            "Path of a ZIP file to export the studies given by --study into");
+        options.addOption(null, STUDY_LONG_OPTION, true,
+            "Study Instance UID to export, may be repeated or separated by commas");
+        options.addOption(null, DICOMDIR_LONG_OPTION, false,
+            "Write a DICOMDIR into the exported ZIP file");
         return options;
     }
 
@@ -82,6 +110,15 @@ public class CommandLineHandler implements CommandLineRunner
         }
     }
 
+    private void processRebuildTextIndexOption(CommandLine cmd)
+    {
+        if (cmd.hasOption(REBUILD_TEXT_INDEX_LONG_OPTION))
+        {
+            LOG.info("Rebuilding text index");
+            textIndex.rebuild();
+        }
+    }
+
     private void processImportOption(CommandLine cmd)
     {
         if (!cmd.hasOption(IMPORT_OPTION))
@@ -128,4 +165,58 @@ public class CommandLineHandler implements CommandLineRunner
         }
     }
 
+    private void processExportOption(CommandLine cmd)
+    {
+        if (!cmd.hasOption(EXPORT_OPTION))
+        {
+            return;
+        }
+
+        String exportPath = cmd.getOptionValue(EXPORT_OPTION);
+        if (exportPath == null || exportPath.trim().isEmpty())
+        {
+            LOG.warn("Export option specified but no path provided");
+            return;
+        }
+
+        Set<String> studies = new LinkedHashSet<>();
+        String[] values = cmd.getOptionValues(STUDY_LONG_OPTION);
+        if (values != null)
+        {
+            Arrays.stream(values)
+                .flatMap(value -> Arrays.stream(value.split(",")))
+                .map(String::trim)
+                .filter(uid -> !uid.isEmpty())
+                .forEach(studies::add);
+        }
+        if (studies.isEmpty())
+        {
+            LOG.warn("Export option specified but no study provided with --{}", STUDY_LONG_OPTION);
+            return;
+        }
+
+        Path zipFile = Paths.get(exportPath);
+        Path folder = zipFile.toAbsolutePath().getParent();
+        if (folder != null && !Files.isDirectory(folder))
+        {
+            LOG.error("Export folder does not exist: [{}]", folder);
+            return;
+        }
+
+        LOG.info("Exporting {} studies to [{}]", studies.size(), zipFile.toAbsolutePath());
+        try
+        {
+            int exported = exportService.exportTo(zipFile, studies, cmd.hasOption(DICOMDIR_LONG_OPTION));
+            if (exported == 0)
+            {
+                LOG.warn("No instances found for studies {}, nothing exported", studies);
+            }
+        }
+        catch (IOException e)
+        {
+            LOG.error("Export to [{}] failed, the file was not written: {}", zipFile.toAbsolutePath(),
+                e.getMessage(), e);
+        }
+    }
+
 }
@@ -1,11 +1,14 @@
 package de.famst.controller;
 
+import de.famst.data.FrameIndex;
 import de.famst.data.InstanceEty;
 import de.famst.data.InstanceRepository;
+import de.famst.dcm.DcmTranscoder;
+import de.famst.service.BulkDataFile;
 import de.famst.service.DicomBulkDataService;
+import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
@@ -17,8 +20,13 @@ import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -34,6 +42,7 @@ import java.util.List;
  * <ul>
  *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/bulkdata - Retrieve pixel data</li>
  *   <li>HEAD /wado-rs/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/bulkdata - Get file size</li>
+ *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/frames/{frameList} - Retrieve frames</li>
  * </ul>
  *
  * <p>Features:
@@ -42,9 +51,26 @@ import java.util.List;
  *   <li>Proper content-type headers (application/octet-stream)</li>
  *   <li>Content-Length and Accept-Ranges headers</li>
  *   <li>206 Partial Content responses for range requests</li>
+ *   <li>Several ranges in one request, answered with a multipart/byteranges body</li>
  *   <li>416 Range Not Satisfiable for invalid ranges</li>
+ *   <li>Conditional requests (If-None-Match, If-Modified-Since) answered with 304 Not Modified</li>
+ *   <li>Single frames of multi-frame images, located with the frame index built at ingest</li>
  * </ul>
  *
+ * <p>The bulk data of an instance is the value of its Pixel Data, whose position in the archived
+ * file was recorded at ingest; ranges are relative to it. Instances that were not indexed are
+ * served as whole file. Encapsulated Pixel Data is served like all its frames, as
+ * {@code multipart/related} body with the fragments of each frame without their item headers
+ * (PS3.18 Section 8.7.3.5); Range headers are ignored then. The file of a request is stat'ed once. Its content is sent by the servlet container with
+ * {@code sendfile} if it offers it, otherwise copied with {@code FileChannel.transferTo} from the
+ * requested position, without reading the bytes before it. Recently served instances are sent
+ * from the off-heap cache of the {@link DicomBulkDataService} without touching the file.
+ *
+ * <p>SOP instances are immutable once archived: a new version of an object gets a new SOP Instance
+ * UID. The database id of an instance is therefore used as its strong ETag, conditional requests
+ * are answered from the database row without touching the file, and the payload is marked
+ * {@code immutable} so clients do not even revalidate it.
+ *
  * @author jens
  * @since 2026-04-24
  */
@@ -54,6 +80,19 @@ public class DicomWebBulkDataController
 {
     private static final Logger LOG = LoggerFactory.getLogger(DicomWebBulkDataController.class);
 
+    /**
+     * Instances never change, so clients may keep them for a year without revalidation.
+     */
+    static final String IMMUTABLE = "private, max-age=31536000, immutable";
+
+    /**
+     * Request attributes of Tomcat's sendfile support, the end is exclusive.
+     */
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     private final InstanceRepository instanceRepository;
     private final DicomBulkDataService bulkDataService;
 
@@ -79,14 +118,17 @@ public class DicomWebBulkDataController
      * @param seriesUID the Series Instance UID
      * @param instanceUID the SOP Instance UID
      * @param rangeHeader the HTTP Range header value (optional)
-     * @return ResponseEntity containing the bulk data or appropriate error response
+     * @param request the request, evaluated for conditional headers
+     * @return ResponseEntity containing the bulk data or appropriate error response, 406 if the
+     * Pixel Data is encapsulated and its frames are not indexed
      */
     @GetMapping("/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/bulkdata")
-    public ResponseEntity<Resource> getBulkData(
+    public ResponseEntity<StreamingResponseBody> getBulkData(
             @PathVariable String studyUID,
             @PathVariable String seriesUID,
             @PathVariable String instanceUID,
-            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader)
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String rangeHeader,
+            WebRequest request)
     {
         LOG.info("WADO-RS BulkData request: Study={}, Series={}, Instance={}, Range={}",
                 studyUID, seriesUID, instanceUID, rangeHeader);
@@ -98,19 +140,40 @@ public class DicomWebBulkDataController
             return ResponseEntity.notFound().build();
         }
 
+        if (notModified(request, instance))
+        {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                    .build();
+        }
+
         try
         {
-            // Get file size for range request handling
-            long fileSize = bulkDataService.getFileSize(instance.getPath());
+            // The only stat of the file, the size of the bulk data is needed for range request handling
+            BulkDataFile file = bulkDataService.getBulkData(instance);
+
+            if (isEncapsulated(instance))
+            {
+                MultipartBody frames = allFrames(instance, file);
+                if (frames == null)
+                {
+                    return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+                }
+
+                LOG.debug("Serving the encapsulated Pixel Data of instance {} as frames", instanceUID);
+                return framesResponse(frames)
+                        .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(frames.contentLength()))
+                        .body(frames::writeTo);
+            }
 
             // Handle range request
             if (rangeHeader != null && !rangeHeader.isEmpty())
             {
-                return handleRangeRequest(instance, rangeHeader, fileSize);
+                return handleRangeRequest(instance, rangeHeader, file, request);
             }
 
             // Return full file
-            return handleFullRequest(instance, fileSize);
+            return handleFullRequest(instance, file, request);
         }
         catch (IOException e)
         {
@@ -126,7 +189,9 @@ public class DicomWebBulkDataController
      * @param studyUID the Study Instance UID
      * @param seriesUID the Series Instance UID
      * @param instanceUID the SOP Instance UID
-     * @return ResponseEntity with headers containing file size in Content-Length
+     * @param request the request, evaluated for conditional headers
+     * @return ResponseEntity with headers containing file size in Content-Length, without it for
+     * encapsulated Pixel Data
      */
     @RequestMapping(
             value = "/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/bulkdata",
@@ -134,7 +199,8 @@ public class DicomWebBulkDataController
     public ResponseEntity<Void> getBulkDataMetadata(
             @PathVariable String studyUID,
             @PathVariable String seriesUID,
-            @PathVariable String instanceUID)
+            @PathVariable String instanceUID,
+            WebRequest request)
     {
         LOG.info("WADO-RS BulkData HEAD request: Study={}, Series={}, Instance={}",
                 studyUID, seriesUID, instanceUID);
@@ -146,18 +212,39 @@ public class DicomWebBulkDataController
             return ResponseEntity.notFound().build();
         }
 
+        if (notModified(request, instance))
+        {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                    .build();
+        }
+
         try
         {
-            // Get file size
-            long fileSize = bulkDataService.getFileSize(instance.getPath());
+            BulkDataFile file = bulkDataService.getBulkData(instance);
+            if (isEncapsulated(instance))
+            {
+                MultipartBody frames = allFrames(instance, file);
+                if (frames == null)
+                {
+                    return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+                }
+
+                // the length depends on the boundary, which is chosen for each body
+                return framesResponse(frames).build();
+            }
+
+            // Get bulk data size
+            long fileSize = file.size();
 
             LOG.debug("Serving HEAD request for instance {}: size={} bytes",
                     instance.getInstanceUID(), fileSize);
 
             return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+                    .header(HttpHeaders.CONTENT_TYPE, contentType(instance))
                     .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                     .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileSize))
+                    .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
                     .build();
         }
         catch (IOException e)
@@ -167,6 +254,175 @@ public class DicomWebBulkDataController
         }
     }
 
+    /**
+     * Retrieves frames of the Pixel Data of a DICOM instance as {@code multipart/related} body with
+     * a part per frame, in the requested order. Only the fragments of the requested frames are read,
+     * located with the frame index of the instance.
+     *
+     * @param studyUID the Study Instance UID
+     * @param seriesUID the Series Instance UID
+     * @param instanceUID the SOP Instance UID
+     * @param frameList the comma separated frame numbers, starting at 1
+     * @param request the request, evaluated for conditional headers
+     * @return ResponseEntity containing the frames or appropriate error response
+     */
+    @GetMapping("/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/frames/{frameList}")
+    public ResponseEntity<StreamingResponseBody> getFrames(
+            @PathVariable String studyUID,
+            @PathVariable String seriesUID,
+            @PathVariable String instanceUID,
+            @PathVariable String frameList,
+            WebRequest request)
+    {
+        LOG.info("WADO-RS Frames request: Study={}, Series={}, Instance={}, Frames={}",
+                studyUID, seriesUID, instanceUID, frameList);
+
+        int[] frameNumbers = parseFrameList(frameList);
+        if (frameNumbers == null)
+        {
+            LOG.warn("Invalid frame list: {}", frameList);
+            return ResponseEntity.badRequest().build();
+        }
+
+        InstanceEty instance = validateAndRetrieveInstance(studyUID, seriesUID, instanceUID);
+        if (instance == null)
+        {
+            return ResponseEntity.notFound().build();
+        }
+
+        if (notModified(request, instance))
+        {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                    .build();
+        }
+
+        FrameIndex frameIndex = bulkDataService.getFrameIndex(instance);
+        if (frameIndex == null)
+        {
+            LOG.warn("Frames of instance {} are not indexed", instanceUID);
+            return ResponseEntity.notFound().build();
+        }
+
+        List<List<BulkDataFile.Region>> frames = new ArrayList<>(frameNumbers.length);
+        for (int frameNumber : frameNumbers)
+        {
+            if (frameNumber > frameIndex.frames())
+            {
+                LOG.warn("Instance {} has no frame {}, it has {} frames", instanceUID, frameNumber, frameIndex.frames());
+                return ResponseEntity.notFound().build();
+            }
+
+            frames.add(fragments(frameIndex, frameNumber - 1));
+        }
+
+        try
+        {
+            // The only stat of the file, it also verifies that the index is still valid
+            BulkDataFile pixelData = bulkDataService.getBulkData(instance);
+            MultipartBody multipart = MultipartBody.related(pixelData, frames,
+                    MediaType.APPLICATION_OCTET_STREAM_VALUE, contentType(instance));
+
+            LOG.debug("Serving {} frames of instance {}", frames.size(), instanceUID);
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_TYPE, multipart.contentType())
+                    .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(multipart.contentLength()))
+                    .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                    .body(multipart::writeTo);
+        }
+        catch (IOException e)
+        {
+            LOG.error("Error reading frames of instance {}: {}", instanceUID, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Returns the fragments of a frame, the values of their items without the item headers.
+     */
+    private static List<BulkDataFile.Region> fragments(FrameIndex frameIndex, int frame)
+    {
+        List<BulkDataFile.Region> fragments = new ArrayList<>();
+        for (int fragment = frameIndex.firstFragment(frame); fragment < frameIndex.endFragment(frame); fragment++)
+        {
+            fragments.add(new BulkDataFile.Region(frameIndex.offset(fragment), frameIndex.length(fragment)));
+        }
+        return fragments;
+    }
+
+    /**
+     * Builds the body of all frames of encapsulated Pixel Data, whose value contains the item
+     * headers and the Basic Offset Table.
+     *
+     * @return the body, or null if the frames of the instance are not indexed
+     */
+    private MultipartBody allFrames(InstanceEty instance, BulkDataFile pixelData)
+    {
+        FrameIndex frameIndex = bulkDataService.getFrameIndex(instance);
+        if (frameIndex == null)
+        {
+            LOG.warn("Frames of instance {} are not indexed, its encapsulated Pixel Data cannot be served",
+                    instance.getInstanceUID());
+            return null;
+        }
+
+        List<List<BulkDataFile.Region>> frames = new ArrayList<>(frameIndex.frames());
+        for (int frame = 0; frame < frameIndex.frames(); frame++)
+        {
+            frames.add(fragments(frameIndex, frame));
+        }
+        return MultipartBody.related(pixelData, frames, MediaType.APPLICATION_OCTET_STREAM_VALUE, contentType(instance));
+    }
+
+    /**
+     * Starts the response of all frames of encapsulated Pixel Data, which cannot be requested by range.
+     */
+    private static ResponseEntity.BodyBuilder framesResponse(MultipartBody frames)
+    {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, frames.contentType())
+                .header(HttpHeaders.ACCEPT_RANGES, "none")
+                .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE);
+    }
+
+    /**
+     * Checks whether the indexed Pixel Data of an instance is encapsulated.
+     */
+    static boolean isEncapsulated(InstanceEty instance)
+    {
+        return instance.hasPixelData() && instance.getTransferSyntaxUID() != null
+                && !DcmTranscoder.isNative(instance.getTransferSyntaxUID());
+    }
+
+    /**
+     * Parses a frame list of PS3.18, comma separated frame numbers starting at 1.
+     *
+     * @return the frame numbers, or null if the list is invalid
+     */
+    static int[] parseFrameList(String frameList)
+    {
+        String[] numbers = frameList.split(",");
+        int[] frameNumbers = new int[numbers.length];
+        for (int i = 0; i < numbers.length; i++)
+        {
+            try
+            {
+                frameNumbers[i] = Integer.parseInt(numbers[i].trim());
+            }
+            catch (NumberFormatException e)
+            {
+                return null;
+            }
+
+            if (frameNumbers[i] < 1)
+            {
+                return null;
+            }
+        }
+        return frameNumbers;
+    }
+
     /**
      * Validates and retrieves a DICOM instance, ensuring it belongs to the specified study and series.
      *
@@ -203,26 +459,61 @@ public class DicomWebBulkDataController
         return instance;
     }
 
+    /**
+     * Evaluates the conditional headers of a request against the instance, before its file is
+     * touched. Sets {@code ETag} and {@code Last-Modified} on the response and, if the client's
+     * copy is current, the status 304. The series stamp is used as Last-Modified, it is never
+     * earlier than the time the instance was archived.
+     *
+     * @return true if the client's copy is current
+     */
+    private static boolean notModified(WebRequest request, InstanceEty instance)
+    {
+        Instant lastModified = instance.getSeries().getLastModified();
+        return request.checkNotModified(etag(instance), lastModified != null ? lastModified.toEpochMilli() : -1);
+    }
+
+    /**
+     * Builds the strong ETag of an instance from its database id.
+     */
+    static String etag(InstanceEty instance)
+    {
+        return "\"" + instance.getId() + "\"";
+    }
+
+    /**
+     * Returns the media type of the bulk data of an instance. Pixel Data is labeled with its
+     * transfer syntax (PS3.18 Section 8.7.3.5), a whole file is plain octets.
+     */
+    static String contentType(InstanceEty instance)
+    {
+        if (instance.hasPixelData() && instance.getTransferSyntaxUID() != null)
+        {
+            return MediaType.APPLICATION_OCTET_STREAM_VALUE + "; transfer-syntax=" + instance.getTransferSyntaxUID();
+        }
+        return MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+
     /**
      * Handles a full file request (no range header).
      *
      * @param instance the DICOM instance
-     * @param fileSize the size of the file
+     * @param file the file of the instance
+     * @param request the request, checked for sendfile support
      * @return ResponseEntity with the full file content
-     * @throws IOException if file cannot be read
      */
-    private ResponseEntity<Resource> handleFullRequest(InstanceEty instance, long fileSize)
-            throws IOException
+    private ResponseEntity<StreamingResponseBody> handleFullRequest(InstanceEty instance, BulkDataFile file,
+                                                                    WebRequest request)
     {
         LOG.debug("Serving full file for instance {}", instance.getInstanceUID());
 
-        Resource resource = bulkDataService.getFullFile(instance.getPath());
-
-        return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, contentType(instance))
                 .header(HttpHeaders.ACCEPT_RANGES, "bytes")
-                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(fileSize))
-                .body(resource);
+                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(file.size()))
+                .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE);
+
+        return body(response, file, 0, file.size(), request);
     }
 
     /**
@@ -230,18 +521,19 @@ public class DicomWebBulkDataController
      *
      * @param instance the DICOM instance
      * @param rangeHeader the Range header value
-     * @param fileSize the size of the file
+     * @param file the file of the instance
+     * @param request the request, checked for sendfile support
      * @return ResponseEntity with the requested range content
-     * @throws IOException if file cannot be read
      */
-    private ResponseEntity<Resource> handleRangeRequest(
+    private ResponseEntity<StreamingResponseBody> handleRangeRequest(
             InstanceEty instance,
             String rangeHeader,
-            long fileSize)
-            throws IOException
+            BulkDataFile file,
+            WebRequest request)
     {
         LOG.debug("Processing range request for instance {}: {}", instance.getInstanceUID(), rangeHeader);
 
+        long fileSize = file.size();
         try
         {
             // Parse range header
@@ -255,41 +547,36 @@ public class DicomWebBulkDataController
                         .build();
             }
 
-            // Only support single range requests (as per DICOM WADO-RS spec)
-            if (ranges.size() > 1)
+            List<BulkDataFile.Region> regions = MultipartBody.coalesce(ranges, fileSize);
+            if (regions.isEmpty())
             {
-                LOG.warn("Multiple ranges not supported. Requested: {}", ranges.size());
+                LOG.warn("No satisfiable range: {}, fileSize={}", rangeHeader, fileSize);
                 return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
                         .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
                         .build();
             }
 
-            HttpRange range = ranges.get(0);
-            long start = range.getRangeStart(fileSize);
-            long end = range.getRangeEnd(fileSize);
-
-            // Validate range
-            if (start > end || end >= fileSize)
+            // Several ranges, one multipart/byteranges body with a part per coalesced range
+            if (regions.size() > 1)
             {
-                LOG.warn("Invalid range: start={}, end={}, fileSize={}", start, end, fileSize);
-                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
-                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
-                        .build();
+                return handleMultipleRanges(instance, file, regions);
             }
 
+            long start = regions.get(0).position();
+            long end = regions.get(0).end() - 1;
             long contentLength = end - start + 1;
 
             LOG.debug("Serving range for instance {}: bytes {}-{}/{}",
                     instance.getInstanceUID(), start, end, fileSize);
 
-            Resource resource = bulkDataService.getFileRange(instance.getPath(), start, end);
-
-            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                    .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE)
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .header(HttpHeaders.CONTENT_TYPE, contentType(instance))
                     .header(HttpHeaders.ACCEPT_RANGES, "bytes")
                     .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize)
                     .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(contentLength))
-                    .body(resource);
+                    .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE);
+
+            return body(response, file, start, contentLength, request);
         }
         catch (IllegalArgumentException e)
         {
@@ -299,5 +586,62 @@ public class DicomWebBulkDataController
                     .build();
         }
     }
-}
 
+    /**
+     * Handles a range request with several ranges, answered with a {@code multipart/byteranges}
+     * body. The parts are always streamed, sendfile covers only a single region.
+     *
+     * @param instance the DICOM instance
+     * @param file the file of the instance
+     * @param regions the coalesced ranges, at least two
+     * @return ResponseEntity with the multipart body
+     */
+    private ResponseEntity<StreamingResponseBody> handleMultipleRanges(
+            InstanceEty instance,
+            BulkDataFile file,
+            List<BulkDataFile.Region> regions)
+    {
+        MultipartBody multipart = MultipartBody.byteRanges(file, regions, contentType(instance));
+
+        LOG.debug("Serving {} ranges for instance {}", regions.size(), instance.getInstanceUID());
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .header(HttpHeaders.CONTENT_TYPE, multipart.contentType())
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_LENGTH, String.valueOf(multipart.contentLength()))
+                .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                .body(multipart::writeTo);
+    }
+
+    /**
+     * Completes a response with a region of the file. If the servlet container supports sendfile
+     * (Tomcat without TLS), it sends the region itself after the headers and the body stays empty;
+     * otherwise, or if the content is cached in memory, the region is copied with
+     * {@link BulkDataFile#transferTo} while the response is streamed.
+     *
+     * @param response the response with status and headers
+     * @param file the file
+     * @param position the first byte of the region
+     * @param count the number of bytes of the region
+     * @param request the request, checked for sendfile support
+     * @return the response
+     */
+    static ResponseEntity<StreamingResponseBody> body(ResponseEntity.BodyBuilder response, BulkDataFile file,
+                                                      long position, long count, WebRequest request)
+    {
+        HttpServletRequest servletRequest = request instanceof NativeWebRequest nativeRequest
+                ? nativeRequest.getNativeRequest(HttpServletRequest.class)
+                : null;
+
+        if (!file.isCached() && servletRequest != null
+                && Boolean.TRUE.equals(servletRequest.getAttribute(SENDFILE_SUPPORT)))
+        {
+            servletRequest.setAttribute(SENDFILE_FILENAME, file.path().toString());
+            servletRequest.setAttribute(SENDFILE_START, file.offset() + position);
+            servletRequest.setAttribute(SENDFILE_END, file.offset() + position + count);
+            return response.build();
+        }
+
+        return response.body(out -> file.transferTo(position, count, out));
+    }
+}
@@ -0,0 +1,160 @@
+package de.famst.controller;
+
+import de.famst.service.SeriesMetadataService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * DICOM WADO-RS Metadata Controller.
+ *
+ * <p>Supported endpoints:
+ * <ul>
+ *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID}/metadata - Retrieve the metadata of all instances of a series</li>
+ * </ul>
+ *
+ * <p>The metadata is a DICOM JSON array with the header of every instance of the series, as
+ * defined in PS3.18 Section 10.4. It is not assembled per request but precomputed by the
+ * {@link SeriesMetadataService} and stored gzip compressed. Clients accepting gzip receive the
+ * stored bytes unchanged with {@code Content-Encoding: gzip}, all others a stream decompressed
+ * on the fly. A viewer opening a series thus needs a single request instead of one per instance.
+ *
+ * <p>The ETag and Last-Modified headers follow the modification stamp of the series, so
+ * conditional requests are answered with 304 Not Modified before the document is looked at. The
+ * ETag of the gzip encoded response carries a {@code -gzip} suffix, as its bytes differ from
+ * the decoded response.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@RestController
+@RequestMapping("/wado-rs")
+public class DicomWebMetadataController
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DicomWebMetadataController.class);
+
+    private static final String GZIP = "gzip";
+
+    private final SeriesMetadataService metadataService;
+
+    /**
+     * Constructs a new DicomWebMetadataController.
+     *
+     * @param metadataService the service maintaining the metadata documents
+     */
+    public DicomWebMetadataController(SeriesMetadataService metadataService)
+    {
+        this.metadataService = metadataService;
+    }
+
+    /**
+     * Retrieves the metadata of all instances of a series.
+     *
+     * @param studyUID the Study Instance UID
+     * @param seriesUID the Series Instance UID
+     * @param acceptEncoding the HTTP Accept-Encoding header value (optional)
+     * @param request the request, evaluated for conditional headers
+     * @return DICOM JSON array of the instance headers, 304 Not Modified or 404 if the series does not exist
+     */
+    @GetMapping(value = "/studies/{studyUID}/series/{seriesUID}/metadata",
+            produces = {DicomWebQidoController.DICOM_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<Resource> getSeriesMetadata(
+            @PathVariable String studyUID,
+            @PathVariable String seriesUID,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+            WebRequest request)
+    {
+        LOG.info("WADO-RS Metadata request: Study={}, Series={}", studyUID, seriesUID);
+
+        Instant lastModified = metadataService.getLastModified(studyUID, seriesUID);
+        if (lastModified == null)
+        {
+            LOG.warn("Series {} not found in study {}", seriesUID, studyUID);
+            return ResponseEntity.notFound().build();
+        }
+
+        boolean gzip = acceptsGzip(acceptEncoding);
+        if (request.checkNotModified(etag(lastModified, gzip), lastModified.toEpochMilli()))
+        {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        try
+        {
+            Path document = metadataService.getDocument(studyUID, seriesUID, lastModified);
+
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(DicomWebQidoController.DICOM_JSON)
+                    .cacheControl(CacheControl.noCache().cachePrivate())
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+            if (gzip)
+            {
+                return response
+                        .header(HttpHeaders.CONTENT_ENCODING, GZIP)
+                        .body(new FileSystemResource(document));
+            }
+
+            return response.body(new InputStreamResource(new GZIPInputStream(Files.newInputStream(document))));
+        }
+        catch (IOException e)
+        {
+            LOG.error("Error providing metadata of series {}: {}", seriesUID, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Builds the strong ETag of the metadata of a series from its modification stamp. The gzip
+     * encoded document has different bytes than the decoded one and gets its own ETag.
+     */
+    static String etag(Instant lastModified, boolean gzip)
+    {
+        return String.format("\"%x.%x%s\"", lastModified.getEpochSecond(), lastModified.getNano(),
+                gzip ? "-" + GZIP : "");
+    }
+
+    /**
+     * Checks whether an Accept-Encoding header allows gzip, ignoring all weights but q=0.
+     */
+    static boolean acceptsGzip(String acceptEncoding)
+    {
+        if (acceptEncoding == null)
+        {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(","))
+        {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if ((GZIP.equalsIgnoreCase(name) || "*".equals(name))
+                    && !(parts.length > 1 && parts[1].replace(" ", "").matches("q=0(\\.0*)?")))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
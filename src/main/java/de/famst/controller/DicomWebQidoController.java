@@ -1,27 +1,51 @@
 package de.famst.controller;
 
-import de.famst.data.InstanceEty;
-import de.famst.data.PatientEty;
-import de.famst.data.SeriesEty;
-import de.famst.data.StudyEty;
+import de.famst.data.InstanceRecord;
+import de.famst.data.QueryOptions;
+import de.famst.data.SeriesRecord;
+import de.famst.data.SqlOperation;
+import de.famst.data.SqlStatementCounter;
+import de.famst.data.StudyRecord;
+import de.famst.dcm.DcmMatchBuilder;
+import de.famst.dcm.DcmQueryExecutor;
+import de.famst.dcm.MatchField;
 import de.famst.dcm.PatientStudyFinder;
+import de.famst.dcm.ProjectionPlan;
+import de.famst.dcm.QueryCancellation;
+import de.famst.dcm.QueryGuard;
+import de.famst.dcm.QueryRefusedException;
+import de.famst.dcm.QueryResultCache;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
 import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.json.JSONWriter;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.dcm4che3.util.TagUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.time.Instant;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
 
 /**
  * DICOM QIDO-RS (Query based on ID for DICOM Objects) Controller.
@@ -37,19 +61,51 @@ import java.util.Map;
  *   <li>GET /qido-rs/studies - Search for studies</li>
  *   <li>GET /qido-rs/studies/{study}/series - Search for series in a study</li>
  *   <li>GET /qido-rs/studies/{study}/series/{series}/instances - Search for instances in a series</li>
+ *   <li>GET /qido-rs/series - Search for series in all studies</li>
+ *   <li>GET /qido-rs/instances - Search for instances in all series</li>
  * </ul>
  *
  * <p>Supported query parameters (matching C-FIND SCP fields):
  * <ul>
- *   <li>Studies: PatientID, PatientName, PatientBirthDate, PatientSex, StudyInstanceUID, StudyID,
+ *   <li>Studies: PatientID, PatientName, PatientBirthDate, PatientSex, PatientComments, StudyInstanceUID, StudyID,
  *       StudyDate, StudyDescription, AccessionNumber, ModalitiesInStudy, ReferringPhysicianName</li>
  *   <li>Series: SeriesInstanceUID, Modality, SeriesNumber, SeriesDescription,
  *       SeriesDate, PerformingPhysicianName, BodyPartExamined</li>
  *   <li>Instances: SOPInstanceUID, InstanceNumber, ContentDate, AcquisitionNumber,
- *       AcquisitionDate, ImageType, Rows, Columns</li>
+ *       AcquisitionDate, ImageType, ImageComments, Rows, Columns</li>
  * </ul>
  *
- * <p>Returns: JSON array of matching DICOM objects
+ * <p>The root level series and instance searches also accept the keys of the levels above,
+ * e.g. all CT series of a patient in a date range. They are matched in the same SQL statement
+ * through joins, not by querying each study on its own. Date keys accept single dates and
+ * ranges ({@code 20240101-20241231}, {@code 20240101-}, {@code -20241231}).
+ *
+ * <p>All endpoints support the QIDO-RS query parameters {@code limit}, {@code offset},
+ * {@code includefield} and {@code fuzzymatching}. With {@code fuzzymatching=true} person names
+ * match case- and diacritics-insensitively at the start of the family or given name, and the free text keys
+ * PatientComments, StudyDescription, SeriesDescription and ImageComments are word queries
+ * answered from the text index, e.g. {@code StudyDescription=contrast follow*}. Paging is done by the database; if more
+ * matches exist after the returned window, the response carries a {@code Warning} header.
+ * Without {@code includefield} only the default attributes of the level and the matching keys
+ * are returned, and the columns of the other attributes are not read.
+ *
+ * <p>The window is also bounded by the {@link QueryGuard} maximum of the level and the client's
+ * remote address. A search matching more is truncated with the same {@code Warning} header, or
+ * refused with 413 Payload Too Large, before any match is read. The probe and the cursor over the
+ * matches run in read-only transactions bounded by {@code mupacs.qido.query.timeout} seconds, like
+ * C-FIND queries, see {@link DcmQueryExecutor}; time spent writing matches to the client does not
+ * count.
+ *
+ * <p>Returns: DICOM JSON array of matching DICOM objects, with the VR of every attribute.
+ * The array is written incrementally while the matches are read from the database.
+ *
+ * <p>Responses carry a strong {@code ETag} and a {@code Last-Modified} header derived from the
+ * modification stamp of the queried scope: the archive for studies and the root level searches,
+ * the study for its series and the series for its instances. {@code If-None-Match} and {@code If-Modified-Since} are
+ * evaluated against the stamp before the query runs, and answered with 304 Not Modified if the
+ * client's copy is still current.
+ *
+ * <p>Query results are shared with the C-FIND SCP through the {@link QueryResultCache}.
  *
  * @author jens
  * @since 2026-04-24
@@ -60,18 +116,79 @@ public class DicomWebQidoController
 {
     private static final Logger LOG = LoggerFactory.getLogger(DicomWebQidoController.class);
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
-    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HHmmss");
+
+    static final String DICOM_JSON_VALUE = "application/dicom+json";
+    static final MediaType DICOM_JSON = MediaType.parseMediaType(DICOM_JSON_VALUE);
+
+    static final String WARNING = "Warning";
+    static final String TRUNCATED_WARNING = "299 MuPACS: \"The number of results exceeded the maximum supported "
+            + "by the server. Additional results can be requested.\"";
+
+    private static final String INCLUDE_ALL = "all";
+
+    /**
+     * Attributes returned for every study match, see PS3.18 Table 10.6.3-3.
+     */
+    private static final Set<Integer> STUDY_DEFAULTS = Set.of(
+            Tag.StudyDate, Tag.StudyTime, Tag.AccessionNumber, Tag.ModalitiesInStudy, Tag.ReferringPhysicianName,
+            Tag.PatientName, Tag.PatientID, Tag.PatientBirthDate, Tag.PatientSex,
+            Tag.StudyInstanceUID, Tag.StudyID);
+
+    /**
+     * Attributes returned for every series match, see PS3.18 Table 10.6.3-4.
+     */
+    private static final Set<Integer> SERIES_DEFAULTS = Set.of(
+            Tag.StudyInstanceUID, Tag.SeriesInstanceUID, Tag.Modality, Tag.SeriesDescription, Tag.SeriesNumber);
+
+    /**
+     * Attributes returned for every instance match, see PS3.18 Table 10.6.3-5.
+     */
+    private static final Set<Integer> INSTANCE_DEFAULTS = Set.of(
+            Tag.SeriesInstanceUID, Tag.SOPInstanceUID, Tag.InstanceNumber,
+            Tag.Rows, Tag.Columns, Tag.BitsAllocated);
+
+    /**
+     * Matching keys of the root level searches, by level.
+     */
+    private static final Set<Integer> PATIENT_KEYS = Set.of(
+            Tag.PatientID, Tag.PatientName, Tag.PatientBirthDate, Tag.PatientSex, Tag.PatientComments);
+
+    private static final Set<Integer> STUDY_KEYS = Set.of(
+            Tag.StudyInstanceUID, Tag.StudyID, Tag.StudyDate, Tag.StudyDescription, Tag.AccessionNumber,
+            Tag.ModalitiesInStudy, Tag.ReferringPhysicianName);
+
+    private static final Set<Integer> SERIES_KEYS = Set.of(
+            Tag.SeriesInstanceUID, Tag.Modality, Tag.SeriesNumber, Tag.SeriesDescription, Tag.SeriesDate,
+            Tag.PerformingPhysicianName, Tag.BodyPartExamined);
+
+    private static final Set<Integer> INSTANCE_KEYS = Set.of(
+            Tag.SOPInstanceUID, Tag.InstanceNumber, Tag.ContentDate, Tag.AcquisitionNumber, Tag.AcquisitionDate,
+            Tag.ImageType, Tag.ImageComments, Tag.Rows, Tag.Columns);
 
     private final PatientStudyFinder patientStudyFinder;
+    private final QueryResultCache queryResultCache;
+    private final QueryGuard queryGuard;
+    private final DcmQueryExecutor queryExecutor;
+    private final int maxResults;
 
     /**
      * Constructs a new DicomWebQidoController.
      *
      * @param patientStudyFinder the finder service for querying DICOM data
+     * @param queryResultCache the cache of query results shared with the C-FIND SCP
+     * @param queryGuard the maximum matches and timeouts of queries shared with the C-FIND SCP
+     * @param queryExecutor runs the database work of a search in a timed read-only transaction
+     * @param maxResults the maximum number of matches of a response, 0 for no maximum
      */
-    public DicomWebQidoController(PatientStudyFinder patientStudyFinder)
+    public DicomWebQidoController(PatientStudyFinder patientStudyFinder, QueryResultCache queryResultCache,
+                                  QueryGuard queryGuard, DcmQueryExecutor queryExecutor,
+                                  @Value("${mupacs.qido.max-results:0}") int maxResults)
     {
         this.patientStudyFinder = patientStudyFinder;
+        this.queryResultCache = queryResultCache;
+        this.queryGuard = queryGuard;
+        this.queryExecutor = queryExecutor;
+        this.maxResults = maxResults;
     }
 
     /**
@@ -81,6 +198,7 @@ public class DicomWebQidoController
      * @param patientName Patient Name (supports wildcards * and ?)
      * @param patientBirthDate Patient Birth Date (YYYYMMDD format)
      * @param patientSex Patient Sex (M, F, O)
+     * @param patientComments Patient Comments (words with fuzzy matching)
      * @param studyInstanceUID Study Instance UID
      * @param studyID Study ID
      * @param studyDate Study Date (YYYYMMDD format)
@@ -88,21 +206,32 @@ public class DicomWebQidoController
      * @param accessionNumber Accession Number
      * @param modalitiesInStudy Modalities in Study
      * @param referringPhysicianName Referring Physician Name (supports wildcards)
-     * @return JSON array of matching studies
+     * @param limit maximum number of matches to return
+     * @param offset number of matches to skip
+     * @param includefield additional attributes to return (keywords or tags), or "all"
+     * @param fuzzymatching whether person names are matched fuzzily
+     * @param request the request, evaluated for conditional headers
+     * @return DICOM JSON array of matching studies, streamed while the query is running, or 304 Not Modified
      */
-    @GetMapping(value = "/studies", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Map<String, Object>>> searchStudies(
+    @GetMapping(value = "/studies", produces = {DICOM_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> searchStudies(
             @RequestParam(value = "PatientID", required = false) String patientID,
             @RequestParam(value = "PatientName", required = false) String patientName,
             @RequestParam(value = "PatientBirthDate", required = false) String patientBirthDate,
             @RequestParam(value = "PatientSex", required = false) String patientSex,
+            @RequestParam(value = "PatientComments", required = false) String patientComments,
             @RequestParam(value = "StudyInstanceUID", required = false) String studyInstanceUID,
             @RequestParam(value = "StudyID", required = false) String studyID,
             @RequestParam(value = "StudyDate", required = false) String studyDate,
             @RequestParam(value = "StudyDescription", required = false) String studyDescription,
             @RequestParam(value = "AccessionNumber", required = false) String accessionNumber,
             @RequestParam(value = "ModalitiesInStudy", required = false) String modalitiesInStudy,
-            @RequestParam(value = "ReferringPhysicianName", required = false) String referringPhysicianName)
+            @RequestParam(value = "ReferringPhysicianName", required = false) String referringPhysicianName,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "includefield", required = false) List<String> includefield,
+            @RequestParam(value = "fuzzymatching", required = false, defaultValue = "false") boolean fuzzymatching,
+            WebRequest request)
     {
         LOG.info("QIDO-RS Studies query: PatientID={}, PatientName={}, StudyInstanceUID={}, StudyDate={}",
                 patientID, patientName, studyInstanceUID, studyDate);
@@ -115,6 +244,7 @@ public class DicomWebQidoController
             addStringAttribute(keys, Tag.PatientName, patientName);
             addDateAttribute(keys, Tag.PatientBirthDate, patientBirthDate);
             addStringAttribute(keys, Tag.PatientSex, patientSex);
+            addStringAttribute(keys, Tag.PatientComments, patientComments);
             addStringAttribute(keys, Tag.StudyInstanceUID, studyInstanceUID);
             addStringAttribute(keys, Tag.StudyID, studyID);
             addDateAttribute(keys, Tag.StudyDate, studyDate);
@@ -123,18 +253,28 @@ public class DicomWebQidoController
             addStringAttribute(keys, Tag.ModalitiesInStudy, modalitiesInStudy);
             addStringAttribute(keys, Tag.ReferringPhysicianName, referringPhysicianName);
 
-            // Query for studies
-            List<StudyEty> studies = patientStudyFinder.findStudies(keys);
-
-            // Convert to JSON-compatible maps
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (StudyEty study : studies)
+            ProjectionPlan<StudyRecord> projection = projection(DcmMatchBuilder.STUDY_FIELDS, STUDY_DEFAULTS, keys, includefield);
+            QueryOptions options = queryOptions(QueryRetrieveLevel2.STUDY, request, limit, offset, fuzzymatching, projection);
+            String variant = variant(options, projection);
+            if (notModified(request, patientStudyFinder.findLastModified(), variant))
             {
-                result.add(studyToJson(study));
+                return null;
             }
 
-            LOG.info("QIDO-RS Studies query returned {} results", studies.size());
-            return ResponseEntity.ok(result);
+            boolean truncated = exceedsWindow(QueryRetrieveLevel2.STUDY, request, options,
+                    () -> patientStudyFinder.hasMoreStudyMatches(keys, options));
+
+            return streamMatches("Studies", QueryRetrieveLevel2.STUDY, keys, variant, truncated,
+                    (k, sink) -> patientStudyFinder.streamStudyMatches(k, options, projection, sink));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOG.warn("Invalid QIDO-RS Studies query: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        catch (QueryRefusedException e)
+        {
+            return refused(e);
         }
         catch (Exception e)
         {
@@ -154,10 +294,15 @@ public class DicomWebQidoController
      * @param seriesDate Series Date (YYYYMMDD format)
      * @param performingPhysicianName Performing Physician Name (supports wildcards)
      * @param bodyPartExamined Body Part Examined (supports wildcards)
-     * @return JSON array of matching series
+     * @param limit maximum number of matches to return
+     * @param offset number of matches to skip
+     * @param includefield additional attributes to return (keywords or tags), or "all"
+     * @param fuzzymatching whether person names are matched fuzzily
+     * @param request the request, evaluated for conditional headers
+     * @return DICOM JSON array of matching series, streamed while the query is running, or 304 Not Modified
      */
-    @GetMapping(value = "/studies/{study}/series", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Map<String, Object>>> searchSeries(
+    @GetMapping(value = "/studies/{study}/series", produces = {DICOM_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> searchSeries(
             @org.springframework.web.bind.annotation.PathVariable("study") String studyInstanceUID,
             @RequestParam(value = "SeriesInstanceUID", required = false) String seriesInstanceUID,
             @RequestParam(value = "Modality", required = false) String modality,
@@ -165,7 +310,12 @@ public class DicomWebQidoController
             @RequestParam(value = "SeriesDescription", required = false) String seriesDescription,
             @RequestParam(value = "SeriesDate", required = false) String seriesDate,
             @RequestParam(value = "PerformingPhysicianName", required = false) String performingPhysicianName,
-            @RequestParam(value = "BodyPartExamined", required = false) String bodyPartExamined)
+            @RequestParam(value = "BodyPartExamined", required = false) String bodyPartExamined,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "includefield", required = false) List<String> includefield,
+            @RequestParam(value = "fuzzymatching", required = false, defaultValue = "false") boolean fuzzymatching,
+            WebRequest request)
     {
         LOG.info("QIDO-RS Series query: StudyInstanceUID={}, SeriesInstanceUID={}, Modality={}",
                 studyInstanceUID, seriesInstanceUID, modality);
@@ -186,18 +336,28 @@ public class DicomWebQidoController
             addStringAttribute(keys, Tag.PerformingPhysicianName, performingPhysicianName);
             addStringAttribute(keys, Tag.BodyPartExamined, bodyPartExamined);
 
-            // Query for series
-            List<SeriesEty> series = patientStudyFinder.findSeries(keys);
-
-            // Convert to JSON-compatible maps
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (SeriesEty s : series)
+            ProjectionPlan<SeriesRecord> projection = projection(DcmMatchBuilder.SERIES_FIELDS, SERIES_DEFAULTS, keys, includefield);
+            QueryOptions options = queryOptions(QueryRetrieveLevel2.SERIES, request, limit, offset, fuzzymatching, projection);
+            String variant = variant(options, projection);
+            if (notModified(request, patientStudyFinder.findStudyLastModified(studyInstanceUID), variant))
             {
-                result.add(seriesToJson(s));
+                return null;
             }
 
-            LOG.info("QIDO-RS Series query returned {} results", series.size());
-            return ResponseEntity.ok(result);
+            boolean truncated = exceedsWindow(QueryRetrieveLevel2.SERIES, request, options,
+                    () -> patientStudyFinder.hasMoreSeriesMatches(keys, options));
+
+            return streamMatches("Series", QueryRetrieveLevel2.SERIES, keys, variant, truncated,
+                    (k, sink) -> patientStudyFinder.streamSeriesMatches(k, options, projection, sink));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOG.warn("Invalid QIDO-RS Series query: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        catch (QueryRefusedException e)
+        {
+            return refused(e);
         }
         catch (Exception e)
         {
@@ -217,12 +377,18 @@ public class DicomWebQidoController
      * @param acquisitionNumber Acquisition Number
      * @param acquisitionDate Acquisition Date (YYYYMMDD format)
      * @param imageType Image Type
+     * @param imageComments Image Comments (words with fuzzy matching)
      * @param rows Image Rows
      * @param columns Image Columns
-     * @return JSON array of matching instances
+     * @param limit maximum number of matches to return
+     * @param offset number of matches to skip
+     * @param includefield additional attributes to return (keywords or tags), or "all"
+     * @param fuzzymatching whether person names are matched fuzzily
+     * @param request the request, evaluated for conditional headers
+     * @return DICOM JSON array of matching instances, streamed while the query is running, or 304 Not Modified
      */
-    @GetMapping(value = "/studies/{study}/series/{series}/instances", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity<List<Map<String, Object>>> searchInstances(
+    @GetMapping(value = "/studies/{study}/series/{series}/instances", produces = {DICOM_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> searchInstances(
             @org.springframework.web.bind.annotation.PathVariable("study") String studyInstanceUID,
             @org.springframework.web.bind.annotation.PathVariable("series") String seriesInstanceUID,
             @RequestParam(value = "SOPInstanceUID", required = false) String sopInstanceUID,
@@ -231,16 +397,23 @@ public class DicomWebQidoController
             @RequestParam(value = "AcquisitionNumber", required = false) Integer acquisitionNumber,
             @RequestParam(value = "AcquisitionDate", required = false) String acquisitionDate,
             @RequestParam(value = "ImageType", required = false) String imageType,
+            @RequestParam(value = "ImageComments", required = false) String imageComments,
             @RequestParam(value = "Rows", required = false) Integer rows,
-            @RequestParam(value = "Columns", required = false) Integer columns)
+            @RequestParam(value = "Columns", required = false) Integer columns,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "includefield", required = false) List<String> includefield,
+            @RequestParam(value = "fuzzymatching", required = false, defaultValue = "false") boolean fuzzymatching,
+            WebRequest request)
     {
-        LOG.info("QIDO-RS Instances query: SeriesInstanceUID={}, SOPInstanceUID={}, InstanceNumber={}",
-                seriesInstanceUID, sopInstanceUID, instanceNumber);
+        LOG.info("QIDO-RS Instances query: StudyInstanceUID={}, SeriesInstanceUID={}, SOPInstanceUID={}, InstanceNumber={}",
+                studyInstanceUID, seriesInstanceUID, sopInstanceUID, instanceNumber);
 
         try
         {
             // Build DICOM attributes from query parameters
             Attributes keys = new Attributes();
+            addStringAttribute(keys, Tag.StudyInstanceUID, studyInstanceUID);
             addStringAttribute(keys, Tag.SeriesInstanceUID, seriesInstanceUID);
             addStringAttribute(keys, Tag.SOPInstanceUID, sopInstanceUID);
             if (instanceNumber != null)
@@ -254,6 +427,7 @@ public class DicomWebQidoController
             }
             addDateAttribute(keys, Tag.AcquisitionDate, acquisitionDate);
             addStringAttribute(keys, Tag.ImageType, imageType);
+            addStringAttribute(keys, Tag.ImageComments, imageComments);
             if (rows != null)
             {
                 keys.setInt(Tag.Rows, org.dcm4che3.data.VR.US, rows);
@@ -263,18 +437,140 @@ public class DicomWebQidoController
                 keys.setInt(Tag.Columns, org.dcm4che3.data.VR.US, columns);
             }
 
-            // Query for instances
-            List<InstanceEty> instances = patientStudyFinder.findInstances(keys);
+            ProjectionPlan<InstanceRecord> projection = projection(DcmMatchBuilder.INSTANCE_FIELDS, INSTANCE_DEFAULTS, keys, includefield);
+            QueryOptions options = queryOptions(QueryRetrieveLevel2.IMAGE, request, limit, offset, fuzzymatching, projection);
+            String variant = variant(options, projection);
+            if (notModified(request, patientStudyFinder.findSeriesLastModified(seriesInstanceUID), variant))
+            {
+                return null;
+            }
+
+            boolean truncated = exceedsWindow(QueryRetrieveLevel2.IMAGE, request, options,
+                    () -> patientStudyFinder.hasMoreInstanceMatches(keys, options));
+
+            return streamMatches("Instances", QueryRetrieveLevel2.IMAGE, keys, variant, truncated,
+                    (k, sink) -> patientStudyFinder.streamInstanceMatches(k, options, projection, sink));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOG.warn("Invalid QIDO-RS Instances query: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        catch (QueryRefusedException e)
+        {
+            return refused(e);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error processing QIDO-RS Instances query", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Search for DICOM series in all studies.
+     *
+     * @param params the query parameters; patient, study and series keys by keyword or tag
+     * @param limit maximum number of matches to return
+     * @param offset number of matches to skip
+     * @param includefield additional attributes to return (keywords or tags), or "all"
+     * @param fuzzymatching whether person names are matched fuzzily
+     * @param request the request, evaluated for conditional headers
+     * @return DICOM JSON array of matching series, streamed while the query is running, or 304 Not Modified
+     */
+    @GetMapping(value = "/series", produces = {DICOM_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> searchAllSeries(
+            @RequestParam MultiValueMap<String, String> params,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "includefield", required = false) List<String> includefield,
+            @RequestParam(value = "fuzzymatching", required = false, defaultValue = "false") boolean fuzzymatching,
+            WebRequest request)
+    {
+        LOG.info("QIDO-RS Series query: {}", params);
+
+        try
+        {
+            Attributes keys = matchingKeys(params, List.of(PATIENT_KEYS, STUDY_KEYS, SERIES_KEYS));
+
+            ProjectionPlan<SeriesRecord> projection = projection(DcmMatchBuilder.SERIES_FIELDS, SERIES_DEFAULTS, keys, includefield);
+            QueryOptions options = queryOptions(QueryRetrieveLevel2.SERIES, request, limit, offset, fuzzymatching, projection);
+            String variant = variant(options, projection);
+            if (notModified(request, patientStudyFinder.findLastModified(), variant))
+            {
+                return null;
+            }
+
+            boolean truncated = exceedsWindow(QueryRetrieveLevel2.SERIES, request, options,
+                    () -> patientStudyFinder.hasMoreSeriesMatches(keys, options));
 
-            // Convert to JSON-compatible maps
-            List<Map<String, Object>> result = new ArrayList<>();
-            for (InstanceEty instance : instances)
+            return streamMatches("Series", QueryRetrieveLevel2.SERIES, keys, variant, truncated,
+                    (k, sink) -> patientStudyFinder.streamSeriesMatches(k, options, projection, sink));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOG.warn("Invalid QIDO-RS Series query: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        catch (QueryRefusedException e)
+        {
+            return refused(e);
+        }
+        catch (Exception e)
+        {
+            LOG.error("Error processing QIDO-RS Series query", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Search for DICOM instances in all series.
+     *
+     * @param params the query parameters; patient, study, series and instance keys by keyword or tag
+     * @param limit maximum number of matches to return
+     * @param offset number of matches to skip
+     * @param includefield additional attributes to return (keywords or tags), or "all"
+     * @param fuzzymatching whether person names are matched fuzzily
+     * @param request the request, evaluated for conditional headers
+     * @return DICOM JSON array of matching instances, streamed while the query is running, or 304 Not Modified
+     */
+    @GetMapping(value = "/instances", produces = {DICOM_JSON_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    public ResponseEntity<StreamingResponseBody> searchAllInstances(
+            @RequestParam MultiValueMap<String, String> params,
+            @RequestParam(value = "limit", required = false) Integer limit,
+            @RequestParam(value = "offset", required = false) Integer offset,
+            @RequestParam(value = "includefield", required = false) List<String> includefield,
+            @RequestParam(value = "fuzzymatching", required = false, defaultValue = "false") boolean fuzzymatching,
+            WebRequest request)
+    {
+        LOG.info("QIDO-RS Instances query: {}", params);
+
+        try
+        {
+            Attributes keys = matchingKeys(params, List.of(PATIENT_KEYS, STUDY_KEYS, SERIES_KEYS, INSTANCE_KEYS));
+
+            ProjectionPlan<InstanceRecord> projection = projection(DcmMatchBuilder.INSTANCE_FIELDS, INSTANCE_DEFAULTS, keys, includefield);
+            QueryOptions options = queryOptions(QueryRetrieveLevel2.IMAGE, request, limit, offset, fuzzymatching, projection);
+            String variant = variant(options, projection);
+            if (notModified(request, patientStudyFinder.findLastModified(), variant))
             {
-                result.add(instanceToJson(instance));
+                return null;
             }
 
-            LOG.info("QIDO-RS Instances query returned {} results", instances.size());
-            return ResponseEntity.ok(result);
+            boolean truncated = exceedsWindow(QueryRetrieveLevel2.IMAGE, request, options,
+                    () -> patientStudyFinder.hasMoreInstanceMatches(keys, options));
+
+            return streamMatches("Instances", QueryRetrieveLevel2.IMAGE, keys, variant, truncated,
+                    (k, sink) -> patientStudyFinder.streamInstanceMatches(k, options, projection, sink));
+        }
+        catch (IllegalArgumentException e)
+        {
+            LOG.warn("Invalid QIDO-RS Instances query: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        }
+        catch (QueryRefusedException e)
+        {
+            return refused(e);
         }
         catch (Exception e)
         {
@@ -283,6 +579,50 @@ public class DicomWebQidoController
         }
     }
 
+    /**
+     * Builds the matching keys of a root level search from its query parameters. Parameters
+     * naming an attribute, by keyword or tag, that is a matching key of one of the given levels
+     * are added with the VR of the attribute; all other parameters are left to the handler.
+     *
+     * @throws IllegalArgumentException if the value of a numeric key is not a number
+     */
+    private Attributes matchingKeys(MultiValueMap<String, String> params, List<Set<Integer>> levels)
+    {
+        Attributes keys = new Attributes();
+
+        params.forEach((name, values) ->
+        {
+            int tag = TagUtils.forName(name);
+            String value = values.get(0);
+            if (tag == -1 || value == null || value.isEmpty()
+                    || levels.stream().noneMatch(level -> level.contains(tag)))
+            {
+                return;
+            }
+
+            VR vr = ElementDictionary.vrOf(tag, null);
+            if (vr == VR.DA)
+            {
+                addDateAttribute(keys, tag, value);
+            }
+            else if (vr == VR.IS || vr == VR.US)
+            {
+                keys.setInt(tag, vr, Integer.parseInt(value.trim()));
+            }
+            else if (vr == VR.UI)
+            {
+                // list of UID matching, PS3.4 C.2.2.2.2
+                keys.setString(tag, VR.UI, value.split(","));
+            }
+            else
+            {
+                addStringAttribute(keys, tag, value);
+            }
+        });
+
+        return keys;
+    }
+
     /**
      * Adds a string attribute to DICOM keys if the value is not null.
      */
@@ -296,7 +636,7 @@ public class DicomWebQidoController
 
     /**
      * Adds a date attribute to DICOM keys if the value is not null.
-     * Expects date in YYYYMMDD format.
+     * Expects a date in YYYYMMDD format or a range of such dates, either bound may be omitted.
      */
     private void addDateAttribute(Attributes keys, int tag, String dateString)
     {
@@ -304,8 +644,19 @@ public class DicomWebQidoController
         {
             try
             {
-                java.time.LocalDate localDate = java.time.LocalDate.parse(dateString, DATE_FORMATTER);
-                keys.setDate(tag, org.dcm4che3.data.VR.DA, java.sql.Date.valueOf(localDate));
+                String[] bounds = dateString.split("-", -1);
+                if (bounds.length > 2 || bounds[0].isEmpty() && (bounds.length == 1 || bounds[1].isEmpty()))
+                {
+                    throw new IllegalArgumentException("not a date range");
+                }
+                for (String bound : bounds)
+                {
+                    if (!bound.isEmpty())
+                    {
+                        java.time.LocalDate.parse(bound, DATE_FORMATTER);
+                    }
+                }
+                keys.setString(tag, VR.DA, dateString);
             }
             catch (Exception e)
             {
@@ -315,164 +666,229 @@ public class DicomWebQidoController
     }
 
     /**
-     * Converts a StudyEty to JSON-compatible map.
+     * Streams the matches of a query as a DICOM JSON array (PS3.18 Annex F).
+     *
+     * <p>The matches are read from a database cursor, or from the {@link QueryResultCache}, and
+     * each one is written to the response as soon as it has been read, so neither the matches nor
+     * the JSON document are ever held in memory as a whole. Cached matches are written without
+     * opening a transaction, so a slow client does not hold a database connection. The body is written on an async
+     * thread after the handler has returned; an error at that point can no longer change the
+     * status and aborts the response instead. The wall clock timeout of the query is paused
+     * while a match is written, so a slow client does not use up the time of the query.
      */
-    private Map<String, Object> studyToJson(StudyEty study)
+    private ResponseEntity<StreamingResponseBody> streamMatches(String name, QueryRetrieveLevel2 level,
+                                                                Attributes keys, String variant, boolean truncated,
+                                                                QueryResultCache.MatchStreamer streamer)
     {
-        Map<String, Object> json = new HashMap<>();
+        // statements of the handler, e.g. the truncation probe, belong to the same request
+        SqlStatementCounter.Scope handlerScope = SqlStatementCounter.current();
+        int handlerStatements = handlerScope != null ? handlerScope.handOver() : 0;
 
-        // Patient-level attributes
-        PatientEty patient = study.getPatient();
-        if (patient != null)
+        StreamingResponseBody body = out ->
         {
-            json.put("00100020", createValueMap(patient.getPatientId())); // PatientID
-            json.put("00100010", createValueMap(patient.getPatientName())); // PatientName
-            if (patient.getPatientBirthDate() != null)
+            long startTime = System.nanoTime();
+            QueryCancellation deadline = new QueryCancellation();
+
+            try (SqlStatementCounter.Scope scope = SqlStatementCounter.open(SqlOperation.QIDO_RS, handlerStatements))
             {
-                json.put("00100030", createValueMap(patient.getPatientBirthDate().format(DATE_FORMATTER))); // PatientBirthDate
+                JsonGenerator generator = Json.createGenerator(out);
+                JSONWriter writer = new JSONWriter(generator);
+
+                generator.writeStartArray();
+                int count;
+                List<Attributes> cached = queryResultCache.getCachedMatches(level, keys, variant);
+                if (cached != null)
+                {
+                    for (Attributes match : cached)
+                    {
+                        writer.write(match);
+                    }
+                    count = cached.size();
+                }
+                else
+                {
+                    count = queryExecutor.executeQido(deadline, () ->
+                            queryResultCache.forEachMatch(level, keys, variant, streamer, match ->
+                            {
+                                deadline.checkCancelled();
+                                deadline.pauseTimeout();
+                                writer.write(match);
+                                deadline.resumeTimeout();
+                            }));
+                }
+                generator.writeEnd();
+                generator.flush();
+
+                LOG.info("QIDO-RS {} query returned {} results in {} ms", name, count,
+                        (System.nanoTime() - startTime) / 1_000_000);
             }
-            json.put("00100040", createValueMap(patient.getPatientSex())); // PatientSex
-        }
+            catch (RuntimeException e)
+            {
+                if (QueryGuard.isTimeout(e))
+                {
+                    queryGuard.recordTimeout(QueryGuard.Protocol.QIDO_RS);
+                }
+                LOG.error("Error streaming QIDO-RS {} query results", name, e);
+                throw e;
+            }
+        };
 
-        // Study-level attributes
-        json.put("0020000D", createValueMap(study.getStudyInstanceUID())); // StudyInstanceUID
-        json.put("00200010", createValueMap(study.getStudyId())); // StudyID
-        if (study.getStudyDate() != null)
+        // clients must revalidate, the ETag and Last-Modified headers were set by notModified
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(DICOM_JSON)
+                .cacheControl(CacheControl.noCache().cachePrivate());
+        if (truncated)
         {
-            json.put("00080020", createValueMap(study.getStudyDate().format(DATE_FORMATTER))); // StudyDate
+            response.header(WARNING, TRUNCATED_WARNING);
         }
-        if (study.getStudyTime() != null)
+        return response.body(body);
+    }
+
+    /**
+     * Evaluates the conditional headers of a request against the modification stamp of the
+     * queried scope. Sets {@code ETag} and {@code Last-Modified} on the response and, if the
+     * client's copy is current, the status 304, in which case the handler returns null.
+     *
+     * @param lastModified the stamp of the scope, null if the scope does not exist
+     * @return true if the query does not need to run
+     */
+    private static boolean notModified(WebRequest request, Instant lastModified, String variant)
+    {
+        if (lastModified == null)
         {
-            json.put("00080030", createValueMap(study.getStudyTime().format(TIME_FORMATTER))); // StudyTime
+            return false;
         }
-        json.put("00081030", createValueMap(study.getStudyDescription())); // StudyDescription
-        json.put("00080050", createValueMap(study.getAccessionNumber())); // AccessionNumber
-        json.put("00080061", createValueMap(study.getModalitiesInStudy())); // ModalitiesInStudy
-        json.put("00080090", createValueMap(study.getReferringPhysicianName())); // ReferringPhysicianName
 
-        return json;
+        return request.checkNotModified(etag(lastModified, variant), lastModified.toEpochMilli());
     }
 
     /**
-     * Converts a SeriesEty to JSON-compatible map.
+     * Builds the strong ETag of a query result from the stamp of its scope and the projection
+     * and window of the query. The matching keys are part of the request URI already.
      */
-    private Map<String, Object> seriesToJson(SeriesEty series)
+    static String etag(Instant lastModified, String variant)
     {
-        Map<String, Object> json = new HashMap<>();
+        return String.format("\"%x.%x-%08x\"", lastModified.getEpochSecond(), lastModified.getNano(), variant.hashCode());
+    }
 
-        // Series-level attributes
-        json.put("0020000E", createValueMap(series.getSeriesInstanceUID())); // SeriesInstanceUID
-        json.put("00080060", createValueMap(series.getModality())); // Modality
-        if (series.getSeriesNumber() != null)
-        {
-            json.put("00200011", createValueMap(series.getSeriesNumber().toString())); // SeriesNumber
-        }
-        json.put("0008103E", createValueMap(series.getSeriesDescription())); // SeriesDescription
-        if (series.getSeriesDate() != null)
-        {
-            json.put("00080021", createValueMap(series.getSeriesDate().format(DATE_FORMATTER))); // SeriesDate
-        }
-        if (series.getSeriesTime() != null)
-        {
-            json.put("00080031", createValueMap(series.getSeriesTime().format(TIME_FORMATTER))); // SeriesTime
-        }
-        json.put("00081050", createValueMap(series.getPerformingPhysicianName())); // PerformingPhysicianName
-        json.put("00180015", createValueMap(series.getBodyPartExamined())); // BodyPartExamined
-        json.put("00181030", createValueMap(series.getProtocolName())); // ProtocolName
-        json.put("00185100", createValueMap(series.getPatientPosition())); // PatientPosition
-        json.put("00200060", createValueMap(series.getLaterality())); // Laterality
-        json.put("00081070", createValueMap(series.getOperatorsName())); // OperatorsName
+    /**
+     * Builds the projection of a query: the default attributes of the level, the attributes used
+     * as matching keys and the attributes named by {@code includefield}, or all attributes the
+     * archive knows for {@code includefield=all}. Unknown field names are ignored.
+     */
+    private static <T> ProjectionPlan<T> projection(List<MatchField<T>> catalog, Set<Integer> defaults,
+                                                    Attributes keys, List<String> includefield)
+    {
+        Set<Integer> included = new HashSet<>(defaults);
 
-        // Include study UID for reference
-        if (series.getStudy() != null)
+        if (includefield != null)
         {
-            json.put("0020000D", createValueMap(series.getStudy().getStudyInstanceUID())); // StudyInstanceUID
+            for (String field : includefield)
+            {
+                String name = field.trim();
+                if (INCLUDE_ALL.equalsIgnoreCase(name))
+                {
+                    return ProjectionPlan.all(catalog);
+                }
+
+                int tag = TagUtils.forName(name);
+                if (tag != -1)
+                {
+                    included.add(tag);
+                }
+                else
+                {
+                    LOG.debug("ignoring unknown includefield [{}]", name);
+                }
+            }
         }
 
-        return json;
+        return ProjectionPlan.compile(catalog, tag -> included.contains(tag) || keys.contains(tag));
     }
 
     /**
-     * Converts an InstanceEty to JSON-compatible map.
+     * Builds the options pushed into the database query. The client's limit is capped by
+     * {@code mupacs.qido.max-results} and by the {@link QueryGuard} maximum of the level and the client.
+     *
+     * @throws IllegalArgumentException if the limit or offset is invalid
      */
-    private Map<String, Object> instanceToJson(InstanceEty instance)
+    private QueryOptions queryOptions(QueryRetrieveLevel2 level, WebRequest request, Integer limit, Integer offset,
+                                      boolean fuzzymatching, ProjectionPlan<?> projection)
     {
-        Map<String, Object> json = new HashMap<>();
-
-        // Instance-level attributes
-        json.put("00080018", createValueMap(instance.getInstanceUID())); // SOPInstanceUID
-        if (instance.getInstanceNumber() != null)
-        {
-            json.put("00200013", createValueMap(instance.getInstanceNumber().toString())); // InstanceNumber
-        }
-        if (instance.getContentDate() != null)
+        int effectiveLimit = limit != null ? limit : QueryOptions.UNLIMITED;
+        if (maxResults > 0)
         {
-            json.put("00080023", createValueMap(instance.getContentDate().format(DATE_FORMATTER))); // ContentDate
+            effectiveLimit = Math.min(effectiveLimit, maxResults);
         }
-        if (instance.getContentTime() != null)
+        int maxMatches = queryGuard.getMaxMatches(level, client(request));
+        if (maxMatches > 0)
         {
-            json.put("00080033", createValueMap(instance.getContentTime().format(TIME_FORMATTER))); // ContentTime
+            effectiveLimit = Math.min(effectiveLimit, maxMatches);
         }
-        json.put("00080008", createValueMap(instance.getImageType())); // ImageType
-        if (instance.getAcquisitionNumber() != null)
-        {
-            json.put("00200012", createValueMap(instance.getAcquisitionNumber().toString())); // AcquisitionNumber
-        }
-        if (instance.getAcquisitionDate() != null)
-        {
-            json.put("00080022", createValueMap(instance.getAcquisitionDate().format(DATE_FORMATTER))); // AcquisitionDate
-        }
-        if (instance.getAcquisitionTime() != null)
-        {
-            json.put("00080032", createValueMap(instance.getAcquisitionTime().format(TIME_FORMATTER))); // AcquisitionTime
-        }
-        if (instance.getRows() != null)
-        {
-            json.put("00280010", createValueMap(instance.getRows().toString())); // Rows
-        }
-        if (instance.getColumns() != null)
-        {
-            json.put("00280011", createValueMap(instance.getColumns().toString())); // Columns
-        }
-        if (instance.getBitsAllocated() != null)
+
+        return new QueryOptions(offset != null ? offset : 0, effectiveLimit, fuzzymatching, projection.tagSet());
+    }
+
+    /**
+     * Estimates a query before its matches are read: probes whether a match exists after the
+     * window, which the {@link QueryGuard} truncates or refuses if its maximum bounds the window.
+     *
+     * @return true if the response is truncated
+     * @throws QueryRefusedException if the query matches more than its maximum and is refused
+     */
+    private boolean exceedsWindow(QueryRetrieveLevel2 level, WebRequest request, QueryOptions options,
+                                  BooleanSupplier probe)
+    {
+        if (options.limit() == QueryOptions.UNLIMITED)
         {
-            json.put("00280100", createValueMap(instance.getBitsAllocated().toString())); // BitsAllocated
+            return false;
         }
-        if (instance.getBitsStored() != null)
+
+        try
         {
-            json.put("00280101", createValueMap(instance.getBitsStored().toString())); // BitsStored
+            if (!queryExecutor.executeQido(new QueryCancellation(), probe::getAsBoolean))
+            {
+                return false;
+            }
         }
-
-        // Include series UID for reference
-        if (instance.getSeries() != null)
+        catch (RuntimeException e)
         {
-            json.put("0020000E", createValueMap(instance.getSeries().getSeriesInstanceUID())); // SeriesInstanceUID
+            if (QueryGuard.isTimeout(e))
+            {
+                queryGuard.recordTimeout(QueryGuard.Protocol.QIDO_RS);
+            }
+            throw e;
         }
 
-        return json;
+        queryGuard.overLimit(QueryGuard.Protocol.QIDO_RS, level, client(request), options.limit());
+        return true;
     }
 
     /**
-     * Creates a DICOM JSON value map with a single string value.
+     * Answers a refused query with 413 and the reason in a {@code Warning} header.
      */
-    private Map<String, Object> createValueMap(String value)
+    private static ResponseEntity<StreamingResponseBody> refused(QueryRefusedException e)
     {
-        Map<String, Object> map = new HashMap<>();
-        if (value != null && !value.isEmpty())
-        {
-            List<String> valueArray = List.of(value);
-            map.put("Value", valueArray);
-        }
-        return map;
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .header(WARNING, "299 MuPACS: \"" + e.getMessage() + "\"")
+                .build();
     }
-}
-
-
-
-
-
-
-
-
 
+    /**
+     * @return the remote address of the client, which the {@link QueryGuard} limits are keyed by
+     */
+    private static String client(WebRequest request)
+    {
+        return request instanceof ServletWebRequest servletRequest
+                ? servletRequest.getRequest().getRemoteAddr()
+                : null;
+    }
 
+    /**
+     * Identifies the projection and window of a query in the {@link QueryResultCache}.
+     */
+    private static String variant(QueryOptions options, ProjectionPlan<?> projection)
+    {
+        return options.signature() + "|" + projection.signature();
+    }
+}
@@ -0,0 +1,284 @@
+package de.famst.controller;
+
+import de.famst.dcm.DcmImage;
+import de.famst.service.ThumbnailService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * DICOM WADO-RS Rendered and Thumbnail Controller.
+ *
+ * <p>Supported endpoints:
+ * <ul>
+ *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID}/thumbnail - Thumbnail of a series</li>
+ *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/thumbnail - Thumbnail of an instance</li>
+ *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/rendered - Rendered instance</li>
+ * </ul>
+ *
+ * <p>Images are sent as {@code image/jpeg}, or as {@code image/png} if the Accept header prefers
+ * it (PS3.18 Section 10.4.1.1.3), so responses vary by Accept. Thumbnails come from the disk cache of {@link ThumbnailService}
+ * and are a few KB each; a rendered instance fits into the optional {@code viewport} of
+ * {@code width,height} pixels and is rendered on each request. Instances which cannot be rendered,
+ * e.g. because their transfer syntax has no Java decoder, are answered with 404; requests finding
+ * all renderers busy or timing out with 503 and a Retry-After header.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@RestController
+@RequestMapping("/wado-rs")
+public class DicomWebRenderedController
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DicomWebRenderedController.class);
+
+    /**
+     * Seconds after which a client should retry a request rejected because all renderers are busy
+     * or the rendering timed out.
+     */
+    private static final String RETRY_AFTER = "5";
+
+    private final ThumbnailService thumbnailService;
+
+    /**
+     * Constructs a new DicomWebRenderedController.
+     *
+     * @param thumbnailService the service rendering and caching images
+     */
+    public DicomWebRenderedController(ThumbnailService thumbnailService)
+    {
+        this.thumbnailService = thumbnailService;
+    }
+
+    /**
+     * Retrieves the thumbnail of a series, rendered from its middle image.
+     *
+     * @param studyUID  the Study Instance UID
+     * @param seriesUID the Series Instance UID
+     * @param accept    the Accept header (optional)
+     * @return the thumbnail, 404 if the series does not exist or has no image which can be rendered
+     */
+    @GetMapping("/studies/{studyUID}/series/{seriesUID}/thumbnail")
+    public ResponseEntity<byte[]> getSeriesThumbnail(
+            @PathVariable String studyUID,
+            @PathVariable String seriesUID,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+    {
+        LOG.debug("WADO-RS Thumbnail request: Study={}, Series={}", studyUID, seriesUID);
+
+        DcmImage.Format format = format(accept);
+        if (format == null)
+        {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+
+        // a series changes with imports, clients revalidate
+        return image(() -> thumbnailService.getSeriesThumbnail(studyUID, seriesUID, format),
+                format, CacheControl.noCache().cachePrivate(), seriesUID);
+    }
+
+    /**
+     * Retrieves the thumbnail of an instance, rendered from its middle frame.
+     *
+     * @param studyUID    the Study Instance UID
+     * @param seriesUID   the Series Instance UID
+     * @param instanceUID the SOP Instance UID
+     * @param accept      the Accept header (optional)
+     * @return the thumbnail, 404 if the instance does not exist or cannot be rendered
+     */
+    @GetMapping("/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/thumbnail")
+    public ResponseEntity<byte[]> getInstanceThumbnail(
+            @PathVariable String studyUID,
+            @PathVariable String seriesUID,
+            @PathVariable String instanceUID,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+    {
+        LOG.debug("WADO-RS Thumbnail request: Study={}, Series={}, Instance={}", studyUID, seriesUID, instanceUID);
+
+        DcmImage.Format format = format(accept);
+        if (format == null)
+        {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+
+        return image(() -> thumbnailService.getInstanceThumbnail(studyUID, seriesUID, instanceUID, format),
+                format, immutable(), instanceUID);
+    }
+
+    /**
+     * Retrieves the first frame of an instance rendered as image.
+     *
+     * @param studyUID    the Study Instance UID
+     * @param seriesUID   the Series Instance UID
+     * @param instanceUID the SOP Instance UID
+     * @param viewport    the maximum size as {@code width,height} (optional, default: the size of the image)
+     * @param accept      the Accept header (optional)
+     * @return the image, 400 for an invalid viewport, 404 if the instance does not exist or cannot be rendered
+     */
+    @GetMapping("/studies/{studyUID}/series/{seriesUID}/instances/{instanceUID}/rendered")
+    public ResponseEntity<byte[]> getRendered(
+            @PathVariable String studyUID,
+            @PathVariable String seriesUID,
+            @PathVariable String instanceUID,
+            @RequestParam(required = false) String viewport,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+    {
+        LOG.debug("WADO-RS Rendered request: Study={}, Series={}, Instance={}, Viewport={}",
+                studyUID, seriesUID, instanceUID, viewport);
+
+        DcmImage.Format format = format(accept);
+        if (format == null)
+        {
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+
+        int[] size = viewport(viewport);
+        if (size == null)
+        {
+            return ResponseEntity.badRequest().build();
+        }
+
+        return image(() -> thumbnailService.getRendered(studyUID, seriesUID, instanceUID, size[0], size[1], format),
+                format, immutable(), instanceUID);
+    }
+
+    /**
+     * Chooses the image format from the Accept header: JPEG unless PNG is preferred.
+     *
+     * @param accept the Accept header, may be null
+     * @return the format, null if neither JPEG nor PNG is acceptable
+     */
+    static DcmImage.Format format(String accept)
+    {
+        if (accept == null || accept.isBlank())
+        {
+            return DcmImage.Format.JPEG;
+        }
+
+        List<MediaType> mediaTypes;
+        try
+        {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e)
+        {
+            return DcmImage.Format.JPEG;
+        }
+        // quality first for media types, see MediaType#isMoreSpecific
+        MimeTypeUtils.sortBySpecificity(mediaTypes);
+
+        for (MediaType mediaType : mediaTypes)
+        {
+            if (mediaType.getQualityValue() == 0)
+            {
+                continue;
+            }
+            if (mediaType.isCompatibleWith(MediaType.IMAGE_JPEG))
+            {
+                return DcmImage.Format.JPEG;
+            }
+            if (mediaType.isCompatibleWith(MediaType.IMAGE_PNG))
+            {
+                return DcmImage.Format.PNG;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a viewport of {@code width,height} pixels.
+     *
+     * @param viewport the viewport, may be null
+     * @return width and height, unlimited without viewport, null if the viewport is invalid
+     */
+    static int[] viewport(String viewport)
+    {
+        if (viewport == null)
+        {
+            return new int[]{Integer.MAX_VALUE, Integer.MAX_VALUE};
+        }
+
+        String[] values = viewport.split(",");
+        try
+        {
+            if (values.length == 2)
+            {
+                int width = Integer.parseInt(values[0].trim());
+                int height = Integer.parseInt(values[1].trim());
+                if (width > 0 && height > 0)
+                {
+                    return new int[]{width, height};
+                }
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            // invalid
+        }
+        return null;
+    }
+
+    private static CacheControl immutable()
+    {
+        // instances never change once archived
+        return CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable();
+    }
+
+    private static ResponseEntity<byte[]> image(Rendering rendering, DcmImage.Format format,
+                                                CacheControl cacheControl, String uid)
+    {
+        try
+        {
+            byte[] image = rendering.render();
+            if (image == null)
+            {
+                LOG.warn("Nothing to render for {}", uid);
+                return ResponseEntity.notFound().build();
+            }
+
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(format.mediaType()))
+                    .cacheControl(cacheControl)
+                    .varyBy(HttpHeaders.ACCEPT)
+                    .body(image);
+        }
+        catch (RejectedExecutionException | InterruptedIOException e)
+        {
+            // busy renderers or a timed out rendering, the image itself may be fine
+            LOG.debug("Cannot render {} now: {}", uid, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER)
+                    .build();
+        }
+        catch (IOException e)
+        {
+            // mostly Pixel Data without Java decoder, nothing the client can retry
+            LOG.warn("Cannot render {}: {}", uid, e.getMessage());
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Rendering
+    {
+        byte[] render() throws IOException;
+    }
+}
@@ -0,0 +1,218 @@
+package de.famst.controller;
+
+import de.famst.dcm.UnsupportedTransferSyntaxException;
+import de.famst.service.DicomRetrieveService;
+import de.famst.service.FileSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * DICOM WADO-RS Retrieve Controller.
+ *
+ * <p>Supported endpoints:
+ * <ul>
+ *   <li>GET /wado-rs/studies/{studyUID} - Retrieve all instances of a study</li>
+ *   <li>GET /wado-rs/studies/{studyUID}/series/{seriesUID} - Retrieve all instances of a series</li>
+ * </ul>
+ *
+ * <p>The instances are sent as {@code multipart/related; type="application/dicom"} body with a
+ * part per archived Part 10 file (PS3.18 Section 10.4.1.1.1), so a client retrieves a study with
+ * a single request instead of one per instance. The files are found with one statement and
+ * streamed in the order they are stored on disk while the next chunks are read ahead, see
+ * {@link FileSequence}. The body is not buffered and has no Content-Length; a file that cannot be
+ * read while streaming aborts the response.
+ *
+ * <p>A {@code transfer-syntax} parameter of the accepted {@code multipart/related} type selects
+ * the transfer syntax of the parts (PS3.18 Section 8.7.3.5.2). Instances stored in another one
+ * are converted first and kept in a cache, see {@link de.famst.service.TranscodeService}; if an
+ * instance cannot be converted the response is 406. Without the parameter, or with {@code *}, the
+ * instances are sent as stored.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@RestController
+@RequestMapping("/wado-rs")
+public class DicomWebRetrieveController
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DicomWebRetrieveController.class);
+
+    static final String APPLICATION_DICOM_VALUE = "application/dicom";
+
+    private static final String TRANSFER_SYNTAX = "transfer-syntax";
+
+    private final DicomRetrieveService retrieveService;
+
+    /**
+     * Constructs a new DicomWebRetrieveController.
+     *
+     * @param retrieveService the service finding and reading the files of studies and series
+     */
+    public DicomWebRetrieveController(DicomRetrieveService retrieveService)
+    {
+        this.retrieveService = retrieveService;
+    }
+
+    /**
+     * Retrieves all instances of a study.
+     *
+     * @param studyUID the Study Instance UID
+     * @param accept the Accept header, may request a transfer syntax
+     * @return the instances as multipart body, 404 if the study has no instances or 406 if they
+     * cannot be converted into the requested transfer syntax
+     */
+    @GetMapping("/studies/{studyUID}")
+    public ResponseEntity<StreamingResponseBody> getStudy(
+            @PathVariable String studyUID,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+    {
+        String tsuid = transferSyntax(accept);
+        LOG.info("WADO-RS Retrieve request: Study={}, TransferSyntax={}", studyUID, tsuid);
+
+        try
+        {
+            return multipart(tsuid != null
+                    ? retrieveService.getStudy(studyUID, tsuid)
+                    : retrieveService.getStudy(studyUID), tsuid, studyUID);
+        }
+        catch (UnsupportedTransferSyntaxException e)
+        {
+            LOG.warn("Cannot retrieve study {}: {}", studyUID, e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        catch (IOException e)
+        {
+            LOG.error("Error retrieving study {}: {}", studyUID, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Retrieves all instances of a series.
+     *
+     * @param studyUID the Study Instance UID
+     * @param seriesUID the Series Instance UID
+     * @param accept the Accept header, may request a transfer syntax
+     * @return the instances as multipart body, 404 if the series has no instances in the study or
+     * 406 if they cannot be converted into the requested transfer syntax
+     */
+    @GetMapping("/studies/{studyUID}/series/{seriesUID}")
+    public ResponseEntity<StreamingResponseBody> getSeries(
+            @PathVariable String studyUID,
+            @PathVariable String seriesUID,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept)
+    {
+        String tsuid = transferSyntax(accept);
+        LOG.info("WADO-RS Retrieve request: Study={}, Series={}, TransferSyntax={}", studyUID, seriesUID, tsuid);
+
+        try
+        {
+            return multipart(tsuid != null
+                    ? retrieveService.getSeries(studyUID, seriesUID, tsuid)
+                    : retrieveService.getSeries(studyUID, seriesUID), tsuid, seriesUID);
+        }
+        catch (UnsupportedTransferSyntaxException e)
+        {
+            LOG.warn("Cannot retrieve series {}: {}", seriesUID, e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_ACCEPTABLE).build();
+        }
+        catch (IOException e)
+        {
+            LOG.error("Error retrieving series {}: {}", seriesUID, e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Finds the transfer syntax requested by the most preferred {@code multipart/related} type.
+     *
+     * @param accept the Accept header, may be null
+     * @return the transfer syntax UID, null if none is requested or any is accepted
+     */
+    static String transferSyntax(String accept)
+    {
+        if (accept == null || accept.isBlank())
+        {
+            return null;
+        }
+
+        List<MediaType> mediaTypes;
+        try
+        {
+            mediaTypes = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException e)
+        {
+            return null;
+        }
+        // quality first for media types, see MediaType#isMoreSpecific
+        MimeTypeUtils.sortBySpecificity(mediaTypes);
+
+        for (MediaType mediaType : mediaTypes)
+        {
+            if (mediaType.getQualityValue() == 0 || !mediaType.isCompatibleWith(MediaType.MULTIPART_RELATED))
+            {
+                continue;
+            }
+            String tsuid = mediaType.getParameter(TRANSFER_SYNTAX);
+            if (tsuid != null)
+            {
+                tsuid = tsuid.replace("\"", "").trim();
+                return tsuid.isEmpty() || tsuid.equals("*") ? null : tsuid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Streams the files as {@code multipart/related} body with a part per file.
+     *
+     * @param files the files of the instances
+     * @param tsuid the transfer syntax UID of the files, null if they are sent as stored
+     * @param uid the UID of the study or series, for logging
+     * @return the response, 404 if there are no files
+     */
+    private static ResponseEntity<StreamingResponseBody> multipart(FileSequence files, String tsuid, String uid)
+    {
+        if (files.files().isEmpty())
+        {
+            LOG.warn("No instances found for {}", uid);
+            return ResponseEntity.notFound().build();
+        }
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        String partType = tsuid != null
+                ? APPLICATION_DICOM_VALUE + "; " + TRANSFER_SYNTAX + "=" + tsuid
+                : APPLICATION_DICOM_VALUE;
+        byte[] partHeader = MultipartBody.partHeader(boundary, HttpHeaders.CONTENT_TYPE + ": " + partType + "\r\n");
+
+        LOG.debug("Streaming {} instances of {}", files.files().size(), uid);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE,
+                        "multipart/related; type=\"" + APPLICATION_DICOM_VALUE + "\""
+                                + (tsuid != null ? "; " + TRANSFER_SYNTAX + "=" + tsuid : "")
+                                + "; boundary=" + boundary)
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(out -> {
+                    files.transferTo(out, (index, file, stream) -> stream.write(partHeader));
+                    out.write(MultipartBody.closeDelimiter(boundary));
+                });
+    }
+}
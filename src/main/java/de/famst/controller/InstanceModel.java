@@ -1,6 +1,6 @@
 package de.famst.controller;
 
-import de.famst.data.InstanceEty;
+import de.famst.data.InstanceRecord;
 
 /**
  * Created by jens on 30/10/2016.
@@ -18,12 +18,12 @@ public class InstanceModel
         this.path = path;
     }
 
-    public static InstanceModel fromInstanceEty(InstanceEty instanceEty)
+    public static InstanceModel fromRecord(InstanceRecord instance)
     {
         return new InstanceModel(
-                instanceEty.getId(),
-                instanceEty.getInstanceUID(),
-                instanceEty.getPath()
+                instance.id(),
+                instance.instanceUID(),
+                instance.path()
         );
     }
 
@@ -0,0 +1,220 @@
+package de.famst.controller;
+
+import de.famst.service.BulkDataFile;
+import de.famst.service.BulkDataFile.Region;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.util.MimeTypeUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multipart body whose parts are regions of the bulk data of an instance: a
+ * {@code multipart/byteranges} body (RFC 7233, Appendix A) with several ranges, or a
+ * {@code multipart/related} body (PS3.18 Section 8.7.3) with frames.
+ *
+ * <p>Requested ranges are coalesced: ranges beyond the end of the bulk data are dropped, the others
+ * are sorted and overlapping or adjacent ranges are merged. The parts are therefore written in file
+ * order and a client cannot make the server send the same bytes more than once. Frames are written
+ * in the requested order, a frame may consist of several fragments. All parts are copied through
+ * one open channel of the file, see {@link BulkDataFile#transferTo(List, OutputStream,
+ * BulkDataFile.RegionHeader)}. The body length is known before it is written.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+final class MultipartBody
+{
+    /**
+     * A part of the body.
+     *
+     * @param headers the headers of the part, each terminated by CRLF
+     * @param regions the content of the part, at least one region
+     */
+    private record Part(String headers, List<Region> regions)
+    {
+    }
+
+    private final BulkDataFile file;
+    private final String mediaType;
+    private final List<Part> parts;
+    private final String boundary;
+
+    private MultipartBody(BulkDataFile file, String mediaType, List<Part> parts)
+    {
+        this.file = file;
+        this.mediaType = mediaType;
+        this.parts = parts;
+        this.boundary = MimeTypeUtils.generateMultipartBoundaryString();
+    }
+
+    /**
+     * Creates a {@code multipart/byteranges} body with a part per region.
+     *
+     * @param file            the bulk data
+     * @param regions         the coalesced regions, see {@link #coalesce(List, long)}
+     * @param partContentType the media type of the parts
+     * @return the body
+     */
+    static MultipartBody byteRanges(BulkDataFile file, List<Region> regions, String partContentType)
+    {
+        List<Part> parts = new ArrayList<>(regions.size());
+        for (Region region : regions)
+        {
+            parts.add(new Part(HttpHeaders.CONTENT_TYPE + ": " + partContentType + "\r\n"
+                + HttpHeaders.CONTENT_RANGE + ": bytes " + region.position() + "-" + (region.end() - 1)
+                + "/" + file.size() + "\r\n", List.of(region)));
+        }
+        return new MultipartBody(file, "multipart/byteranges", parts);
+    }
+
+    /**
+     * Creates a {@code multipart/related} body with a part per frame.
+     *
+     * @param file            the Pixel Data
+     * @param frames          the fragments of each frame
+     * @param type            the media type of the parts without parameters
+     * @param partContentType the media type of the parts
+     * @return the body
+     */
+    static MultipartBody related(BulkDataFile file, List<List<Region>> frames, String type, String partContentType)
+    {
+        List<Part> parts = new ArrayList<>(frames.size());
+        for (List<Region> frame : frames)
+        {
+            parts.add(new Part(HttpHeaders.CONTENT_TYPE + ": " + partContentType + "\r\n", frame));
+        }
+        return new MultipartBody(file, "multipart/related; type=\"" + type + "\"", parts);
+    }
+
+    /**
+     * Converts the requested ranges into the regions of the bulk data that are sent: sorted by
+     * position, without the ranges starting beyond its end and with overlapping or adjacent
+     * ranges merged.
+     *
+     * @param ranges   the ranges of the Range header
+     * @param fileSize the size of the bulk data
+     * @return the regions, empty if no range is satisfiable
+     */
+    static List<Region> coalesce(List<HttpRange> ranges, long fileSize)
+    {
+        List<Region> requested = new ArrayList<>(ranges.size());
+        for (HttpRange range : ranges)
+        {
+            long start = range.getRangeStart(fileSize);
+            long end = range.getRangeEnd(fileSize);
+            if (start < fileSize && start <= end)
+            {
+                requested.add(new Region(start, end - start + 1));
+            }
+        }
+        requested.sort(Comparator.comparingLong(Region::position));
+
+        List<Region> regions = new ArrayList<>(requested.size());
+        for (Region region : requested)
+        {
+            int last = regions.size() - 1;
+            if (last >= 0 && region.position() <= regions.get(last).end())
+            {
+                Region previous = regions.get(last);
+                regions.set(last, new Region(previous.position(),
+                    Math.max(previous.end(), region.end()) - previous.position()));
+            }
+            else
+            {
+                regions.add(region);
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * @return the media type with the boundary of this body
+     */
+    String contentType()
+    {
+        return mediaType + "; boundary=" + boundary;
+    }
+
+    /**
+     * @return the length of the body in bytes
+     */
+    long contentLength()
+    {
+        long length = closeDelimiter().length;
+        for (Part part : parts)
+        {
+            length += partHeader(part).length;
+            for (Region region : part.regions())
+            {
+                length += region.count();
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the body, the stream is not closed.
+     *
+     * @param out the output stream
+     * @throws IOException if the file cannot be read or the stream not written
+     */
+    void writeTo(OutputStream out) throws IOException
+    {
+        // the header of a part precedes its first region
+        List<Region> regions = new ArrayList<>();
+        Map<Integer, byte[]> headers = new HashMap<>();
+        for (Part part : parts)
+        {
+            headers.put(regions.size(), partHeader(part));
+            regions.addAll(part.regions());
+        }
+
+        file.transferTo(regions, out, (index, region, stream) -> {
+            byte[] header = headers.get(index);
+            if (header != null)
+            {
+                stream.write(header);
+            }
+        });
+        out.write(closeDelimiter());
+    }
+
+    private byte[] partHeader(Part part)
+    {
+        return partHeader(boundary, part.headers());
+    }
+
+    private byte[] closeDelimiter()
+    {
+        return closeDelimiter(boundary);
+    }
+
+    /**
+     * The delimiter and headers of a part, the CRLF in front of the first delimiter is an empty preamble.
+     *
+     * @param boundary the boundary of the body
+     * @param headers  the headers of the part, each terminated by CRLF
+     * @return the bytes preceding the content of the part
+     */
+    static byte[] partHeader(String boundary, String headers)
+    {
+        return ("\r\n--" + boundary + "\r\n" + headers + "\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @param boundary the boundary of the body
+     * @return the delimiter following the last part
+     */
+    static byte[] closeDelimiter(String boundary)
+    {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
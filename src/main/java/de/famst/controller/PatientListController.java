@@ -1,18 +1,25 @@
 package de.famst.controller;
 
-import de.famst.data.PatientEty;
-import de.famst.data.PatientRepository;
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceRecord;
+import de.famst.data.PatientRecord;
+import de.famst.data.SeriesRecord;
+import de.famst.data.StudyRecord;
+import de.famst.service.PatientNameTrie;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Created by jens on 10/10/2016.
@@ -21,12 +28,15 @@ import java.util.List;
 public class PatientListController
 {
   private static final int PAGE_SIZE = 10;
+  private static final int MAX_SUGGESTIONS = 50;
 
-  PatientRepository patientRepository;
+  DicomReadRepository dicomReadRepository;
+  PatientNameTrie patientNameTrie;
 
-  private PatientListController(PatientRepository patientRepository)
+  private PatientListController(DicomReadRepository dicomReadRepository, PatientNameTrie patientNameTrie)
   {
-    this.patientRepository = patientRepository;
+    this.dicomReadRepository = dicomReadRepository;
+    this.patientNameTrie = patientNameTrie;
   }
 
 
@@ -34,6 +44,8 @@ public class PatientListController
   public String getListOfPatients(
       @RequestParam(defaultValue = "0") int page,
       @RequestParam(defaultValue = "10") int size,
+      @RequestParam(required = false) String name,
+      @RequestParam(required = false) String q,
       Model model)
   {
     // Ensure page size is reasonable
@@ -49,23 +61,62 @@ public class PatientListController
     // Create pageable object with sorting by patient name
     Pageable pageable = PageRequest.of(page, size, Sort.by("patientName").ascending());
 
-    // Fetch paginated data with studies eagerly loaded
-    Page<PatientEty> patientEtyPage = patientRepository.findAllWithStudies(pageable);
-    List<PatientModel> patients = new ArrayList<>();
-
-    patientEtyPage.forEach(patientEty ->
-      patients.add(PatientModel.fromPatientEty(patientEty))
-    );
+    // Fetch the page of patients matching the name and text query, then their studies, series and instances with one query per level
+    Page<PatientRecord> patientPage = dicomReadRepository.findPatients(pageable, name, q);
+    List<PatientModel> patients = toPatientModels(patientPage.getContent());
 
     // Add pagination information to the model
     model.addAttribute("patients", patients);
     model.addAttribute("currentPage", page);
-    model.addAttribute("totalPages", patientEtyPage.getTotalPages());
-    model.addAttribute("totalItems", patientEtyPage.getTotalElements());
+    model.addAttribute("totalPages", patientPage.getTotalPages());
+    model.addAttribute("totalItems", patientPage.getTotalElements());
     model.addAttribute("pageSize", size);
+    model.addAttribute("name", name);
+    model.addAttribute("query", q);
 
     return "patientList";
   }
 
+  /**
+   * Typeahead of the patient name search box, answered from the in-memory name trie.
+   */
+  @GetMapping("/patientlist/suggest")
+  @ResponseBody
+  public List<String> suggestPatientNames(
+      @RequestParam String prefix,
+      @RequestParam(defaultValue = "10") int limit)
+  {
+    return patientNameTrie.suggest(prefix, Math.min(Math.max(limit, 1), MAX_SUGGESTIONS));
+  }
+
+  private List<PatientModel> toPatientModels(List<PatientRecord> patientRecords)
+  {
+    List<StudyRecord> studyRecords = dicomReadRepository.findStudiesOfPatients(
+        patientRecords.stream().map(PatientRecord::id).toList());
+    List<SeriesRecord> seriesRecords = dicomReadRepository.findSeriesOfStudies(
+        studyRecords.stream().map(StudyRecord::id).toList());
+    List<InstanceRecord> instanceRecords = dicomReadRepository.findInstancesOfSeries(
+        seriesRecords.stream().map(SeriesRecord::id).toList());
+
+    Map<Long, List<InstanceModel>> instancesBySeries = instanceRecords.stream()
+        .collect(Collectors.groupingBy(InstanceRecord::seriesDbId,
+            Collectors.mapping(InstanceModel::fromRecord, Collectors.toList())));
+
+    Map<Long, List<SeriesModel>> seriesByStudy = seriesRecords.stream()
+        .collect(Collectors.groupingBy(SeriesRecord::studyDbId,
+            Collectors.mapping(series -> SeriesModel.fromRecord(series,
+                instancesBySeries.getOrDefault(series.id(), List.of())), Collectors.toList())));
+
+    Map<Long, List<StudyModel>> studiesByPatient = studyRecords.stream()
+        .collect(Collectors.groupingBy(StudyRecord::patientDbId,
+            Collectors.mapping(study -> StudyModel.fromRecord(study,
+                seriesByStudy.getOrDefault(study.id(), List.of())), Collectors.toList())));
+
+    return patientRecords.stream()
+        .map(patient -> PatientModel.fromRecord(patient,
+            studiesByPatient.getOrDefault(patient.id(), List.of())))
+        .toList();
+  }
+
 
 }
@@ -1,12 +1,11 @@
 package de.famst.controller;
 
-import de.famst.data.PatientEty;
+import de.famst.data.PatientRecord;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 
 /**
  * Created by jens on 10/10/2016.
@@ -54,41 +53,37 @@ public class PatientModel
     this.studies = studies;
   }
 
-  public static PatientModel fromPatientEty(PatientEty patientEty)
+  public static PatientModel fromRecord(PatientRecord patient, List<StudyModel> studies)
   {
-    if (null == patientEty)
+    if (null == patient)
     {
       return new PatientModel();
     }
 
-    List<StudyModel> studies = patientEty.getStudies().stream()
-        .map(StudyModel::fromStudyEty)
-        .collect(Collectors.toList());
-
     PatientModel model = new PatientModel(
-      patientEty.getId(),
-      patientEty.getPatientName(),
-      patientEty.getPatientId(),
-      patientEty.getStudies().size(),
+      patient.id(),
+      patient.patientName(),
+      patient.patientId(),
+      studies.size(),
       studies
     );
 
     // Set additional DICOM Patient Module attributes
-    model.patientBirthDate = patientEty.getPatientBirthDate();
-    model.patientSex = patientEty.getPatientSex();
-    model.patientBirthTime = patientEty.getPatientBirthTime();
-    model.otherPatientIds = patientEty.getOtherPatientIds();
-    model.otherPatientNames = patientEty.getOtherPatientNames();
-    model.ethnicGroup = patientEty.getEthnicGroup();
-    model.patientComments = patientEty.getPatientComments();
-    model.patientAge = patientEty.getPatientAge();
-    model.patientSize = patientEty.getPatientSize();
-    model.patientWeight = patientEty.getPatientWeight();
-    model.medicalAlerts = patientEty.getMedicalAlerts();
-    model.allergies = patientEty.getAllergies();
-    model.pregnancyStatus = patientEty.getPregnancyStatus();
-    model.responsiblePerson = patientEty.getResponsiblePerson();
-    model.responsibleOrganization = patientEty.getResponsibleOrganization();
+    model.patientBirthDate = patient.patientBirthDate();
+    model.patientSex = patient.patientSex();
+    model.patientBirthTime = patient.patientBirthTime();
+    model.otherPatientIds = patient.otherPatientIds();
+    model.otherPatientNames = patient.otherPatientNames();
+    model.ethnicGroup = patient.ethnicGroup();
+    model.patientComments = patient.patientComments();
+    model.patientAge = patient.patientAge();
+    model.patientSize = patient.patientSize();
+    model.patientWeight = patient.patientWeight();
+    model.medicalAlerts = patient.medicalAlerts();
+    model.allergies = patient.allergies();
+    model.pregnancyStatus = patient.pregnancyStatus();
+    model.responsiblePerson = patient.responsiblePerson();
+    model.responsibleOrganization = patient.responsibleOrganization();
 
     return model;
   }
@@ -1,44 +1,97 @@
 package de.famst.controller;
 
-import de.famst.data.SeriesEty;
+import de.famst.data.SeriesRecord;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
 
 /**
  * Created by jens on 10/10/2016.
  */
 public class SeriesModel
 {
-    private long id;
-    private String seriesInstanceUID;
-    private long numberOfInstances;
+    private final SeriesRecord series;
+    private final List<InstanceModel> instances;
 
-    public SeriesModel(long id, String seriesInstanceUID, long numberOfInstances)
+    public SeriesModel(SeriesRecord series, List<InstanceModel> instances)
     {
-        this.id = id;
-        this.seriesInstanceUID = seriesInstanceUID;
-        this.numberOfInstances = numberOfInstances;
+        this.series = series;
+        this.instances = instances;
     }
 
-    public static SeriesModel fromSeriesEty(SeriesEty seriesEty)
+    public static SeriesModel fromRecord(SeriesRecord series, List<InstanceModel> instances)
     {
-        return new SeriesModel(
-                seriesEty.getId(),
-                seriesEty.getSeriesInstanceUID(),
-                seriesEty.getInstances().size()
-        );
+        return new SeriesModel(series, instances);
     }
 
     public long getId()
     {
-        return id;
+        return series.id();
     }
 
     public String getSeriesInstanceUID()
     {
-        return seriesInstanceUID;
+        return series.seriesInstanceUID();
     }
 
     public long getNumberOfInstances()
     {
-        return numberOfInstances;
+        return instances.size();
+    }
+
+    public List<InstanceModel> getInstances()
+    {
+        return instances;
+    }
+
+    public Integer getSeriesNumber()
+    {
+        return series.seriesNumber();
+    }
+
+    public String getModality()
+    {
+        return series.modality();
+    }
+
+    public String getSeriesDescription()
+    {
+        return series.seriesDescription();
+    }
+
+    public LocalDate getSeriesDate()
+    {
+        return series.seriesDate();
+    }
+
+    public LocalTime getSeriesTime()
+    {
+        return series.seriesTime();
+    }
+
+    public String getPerformingPhysicianName()
+    {
+        return series.performingPhysicianName();
+    }
+
+    public String getProtocolName()
+    {
+        return series.protocolName();
+    }
+
+    public String getBodyPartExamined()
+    {
+        return series.bodyPartExamined();
+    }
+
+    public String getPatientPosition()
+    {
+        return series.patientPosition();
+    }
+
+    public String getLaterality()
+    {
+        return series.laterality();
     }
 }
@@ -0,0 +1,79 @@
+package de.famst.controller;
+
+import de.famst.data.SqlOperation;
+import de.famst.data.SqlStatementCounter;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+/**
+ * Counts the SQL statements of a web request against the budget of its {@link SqlOperation}.
+ *
+ * <p>The scope is opened before the handler runs and closed after the response has been
+ * rendered, so that statements issued while rendering (e.g. lazy loads) are counted as well.
+ * Asynchronous handlers which do their database work on another thread, such as the streaming
+ * QIDO-RS responses, hand the scope over and open one there; the scope of the request thread is
+ * then discarded. The scope of other asynchronous handlers, e.g. WADO-RS streaming files, is
+ * closed when the concurrent handling starts. The dispatch of the asynchronous result opens no
+ * scope.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public class SqlStatementScopeInterceptor implements AsyncHandlerInterceptor
+{
+    private static final String SCOPE_ATTRIBUTE = SqlStatementScopeInterceptor.class.getName() + ".scope";
+
+    private final SqlOperation operation;
+
+    public SqlStatementScopeInterceptor(SqlOperation operation)
+    {
+        this.operation = operation;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+    {
+        if (request.getDispatcherType() != DispatcherType.ASYNC)
+        {
+            request.setAttribute(SCOPE_ATTRIBUTE, SqlStatementCounter.open(operation));
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler)
+    {
+        if (request.getAttribute(SCOPE_ATTRIBUTE) instanceof SqlStatementCounter.Scope scope)
+        {
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+            if (scope.isHandedOver())
+            {
+                // the request continues on another thread, which counts its statements itself
+                scope.discard();
+            }
+            else
+            {
+                scope.close();
+            }
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex)
+    {
+        closeScope(request);
+    }
+
+    private static void closeScope(HttpServletRequest request)
+    {
+        if (request.getAttribute(SCOPE_ATTRIBUTE) instanceof SqlStatementCounter.Scope scope)
+        {
+            request.removeAttribute(SCOPE_ATTRIBUTE);
+            scope.close();
+        }
+    }
+}
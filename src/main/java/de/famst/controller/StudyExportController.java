@@ -0,0 +1,115 @@
+package de.famst.controller;
+
+import de.famst.service.StudyExportService;
+import de.famst.service.ZipExport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Study Export Controller.
+ *
+ * <p>Supported endpoints:
+ * <ul>
+ *   <li>GET /export/studies/{studyUID} - Export a study as ZIP</li>
+ *   <li>GET /export/studies?study={studyUID},{studyUID} - Export several studies as one ZIP</li>
+ * </ul>
+ *
+ * <p>With {@code dicomdir=true} the ZIP is a file-set with a DICOMDIR, which viewers and CD
+ * burners read, otherwise it holds the files by study and series UID. The ZIP is streamed from
+ * the archive files while they are read, see {@link ZipExport}; the body has no Content-Length
+ * and a file that cannot be read aborts it.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@RestController
+@RequestMapping("/export")
+public class StudyExportController
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StudyExportController.class);
+
+    static final String APPLICATION_ZIP_VALUE = "application/zip";
+
+    private final StudyExportService exportService;
+
+    /**
+     * Constructs a new StudyExportController.
+     *
+     * @param exportService the service finding the files of the studies
+     */
+    public StudyExportController(StudyExportService exportService)
+    {
+        this.exportService = exportService;
+    }
+
+    /**
+     * Exports a study.
+     *
+     * @param studyUID the Study Instance UID
+     * @param dicomDir whether the ZIP should contain a DICOMDIR (default: false)
+     * @return the ZIP or 404 if the study has no instances
+     */
+    @GetMapping("/studies/{studyUID}")
+    public ResponseEntity<StreamingResponseBody> exportStudy(
+            @PathVariable String studyUID,
+            @RequestParam(value = "dicomdir", defaultValue = "false") boolean dicomDir)
+    {
+        LOG.info("Export request: Study={}, DICOMDIR={}", studyUID, dicomDir);
+        return zip(exportService.export(List.of(studyUID), dicomDir), studyUID + ".zip");
+    }
+
+    /**
+     * Exports several studies into one ZIP.
+     *
+     * @param studyUIDs the Study Instance UIDs, repeated or separated by commas
+     * @param dicomDir  whether the ZIP should contain a DICOMDIR (default: false)
+     * @return the ZIP or 404 if none of the studies has instances
+     */
+    @GetMapping("/studies")
+    public ResponseEntity<StreamingResponseBody> exportStudies(
+            @RequestParam("study") List<String> studyUIDs,
+            @RequestParam(value = "dicomdir", defaultValue = "false") boolean dicomDir)
+    {
+        LOG.info("Export request: Studies={}, DICOMDIR={}", studyUIDs, dicomDir);
+
+        Set<String> studies = new LinkedHashSet<>(studyUIDs);
+        studies.removeIf(String::isBlank);
+        if (studies.isEmpty())
+        {
+            return ResponseEntity.badRequest().build();
+        }
+        return zip(exportService.export(studies, dicomDir), "studies.zip");
+    }
+
+    private static ResponseEntity<StreamingResponseBody> zip(ZipExport export, String fileName)
+    {
+        if (export.files().isEmpty())
+        {
+            LOG.warn("No instances found for export {}", fileName);
+            return ResponseEntity.notFound().build();
+        }
+
+        LOG.debug("Streaming {} instances as {}", export.files().size(), fileName);
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_TYPE, APPLICATION_ZIP_VALUE)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(fileName).build().toString())
+                .cacheControl(CacheControl.noCache().cachePrivate())
+                .body(export::writeTo);
+    }
+}
@@ -1,56 +1,82 @@
 package de.famst.controller;
 
-import de.famst.data.StudyEty;
+import de.famst.data.StudyRecord;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
 
 /**
  * Created by jens on 10/10/2016.
  */
 public class StudyModel
 {
-    private final StudyEty studyEty;
-    private final long id;
-    private final long numberOfSeries;
+    private final StudyRecord study;
+    private final List<SeriesModel> series;
 
-    public StudyModel()
+    public StudyModel(StudyRecord study, List<SeriesModel> series)
     {
-        studyEty = null;
-        id = -1;
-        numberOfSeries = 0;
+        this.study = study;
+        this.series = series;
     }
 
-    public StudyModel(long id, long numberOfSeries, StudyEty studyEty)
+    public static StudyModel fromRecord(StudyRecord study, List<SeriesModel> series)
     {
-        this.id = id;
-        this.numberOfSeries = numberOfSeries;
-        this.studyEty = studyEty;
+        return new StudyModel(study, series);
     }
 
-    public static StudyModel fromStudyEty(StudyEty studyEty)
+    public long getId()
     {
-        if (null == studyEty)
-        {
-            return new StudyModel();
-        }
+        return study.id();
+    }
 
-        return new StudyModel(
-            studyEty.getId(),
-            studyEty.getSeries().size(),
-            studyEty
-        );
+    public long getNumberOfSeries()
+    {
+        return series.size();
     }
 
-    public long getId()
+    public List<SeriesModel> getSeries()
     {
-        return id;
+        return series;
     }
 
-    public long getNumberOfSeries()
+    public String getStudyInstanceUID()
+    {
+        return study.studyInstanceUID();
+    }
+
+    public String getStudyId()
+    {
+        return study.studyId();
+    }
+
+    public String getStudyDescription()
+    {
+        return study.studyDescription();
+    }
+
+    public LocalDate getStudyDate()
+    {
+        return study.studyDate();
+    }
+
+    public LocalTime getStudyTime()
+    {
+        return study.studyTime();
+    }
+
+    public String getAccessionNumber()
+    {
+        return study.accessionNumber();
+    }
+
+    public String getModalitiesInStudy()
     {
-        return numberOfSeries;
+        return study.modalitiesInStudy();
     }
 
-    public StudyEty ety()
+    public String getReferringPhysicianName()
     {
-        return studyEty;
+        return study.referringPhysicianName();
     }
 }
@@ -0,0 +1,27 @@
+package de.famst.controller;
+
+import de.famst.data.SqlOperation;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Web MVC configuration of the DICOMweb endpoints and the patient list.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Configuration
+public class WebMvcConfig implements WebMvcConfigurer
+{
+    @Override
+    public void addInterceptors(InterceptorRegistry registry)
+    {
+        registry.addInterceptor(new SqlStatementScopeInterceptor(SqlOperation.QIDO_RS))
+            .addPathPatterns("/qido-rs/**");
+        registry.addInterceptor(new SqlStatementScopeInterceptor(SqlOperation.WADO_RS))
+            .addPathPatterns("/wado-rs/**");
+        registry.addInterceptor(new SqlStatementScopeInterceptor(SqlOperation.PATIENT_LIST))
+            .addPathPatterns("/patientlist");
+    }
+}
@@ -0,0 +1,64 @@
+package de.famst.data;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+
+import java.time.Instant;
+
+/**
+ * JPA Entity holding the time of the last change of a DICOM entity through the REST API, see
+ * {@link ModificationStamps}. The table has a single row, so the time survives a restart.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Entity
+@Table(name = "ARCHIVE_STAMP")
+public class ArchiveStampEty
+{
+    /**
+     * The id of the single row.
+     */
+    public static final long ID = 1;
+
+    @Id
+    private long id = ID;
+
+    @Column(nullable = false)
+    private Instant lastChange;
+
+    /**
+     * Default constructor required by JPA.
+     */
+    public ArchiveStampEty()
+    {
+        // Required by JPA
+    }
+
+    /**
+     * Constructs the row with the time of the last change.
+     *
+     * @param lastChange the time of the last change
+     */
+    public ArchiveStampEty(Instant lastChange)
+    {
+        this.lastChange = lastChange;
+    }
+
+    public long getId()
+    {
+        return id;
+    }
+
+    public Instant getLastChange()
+    {
+        return lastChange;
+    }
+
+    public void setLastChange(Instant lastChange)
+    {
+        this.lastChange = lastChange;
+    }
+}
@@ -0,0 +1,1045 @@
+package de.famst.data;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.TypedQuery;
+import jakarta.persistence.criteria.AbstractQuery;
+import jakarta.persistence.criteria.CompoundSelection;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Join;
+import jakarta.persistence.criteria.Order;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.DateRange;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Read model of the DICOM hierarchy.
+ *
+ * <p>All methods return immutable records built by JPQL constructor expressions, so no entity
+ * is ever put into the persistence context and there is nothing to dirty check or load lazily.
+ * Each level is read with a single query that joins the parent tables it needs; the matching
+ * keys of a C-FIND / QIDO-RS query are translated into the WHERE clause instead of being
+ * applied in memory. Keys of upper levels are matched in the same statement, e.g. the series
+ * of all studies of a patient in a date range are found by a single query joining the tables.
+ *
+ * <p>The {@code stream*} methods read the matches of large queries from a database cursor, so
+ * callers can process them one at a time without holding the whole result in memory. Their
+ * {@link QueryOptions} are applied in SQL as well: only a window of the matches is read, and
+ * columns of attributes that are not returned are selected as typed nulls.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Repository
+@Transactional(readOnly = true)
+public class DicomReadRepository
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DicomReadRepository.class);
+
+    private static final String HINT_FETCH_SIZE = "org.hibernate.fetchSize";
+    private static final int FETCH_SIZE = 256;
+
+    /**
+     * The matching keys of the patient and study level, see {@link #patientPredicates} and {@link #studyPredicates}.
+     */
+    private static final int[] PATIENT_KEYS = {Tag.PatientName, Tag.PatientID, Tag.PatientBirthDate, Tag.PatientSex,
+        Tag.PatientComments};
+    private static final int[] STUDY_KEYS = {Tag.StudyInstanceUID, Tag.StudyID, Tag.StudyDate, Tag.StudyDescription,
+        Tag.AccessionNumber, Tag.ModalitiesInStudy, Tag.ReferringPhysicianName};
+
+    /**
+     * The {@link PatientEty} attributes a page of patients can be sorted by, see {@link #findPatients(Pageable, String, String)}.
+     */
+    private static final Set<String> PATIENT_SORT_PROPERTIES = Set.of("patientName", "patientId",
+        "patientBirthDate", "patientSex", "patientAge");
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private ModificationStamps modificationStamps;
+
+    /**
+     * Finds the patients matching the given keys.
+     *
+     * @param keys the DICOM attributes containing search criteria
+     * @return the matching patients ordered by database id
+     */
+    public List<PatientRecord> findPatients(Attributes keys)
+    {
+        return findPatients(keys, QueryOptions.ALL);
+    }
+
+    /**
+     * Finds the window of the patients matching the given keys with the matching of the options,
+     * the columns of the options are not applied.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return the matching patients ordered by database id
+     */
+    public List<PatientRecord> findPatients(Attributes keys, QueryOptions options)
+    {
+        return list(patientQuery(PatientRecord.class, keys, options,
+            (cb, patient, none) -> patientRecord(cb, patient)), options, "patient");
+    }
+
+    /**
+     * Checks whether more patients match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if there is a match after the window
+     */
+    public boolean hasMorePatients(Attributes keys, QueryOptions options)
+    {
+        return hasMore(patientQuery(Long.class, keys, options, (cb, patient, none) -> patient.<Long>get("id")), options);
+    }
+
+    private <R> CriteriaQuery<R> patientQuery(Class<R> resultType, Attributes keys, QueryOptions options,
+                                              Selector<PatientEty, Void, R> selector)
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<R> query = cb.createQuery(resultType);
+        Root<PatientEty> patient = query.from(PatientEty.class);
+
+        KeyPredicates predicates = new KeyPredicates(cb, query, keys, options.fuzzyMatching());
+        patientPredicates(predicates, patient);
+
+        return query.select(selector.select(cb, patient, null))
+            .where(predicates.toArray())
+            .orderBy(cb.asc(patient.get("id")));
+    }
+
+    /**
+     * Returns a page of patients.
+     *
+     * @param pageable the page to read, sort properties refer to {@link PatientEty} attributes
+     * @return the page of patients
+     */
+    public Page<PatientRecord> findPatients(Pageable pageable)
+    {
+        return findPatients(pageable, null, null);
+    }
+
+    /**
+     * Returns a page of the patients whose free text contains all words of a text query, see
+     * {@link #findPatients(Pageable, String, String)}.
+     *
+     * @param pageable the page to read, sort properties refer to {@link PatientEty} attributes
+     * @param text     the text query, null or blank for all patients
+     * @return the page of patients
+     */
+    public Page<PatientRecord> findPatients(Pageable pageable, String text)
+    {
+        return findPatients(pageable, null, text);
+    }
+
+    /**
+     * Returns a page of the patients whose name matches a name query and whose free text contains
+     * all words of a text query. The name is matched fuzzily, i.e. case-insensitively at the start
+     * of the family or given name. The words may occur in the comments of the patient or the
+     * descriptions and comments of its studies, series and instances, see {@link TextIndex}.
+     *
+     * @param pageable the page to read, sorted by patient name, ID, birth date, sex or age
+     * @param name     the name query, null or blank for all names
+     * @param text     the text query, null or blank for all patients
+     * @return the page of patients
+     * @throws IllegalArgumentException if the page is sorted by another property
+     */
+    public Page<PatientRecord> findPatients(Pageable pageable, String name, String text)
+    {
+        Attributes keys = new Attributes(1);
+        if (name != null && !name.isBlank())
+        {
+            keys.setString(Tag.PatientName, VR.PN, name.trim());
+        }
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<PatientRecord> query = cb.createQuery(PatientRecord.class);
+        Root<PatientEty> patient = query.from(PatientEty.class);
+
+        List<Order> orders = new ArrayList<>();
+        for (Sort.Order order : pageable.getSort())
+        {
+            if (!PATIENT_SORT_PROPERTIES.contains(order.getProperty()))
+            {
+                throw new IllegalArgumentException("Patients cannot be sorted by " + order.getProperty());
+            }
+            Path<?> property = patient.get(order.getProperty());
+            orders.add(order.isAscending() ? cb.asc(property) : cb.desc(property));
+        }
+        orders.add(cb.asc(patient.get("id")));
+
+        query.select(patientRecord(cb, patient))
+            .where(patientListPredicates(cb, query, patient, keys, text))
+            .orderBy(orders);
+
+        TypedQuery<PatientRecord> typedQuery = entityManager.createQuery(query);
+        if (pageable.isPaged())
+        {
+            typedQuery.setFirstResult((int) pageable.getOffset());
+            typedQuery.setMaxResults(pageable.getPageSize());
+        }
+        List<PatientRecord> content = typedQuery.getResultList();
+
+        CriteriaQuery<Long> countQuery = cb.createQuery(Long.class);
+        Root<PatientEty> counted = countQuery.from(PatientEty.class);
+        countQuery.select(cb.count(counted))
+            .where(patientListPredicates(cb, countQuery, counted, keys, text));
+        long total = entityManager.createQuery(countQuery).getSingleResult();
+
+        return new PageImpl<>(content, pageable, total);
+    }
+
+    private static Predicate[] patientListPredicates(CriteriaBuilder cb, AbstractQuery<?> query,
+                                                     Root<PatientEty> patient, Attributes keys, String text)
+    {
+        KeyPredicates predicates = new KeyPredicates(cb, query, keys, true);
+        predicates.personName(Tag.PatientName, patient.get("patientName"),
+            patient.get("patientFamilyName"), patient.get("patientGivenName"));
+
+        List<Predicate> where = new ArrayList<>(List.of(predicates.toArray()));
+        where.addAll(TextIndex.containsWords(cb, query, text, null, patient.get("id")));
+        return where.toArray(new Predicate[0]);
+    }
+
+    /**
+     * Streams the names of all patients from a database cursor. The stream must be consumed and
+     * closed within the caller's transaction.
+     *
+     * @return the patient names, without patients that have none
+     */
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<String> streamPatientNames()
+    {
+        return entityManager.createQuery(
+                "select p.patientName from PatientEty p where p.patientName is not null", String.class)
+            .setHint(HINT_FETCH_SIZE, FETCH_SIZE)
+            .getResultStream();
+    }
+
+    /**
+     * Finds the studies matching the given keys, patient level keys are matched against the
+     * patient of the study.
+     *
+     * @param keys the DICOM attributes containing search criteria
+     * @return the matching studies ordered by database id
+     */
+    public List<StudyRecord> findStudies(Attributes keys)
+    {
+        return findStudies(keys, QueryOptions.ALL);
+    }
+
+    /**
+     * Finds the window of the studies matching the given keys with the matching of the options,
+     * the columns of the options are not applied.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return the matching studies ordered by database id
+     */
+    public List<StudyRecord> findStudies(Attributes keys, QueryOptions options)
+    {
+        return list(studyQuery(StudyRecord.class, keys, options,
+            (cb, study, patient) -> studyRecord(cb, study, patient, QueryOptions.ALL)), options, "study");
+    }
+
+    /**
+     * Streams a window of the studies matching the given keys from a database cursor, see
+     * {@link #findStudies(Attributes)}. The stream must be consumed and closed within the caller's transaction.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return the matching studies ordered by database id
+     */
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<StudyRecord> streamStudies(Attributes keys, QueryOptions options)
+    {
+        return stream(studyQuery(StudyRecord.class, keys, options,
+            (cb, study, patient) -> studyRecord(cb, study, patient, options)), options);
+    }
+
+    /**
+     * Checks whether more studies match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if there is a match after the window
+     */
+    public boolean hasMoreStudies(Attributes keys, QueryOptions options)
+    {
+        return hasMore(studyQuery(Long.class, keys, options, (cb, study, patient) -> study.<Long>get("id")), options);
+    }
+
+    private <R> CriteriaQuery<R> studyQuery(Class<R> resultType, Attributes keys, QueryOptions options,
+                                            Selector<StudyEty, PatientEty, R> selector)
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<R> query = cb.createQuery(resultType);
+        Root<StudyEty> study = query.from(StudyEty.class);
+        Path<PatientEty> patient = study.join("patient");
+
+        KeyPredicates predicates = new KeyPredicates(cb, query, keys, options.fuzzyMatching());
+        patientPredicates(predicates, patient);
+        studyPredicates(predicates, study);
+
+        return query.select(selector.select(cb, study, patient))
+            .where(predicates.toArray())
+            .orderBy(cb.asc(study.get("id")));
+    }
+
+    /**
+     * Returns all studies of the given patients.
+     *
+     * @param patientIds the database ids of the patients
+     * @return the studies ordered by database id
+     */
+    public List<StudyRecord> findStudiesOfPatients(Collection<Long> patientIds)
+    {
+        if (patientIds.isEmpty())
+        {
+            return List.of();
+        }
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<StudyRecord> query = cb.createQuery(StudyRecord.class);
+        Root<StudyEty> study = query.from(StudyEty.class);
+        Path<PatientEty> patient = study.join("patient");
+
+        query.select(studyRecord(cb, study, patient, QueryOptions.ALL))
+            .where(patient.get("id").in(patientIds))
+            .orderBy(cb.asc(study.get("id")));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    /**
+     * Finds the series matching the given keys, patient and study level keys are matched
+     * against the study of the series and its patient.
+     *
+     * @param keys the DICOM attributes containing search criteria
+     * @return the matching series ordered by database id
+     */
+    public List<SeriesRecord> findSeries(Attributes keys)
+    {
+        return findSeries(keys, QueryOptions.ALL);
+    }
+
+    /**
+     * Finds the window of the series matching the given keys with the matching of the options,
+     * the columns of the options are not applied.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return the matching series ordered by database id
+     */
+    public List<SeriesRecord> findSeries(Attributes keys, QueryOptions options)
+    {
+        return list(seriesQuery(SeriesRecord.class, keys, options,
+            (cb, series, study) -> seriesRecord(cb, series, study, QueryOptions.ALL)), options, "series");
+    }
+
+    /**
+     * Streams a window of the series matching the given keys from a database cursor, see
+     * {@link #findSeries(Attributes)}. The stream must be consumed and closed within the caller's transaction.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return the matching series ordered by database id
+     */
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<SeriesRecord> streamSeries(Attributes keys, QueryOptions options)
+    {
+        return stream(seriesQuery(SeriesRecord.class, keys, options,
+            (cb, series, study) -> seriesRecord(cb, series, study, options)), options);
+    }
+
+    /**
+     * Checks whether more series match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if there is a match after the window
+     */
+    public boolean hasMoreSeries(Attributes keys, QueryOptions options)
+    {
+        return hasMore(seriesQuery(Long.class, keys, options, (cb, series, study) -> series.<Long>get("id")), options);
+    }
+
+    private <R> CriteriaQuery<R> seriesQuery(Class<R> resultType, Attributes keys, QueryOptions options,
+                                             Selector<SeriesEty, StudyEty, R> selector)
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<R> query = cb.createQuery(resultType);
+        Root<SeriesEty> series = query.from(SeriesEty.class);
+        Join<SeriesEty, StudyEty> study = series.join("study");
+
+        KeyPredicates predicates = new KeyPredicates(cb, query, keys, options.fuzzyMatching());
+        if (containsAny(keys, PATIENT_KEYS))
+        {
+            patientPredicates(predicates, study.join("patient"));
+        }
+        studyPredicates(predicates, study);
+        seriesPredicates(predicates, series);
+
+        return query.select(selector.select(cb, series, study))
+            .where(predicates.toArray())
+            .orderBy(cb.asc(series.get("id")));
+    }
+
+    /**
+     * Returns all series of the given studies.
+     *
+     * @param studyIds the database ids of the studies
+     * @return the series ordered by database id
+     */
+    public List<SeriesRecord> findSeriesOfStudies(Collection<Long> studyIds)
+    {
+        if (studyIds.isEmpty())
+        {
+            return List.of();
+        }
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<SeriesRecord> query = cb.createQuery(SeriesRecord.class);
+        Root<SeriesEty> series = query.from(SeriesEty.class);
+        Path<StudyEty> study = series.join("study");
+
+        query.select(seriesRecord(cb, series, study, QueryOptions.ALL))
+            .where(study.get("id").in(studyIds))
+            .orderBy(cb.asc(series.get("id")));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    /**
+     * Finds the instances matching the given keys, patient, study and series level keys are
+     * matched against the series of the instance and its parents.
+     *
+     * @param keys the DICOM attributes containing search criteria
+     * @return the matching instances ordered by database id
+     */
+    public List<InstanceRecord> findInstances(Attributes keys)
+    {
+        return findInstances(keys, QueryOptions.ALL);
+    }
+
+    /**
+     * Finds the window of the instances matching the given keys with the matching of the options,
+     * the columns of the options are not applied.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return the matching instances ordered by database id
+     */
+    public List<InstanceRecord> findInstances(Attributes keys, QueryOptions options)
+    {
+        return list(instanceQuery(InstanceRecord.class, keys, options,
+            (cb, instance, series) -> instanceRecord(cb, instance, series, QueryOptions.ALL)), options, "instance");
+    }
+
+    /**
+     * Streams a window of the instances matching the given keys from a database cursor, see
+     * {@link #findInstances(Attributes)}. The stream must be consumed and closed within the caller's transaction.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return the matching instances ordered by database id
+     */
+    @Transactional(readOnly = true, propagation = Propagation.MANDATORY)
+    public Stream<InstanceRecord> streamInstances(Attributes keys, QueryOptions options)
+    {
+        return stream(instanceQuery(InstanceRecord.class, keys, options,
+            (cb, instance, series) -> instanceRecord(cb, instance, series, options)), options);
+    }
+
+    /**
+     * Checks whether more instances match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if there is a match after the window
+     */
+    public boolean hasMoreInstances(Attributes keys, QueryOptions options)
+    {
+        return hasMore(instanceQuery(Long.class, keys, options,
+            (cb, instance, series) -> instance.<Long>get("id")), options);
+    }
+
+    private <R> CriteriaQuery<R> instanceQuery(Class<R> resultType, Attributes keys, QueryOptions options,
+                                               Selector<InstanceEty, SeriesEty, R> selector)
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<R> query = cb.createQuery(resultType);
+        Root<InstanceEty> instance = query.from(InstanceEty.class);
+        Join<InstanceEty, SeriesEty> series = instance.join("series");
+
+        // the tables of the upper levels are only joined if their keys are matched
+        KeyPredicates predicates = new KeyPredicates(cb, query, keys, options.fuzzyMatching());
+        if (containsAny(keys, PATIENT_KEYS) || containsAny(keys, STUDY_KEYS))
+        {
+            Join<SeriesEty, StudyEty> study = series.join("study");
+            if (containsAny(keys, PATIENT_KEYS))
+            {
+                patientPredicates(predicates, study.join("patient"));
+            }
+            studyPredicates(predicates, study);
+        }
+        seriesPredicates(predicates, series);
+        predicates
+            .string(Tag.SOPInstanceUID, instance.get("instanceUID"))
+            .integer(Tag.InstanceNumber, instance.get("instanceNumber"))
+            .date(Tag.ContentDate, instance.get("contentDate"))
+            .integer(Tag.AcquisitionNumber, instance.get("acquisitionNumber"))
+            .date(Tag.AcquisitionDate, instance.get("acquisitionDate"))
+            .contains(Tag.ImageType, instance.get("imageType"))
+            .integer(Tag.Rows, instance.get("rows"))
+            .integer(Tag.Columns, instance.get("columns"))
+            .text(Tag.ImageComments, instance.get("imageComments"), QueryRetrieveLevel2.IMAGE, instance.get("id"));
+
+        return query.select(selector.select(cb, instance, series))
+            .where(predicates.toArray())
+            .orderBy(cb.asc(instance.get("id")));
+    }
+
+    /**
+     * Returns all instances of the given series.
+     *
+     * @param seriesIds the database ids of the series
+     * @return the instances ordered by database id
+     */
+    public List<InstanceRecord> findInstancesOfSeries(Collection<Long> seriesIds)
+    {
+        if (seriesIds.isEmpty())
+        {
+            return List.of();
+        }
+
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<InstanceRecord> query = cb.createQuery(InstanceRecord.class);
+        Root<InstanceEty> instance = query.from(InstanceEty.class);
+        Path<SeriesEty> series = instance.join("series");
+
+        query.select(instanceRecord(cb, instance, series, QueryOptions.ALL))
+            .where(series.get("id").in(seriesIds))
+            .orderBy(cb.asc(instance.get("id")));
+
+        return entityManager.createQuery(query).getResultList();
+    }
+
+    /**
+     * Returns the latest modification stamp of the archive: of all studies and of the last change
+     * through the REST API, see {@link ModificationStamps}. Every ingested instance stamps its
+     * study, so the stamp changes whenever the result of a query across the archive may change,
+     * also when a patient or study is deleted.
+     *
+     * @return the latest stamp, null if the archive is empty
+     */
+    public Instant findLastModified()
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Instant> query = cb.createQuery(Instant.class);
+        Root<StudyEty> study = query.from(StudyEty.class);
+
+        query.select(cb.greatest(study.<Instant>get("lastModified")));
+
+        Instant lastModified = entityManager.createQuery(query).getSingleResult();
+        if (lastModified == null)
+        {
+            return null;
+        }
+        Instant lastChange = modificationStamps.getLastChange();
+        return lastChange.isAfter(lastModified) ? lastChange : lastModified;
+    }
+
+    /**
+     * Returns the modification stamp of a study.
+     *
+     * @param studyInstanceUID the Study Instance UID
+     * @return the stamp, null if the study does not exist
+     */
+    public Instant findStudyLastModified(String studyInstanceUID)
+    {
+        return lastModified(StudyEty.class, "studyInstanceUID", studyInstanceUID);
+    }
+
+    /**
+     * Returns the modification stamp of a series.
+     *
+     * @param seriesInstanceUID the Series Instance UID
+     * @return the stamp, null if the series does not exist
+     */
+    public Instant findSeriesLastModified(String seriesInstanceUID)
+    {
+        return lastModified(SeriesEty.class, "seriesInstanceUID", seriesInstanceUID);
+    }
+
+    /**
+     * Returns the modification stamp of a series of a given study.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @return the stamp, null if the series does not exist or belongs to another study
+     */
+    public Instant findSeriesLastModified(String studyInstanceUID, String seriesInstanceUID)
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Instant> query = cb.createQuery(Instant.class);
+        Root<SeriesEty> series = query.from(SeriesEty.class);
+        Path<StudyEty> study = series.join("study");
+
+        query.select(series.<Instant>get("lastModified"))
+            .where(cb.equal(series.get("seriesInstanceUID"), seriesInstanceUID),
+                cb.equal(study.get("studyInstanceUID"), studyInstanceUID));
+
+        return entityManager.createQuery(query).getResultStream().findFirst().orElse(null);
+    }
+
+    private <E> Instant lastModified(Class<E> entityType, String uidAttribute, String uid)
+    {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Instant> query = cb.createQuery(Instant.class);
+        Root<E> root = query.from(entityType);
+
+        query.select(root.<Instant>get("lastModified"))
+            .where(cb.equal(root.get(uidAttribute), uid));
+
+        return entityManager.createQuery(query).getResultStream().findFirst().orElse(null);
+    }
+
+    private <T> List<T> list(CriteriaQuery<T> query, QueryOptions options, String level)
+    {
+        TypedQuery<T> typedQuery = entityManager.createQuery(query);
+        if (options.offset() > 0)
+        {
+            typedQuery.setFirstResult(options.offset());
+        }
+        if (options.limit() != QueryOptions.UNLIMITED)
+        {
+            typedQuery.setMaxResults(options.limit());
+        }
+
+        List<T> records = typedQuery.getResultList();
+        LOG.info("found [{}] {} record(s) matching query criteria", records.size(), level);
+        return records;
+    }
+
+    private <T> Stream<T> stream(CriteriaQuery<T> query, QueryOptions options)
+    {
+        // rows are fetched in chunks while the stream is consumed instead of all at once
+        TypedQuery<T> typedQuery = entityManager.createQuery(query).setHint(HINT_FETCH_SIZE, FETCH_SIZE);
+        if (options.offset() > 0)
+        {
+            typedQuery.setFirstResult(options.offset());
+        }
+        if (options.limit() != QueryOptions.UNLIMITED)
+        {
+            typedQuery.setMaxResults(options.limit());
+        }
+        return typedQuery.getResultStream();
+    }
+
+    /**
+     * Probes for a single id after the window, instead of counting all matches.
+     */
+    private boolean hasMore(CriteriaQuery<Long> query, QueryOptions options)
+    {
+        long next = (long) options.offset() + options.limit();
+        if (options.limit() == QueryOptions.UNLIMITED || next > Integer.MAX_VALUE)
+        {
+            return false;
+        }
+
+        return !entityManager.createQuery(query)
+            .setFirstResult((int) next)
+            .setMaxResults(1)
+            .getResultList()
+            .isEmpty();
+    }
+
+    private static void patientPredicates(KeyPredicates predicates, Path<PatientEty> patient)
+    {
+        predicates
+            .personName(Tag.PatientName, patient.get("patientName"),
+                patient.get("patientFamilyName"), patient.get("patientGivenName"))
+            .string(Tag.PatientID, patient.get("patientId"))
+            .date(Tag.PatientBirthDate, patient.get("patientBirthDate"))
+            .string(Tag.PatientSex, patient.get("patientSex"))
+            .text(Tag.PatientComments, patient.get("patientComments"), QueryRetrieveLevel2.PATIENT, patient.get("id"));
+    }
+
+    private static void studyPredicates(KeyPredicates predicates, Path<StudyEty> study)
+    {
+        predicates
+            .string(Tag.StudyInstanceUID, study.get("studyInstanceUID"))
+            .string(Tag.StudyID, study.get("studyId"))
+            .date(Tag.StudyDate, study.get("studyDate"))
+            .text(Tag.StudyDescription, study.get("studyDescription"), QueryRetrieveLevel2.STUDY, study.get("id"))
+            .string(Tag.AccessionNumber, study.get("accessionNumber"))
+            .contains(Tag.ModalitiesInStudy, study.get("modalitiesInStudy"))
+            .personName(Tag.ReferringPhysicianName, study.get("referringPhysicianName"),
+                study.get("referringPhysicianFamilyName"), study.get("referringPhysicianGivenName"));
+    }
+
+    private static void seriesPredicates(KeyPredicates predicates, Path<SeriesEty> series)
+    {
+        predicates
+            .string(Tag.SeriesInstanceUID, series.get("seriesInstanceUID"))
+            .string(Tag.Modality, series.get("modality"))
+            .integer(Tag.SeriesNumber, series.get("seriesNumber"))
+            .text(Tag.SeriesDescription, series.get("seriesDescription"), QueryRetrieveLevel2.SERIES, series.get("id"))
+            .date(Tag.SeriesDate, series.get("seriesDate"))
+            .personName(Tag.PerformingPhysicianName, series.get("performingPhysicianName"),
+                series.get("performingPhysicianFamilyName"), series.get("performingPhysicianGivenName"))
+            .string(Tag.BodyPartExamined, series.get("bodyPartExamined"));
+    }
+
+    private static boolean containsAny(Attributes keys, int[] tags)
+    {
+        for (int tag : tags)
+        {
+            if (keys.containsValue(tag))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static CompoundSelection<PatientRecord> patientRecord(CriteriaBuilder cb, Path<PatientEty> patient)
+    {
+        return cb.construct(PatientRecord.class,
+            patient.get("id"),
+            patient.get("patientName"),
+            patient.get("patientId"),
+            patient.get("patientBirthDate"),
+            patient.get("patientSex"),
+            patient.get("patientBirthTime"),
+            patient.get("otherPatientIds"),
+            patient.get("otherPatientNames"),
+            patient.get("ethnicGroup"),
+            patient.get("patientComments"),
+            patient.get("patientAge"),
+            patient.get("patientSize"),
+            patient.get("patientWeight"),
+            patient.get("medicalAlerts"),
+            patient.get("allergies"),
+            patient.get("pregnancyStatus"),
+            patient.get("responsiblePerson"),
+            patient.get("responsibleOrganization"));
+    }
+
+    private static CompoundSelection<StudyRecord> studyRecord(CriteriaBuilder cb, Path<StudyEty> study,
+                                                              Path<PatientEty> patient, QueryOptions options)
+    {
+        return cb.construct(StudyRecord.class,
+            study.get("id"),
+            patient.get("id"),
+            column(cb, options, Tag.PatientName, patient.get("patientName")),
+            patient.get("patientId"),
+            column(cb, options, Tag.PatientBirthDate, patient.get("patientBirthDate")),
+            column(cb, options, Tag.PatientSex, patient.get("patientSex")),
+            study.get("studyInstanceUID"),
+            column(cb, options, Tag.StudyID, study.get("studyId")),
+            column(cb, options, Tag.StudyDate, study.get("studyDate")),
+            column(cb, options, Tag.StudyTime, study.get("studyTime")),
+            column(cb, options, Tag.StudyDescription, study.get("studyDescription")),
+            column(cb, options, Tag.AccessionNumber, study.get("accessionNumber")),
+            column(cb, options, Tag.ModalitiesInStudy, study.get("modalitiesInStudy")),
+            column(cb, options, Tag.ReferringPhysicianName, study.get("referringPhysicianName")));
+    }
+
+    private static CompoundSelection<SeriesRecord> seriesRecord(CriteriaBuilder cb, Path<SeriesEty> series,
+                                                                Path<StudyEty> study, QueryOptions options)
+    {
+        return cb.construct(SeriesRecord.class,
+            series.get("id"),
+            study.get("id"),
+            study.get("studyInstanceUID"),
+            series.get("seriesInstanceUID"),
+            column(cb, options, Tag.SeriesNumber, series.get("seriesNumber")),
+            column(cb, options, Tag.Modality, series.get("modality")),
+            column(cb, options, Tag.SeriesDescription, series.get("seriesDescription")),
+            column(cb, options, Tag.SeriesDate, series.get("seriesDate")),
+            column(cb, options, Tag.SeriesTime, series.get("seriesTime")),
+            column(cb, options, Tag.PerformingPhysicianName, series.get("performingPhysicianName")),
+            column(cb, options, Tag.ProtocolName, series.get("protocolName")),
+            column(cb, options, Tag.BodyPartExamined, series.get("bodyPartExamined")),
+            column(cb, options, Tag.PatientPosition, series.get("patientPosition")),
+            column(cb, options, Tag.Laterality, series.get("laterality")),
+            column(cb, options, Tag.OperatorsName, series.get("operatorsName")));
+    }
+
+    private static CompoundSelection<InstanceRecord> instanceRecord(CriteriaBuilder cb, Path<InstanceEty> instance,
+                                                                    Path<SeriesEty> series, QueryOptions options)
+    {
+        return cb.construct(InstanceRecord.class,
+            instance.get("id"),
+            series.get("id"),
+            series.get("seriesInstanceUID"),
+            instance.get("instanceUID"),
+            // not an attribute, only needed by callers reading all columns
+            options.returnTags() == null ? instance.get("path") : cb.nullLiteral(String.class),
+            column(cb, options, Tag.InstanceNumber, instance.get("instanceNumber")),
+            column(cb, options, Tag.ContentDate, instance.get("contentDate")),
+            column(cb, options, Tag.ContentTime, instance.get("contentTime")),
+            column(cb, options, Tag.ImageType, instance.get("imageType")),
+            column(cb, options, Tag.AcquisitionNumber, instance.get("acquisitionNumber")),
+            column(cb, options, Tag.AcquisitionDate, instance.get("acquisitionDate")),
+            column(cb, options, Tag.AcquisitionTime, instance.get("acquisitionTime")),
+            column(cb, options, Tag.Rows, instance.get("rows")),
+            column(cb, options, Tag.Columns, instance.get("columns")),
+            column(cb, options, Tag.BitsAllocated, instance.get("bitsAllocated")),
+            column(cb, options, Tag.BitsStored, instance.get("bitsStored")));
+    }
+
+    /**
+     * Selects the column of an attribute only if the attribute is returned, otherwise a typed
+     * null, so the record can still be constructed.
+     */
+    private static Selection<?> column(CriteriaBuilder cb, QueryOptions options, int tag, Path<?> path)
+    {
+        return options.returns(tag) ? path : cb.nullLiteral(path.getJavaType());
+    }
+
+    /**
+     * Builds the selection of a level query from its root and the joined parent.
+     */
+    @FunctionalInterface
+    private interface Selector<E, P, R>
+    {
+        Selection<? extends R> select(CriteriaBuilder cb, Root<E> root, Path<P> parent);
+    }
+
+    /**
+     * Translates DICOM matching keys into criteria predicates. Keys that are absent or empty
+     * (return keys only) and the universal match {@code *} do not restrict the query.
+     */
+    private static final class KeyPredicates
+    {
+        private static final char ESCAPE = '\\';
+
+        private final CriteriaBuilder cb;
+        private final AbstractQuery<?> query;
+        private final Attributes keys;
+        private final boolean fuzzy;
+        private final List<Predicate> predicates = new ArrayList<>();
+
+        KeyPredicates(CriteriaBuilder cb, AbstractQuery<?> query, Attributes keys, boolean fuzzy)
+        {
+            this.cb = cb;
+            this.query = query;
+            this.keys = keys;
+            this.fuzzy = fuzzy;
+        }
+
+        /**
+         * Single value matching, wild card matching ({@code *}, {@code ?}) or list of UID matching.
+         */
+        KeyPredicates string(int tag, Path<String> path)
+        {
+            String[] values = keys.getStrings(tag);
+            if (values == null || values.length == 0 || values[0] == null || values[0].isEmpty()
+                || "*".equals(values[0]))
+            {
+                return this;
+            }
+
+            if (values.length > 1)
+            {
+                predicates.add(path.in((Object[]) values));
+            }
+            else if (values[0].indexOf('*') >= 0 || values[0].indexOf('?') >= 0)
+            {
+                predicates.add(cb.like(path, toLikePattern(values[0]), ESCAPE));
+            }
+            else
+            {
+                predicates.add(cb.equal(path, values[0]));
+            }
+            return this;
+        }
+
+        /**
+         * Person name matching. Without fuzzy matching it is the same as {@link #string} on the
+         * name; with fuzzy matching the value is normalized like the stored names (see
+         * {@link PersonNames}) and matched as prefix of the indexed family and given name columns:
+         * {@code smi} matches {@code Smith^John} as well as {@code Doe^Smiley}, {@code müller^j}
+         * matches {@code MULLER^JURGEN} only.
+         */
+        KeyPredicates personName(int tag, Path<String> path, Path<String> family, Path<String> given)
+        {
+            if (!fuzzy)
+            {
+                return string(tag, path);
+            }
+
+            String value = keys.getString(tag);
+            if (value == null || value.isEmpty() || "*".equals(value))
+            {
+                return this;
+            }
+
+            int separator = value.indexOf(PersonNames.COMPONENT_SEPARATOR);
+            if (separator < 0)
+            {
+                String pattern = prefixPattern(value);
+                predicates.add(cb.or(cb.like(family, pattern, ESCAPE), cb.like(given, pattern, ESCAPE)));
+                return this;
+            }
+
+            String familyValue = PersonNames.family(value);
+            if (familyValue != null && !"*".equals(familyValue))
+            {
+                predicates.add(cb.like(family, prefixPattern(familyValue), ESCAPE));
+            }
+            String givenValue = PersonNames.given(value);
+            if (givenValue != null && !"*".equals(givenValue))
+            {
+                predicates.add(cb.like(given, prefixPattern(givenValue), ESCAPE));
+            }
+            return this;
+        }
+
+        /**
+         * Free text matching. Without fuzzy matching it is the same as {@link #string}; with fuzzy
+         * matching the value is a list of words that must all occur in the text, looked up in the
+         * {@link TextIndex} regardless of case and diacritics, e.g. {@code contrast follow*}
+         * matches {@code CT Thorax, Follow-Up with Contrast}.
+         */
+        KeyPredicates text(int tag, Path<String> path, QueryRetrieveLevel2 level, Path<Long> id)
+        {
+            if (!fuzzy)
+            {
+                return string(tag, path);
+            }
+
+            String value = keys.getString(tag);
+            if (value != null && !value.isEmpty() && !"*".equals(value))
+            {
+                predicates.addAll(TextIndex.containsWords(cb, query, value, level, id));
+            }
+            return this;
+        }
+
+        /**
+         * Matches multi-valued attributes stored as a single string, e.g. Modalities in Study.
+         */
+        KeyPredicates contains(int tag, Path<String> path)
+        {
+            String value = keys.getString(tag);
+            if (value != null && !value.isEmpty() && !"*".equals(value))
+            {
+                predicates.add(cb.like(path, "%" + escape(value) + "%", ESCAPE));
+            }
+            return this;
+        }
+
+        KeyPredicates integer(int tag, Path<Integer> path)
+        {
+            if (keys.contains(tag))
+            {
+                int value = keys.getInt(tag, -1);
+                if (value >= 0)
+                {
+                    predicates.add(cb.equal(path, value));
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Single date or date range matching ({@code 20240101-}, {@code -20241231}, ...).
+         */
+        KeyPredicates date(int tag, Path<LocalDate> path)
+        {
+            if (!keys.containsValue(tag))
+            {
+                return this;
+            }
+
+            DateRange range = keys.getDateRange(tag, null);
+            if (range == null)
+            {
+                return this;
+            }
+
+            LocalDate start = toLocalDate(range.getStartDate());
+            LocalDate end = toLocalDate(range.getEndDate());
+            if (start != null && end != null)
+            {
+                predicates.add(start.equals(end) ? cb.equal(path, start) : cb.between(path, start, end));
+            }
+            else if (start != null)
+            {
+                predicates.add(cb.greaterThanOrEqualTo(path, start));
+            }
+            else if (end != null)
+            {
+                predicates.add(cb.lessThanOrEqualTo(path, end));
+            }
+            return this;
+        }
+
+        Predicate[] toArray()
+        {
+            return predicates.toArray(new Predicate[0]);
+        }
+
+        private static LocalDate toLocalDate(Date date)
+        {
+            return date != null ? LocalDate.ofInstant(date.toInstant(), ZoneId.systemDefault()) : null;
+        }
+
+        /**
+         * Normalizes a name component and turns it into a pattern matching its prefix, which can
+         * be answered from the index of the column.
+         */
+        private static String prefixPattern(String value)
+        {
+            String pattern = toLikePattern(PersonNames.normalize(value));
+            return pattern.endsWith("%") ? pattern : pattern + "%";
+        }
+
+        private static String toLikePattern(String value)
+        {
+            return escape(value).replace('*', '%').replace('?', '_');
+        }
+
+        private static String escape(String value)
+        {
+            return value
+                .replace("\\", "\\\\")
+                .replace("%", "\\%")
+                .replace("_", "\\_");
+        }
+    }
+}
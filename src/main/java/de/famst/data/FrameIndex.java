@@ -0,0 +1,195 @@
+package de.famst.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Where the frames of an instance are within the value of its Pixel Data.
+ *
+ * <p>Each frame consists of one or more fragments, given by offset and length relative to the
+ * start of the Pixel Data value. A fragment of native Pixel Data is a frame of fixed size, a
+ * fragment of encapsulated Pixel Data is the value of an item, without the item header. The
+ * index of encapsulated Pixel Data is built at ingest and stored in {@link InstanceFramesEty},
+ * the index of native Pixel Data is computed from its length and number of frames.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class FrameIndex
+{
+    private final long[] offsets;
+    private final long[] lengths;
+
+    /**
+     * The first fragment of each frame, followed by the number of fragments.
+     */
+    private final int[] firstFragments;
+
+    /**
+     * Constructs an index from its fragments.
+     *
+     * @param offsets        the offsets of the fragments relative to the Pixel Data value
+     * @param lengths        the lengths of the fragments
+     * @param firstFragments the first fragment of each frame, ascending and starting with 0
+     * @throws IllegalArgumentException if the arrays do not describe frames of fragments
+     */
+    public FrameIndex(long[] offsets, long[] lengths, int[] firstFragments)
+    {
+        if (offsets.length == 0 || offsets.length != lengths.length
+            || firstFragments.length == 0 || firstFragments[0] != 0)
+        {
+            throw new IllegalArgumentException("Invalid frame index");
+        }
+        for (int frame = 1; frame < firstFragments.length; frame++)
+        {
+            if (firstFragments[frame] <= firstFragments[frame - 1] || firstFragments[frame] >= offsets.length)
+            {
+                throw new IllegalArgumentException("Invalid frame index");
+            }
+        }
+
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.firstFragments = new int[firstFragments.length + 1];
+        System.arraycopy(firstFragments, 0, this.firstFragments, 0, firstFragments.length);
+        this.firstFragments[firstFragments.length] = offsets.length;
+    }
+
+    /**
+     * Computes the index of native Pixel Data, whose frames follow each other with equal size.
+     * The length of the value may include a padding byte.
+     *
+     * @param pixelDataLength the length of the Pixel Data value
+     * @param frames          the number of frames
+     * @return the index, or null if the value cannot be split into frames of whole bytes
+     */
+    public static FrameIndex ofNative(long pixelDataLength, int frames)
+    {
+        if (frames < 1 || pixelDataLength < frames || pixelDataLength % frames > 1)
+        {
+            return null;
+        }
+
+        long frameLength = pixelDataLength / frames;
+        long[] offsets = new long[frames];
+        long[] lengths = new long[frames];
+        int[] firstFragments = new int[frames];
+        for (int frame = 0; frame < frames; frame++)
+        {
+            offsets[frame] = frame * frameLength;
+            lengths[frame] = frameLength;
+            firstFragments[frame] = frame;
+        }
+        return new FrameIndex(offsets, lengths, firstFragments);
+    }
+
+    /**
+     * @return the number of frames
+     */
+    public int frames()
+    {
+        return firstFragments.length - 1;
+    }
+
+    /**
+     * @param frame the frame, starting at 0
+     * @return the first fragment of the frame
+     */
+    public int firstFragment(int frame)
+    {
+        return firstFragments[frame];
+    }
+
+    /**
+     * @param frame the frame, starting at 0
+     * @return the fragment after the last fragment of the frame
+     */
+    public int endFragment(int frame)
+    {
+        return firstFragments[frame + 1];
+    }
+
+    /**
+     * @param fragment the fragment
+     * @return the offset of the fragment relative to the Pixel Data value
+     */
+    public long offset(int fragment)
+    {
+        return offsets[fragment];
+    }
+
+    /**
+     * @param fragment the fragment
+     * @return the length of the fragment in bytes
+     */
+    public long length(int fragment)
+    {
+        return lengths[fragment];
+    }
+
+    /**
+     * @param frame the frame, starting at 0
+     * @return the length of the frame, the sum of its fragments
+     */
+    public long frameLength(int frame)
+    {
+        long length = 0;
+        for (int fragment = firstFragment(frame); fragment < endFragment(frame); fragment++)
+        {
+            length += lengths[fragment];
+        }
+        return length;
+    }
+
+    byte[] encode()
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + offsets.length * 20);
+        try (DataOutputStream out = new DataOutputStream(bytes))
+        {
+            out.writeInt(offsets.length);
+            out.writeInt(frames());
+            for (int fragment = 0; fragment < offsets.length; fragment++)
+            {
+                out.writeLong(offsets[fragment]);
+                out.writeLong(lengths[fragment]);
+            }
+            for (int frame = 0; frame < frames(); frame++)
+            {
+                out.writeInt(firstFragments[frame]);
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("encoding frame index failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static FrameIndex decode(byte[] index)
+    {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(index)))
+        {
+            long[] offsets = new long[in.readInt()];
+            long[] lengths = new long[offsets.length];
+            int[] firstFragments = new int[in.readInt()];
+            for (int fragment = 0; fragment < offsets.length; fragment++)
+            {
+                offsets[fragment] = in.readLong();
+                lengths[fragment] = in.readLong();
+            }
+            for (int frame = 0; frame < firstFragments.length; frame++)
+            {
+                firstFragments[frame] = in.readInt();
+            }
+            return new FrameIndex(offsets, lengths, firstFragments);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("decoding frame index failed", e);
+        }
+    }
+}
@@ -39,9 +39,14 @@ import java.util.Objects;
  *   <li>Columns (0028,0011) - Number of columns in the image</li>
  *   <li>Bits Allocated (0028,0100) - Number of bits allocated for each pixel sample</li>
  *   <li>Bits Stored (0028,0101) - Number of bits stored for each pixel sample</li>
+ *   <li>Number of Frames (0028,0008) - Number of frames of a multi-frame image</li>
  *   <li>File Path - Location where the DICOM file is stored (local attribute)</li>
  * </ul>
  *
+ * <p>At ingest the archived file is indexed: its transfer syntax, the position and length of the
+ * value of its Pixel Data, and its size and modification time, so the pixels can be served
+ * without parsing the file, see {@link #hasPixelData()}.
+ *
  * @author jens
  * @since 2016-10-03
  */
@@ -90,6 +95,19 @@ public class InstanceEty
 
     private Integer bitsStored;
 
+    private Integer numberOfFrames;
+
+    @Column(length = 64)
+    private String transferSyntaxUID;
+
+    private Long pixelDataOffset;
+
+    private Long pixelDataLength;
+
+    private Long fileSize;
+
+    private Long fileLastModified;
+
     @ManyToOne(fetch = FetchType.LAZY)
     private SeriesEty series;
 
@@ -436,6 +454,136 @@ public class InstanceEty
         this.bitsStored = bitsStored;
     }
 
+    /**
+     * Returns the number of frames of a multi-frame image.
+     *
+     * @return the number of frames, may be null for a single frame
+     */
+    public Integer getNumberOfFrames()
+    {
+        return numberOfFrames;
+    }
+
+    /**
+     * Sets the number of frames of a multi-frame image.
+     *
+     * @param numberOfFrames the number of frames to set
+     */
+    public void setNumberOfFrames(Integer numberOfFrames)
+    {
+        this.numberOfFrames = numberOfFrames;
+    }
+
+    /**
+     * Returns the transfer syntax of the archived file.
+     *
+     * @return the Transfer Syntax UID, may be null
+     */
+    public String getTransferSyntaxUID()
+    {
+        return transferSyntaxUID;
+    }
+
+    /**
+     * Sets the transfer syntax of the archived file.
+     *
+     * @param transferSyntaxUID the Transfer Syntax UID to set
+     */
+    public void setTransferSyntaxUID(String transferSyntaxUID)
+    {
+        this.transferSyntaxUID = transferSyntaxUID;
+    }
+
+    /**
+     * Returns the position of the Pixel Data value in the archived file.
+     *
+     * @return the offset in bytes, null if the file has no Pixel Data or was not indexed
+     */
+    public Long getPixelDataOffset()
+    {
+        return pixelDataOffset;
+    }
+
+    /**
+     * Sets the position of the Pixel Data value in the archived file.
+     *
+     * @param pixelDataOffset the offset in bytes to set
+     */
+    public void setPixelDataOffset(Long pixelDataOffset)
+    {
+        this.pixelDataOffset = pixelDataOffset;
+    }
+
+    /**
+     * Returns the length of the Pixel Data value in the archived file.
+     *
+     * @return the length in bytes, null if the file has no Pixel Data or was not indexed
+     */
+    public Long getPixelDataLength()
+    {
+        return pixelDataLength;
+    }
+
+    /**
+     * Sets the length of the Pixel Data value in the archived file.
+     *
+     * @param pixelDataLength the length in bytes to set
+     */
+    public void setPixelDataLength(Long pixelDataLength)
+    {
+        this.pixelDataLength = pixelDataLength;
+    }
+
+    /**
+     * Returns the size of the archived file when it was indexed.
+     *
+     * @return the file size in bytes, may be null
+     */
+    public Long getFileSize()
+    {
+        return fileSize;
+    }
+
+    /**
+     * Sets the size of the archived file when it was indexed.
+     *
+     * @param fileSize the file size in bytes to set
+     */
+    public void setFileSize(Long fileSize)
+    {
+        this.fileSize = fileSize;
+    }
+
+    /**
+     * Returns the modification time of the archived file when it was indexed.
+     *
+     * @return the modification time in milliseconds since the epoch, may be null
+     */
+    public Long getFileLastModified()
+    {
+        return fileLastModified;
+    }
+
+    /**
+     * Sets the modification time of the archived file when it was indexed.
+     *
+     * @param fileLastModified the modification time in milliseconds since the epoch to set
+     */
+    public void setFileLastModified(Long fileLastModified)
+    {
+        this.fileLastModified = fileLastModified;
+    }
+
+    /**
+     * Checks if the position of the Pixel Data in the archived file is known.
+     *
+     * @return true if the file was indexed and has Pixel Data, false otherwise
+     */
+    public boolean hasPixelData()
+    {
+        return pixelDataOffset != null && pixelDataLength != null && fileSize != null && fileLastModified != null;
+    }
+
     /**
      * Checks if this instance is associated with a series.
      *
@@ -0,0 +1,22 @@
+package de.famst.data;
+
+/**
+ * Immutable read model of the archived file of an instance with the UIDs of its study and
+ * series, fetched by {@link InstanceRepository} for exports.
+ *
+ * @param studyInstanceUID  the Study Instance UID
+ * @param seriesInstanceUID the Series Instance UID
+ * @param instanceUID       the SOP Instance UID
+ * @param path              the path of the archived file
+ * @param transferSyntaxUID the transfer syntax of the file, null if it was archived before it was recorded
+ * @author jens
+ * @since 2026-10-19
+ */
+public record InstanceFileRecord(
+    String studyInstanceUID,
+    String seriesInstanceUID,
+    String instanceUID,
+    String path,
+    String transferSyntaxUID)
+{
+}
@@ -0,0 +1,110 @@
+package de.famst.data;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.MapsId;
+import jakarta.persistence.OneToOne;
+import jakarta.persistence.Table;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+/**
+ * JPA Entity holding the frame index of an instance with encapsulated Pixel Data.
+ *
+ * <p>The index is built at import from the Basic Offset Table or the fragments of the Pixel Data,
+ * see {@link FrameIndex}, so single frames can be served without reading the archived file up to
+ * them. Like {@link InstanceHeaderEty} it shares the primary key of its instance and is kept in a
+ * table of its own.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Entity
+@Table(name = "INSTANCE_FRAMES")
+public class InstanceFramesEty
+{
+    @Id
+    private long id;
+
+    // deleted by the database with its instance, the instance does not map this table
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private InstanceEty instance;
+
+    private int numberOfFrames;
+
+    @Lob
+    @Column(nullable = false)
+    private byte[] frameIndex;
+
+    /**
+     * Default constructor required by JPA.
+     */
+    public InstanceFramesEty()
+    {
+        // Required by JPA
+    }
+
+    /**
+     * Constructs the frame index of an instance.
+     *
+     * @param instance   the instance
+     * @param frameIndex the frame index of its Pixel Data
+     * @throws IllegalArgumentException if instance or frameIndex is null
+     */
+    public InstanceFramesEty(InstanceEty instance, FrameIndex frameIndex)
+    {
+        if (instance == null || frameIndex == null)
+        {
+            throw new IllegalArgumentException("Instance and frame index cannot be null");
+        }
+
+        this.instance = instance;
+        this.numberOfFrames = frameIndex.frames();
+        this.frameIndex = frameIndex.encode();
+    }
+
+    /**
+     * Returns the primary key, which is the one of the instance.
+     *
+     * @return the entity ID
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the instance of this frame index.
+     *
+     * @return the instance
+     */
+    public InstanceEty getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns the number of indexed frames.
+     *
+     * @return the number of frames
+     */
+    public int getNumberOfFrames()
+    {
+        return numberOfFrames;
+    }
+
+    /**
+     * Decodes the stored frame index.
+     *
+     * @return the frame index
+     */
+    public FrameIndex getFrameIndex()
+    {
+        return FrameIndex.decode(frameIndex);
+    }
+}
@@ -0,0 +1,16 @@
+package de.famst.data;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+/**
+ * Repository of the frame indexes of instances, which are not exported over REST.
+ * The id of a frame index is the one of its instance.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@RepositoryRestResource(exported = false)
+public interface InstanceFramesRepository extends JpaRepository<InstanceFramesEty, Long>
+{
+}
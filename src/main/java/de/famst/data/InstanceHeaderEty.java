@@ -0,0 +1,156 @@
+package de.famst.data;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.FetchType;
+import jakarta.persistence.Id;
+import jakarta.persistence.Lob;
+import jakarta.persistence.MapsId;
+import jakarta.persistence.OneToOne;
+import jakarta.persistence.Table;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.hibernate.annotations.OnDelete;
+import org.hibernate.annotations.OnDeleteAction;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * JPA Entity holding the header of a DICOM Instance.
+ *
+ * <p>The header is the data set of the instance without its Pixel Data. It is stored at import
+ * in the Deflated Explicit VR Little Endian transfer syntax (PS3.5 Section A.5), so attributes
+ * that are not mapped onto {@link InstanceEty} can be read without opening the archived file.
+ * The header shares the primary key of its instance and is kept in a table of its own, so
+ * queries on the instance table never read it.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Entity
+@Table(name = "INSTANCE_HEADER")
+public class InstanceHeaderEty
+{
+    /**
+     * The elements that are not part of the header, the bulk data of an image.
+     */
+    private static final int[] PIXEL_DATA = {Tag.FloatPixelData, Tag.DoubleFloatPixelData, Tag.PixelData};
+
+    @Id
+    private long id;
+
+    // deleted by the database with its instance, the instance does not map this table
+    @MapsId
+    @OneToOne(fetch = FetchType.LAZY)
+    @OnDelete(action = OnDeleteAction.CASCADE)
+    private InstanceEty instance;
+
+    @Lob
+    @Column(nullable = false)
+    private byte[] header;
+
+    /**
+     * Default constructor required by JPA.
+     */
+    public InstanceHeaderEty()
+    {
+        // Required by JPA
+    }
+
+    /**
+     * Constructs the header of an instance.
+     *
+     * @param instance the instance
+     * @param dataset  the data set of the instance, Pixel Data is left out
+     * @throws IllegalArgumentException if instance or dataset is null
+     */
+    public InstanceHeaderEty(InstanceEty instance, Attributes dataset)
+    {
+        if (instance == null || dataset == null)
+        {
+            throw new IllegalArgumentException("Instance and data set cannot be null");
+        }
+
+        this.instance = instance;
+        this.header = encode(dataset);
+    }
+
+    /**
+     * Returns the primary key, which is the one of the instance.
+     *
+     * @return the entity ID
+     */
+    public long getId()
+    {
+        return id;
+    }
+
+    /**
+     * Returns the instance of this header.
+     *
+     * @return the instance
+     */
+    public InstanceEty getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Returns the size of the stored header.
+     *
+     * @return the number of bytes of the compressed header
+     */
+    public int getSize()
+    {
+        return header.length;
+    }
+
+    /**
+     * Decodes the stored header.
+     *
+     * @return the data set of the instance without its Pixel Data
+     */
+    public Attributes getHeader()
+    {
+        return decode(header);
+    }
+
+    static byte[] encode(Attributes dataset)
+    {
+        Attributes withoutPixelData = new Attributes(dataset);
+        for (int tag : PIXEL_DATA)
+        {
+            withoutPixelData.remove(tag);
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (DicomOutputStream dos = new DicomOutputStream(bytes, UID.DeflatedExplicitVRLittleEndian))
+        {
+            dos.writeDataset(null, withoutPixelData);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("encoding instance header failed", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static Attributes decode(byte[] header)
+    {
+        try (DicomInputStream dis = new DicomInputStream(new ByteArrayInputStream(header),
+                UID.DeflatedExplicitVRLittleEndian))
+        {
+            return dis.readDataset();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("decoding instance header failed", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package de.famst.data;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+import java.util.List;
+
+/**
+ * Repository of the stored instance headers, which are not exported over REST.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@RepositoryRestResource(exported = false)
+public interface InstanceHeaderRepository extends JpaRepository<InstanceHeaderEty, Long>
+{
+    /**
+     * Finds the headers of all instances of a series with a single statement.
+     * The id of each header is the one of its instance.
+     */
+    @Query("select h from InstanceHeaderEty h join h.instance i join i.series s"
+            + " where s.seriesInstanceUID = :seriesInstanceUID")
+    List<InstanceHeaderEty> findBySeriesInstanceUID(@Param("seriesInstanceUID") String seriesInstanceUID);
+}
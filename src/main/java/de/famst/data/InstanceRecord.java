@@ -0,0 +1,31 @@
+package de.famst.data;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Immutable read model of an instance, including the Series Instance UID of its series,
+ * fetched by {@link DicomReadRepository} with a single joined query.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public record InstanceRecord(
+    long id,
+    long seriesDbId,
+    String seriesInstanceUID,
+    String instanceUID,
+    String path,
+    Integer instanceNumber,
+    LocalDate contentDate,
+    LocalTime contentTime,
+    String imageType,
+    Integer acquisitionNumber,
+    LocalDate acquisitionDate,
+    LocalTime acquisitionTime,
+    Integer rows,
+    Integer columns,
+    Integer bitsAllocated,
+    Integer bitsStored)
+{
+}
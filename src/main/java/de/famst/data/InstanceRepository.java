@@ -1,9 +1,14 @@
 package de.famst.data;
 
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+import org.springframework.data.rest.core.annotation.RestResource;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -12,7 +17,64 @@ import java.util.List;
 @RepositoryRestResource(collectionResourceRel = "instances", path = "instances")
 public interface InstanceRepository extends JpaRepository<InstanceEty, Long>
 {
+    // series and study are checked by WADO-RS, fetch them with the instance instead of one query each
+    @EntityGraph(attributePaths = {"series", "series.study"})
     InstanceEty findByInstanceUID(@Param("instanceUID") String instanceUID);
 
     List<InstanceEty> findBySeriesId(@Param("series_id") long seriesId);
+
+    // the instances following or preceding one in its series, loaded ahead of a client by the bulk data cache
+    @RestResource(exported = false)
+    List<InstanceEty> findBySeriesIdAndInstanceNumberGreaterThan(@Param("series_id") long seriesId,
+                                                                @Param("instanceNumber") Integer instanceNumber,
+                                                                Pageable pageable);
+
+    @RestResource(exported = false)
+    List<InstanceEty> findBySeriesIdAndInstanceNumberLessThan(@Param("series_id") long seriesId,
+                                                             @Param("instanceNumber") Integer instanceNumber,
+                                                             Pageable pageable);
+
+    // WADO-RS retrieves a study or series with a single statement, only the archived files are needed
+    @RestResource(exported = false)
+    @Query("select i.path from InstanceEty i join i.series s join s.study st"
+            + " where st.studyInstanceUID = :studyInstanceUID")
+    List<String> findPathsByStudyInstanceUID(@Param("studyInstanceUID") String studyInstanceUID);
+
+    @RestResource(exported = false)
+    @Query("select i.path from InstanceEty i join i.series s join s.study st"
+            + " where st.studyInstanceUID = :studyInstanceUID and s.seriesInstanceUID = :seriesInstanceUID")
+    List<String> findPathsBySeriesInstanceUID(@Param("studyInstanceUID") String studyInstanceUID,
+                                              @Param("seriesInstanceUID") String seriesInstanceUID);
+
+    // the images of a series in instance number order, the one in the middle is rendered as preview
+    @RestResource(exported = false)
+    @Query("select i.path from InstanceEty i join i.series s join s.study st"
+            + " where st.studyInstanceUID = :studyInstanceUID and s.seriesInstanceUID = :seriesInstanceUID"
+            + " and i.rows is not null order by i.instanceNumber, i.instanceUID")
+    List<String> findImagePathsBySeriesInstanceUID(@Param("studyInstanceUID") String studyInstanceUID,
+                                                   @Param("seriesInstanceUID") String seriesInstanceUID);
+
+    @RestResource(exported = false)
+    @Query("select i.path from InstanceEty i join i.series s join s.study st"
+            + " where st.studyInstanceUID = :studyInstanceUID and s.seriesInstanceUID = :seriesInstanceUID"
+            + " and i.instanceUID = :instanceUID")
+    String findPath(@Param("studyInstanceUID") String studyInstanceUID,
+                    @Param("seriesInstanceUID") String seriesInstanceUID,
+                    @Param("instanceUID") String instanceUID);
+
+    // the files of studies grouped by study and series, in the order they are exported
+    @RestResource(exported = false)
+    @Query("select new de.famst.data.InstanceFileRecord(st.studyInstanceUID, s.seriesInstanceUID, i.instanceUID,"
+            + " i.path, i.transferSyntaxUID) from InstanceEty i join i.series s join s.study st"
+            + " where st.studyInstanceUID in :studyInstanceUIDs"
+            + " order by st.studyInstanceUID, s.seriesNumber, s.seriesInstanceUID, i.instanceNumber, i.instanceUID")
+    List<InstanceFileRecord> findFilesByStudyInstanceUIDs(
+            @Param("studyInstanceUIDs") Collection<String> studyInstanceUIDs);
+
+    @RestResource(exported = false)
+    @Query("select new de.famst.data.InstanceFileRecord(st.studyInstanceUID, s.seriesInstanceUID, i.instanceUID,"
+            + " i.path, i.transferSyntaxUID) from InstanceEty i join i.series s join s.study st"
+            + " where st.studyInstanceUID = :studyInstanceUID and s.seriesInstanceUID = :seriesInstanceUID")
+    List<InstanceFileRecord> findFilesBySeriesInstanceUID(@Param("studyInstanceUID") String studyInstanceUID,
+                                                          @Param("seriesInstanceUID") String seriesInstanceUID);
 }
@@ -0,0 +1,135 @@
+package de.famst.data;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AfterCreateEvent;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.data.rest.core.event.AfterLinkDeleteEvent;
+import org.springframework.data.rest.core.event.AfterLinkSaveEvent;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.data.rest.core.event.RepositoryEvent;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+/**
+ * Keeps the modification stamps of studies and series, which validate cached query results and
+ * metadata, current for changes made through the REST API.
+ *
+ * <p>The stamp of an entity only changes with its own row. A child deleted, or an instance
+ * changed, through the REST API stamps its series and study instead. A deleted patient or study
+ * leaves no row to stamp, so the archive keeps the time of the last change, see
+ * {@link #getLastChange()}. It is persisted in the single row of {@link ArchiveStampEty} with
+ * every change and read from it when the application is ready, so a restart neither forgets a
+ * deletion nor changes the stamp of an unchanged archive. Until then, and for a database
+ * without the row, e.g. one written by an older version, the time of the start is used, which
+ * covers all changes made before.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Repository
+@Transactional
+public class ModificationStamps
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ModificationStamps.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private volatile Instant lastChange = Instant.now();
+
+    /**
+     * @return the time of the last change of a DICOM entity through the REST API, or the start of
+     * the application if none was persisted
+     */
+    public Instant getLastChange()
+    {
+        return lastChange;
+    }
+
+    /**
+     * Reads the time of the last change persisted before the application started, or persists
+     * the start of the application if there is none.
+     *
+     * @return the time of the last change
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public Instant load()
+    {
+        ArchiveStampEty stamp = entityManager.find(ArchiveStampEty.class, ArchiveStampEty.ID);
+        if (stamp == null)
+        {
+            // changes made before the stamp was persisted are unknown
+            entityManager.persist(new ArchiveStampEty(lastChange));
+        }
+        else
+        {
+            lastChange = stamp.getLastChange();
+        }
+
+        LOG.info("last change of the archive through the REST API at {}", lastChange);
+        return lastChange;
+    }
+
+    /**
+     * Stamps the parents of a DICOM entity created, modified or deleted through the REST API.
+     *
+     * @param event the Spring Data REST repository event
+     */
+    @EventListener
+    public void onRepositoryEvent(RepositoryEvent event)
+    {
+        if (!(event instanceof AfterCreateEvent || event instanceof AfterSaveEvent
+            || event instanceof AfterDeleteEvent || event instanceof AfterLinkSaveEvent
+            || event instanceof AfterLinkDeleteEvent))
+        {
+            return;
+        }
+
+        Object source = event.getSource();
+        Instant now = Instant.now();
+        if (source instanceof InstanceEty instance && instance.getSeries() != null)
+        {
+            long seriesId = instance.getSeries().getId();
+            entityManager.createQuery("update SeriesEty s set s.lastModified = :now where s.id = :id")
+                .setParameter("now", now)
+                .setParameter("id", seriesId)
+                .executeUpdate();
+            entityManager.createQuery("update StudyEty st set st.lastModified = :now"
+                    + " where st.id in (select s.study.id from SeriesEty s where s.id = :id)")
+                .setParameter("now", now)
+                .setParameter("id", seriesId)
+                .executeUpdate();
+        }
+        else if (source instanceof SeriesEty series && series.getStudy() != null)
+        {
+            entityManager.createQuery("update StudyEty st set st.lastModified = :now where st.id = :id")
+                .setParameter("now", now)
+                .setParameter("id", series.getStudy().getId())
+                .executeUpdate();
+        }
+        else if (source instanceof PatientEty patient)
+        {
+            // the patient attributes are returned with its studies
+            entityManager.createQuery("update StudyEty st set st.lastModified = :now where st.patient.id = :id")
+                .setParameter("now", now)
+                .setParameter("id", patient.getId())
+                .executeUpdate();
+        }
+        else if (!(source instanceof StudyEty))
+        {
+            return;
+        }
+
+        entityManager.merge(new ArchiveStampEty(now));
+
+        LOG.debug("DICOM entity modified via REST, stamped its parents at {}", now);
+        lastChange = now;
+    }
+}
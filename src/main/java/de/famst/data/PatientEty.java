@@ -7,6 +7,7 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.OneToMany;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
@@ -60,6 +61,10 @@ import java.util.Objects;
         @UniqueConstraint(
             name = "AK_PATIENTID",
             columnNames = {"patientId"})
+    },
+    indexes = {
+        @Index(name = "IDX_PATIENT_FAMILY_NAME", columnList = "patientFamilyName"),
+        @Index(name = "IDX_PATIENT_GIVEN_NAME", columnList = "patientGivenName")
     })
 public class PatientEty
 {
@@ -72,6 +77,18 @@ public class PatientEty
 
     private String patientName;
 
+    /**
+     * Normalized family name component of the patient name, see {@link PersonNames}.
+     */
+    @Column(length = PersonNames.MAX_LENGTH)
+    private String patientFamilyName;
+
+    /**
+     * Normalized given name component of the patient name, see {@link PersonNames}.
+     */
+    @Column(length = PersonNames.MAX_LENGTH)
+    private String patientGivenName;
+
     @Column(nullable = false, unique = true)
     private String patientId;
 
@@ -127,7 +144,7 @@ public class PatientEty
      */
     public PatientEty(String patientName, String patientId)
     {
-        this.patientName = patientName;
+        setPatientName(patientName);
         setPatientId(patientId);
     }
 
@@ -152,13 +169,35 @@ public class PatientEty
     }
 
     /**
-     * Sets the patient name.
+     * Sets the patient name and its normalized family and given name components.
      *
      * @param patientName the patient name to set
      */
     public void setPatientName(String patientName)
     {
         this.patientName = patientName;
+        this.patientFamilyName = PersonNames.family(patientName);
+        this.patientGivenName = PersonNames.given(patientName);
+    }
+
+    /**
+     * Returns the normalized family name component of the patient name.
+     *
+     * @return the normalized family name, may be null
+     */
+    public String getPatientFamilyName()
+    {
+        return patientFamilyName;
+    }
+
+    /**
+     * Returns the normalized given name component of the patient name.
+     *
+     * @return the normalized given name, may be null
+     */
+    public String getPatientGivenName()
+    {
+        return patientGivenName;
     }
 
     /**
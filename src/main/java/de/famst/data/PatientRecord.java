@@ -0,0 +1,33 @@
+package de.famst.data;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Immutable read model of a patient, fetched by {@link DicomReadRepository}
+ * without creating a managed {@link PatientEty}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public record PatientRecord(
+    long id,
+    String patientName,
+    String patientId,
+    LocalDate patientBirthDate,
+    String patientSex,
+    LocalTime patientBirthTime,
+    String otherPatientIds,
+    String otherPatientNames,
+    String ethnicGroup,
+    String patientComments,
+    String patientAge,
+    Double patientSize,
+    Double patientWeight,
+    String medicalAlerts,
+    String allergies,
+    Integer pregnancyStatus,
+    String responsiblePerson,
+    String responsibleOrganization)
+{
+}
@@ -0,0 +1,100 @@
+package de.famst.data;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalization of DICOM person names (PN) for case-insensitive matching.
+ *
+ * <p>A person name is decomposed into its family and given name components, taken from the
+ * alphabetic component group ({@code Family^Given^Middle^Prefix^Suffix=Ideographic=Phonetic}).
+ * Each component is folded to upper case without diacritics, so {@code Müller^Jürgen},
+ * {@code MULLER^JURGEN} and {@code muller^jurgen} all give {@code MULLER} and {@code JURGEN}.
+ * The normalized components are stored in indexed columns next to the name and matched with
+ * prefix patterns, see {@link DicomReadRepository}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class PersonNames
+{
+    /**
+     * Longer components are cut, the normalized name columns have this length.
+     */
+    static final int MAX_LENGTH = 64;
+
+    /**
+     * Separates the components of a person name.
+     */
+    public static final char COMPONENT_SEPARATOR = '^';
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private PersonNames()
+    {
+    }
+
+    /**
+     * Folds a name or a part of it to upper case and removes diacritics and surrounding spaces.
+     *
+     * @param name the name, may be null
+     * @return the normalized name, null if the name is null
+     */
+    public static String normalize(String name)
+    {
+        if (name == null)
+        {
+            return null;
+        }
+
+        String decomposed = Normalizer.normalize(name, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toUpperCase(Locale.ROOT).trim();
+    }
+
+    /**
+     * Returns the normalized family name component of a person name.
+     *
+     * @param personName the person name, may be null
+     * @return the normalized family name, null if the name has none
+     */
+    public static String family(String personName)
+    {
+        return component(personName, 0);
+    }
+
+    /**
+     * Returns the normalized given name component of a person name.
+     *
+     * @param personName the person name, may be null
+     * @return the normalized given name, null if the name has none
+     */
+    public static String given(String personName)
+    {
+        return component(personName, 1);
+    }
+
+    private static String component(String personName, int index)
+    {
+        if (personName == null)
+        {
+            return null;
+        }
+
+        int end = personName.indexOf('=');
+        String alphabetic = end < 0 ? personName : personName.substring(0, end);
+
+        String[] components = alphabetic.split("\\^", -1);
+        if (index >= components.length)
+        {
+            return null;
+        }
+
+        String component = normalize(components[index]);
+        if (component.isEmpty())
+        {
+            return null;
+        }
+        return component.length() > MAX_LENGTH ? component.substring(0, MAX_LENGTH) : component;
+    }
+}
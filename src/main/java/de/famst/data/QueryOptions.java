@@ -0,0 +1,71 @@
+package de.famst.data;
+
+import java.util.Set;
+
+/**
+ * Options of a read model query beyond its matching keys.
+ *
+ * <p>All options are translated into the SQL statement: the window becomes OFFSET / FETCH,
+ * fuzzy matching becomes a prefix LIKE on the normalized person name columns, and the
+ * columns of attributes that are not returned are not selected at all.
+ *
+ * @param offset        the number of matches to skip
+ * @param limit         the maximum number of matches to return, {@link #UNLIMITED} for all
+ * @param fuzzyMatching whether person names are matched fuzzily, see {@link DicomReadRepository}
+ * @param returnTags    the tags of the attributes that are returned, null for all attributes
+ * @author jens
+ * @since 2026-10-19
+ */
+public record QueryOptions(int offset, int limit, boolean fuzzyMatching, Set<Integer> returnTags)
+{
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    /**
+     * All matches with all attributes, as used by the C-FIND SCP.
+     */
+    public static final QueryOptions ALL = new QueryOptions(0, UNLIMITED, false, null);
+
+    /**
+     * All matches with all attributes and fuzzy person name matching, as used by the C-FIND SCP
+     * if the association negotiated fuzzy semantic matching.
+     */
+    public static final QueryOptions FUZZY = new QueryOptions(0, UNLIMITED, true, null);
+
+    public QueryOptions
+    {
+        if (offset < 0)
+        {
+            throw new IllegalArgumentException("offset must not be negative: " + offset);
+        }
+        if (limit < 1)
+        {
+            throw new IllegalArgumentException("limit must be positive: " + limit);
+        }
+        returnTags = returnTags != null ? Set.copyOf(returnTags) : null;
+    }
+
+    /**
+     * @return whether the matches are restricted to a window
+     */
+    public boolean isWindowed()
+    {
+        return offset > 0 || limit != UNLIMITED;
+    }
+
+    /**
+     * @param tag the DICOM tag
+     * @return whether the attribute is returned and its column has to be read
+     */
+    public boolean returns(int tag)
+    {
+        return returnTags == null || returnTags.contains(tag);
+    }
+
+    /**
+     * @return a string identifying the options, used to key cached results
+     */
+    public String signature()
+    {
+        return offset + "," + (limit == UNLIMITED ? "*" : Integer.toString(limit)) + (fuzzyMatching ? ",fuzzy" : "");
+    }
+}
@@ -7,11 +7,15 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
@@ -56,6 +60,10 @@ import java.util.Objects;
         @UniqueConstraint(
             name = "AK_SERIESUID",
             columnNames = {"seriesInstanceUID"})
+    },
+    indexes = {
+        @Index(name = "IDX_SERIES_PERFORMING_FAMILY_NAME", columnList = "performingPhysicianFamilyName"),
+        @Index(name = "IDX_SERIES_PERFORMING_GIVEN_NAME", columnList = "performingPhysicianGivenName")
     })
 public class SeriesEty
 {
@@ -79,6 +87,12 @@ public class SeriesEty
 
     private String performingPhysicianName;
 
+    @Column(length = PersonNames.MAX_LENGTH)
+    private String performingPhysicianFamilyName;
+
+    @Column(length = PersonNames.MAX_LENGTH)
+    private String performingPhysicianGivenName;
+
     private String protocolName;
 
     private String bodyPartExamined;
@@ -96,6 +110,9 @@ public class SeriesEty
     @ManyToOne(fetch = FetchType.LAZY)
     private StudyEty study;
 
+    @Column(nullable = false)
+    private Instant lastModified;
+
     /**
      * Default constructor required by JPA.
      */
@@ -262,13 +279,35 @@ public class SeriesEty
     }
 
     /**
-     * Sets the performing physician name.
+     * Sets the performing physician name and its normalized family and given name components.
      *
      * @param performingPhysicianName the performing physician name to set
      */
     public void setPerformingPhysicianName(String performingPhysicianName)
     {
         this.performingPhysicianName = performingPhysicianName;
+        this.performingPhysicianFamilyName = PersonNames.family(performingPhysicianName);
+        this.performingPhysicianGivenName = PersonNames.given(performingPhysicianName);
+    }
+
+    /**
+     * Returns the normalized family name component of the performing physician name.
+     *
+     * @return the normalized family name, may be null
+     */
+    public String getPerformingPhysicianFamilyName()
+    {
+        return performingPhysicianFamilyName;
+    }
+
+    /**
+     * Returns the normalized given name component of the performing physician name.
+     *
+     * @return the normalized given name, may be null
+     */
+    public String getPerformingPhysicianGivenName()
+    {
+        return performingPhysicianGivenName;
     }
 
     /**
@@ -449,6 +488,33 @@ public class SeriesEty
         return study;
     }
 
+    /**
+     * Returns the modification stamp of the series. It is updated whenever the series row
+     * changes and during ingest whenever an instance of the series is created, and is
+     * used to validate cached query results.
+     *
+     * @return the time of the last modification
+     */
+    public Instant getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * Marks the series as modified, so its row is updated with a new stamp on the next flush.
+     */
+    public void markModified()
+    {
+        stampModification();
+    }
+
+    @PrePersist
+    @PreUpdate
+    void stampModification()
+    {
+        lastModified = Instant.now();
+    }
+
     /**
      * Checks if this series has any instances.
      *
@@ -0,0 +1,30 @@
+package de.famst.data;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Immutable read model of a series, including the Study Instance UID of its study,
+ * fetched by {@link DicomReadRepository} with a single joined query.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public record SeriesRecord(
+    long id,
+    long studyDbId,
+    String studyInstanceUID,
+    String seriesInstanceUID,
+    Integer seriesNumber,
+    String modality,
+    String seriesDescription,
+    LocalDate seriesDate,
+    LocalTime seriesTime,
+    String performingPhysicianName,
+    String protocolName,
+    String bodyPartExamined,
+    String patientPosition,
+    String laterality,
+    String operatorsName)
+{
+}
@@ -0,0 +1,54 @@
+package de.famst.data;
+
+/**
+ * Operations whose SQL statements are counted by {@link SqlStatementCounter}.
+ *
+ * <p>Each operation has a statement budget, see {@link SqlStatementBudgets}. The budget must not
+ * depend on the number of rows an operation returns, otherwise the operation issues one
+ * statement per row (an N+1 query).
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public enum SqlOperation
+{
+    /**
+     * A single C-FIND request.
+     */
+    C_FIND("c-find"),
+
+    /**
+     * A single QIDO-RS request.
+     */
+    QIDO_RS("qido-rs"),
+
+    /**
+     * A single WADO-RS request.
+     */
+    WADO_RS("wado-rs"),
+
+    /**
+     * A single page of the patient list with the studies, series and instances of its patients.
+     */
+    PATIENT_LIST("patient-list"),
+
+    /**
+     * The import of a single DICOM instance.
+     */
+    INGEST("ingest");
+
+    private final String key;
+
+    SqlOperation(String key)
+    {
+        this.key = key;
+    }
+
+    /**
+     * @return the name used in configuration properties and metric tags
+     */
+    public String getKey()
+    {
+        return key;
+    }
+}
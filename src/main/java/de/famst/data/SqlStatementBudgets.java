@@ -0,0 +1,149 @@
+package de.famst.data;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Declared SQL statement budgets of the {@link SqlOperation}s and the statistics of the
+ * statements they actually issued.
+ *
+ * <p>An operation exceeding its budget is logged and counted in
+ * {@code mupacs.sql.budget.exceeded}; the tests assert the budgets against a filled database,
+ * so that a statement per row shows up as a failing build instead of a slow archive.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Component
+public class SqlStatementBudgets implements MeterBinder, SqlStatementCounter.ScopeListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SqlStatementBudgets.class);
+
+    private final Map<SqlOperation, Integer> budgets = new EnumMap<>(SqlOperation.class);
+    private final Map<SqlOperation, OperationStatistics> statistics = new EnumMap<>(SqlOperation.class);
+
+    /**
+     * Constructs new SqlStatementBudgets and registers them with the {@link SqlStatementCounter}.
+     *
+     * @param cFindBudget       the maximum number of statements of a C-FIND request
+     * @param qidoBudget        the maximum number of statements of a QIDO-RS request
+     * @param wadoBudget        the maximum number of statements of a WADO-RS request
+     * @param patientListBudget the maximum number of statements of a page of the patient list
+     * @param ingestBudget      the maximum number of statements of the import of one instance
+     */
+    public SqlStatementBudgets(
+        @Value("${mupacs.sql.budget.c-find:3}") int cFindBudget,
+        @Value("${mupacs.sql.budget.qido-rs:3}") int qidoBudget,
+        @Value("${mupacs.sql.budget.wado-rs:3}") int wadoBudget,
+        @Value("${mupacs.sql.budget.patient-list:5}") int patientListBudget,
+        @Value("${mupacs.sql.budget.ingest:12}") int ingestBudget)
+    {
+        budgets.put(SqlOperation.C_FIND, cFindBudget);
+        budgets.put(SqlOperation.QIDO_RS, qidoBudget);
+        budgets.put(SqlOperation.WADO_RS, wadoBudget);
+        budgets.put(SqlOperation.PATIENT_LIST, patientListBudget);
+        budgets.put(SqlOperation.INGEST, ingestBudget);
+
+        for (SqlOperation operation : SqlOperation.values())
+        {
+            statistics.put(operation, new OperationStatistics());
+        }
+
+        SqlStatementCounter.setListener(this);
+
+        LOG.info("SqlStatementBudgets created: {}", budgets);
+    }
+
+    /**
+     * @param operation the operation
+     * @return the maximum number of statements the operation may issue
+     */
+    public int getBudget(SqlOperation operation)
+    {
+        return budgets.get(operation);
+    }
+
+    /**
+     * @param operation the operation
+     * @return the number of times the operation exceeded its budget
+     */
+    public long getExceededCount(SqlOperation operation)
+    {
+        return statistics.get(operation).exceeded.get();
+    }
+
+    @Override
+    public void scopeClosed(SqlOperation operation, int statements)
+    {
+        OperationStatistics operationStatistics = statistics.get(operation);
+        operationStatistics.scopes.incrementAndGet();
+        operationStatistics.statements.addAndGet(statements);
+        operationStatistics.max.accumulateAndGet(statements, Math::max);
+
+        int budget = budgets.get(operation);
+        if (statements > budget)
+        {
+            operationStatistics.exceeded.incrementAndGet();
+            LOG.warn("{} issued {} SQL statements, its budget is {}", operation.getKey(), statements, budget);
+        }
+        else
+        {
+            LOG.debug("{} issued {} SQL statement(s)", operation.getKey(), statements);
+        }
+    }
+
+    @PreDestroy
+    void unregister()
+    {
+        SqlStatementCounter.clearListener(this);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        for (SqlOperation operation : SqlOperation.values())
+        {
+            OperationStatistics operationStatistics = statistics.get(operation);
+
+            FunctionCounter.builder("mupacs.sql.operations", operationStatistics.scopes, AtomicLong::get)
+                .tag("operation", operation.getKey())
+                .description("Operations whose SQL statements were counted")
+                .register(registry);
+            FunctionCounter.builder("mupacs.sql.statements", operationStatistics.statements, AtomicLong::get)
+                .tag("operation", operation.getKey())
+                .description("SQL statements issued by the operation")
+                .register(registry);
+            FunctionCounter.builder("mupacs.sql.budget.exceeded", operationStatistics.exceeded, AtomicLong::get)
+                .tag("operation", operation.getKey())
+                .description("Operations that issued more SQL statements than their budget")
+                .register(registry);
+            Gauge.builder("mupacs.sql.statements.max", operationStatistics.max, AtomicLong::get)
+                .tag("operation", operation.getKey())
+                .description("Maximum number of SQL statements issued by a single operation")
+                .register(registry);
+            Gauge.builder("mupacs.sql.budget", budgets, b -> b.get(operation))
+                .tag("operation", operation.getKey())
+                .description("Declared SQL statement budget of the operation")
+                .register(registry);
+        }
+    }
+
+    private static final class OperationStatistics
+    {
+        private final AtomicLong scopes = new AtomicLong();
+        private final AtomicLong statements = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private final AtomicLong exceeded = new AtomicLong();
+    }
+}
@@ -0,0 +1,191 @@
+package de.famst.data;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares while an operation is running on the current thread.
+ *
+ * <p>Hibernate instantiates the inspector itself, it is registered with
+ * {@code spring.jpa.properties.hibernate.session_factory.statement_inspector}. Operations open a
+ * {@link Scope} around their database work:
+ *
+ * <pre>{@code
+ * try (SqlStatementCounter.Scope scope = SqlStatementCounter.open(SqlOperation.C_FIND))
+ * {
+ *     ...
+ * }
+ * }</pre>
+ *
+ * <p>Statements are counted for the innermost open scope of the thread; when a nested scope is
+ * closed its statements are added to the enclosing one. Closed scopes are reported to the
+ * {@link ScopeListener}, see {@link SqlStatementBudgets}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public class SqlStatementCounter implements StatementInspector
+{
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private static volatile ScopeListener listener;
+
+    @Override
+    public String inspect(String sql)
+    {
+        Scope scope = CURRENT.get();
+        if (scope != null)
+        {
+            scope.statements++;
+        }
+        return sql;
+    }
+
+    /**
+     * Starts counting the statements of an operation on the current thread.
+     *
+     * @param operation the operation
+     * @return the scope, which must be closed on the same thread
+     */
+    public static Scope open(SqlOperation operation)
+    {
+        return open(operation, 0);
+    }
+
+    /**
+     * Continues counting the statements of an operation started on another thread.
+     *
+     * @param operation  the operation
+     * @param statements the statements already counted for the operation
+     * @return the scope, which must be closed on the same thread
+     */
+    public static Scope open(SqlOperation operation, int statements)
+    {
+        Scope scope = new Scope(operation, CURRENT.get());
+        scope.statements = statements;
+        CURRENT.set(scope);
+        return scope;
+    }
+
+    /**
+     * @return the innermost open scope of the current thread, or null if there is none
+     */
+    public static Scope current()
+    {
+        return CURRENT.get();
+    }
+
+    static synchronized void setListener(ScopeListener scopeListener)
+    {
+        listener = scopeListener;
+    }
+
+    static synchronized void clearListener(ScopeListener scopeListener)
+    {
+        if (listener == scopeListener)
+        {
+            listener = null;
+        }
+    }
+
+    /**
+     * Receives every closed scope.
+     */
+    @FunctionalInterface
+    interface ScopeListener
+    {
+        void scopeClosed(SqlOperation operation, int statements);
+    }
+
+    /**
+     * The statements counted for one operation.
+     */
+    public static final class Scope implements AutoCloseable
+    {
+        private final SqlOperation operation;
+        private final Scope parent;
+        private int statements;
+        private boolean handedOver;
+        private boolean closed;
+
+        private Scope(SqlOperation operation, Scope parent)
+        {
+            this.operation = operation;
+            this.parent = parent;
+        }
+
+        public SqlOperation getOperation()
+        {
+            return operation;
+        }
+
+        /**
+         * @return the number of statements prepared so far
+         */
+        public int getStatements()
+        {
+            return statements;
+        }
+
+        /**
+         * Hands the operation over to another thread, which continues counting in a scope of its
+         * own, see {@link SqlStatementCounter#open(SqlOperation, int)}.
+         *
+         * @return the number of statements prepared so far
+         */
+        public int handOver()
+        {
+            handedOver = true;
+            return statements;
+        }
+
+        /**
+         * @return true if the operation continues in a scope of another thread
+         */
+        public boolean isHandedOver()
+        {
+            return handedOver;
+        }
+
+        @Override
+        public void close()
+        {
+            if (end())
+            {
+                ScopeListener scopeListener = listener;
+                if (scopeListener != null)
+                {
+                    scopeListener.scopeClosed(operation, statements);
+                }
+            }
+        }
+
+        /**
+         * Ends the scope without reporting it, used when the operation continues on another
+         * thread that counts its statements in a scope of its own.
+         */
+        public void discard()
+        {
+            end();
+        }
+
+        private boolean end()
+        {
+            if (closed)
+            {
+                return false;
+            }
+            closed = true;
+
+            if (parent != null)
+            {
+                parent.statements += statements;
+                CURRENT.set(parent);
+            }
+            else
+            {
+                CURRENT.remove();
+            }
+            return true;
+        }
+    }
+}
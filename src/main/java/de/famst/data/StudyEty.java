@@ -7,11 +7,15 @@ import jakarta.persistence.FetchType;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
 import jakarta.persistence.ManyToOne;
 import jakarta.persistence.OneToMany;
+import jakarta.persistence.PrePersist;
+import jakarta.persistence.PreUpdate;
 import jakarta.persistence.Table;
 import jakarta.persistence.UniqueConstraint;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
 import java.util.ArrayList;
@@ -49,6 +53,10 @@ import java.util.Objects;
         @UniqueConstraint(
             name = "AK_STUDYUID",
             columnNames = {"studyInstanceUID"})
+    },
+    indexes = {
+        @Index(name = "IDX_STUDY_REFERRING_FAMILY_NAME", columnList = "referringPhysicianFamilyName"),
+        @Index(name = "IDX_STUDY_REFERRING_GIVEN_NAME", columnList = "referringPhysicianGivenName")
     })
 public class StudyEty
 {
@@ -73,6 +81,15 @@ public class StudyEty
     private String modalitiesInStudy;
     private String referringPhysicianName;
 
+    @Column(length = PersonNames.MAX_LENGTH)
+    private String referringPhysicianFamilyName;
+
+    @Column(length = PersonNames.MAX_LENGTH)
+    private String referringPhysicianGivenName;
+
+    @Column(nullable = false)
+    private Instant lastModified;
+
     /**
      * Default constructor required by JPA.
      */
@@ -254,6 +271,18 @@ public class StudyEty
     public void setReferringPhysicianName(String referringPhysicianName)
     {
         this.referringPhysicianName = referringPhysicianName;
+        this.referringPhysicianFamilyName = PersonNames.family(referringPhysicianName);
+        this.referringPhysicianGivenName = PersonNames.given(referringPhysicianName);
+    }
+
+    public String getReferringPhysicianFamilyName()
+    {
+        return referringPhysicianFamilyName;
+    }
+
+    public String getReferringPhysicianGivenName()
+    {
+        return referringPhysicianGivenName;
     }
 
     public String getStudyId()
@@ -286,6 +315,33 @@ public class StudyEty
         return !series.isEmpty();
     }
 
+    /**
+     * Returns the modification stamp of the study. It is updated whenever the study row
+     * changes and during ingest whenever an instance of the study is created, and is
+     * used to validate cached query results.
+     *
+     * @return the time of the last modification
+     */
+    public Instant getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * Marks the study as modified, so its row is updated with a new stamp on the next flush.
+     */
+    public void markModified()
+    {
+        stampModification();
+    }
+
+    @PrePersist
+    @PreUpdate
+    void stampModification()
+    {
+        lastModified = Instant.now();
+    }
+
     /**
      * Checks if this study is associated with a patient.
      *
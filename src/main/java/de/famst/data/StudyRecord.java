@@ -0,0 +1,29 @@
+package de.famst.data;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Immutable read model of a study, including the identifying attributes of its patient,
+ * fetched by {@link DicomReadRepository} with a single joined query.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public record StudyRecord(
+    long id,
+    long patientDbId,
+    String patientName,
+    String patientId,
+    LocalDate patientBirthDate,
+    String patientSex,
+    String studyInstanceUID,
+    String studyId,
+    LocalDate studyDate,
+    LocalTime studyTime,
+    String studyDescription,
+    String accessionNumber,
+    String modalitiesInStudy,
+    String referringPhysicianName)
+{
+}
@@ -4,6 +4,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.rest.core.annotation.RepositoryRestResource;
 
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -16,4 +17,6 @@ public interface StudyRepository extends JpaRepository<StudyEty, Long>
     StudyEty findByStudyInstanceUID(@Param("studyinstanceuid") String studyInstanceUID);
 
     List<StudyEty> findByPatientId(@Param("patient_id") long patientId);
+
+    List<StudyEty> findByPatientIdIn(@Param("patient_ids") Collection<Long> patientIds);
 }
@@ -0,0 +1,306 @@
+package de.famst.data;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.AbstractQuery;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.Expression;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AfterCreateEvent;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.data.rest.core.event.RepositoryEvent;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Inverted index of the free text of the archive: Patient Comments, Study Description,
+ * Series Description and Image Comments.
+ *
+ * <p>Each text is split into folded tokens (see {@link TextTokens}), stored as
+ * {@link TextTokenEty} entries pointing to the entity containing them. A word query is then
+ * answered with one index lookup per word instead of a pattern match over every row.
+ *
+ * <p>Entries are added by the import in the transaction that creates the entity, so the index
+ * is always consistent with the database. {@link #rebuild()} recreates it from the database,
+ * e.g. for data imported before the index existed. Entities created or modified through the
+ * REST API are indexed again with {@link #reindex(QueryRetrieveLevel2, long)}. The index has no
+ * foreign keys, the entries of entities deleted through the REST API are removed by
+ * {@link #removeOrphans()}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Repository
+@Transactional
+public class TextIndex
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TextIndex.class);
+
+    private static final String HINT_FETCH_SIZE = "org.hibernate.fetchSize";
+    private static final int FETCH_SIZE = 256;
+
+    /**
+     * Number of rebuilt entities after which the persistence context is flushed and cleared.
+     */
+    private static final int FLUSH_INTERVAL = 500;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Adds the tokens of the texts of an entity to the index.
+     *
+     * @param level     the level of the entity
+     * @param ownerId   the database id of the entity
+     * @param patientId the database id of the patient of the entity
+     * @param texts     the free texts of the entity, null values are skipped
+     * @return the number of added entries
+     */
+    public int index(QueryRetrieveLevel2 level, long ownerId, long patientId, String... texts)
+    {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String text : texts)
+        {
+            tokens.addAll(TextTokens.tokenize(text));
+        }
+
+        for (String token : tokens)
+        {
+            entityManager.persist(new TextTokenEty(token, level, ownerId, patientId));
+        }
+        return tokens.size();
+    }
+
+    /**
+     * Checks whether the index has no entries.
+     *
+     * @return true if the index is empty
+     */
+    @Transactional(readOnly = true)
+    public boolean isEmpty()
+    {
+        return entityManager.createQuery("select t.ownerId from TextTokenEty t", Long.class)
+            .setMaxResults(1)
+            .getResultList()
+            .isEmpty();
+    }
+
+    /**
+     * Drops all entries and indexes the texts of all entities of the database again.
+     *
+     * @return the number of entries of the new index
+     */
+    public long rebuild()
+    {
+        long startTime = System.nanoTime();
+
+        entityManager.createQuery("delete from TextTokenEty").executeUpdate();
+
+        long entries = rebuild(QueryRetrieveLevel2.PATIENT, texts(QueryRetrieveLevel2.PATIENT));
+        entries += rebuild(QueryRetrieveLevel2.STUDY, texts(QueryRetrieveLevel2.STUDY));
+        entries += rebuild(QueryRetrieveLevel2.SERIES, texts(QueryRetrieveLevel2.SERIES));
+        entries += rebuild(QueryRetrieveLevel2.IMAGE, texts(QueryRetrieveLevel2.IMAGE));
+
+        LOG.info("rebuilt text index with {} entries in {} ms", entries, (System.nanoTime() - startTime) / 1_000_000);
+        return entries;
+    }
+
+    /**
+     * Indexes the texts read by a query returning entity id, patient id and text, reading the
+     * rows from a cursor and flushing the entries in chunks.
+     */
+    private long rebuild(QueryRetrieveLevel2 level, String jpql)
+    {
+        long entries = 0;
+        int rows = 0;
+
+        try (Stream<Object[]> texts = entityManager.createQuery(jpql, Object[].class)
+            .setHint(HINT_FETCH_SIZE, FETCH_SIZE)
+            .getResultStream())
+        {
+            Iterator<Object[]> iterator = texts.iterator();
+            while (iterator.hasNext())
+            {
+                Object[] row = iterator.next();
+                entries += index(level, (Long) row[0], (Long) row[1], (String) row[2]);
+
+                if (++rows % FLUSH_INTERVAL == 0)
+                {
+                    entityManager.flush();
+                    entityManager.clear();
+                }
+            }
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+        return entries;
+    }
+
+    /**
+     * Replaces the entries of an entity with those of its texts as stored in the database.
+     *
+     * @param level   the level of the entity
+     * @param ownerId the database id of the entity
+     * @return the number of added entries
+     */
+    public int reindex(QueryRetrieveLevel2 level, long ownerId)
+    {
+        entityManager.createQuery("delete from TextTokenEty t where t.entityLevel = :level and t.ownerId = :ownerId")
+            .setParameter("level", level)
+            .setParameter("ownerId", ownerId)
+            .executeUpdate();
+
+        int entries = 0;
+        for (Object[] row : entityManager.createQuery(texts(level) + " and e.id = :ownerId", Object[].class)
+            .setParameter("ownerId", ownerId)
+            .getResultList())
+        {
+            entries += index(level, (Long) row[0], (Long) row[1], (String) row[2]);
+        }
+        return entries;
+    }
+
+    /**
+     * Indexes the texts of an entity created or modified through the REST API again, e.g. an
+     * edited study description.
+     *
+     * @param event the Spring Data REST event
+     */
+    @EventListener({AfterCreateEvent.class, AfterSaveEvent.class})
+    public void onAfterSave(RepositoryEvent event)
+    {
+        Object source = event.getSource();
+        if (source instanceof PatientEty patient)
+        {
+            reindex(QueryRetrieveLevel2.PATIENT, patient.getId());
+        }
+        else if (source instanceof StudyEty study)
+        {
+            reindex(QueryRetrieveLevel2.STUDY, study.getId());
+        }
+        else if (source instanceof SeriesEty series)
+        {
+            reindex(QueryRetrieveLevel2.SERIES, series.getId());
+        }
+        else if (source instanceof InstanceEty instance)
+        {
+            reindex(QueryRetrieveLevel2.IMAGE, instance.getId());
+        }
+    }
+
+    /**
+     * Removes the entries whose entity no longer exists.
+     *
+     * @return the number of removed entries
+     */
+    public int removeOrphans()
+    {
+        int removed = removeOrphans(QueryRetrieveLevel2.PATIENT, "PatientEty")
+            + removeOrphans(QueryRetrieveLevel2.STUDY, "StudyEty")
+            + removeOrphans(QueryRetrieveLevel2.SERIES, "SeriesEty")
+            + removeOrphans(QueryRetrieveLevel2.IMAGE, "InstanceEty");
+
+        LOG.debug("removed {} text index entries of deleted entities", removed);
+        return removed;
+    }
+
+    /**
+     * Removes the entries of the entities deleted through the REST API, including those of their
+     * children deleted by the cascade.
+     *
+     * @param event the Spring Data REST event
+     */
+    @EventListener
+    public void onAfterDelete(AfterDeleteEvent event)
+    {
+        Object source = event.getSource();
+        if (source instanceof PatientEty || source instanceof StudyEty
+            || source instanceof SeriesEty || source instanceof InstanceEty)
+        {
+            removeOrphans();
+        }
+    }
+
+    /**
+     * @return the query reading entity id, patient id and text of the entities of a level with a text
+     */
+    private static String texts(QueryRetrieveLevel2 level)
+    {
+        return switch (level)
+        {
+            case PATIENT ->
+                "select e.id, e.id, e.patientComments from PatientEty e where e.patientComments is not null";
+            case STUDY ->
+                "select e.id, e.patient.id, e.studyDescription from StudyEty e where e.studyDescription is not null";
+            case SERIES ->
+                "select e.id, e.study.patient.id, e.seriesDescription from SeriesEty e where e.seriesDescription is not null";
+            case IMAGE ->
+                "select e.id, e.series.study.patient.id, e.imageComments from InstanceEty e where e.imageComments is not null";
+            default -> throw new IllegalArgumentException("No texts are indexed at level " + level);
+        };
+    }
+
+    private int removeOrphans(QueryRetrieveLevel2 level, String entity)
+    {
+        return entityManager.createQuery("delete from TextTokenEty t where t.entityLevel = :level"
+                + " and not exists (select e.id from " + entity + " e where e.id = t.ownerId)")
+            .setParameter("level", level)
+            .executeUpdate();
+    }
+
+    /**
+     * Builds the predicates matching the entities whose indexed text contains all words of a
+     * text query, with one subquery on the index per word. A word ending with {@code *}
+     * matches as prefix.
+     *
+     * @param cb    the criteria builder
+     * @param query the query the predicates are added to
+     * @param text  the text query, null or blank for no restriction
+     * @param level the level of the matched texts, null for the texts of all levels of a patient
+     * @param id    the database id of the entity, or of the patient if level is null
+     * @return the predicates, empty if the text query contains no words
+     */
+    static List<Predicate> containsWords(CriteriaBuilder cb, AbstractQuery<?> query, String text,
+                                         QueryRetrieveLevel2 level, Expression<Long> id)
+    {
+        List<Predicate> predicates = new ArrayList<>();
+
+        for (String token : TextTokens.queryTokens(text))
+        {
+            Subquery<Long> entries = query.subquery(Long.class);
+            Root<TextTokenEty> entry = entries.from(TextTokenEty.class);
+
+            // tokens consist of letters and digits only, there is nothing to escape
+            Predicate matches = token.charAt(token.length() - 1) == TextTokens.PREFIX
+                ? cb.like(entry.get("token"), token.substring(0, token.length() - 1) + "%")
+                : cb.equal(entry.get("token"), token);
+
+            if (level != null)
+            {
+                entries.select(entry.<Long>get("ownerId"))
+                    .where(cb.equal(entry.get("entityLevel"), level), matches);
+            }
+            else
+            {
+                entries.select(entry.<Long>get("patientId")).where(matches);
+            }
+            predicates.add(id.in(entries));
+        }
+        return predicates;
+    }
+}
@@ -0,0 +1,123 @@
+package de.famst.data;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Id;
+import jakarta.persistence.IdClass;
+import jakarta.persistence.Table;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * JPA Entity representing an entry of the {@link TextIndex}: a token occurring in the free text
+ * of a patient, study, series or instance.
+ *
+ * <p>The primary key starts with the token, so its index answers both word and prefix lookups.
+ * Every entry also carries the patient it belongs to, so a text search over the whole hierarchy
+ * of a patient needs no joins.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Entity
+@IdClass(TextTokenEty.Key.class)
+@Table(name = "TEXT_TOKEN")
+public class TextTokenEty
+{
+    @Id
+    @Column(length = TextTokens.MAX_LENGTH)
+    private String token;
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 8)
+    private QueryRetrieveLevel2 entityLevel;
+
+    @Id
+    private long ownerId;
+
+    @Column(nullable = false)
+    private long patientId;
+
+    /**
+     * Default constructor required by JPA.
+     */
+    public TextTokenEty()
+    {
+        // Required by JPA
+    }
+
+    /**
+     * Constructs an index entry.
+     *
+     * @param token       the folded token
+     * @param entityLevel the level of the entity whose text contains the token
+     * @param ownerId     the database id of the entity
+     * @param patientId   the database id of the patient of the entity
+     */
+    public TextTokenEty(String token, QueryRetrieveLevel2 entityLevel, long ownerId, long patientId)
+    {
+        this.token = token;
+        this.entityLevel = entityLevel;
+        this.ownerId = ownerId;
+        this.patientId = patientId;
+    }
+
+    public String getToken()
+    {
+        return token;
+    }
+
+    public QueryRetrieveLevel2 getEntityLevel()
+    {
+        return entityLevel;
+    }
+
+    public long getOwnerId()
+    {
+        return ownerId;
+    }
+
+    public long getPatientId()
+    {
+        return patientId;
+    }
+
+    /**
+     * The composite primary key of an index entry.
+     */
+    public static class Key implements Serializable
+    {
+        private String token;
+        private QueryRetrieveLevel2 entityLevel;
+        private long ownerId;
+
+        public Key()
+        {
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o)
+            {
+                return true;
+            }
+            if (!(o instanceof Key key))
+            {
+                return false;
+            }
+            return ownerId == key.ownerId && Objects.equals(token, key.token) && entityLevel == key.entityLevel;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(token, entityLevel, ownerId);
+        }
+    }
+}
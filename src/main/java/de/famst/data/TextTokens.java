@@ -0,0 +1,109 @@
+package de.famst.data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Tokenization of free text for the {@link TextIndex}.
+ *
+ * <p>Text is folded to lower case without diacritics ({@code Kontrastmittel-Gabe} and
+ * {@code kontrastmittel gabe} give the same tokens, {@code Lähmung} matches {@code lahmung})
+ * and split into words at every character that is neither a letter nor a digit.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class TextTokens
+{
+    /**
+     * Longer words are cut, the key column of the index has this length.
+     */
+    static final int MAX_LENGTH = 64;
+
+    /**
+     * Marks a query word that matches all tokens starting with it.
+     */
+    static final char PREFIX = '*';
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private TextTokens()
+    {
+    }
+
+    /**
+     * Folds text to lower case and removes diacritics.
+     *
+     * @param text the text
+     * @return the folded text
+     */
+    public static String fold(String text)
+    {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Splits text into the distinct tokens stored in the index.
+     *
+     * @param text the text, may be null
+     * @return the tokens in order of their first occurrence
+     */
+    public static Set<String> tokenize(String text)
+    {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null || text.isEmpty())
+        {
+            return tokens;
+        }
+
+        for (String word : SEPARATORS.split(fold(text)))
+        {
+            if (!word.isEmpty())
+            {
+                tokens.add(word.length() > MAX_LENGTH ? word.substring(0, MAX_LENGTH) : word);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Splits a query into the tokens that all have to match. A word ending with {@code *}
+     * matches as prefix, its last token keeps the trailing {@code *}, e.g. {@code follow-up contr*}
+     * gives {@code follow}, {@code up}, {@code contr*}.
+     *
+     * @param query the query, may be null
+     * @return the query tokens, empty if the query contains no words
+     */
+    public static List<String> queryTokens(String query)
+    {
+        List<String> tokens = new ArrayList<>();
+        if (query == null)
+        {
+            return tokens;
+        }
+
+        for (String word : query.trim().split("\\s+"))
+        {
+            List<String> parts = new ArrayList<>(tokenize(word));
+            if (parts.isEmpty())
+            {
+                continue;
+            }
+
+            if (word.charAt(word.length() - 1) == PREFIX)
+            {
+                int last = parts.size() - 1;
+                parts.set(last, parts.get(last) + PREFIX);
+            }
+            tokens.addAll(parts);
+        }
+        return tokens;
+    }
+}
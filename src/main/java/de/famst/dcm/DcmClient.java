@@ -23,6 +23,9 @@ import org.springframework.stereotype.Component;
 import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -36,6 +39,10 @@ import java.util.concurrent.ScheduledExecutorService;
  *   <li>C-STORE - Storage service to send DICOM instances</li>
  * </ul>
  *
+ * <p>Instances are offered in their stored transfer syntax. Compressed ones which can be decoded
+ * are offered uncompressed as well and converted if the remote node only accepts those, see
+ * {@link DcmTranscoder}.
+ *
  * @author jens
  * @since 2024-11-23
  */
@@ -246,8 +253,29 @@ public class DcmClient
             LOG.debug("File metadata - SOP Class: {}, SOP Instance: {}, Transfer Syntax: {}",
                 sopClassUID, sopInstanceUID, transferSyntaxUID);
 
-            // Connect with appropriate SOP Class
-            association = connect(remoteAeTitle, remoteHost, remotePort, sopClassUID);
+            if (transferSyntaxUID == null)
+            {
+                transferSyntaxUID = UID.ExplicitVRLittleEndian;
+            }
+
+            // Connect with appropriate SOP Class, offering the stored and native transfer syntaxes
+            association = connect(remoteAeTitle, remoteHost, remotePort,
+                storePresentationContexts(sopClassUID, transferSyntaxUID));
+
+            // Convert if the remote node does not accept the stored transfer syntax
+            String sendTransferSyntaxUID = DcmTranscoder.select(transferSyntaxUID,
+                association.getTransferSyntaxesFor(sopClassUID));
+            if (sendTransferSyntaxUID == null)
+            {
+                LOG.error("{}@{}:{} accepts no transfer syntax {} can be sent with",
+                    remoteAeTitle, remoteHost, remotePort, dicomFile.getName());
+                return false;
+            }
+            if (!sendTransferSyntaxUID.equals(transferSyntaxUID))
+            {
+                LOG.debug("Converting {} from {} to {}", dicomFile.getName(), transferSyntaxUID, sendTransferSyntaxUID);
+                DcmTranscoder.decompress(dataset, transferSyntaxUID);
+            }
 
             // Send C-STORE request
             DimseRSP response = association.cstore(
@@ -255,7 +283,7 @@ public class DcmClient
                 sopInstanceUID,
                 Priority.NORMAL,
                 new DataWriterAdapter(dataset),
-                transferSyntaxUID != null ? transferSyntaxUID : UID.ExplicitVRLittleEndian
+                sendTransferSyntaxUID
             );
 
             response.next();
@@ -363,6 +391,59 @@ public class DcmClient
      */
     private Association connect(String remoteAeTitle, String remoteHost, int remotePort, String sopClassUID)
         throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException
+    {
+        return connect(remoteAeTitle, remoteHost, remotePort, new PresentationContext(
+            1,
+            sopClassUID,
+            UID.ExplicitVRLittleEndian,
+            UID.ImplicitVRLittleEndian
+        ));
+    }
+
+    /**
+     * Returns the presentation contexts for sending a data set: the stored transfer syntax and,
+     * if it is compressed and can be decoded, the native ones in a second context.
+     *
+     * @param sopClassUID the SOP Class UID of the data set
+     * @param transferSyntaxUID the stored transfer syntax UID
+     * @return the presentation contexts
+     */
+    static PresentationContext[] storePresentationContexts(String sopClassUID, String transferSyntaxUID)
+    {
+        if (DcmTranscoder.isNative(transferSyntaxUID))
+        {
+            Set<String> transferSyntaxes = new LinkedHashSet<>(
+                List.of(transferSyntaxUID, UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian));
+            return new PresentationContext[]{
+                new PresentationContext(1, sopClassUID, transferSyntaxes.toArray(new String[0]))
+            };
+        }
+        if (DcmTranscoder.canTranscode(transferSyntaxUID, UID.ExplicitVRLittleEndian))
+        {
+            return new PresentationContext[]{
+                new PresentationContext(1, sopClassUID, transferSyntaxUID),
+                new PresentationContext(3, sopClassUID, UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian)
+            };
+        }
+        return new PresentationContext[]{new PresentationContext(1, sopClassUID, transferSyntaxUID)};
+    }
+
+    /**
+     * Establishes a connection and association with a remote DICOM node.
+     *
+     * @param remoteAeTitle the Application Entity Title of the remote node
+     * @param remoteHost the hostname or IP address
+     * @param remotePort the port number
+     * @param presentationContexts the presentation contexts to propose
+     * @return the established Association
+     * @throws IOException if connection fails
+     * @throws InterruptedException if connection is interrupted
+     * @throws IncompatibleConnectionException if connection parameters are incompatible
+     * @throws GeneralSecurityException if security setup fails
+     */
+    private Association connect(String remoteAeTitle, String remoteHost, int remotePort,
+                                PresentationContext... presentationContexts)
+        throws IOException, InterruptedException, IncompatibleConnectionException, GeneralSecurityException
     {
         LOG.debug("Connecting to {}@{}:{}", remoteAeTitle, remoteHost, remotePort);
 
@@ -377,15 +458,11 @@ public class DcmClient
         associationRequest.setCalledAET(remoteAeTitle);
         associationRequest.setCallingAET(localAeTitle);
 
-        // Add presentation context
-        associationRequest.addPresentationContext(
-            new PresentationContext(
-                1,
-                sopClassUID,
-                UID.ExplicitVRLittleEndian,
-                UID.ImplicitVRLittleEndian
-            )
-        );
+        // Add presentation contexts
+        for (PresentationContext presentationContext : presentationContexts)
+        {
+            associationRequest.addPresentationContext(presentationContext);
+        }
 
         // Open association
         Association association = applicationEntity.connect(remoteConnection, associationRequest);
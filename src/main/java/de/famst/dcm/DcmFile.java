@@ -1,13 +1,23 @@
 package de.famst.dcm;
 
+import de.famst.data.FrameIndex;
 import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
 import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.util.ByteUtils;
+import org.dcm4che3.util.StreamUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by jens on 03/10/2016.
@@ -41,6 +51,171 @@ public class DcmFile
         return dcm;
     }
 
+    /**
+     * Reads the header of a Part 10 file up to its Pixel Data and records where the value of the
+     * Pixel Data is. The value itself is only skipped, for encapsulated Pixel Data item by item,
+     * which also yields the frames of the fragments, see {@link #indexFrames}.
+     *
+     * @param path the file
+     * @return the index, or null if the file cannot be read or its data set is deflated,
+     * so that positions in the data set are not positions in the file
+     */
+    public static PixelDataIndex indexPixelData(Path path)
+    {
+        try (DicomInputStream dis = new DicomInputStream(path.toFile()))
+        {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.NO);
+            Attributes header = dis.readDatasetUntilPixelData();
+
+            String transferSyntaxUID = dis.getTransferSyntax();
+            if (UID.DeflatedExplicitVRLittleEndian.equals(transferSyntaxUID)
+                || UID.JPIPReferencedDeflate.equals(transferSyntaxUID))
+            {
+                return null;
+            }
+
+            long offset = PixelDataIndex.NONE;
+            long length = PixelDataIndex.NONE;
+            FrameIndex frames = null;
+            if (dis.tag() == Tag.PixelData)
+            {
+                offset = dis.getPosition();
+                length = dis.length();
+
+                if (length == -1)
+                {
+                    // encapsulated, the Basic Offset Table and the fragments end with a Sequence Delimitation Item
+                    long[] basicOffsetTable = null;
+                    List<long[]> fragments = new ArrayList<>();
+                    while (dis.readHeader() && dis.tag() == Tag.Item)
+                    {
+                        long position = dis.getPosition();
+                        int itemLength = dis.length();
+                        if (basicOffsetTable == null)
+                        {
+                            basicOffsetTable = readBasicOffsetTable(dis, itemLength);
+                            continue;
+                        }
+
+                        // the first bytes tell whether a fragment starts a JPEG or JPEG 2000 code stream
+                        int start = itemLength >= 2 ? (dis.read() << 8) | dis.read() : 0;
+                        StreamUtils.skipFully(dis, itemLength - (itemLength >= 2 ? 2 : 0));
+                        fragments.add(new long[]{position - offset, itemLength, start});
+                    }
+
+                    if (dis.tag() != Tag.SequenceDelimitationItem)
+                    {
+                        LOG.warn("encapsulated Pixel Data of [{}] is not terminated", path);
+                        return null;
+                    }
+                    length = dis.getPosition() - 8 - offset;
+                    frames = indexFrames(basicOffsetTable, fragments, header.getInt(Tag.NumberOfFrames, 1));
+                    if (frames == null)
+                    {
+                        LOG.warn("frames of [{}] cannot be located in its {} fragments", path, fragments.size());
+                    }
+                }
+            }
+
+            return new PixelDataIndex(transferSyntaxUID, offset, length,
+                attributes.size(), attributes.lastModifiedTime().toMillis(), frames);
+        }
+        catch (IOException e)
+        {
+            LOG.warn("indexing Pixel Data of [{}] failed: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private static long[] readBasicOffsetTable(DicomInputStream dis, int length) throws IOException
+    {
+        byte[] table = new byte[length];
+        StreamUtils.readFully(dis, table, 0, length);
+
+        long[] offsets = new long[length / 4];
+        for (int i = 0; i < offsets.length; i++)
+        {
+            offsets[i] = ByteUtils.bytesToIntLE(table, i * 4) & 0xFFFFFFFFL;
+        }
+        return offsets;
+    }
+
+    /**
+     * Assigns the fragments of encapsulated Pixel Data to its frames (PS3.5 Section A.4): by the
+     * Basic Offset Table, whose offsets point to the item of the first fragment of each frame; if
+     * it is empty, a single frame has all fragments, as many fragments as frames have one each, and
+     * otherwise each fragment starting with a JPEG SOI or a JPEG 2000 SOC marker starts a frame.
+     *
+     * @param basicOffsetTable the offsets of the frames from the first fragment item
+     * @param fragments        position of the value relative to the Pixel Data value, length and first two bytes of each fragment
+     * @param numberOfFrames   the number of frames of the instance
+     * @return the index, or null if the fragments cannot be assigned
+     */
+    static FrameIndex indexFrames(long[] basicOffsetTable, List<long[]> fragments, int numberOfFrames)
+    {
+        if (fragments.isEmpty() || numberOfFrames < 1)
+        {
+            return null;
+        }
+
+        long[] offsets = new long[fragments.size()];
+        long[] lengths = new long[fragments.size()];
+        for (int fragment = 0; fragment < offsets.length; fragment++)
+        {
+            offsets[fragment] = fragments.get(fragment)[0];
+            lengths[fragment] = fragments.get(fragment)[1];
+        }
+
+        int[] firstFragments = new int[numberOfFrames];
+        if (basicOffsetTable != null && basicOffsetTable.length == numberOfFrames)
+        {
+            // the offsets count from the first byte of the item of the first fragment
+            long firstItem = offsets[0] - 8;
+            int fragment = 0;
+            for (int frame = 0; frame < numberOfFrames; frame++)
+            {
+                while (fragment < offsets.length && offsets[fragment] - 8 - firstItem < basicOffsetTable[frame])
+                {
+                    fragment++;
+                }
+                if (fragment == offsets.length || offsets[fragment] - 8 - firstItem != basicOffsetTable[frame])
+                {
+                    return null;
+                }
+                firstFragments[frame] = fragment;
+            }
+            return new FrameIndex(offsets, lengths, firstFragments);
+        }
+
+        if (numberOfFrames == 1 || numberOfFrames == offsets.length)
+        {
+            for (int frame = 0; frame < numberOfFrames; frame++)
+            {
+                firstFragments[frame] = frame;
+            }
+            return new FrameIndex(offsets, lengths, firstFragments);
+        }
+
+        int frame = 0;
+        for (int fragment = 0; fragment < offsets.length; fragment++)
+        {
+            long start = fragments.get(fragment)[2];
+            if (start == 0xFFD8 || start == 0xFF4F)
+            {
+                if (frame == numberOfFrames)
+                {
+                    return null;
+                }
+                firstFragments[frame++] = fragment;
+            }
+        }
+        return frame == numberOfFrames && firstFragments[0] == 0
+            ? new FrameIndex(offsets, lengths, firstFragments)
+            : null;
+    }
+
     public static boolean isDCMFile(File file)
     {
         try (FileInputStream inStream = new FileInputStream(file))
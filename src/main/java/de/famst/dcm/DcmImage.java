@@ -0,0 +1,178 @@
+package de.famst.dcm;
+
+import org.dcm4che3.imageio.plugins.dcm.DicomImageReadParam;
+import org.dcm4che3.imageio.plugins.dcm.DicomImageReader;
+import org.dcm4che3.imageio.plugins.dcm.DicomImageReaderSpi;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Renders the images of archived Part 10 files for previews.
+ *
+ * <p>Files are decoded with the DICOM image reader of dcm4che, which applies the Modality LUT and
+ * the window of the data set (or one computed from the pixel values) and yields 8-bit gray or RGB
+ * images. Only pure Java decoders are used: native and RLE Pixel Data and JPEG Baseline with the
+ * JPEG reader of the JDK. Images are scaled down in halving steps, which keeps thin structures
+ * visible in thumbnails, and written with the image writers of the JDK.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class DcmImage
+{
+    /**
+     * The formats of rendered images.
+     */
+    public enum Format
+    {
+        JPEG("image/jpeg", "jpeg", "jpg"),
+        PNG("image/png", "png", "png");
+
+        private final String mediaType;
+        private final String formatName;
+        private final String extension;
+
+        Format(String mediaType, String formatName, String extension)
+        {
+            this.mediaType = mediaType;
+            this.formatName = formatName;
+            this.extension = extension;
+        }
+
+        /**
+         * @return the media type of the format
+         */
+        public String mediaType()
+        {
+            return mediaType;
+        }
+
+        /**
+         * @return the file name extension of the format
+         */
+        public String extension()
+        {
+            return extension;
+        }
+    }
+
+    /**
+     * The quality of written JPEG images, which keeps a thumbnail at a few KB.
+     */
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private DcmImage()
+    {
+    }
+
+    /**
+     * Reads a frame of an archived file as 8-bit gray or RGB image.
+     *
+     * @param file  the Part 10 file
+     * @param frame the frame, starting at 0, or -1 for the middle frame
+     * @return the image
+     * @throws IOException if the file cannot be read, has no image or its transfer syntax has no Java decoder
+     */
+    public static BufferedImage read(Path file, int frame) throws IOException
+    {
+        DicomImageReader reader = new DicomImageReader(new DicomImageReaderSpi());
+        try (ImageInputStream input = ImageIO.createImageInputStream(file.toFile()))
+        {
+            reader.setInput(input);
+            int frames = reader.getNumImages(false);
+            if (frames < 1)
+            {
+                throw new IOException("No image in " + file);
+            }
+
+            DicomImageReadParam param = (DicomImageReadParam) reader.getDefaultReadParam();
+            return reader.read(frame < 0 ? frames / 2 : Math.min(frame, frames - 1), param);
+        }
+        catch (RuntimeException e)
+        {
+            // the decoders report unsupported data with unchecked exceptions
+            throw new IOException("Cannot render " + file + ": " + e.getMessage(), e);
+        }
+        finally
+        {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Scales an image down to fit into a viewport, keeping its aspect ratio. Smaller images keep
+     * their size. The result is an 8-bit gray or RGB image which every writer accepts.
+     *
+     * @param source    the image
+     * @param maxWidth  the width of the viewport
+     * @param maxHeight the height of the viewport
+     * @return the scaled image
+     */
+    public static BufferedImage scale(BufferedImage source, int maxWidth, int maxHeight)
+    {
+        double factor = Math.min(1.0, Math.min((double) maxWidth / source.getWidth(),
+            (double) maxHeight / source.getHeight()));
+        int width = Math.max(1, (int) Math.round(source.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(source.getHeight() * factor));
+        int type = source.getColorModel().getNumColorComponents() == 1
+            ? BufferedImage.TYPE_BYTE_GRAY
+            : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage current = source;
+        do
+        {
+            // at most halve the size per step, bilinear interpolation of larger steps skips pixels
+            int stepWidth = Math.max(width, current.getWidth() / 2);
+            int stepHeight = Math.max(height, current.getHeight() / 2);
+
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            graphics.dispose();
+            current = step;
+        }
+        while (current.getWidth() != width || current.getHeight() != height);
+
+        return current;
+    }
+
+    /**
+     * Writes an image, the stream is not closed.
+     *
+     * @param image  the image, 8-bit gray or RGB
+     * @param format the format
+     * @param out    the output stream
+     * @throws IOException if the stream cannot be written
+     */
+    public static void write(BufferedImage image, Format format, OutputStream out) throws IOException
+    {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format.formatName).next();
+        try (ImageOutputStream output = ImageIO.createImageOutputStream(out))
+        {
+            writer.setOutput(output);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format == Format.JPEG)
+            {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(JPEG_QUALITY);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        }
+        finally
+        {
+            writer.dispose();
+        }
+    }
+}
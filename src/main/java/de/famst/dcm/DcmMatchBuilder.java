@@ -0,0 +1,177 @@
+package de.famst.dcm;
+
+import de.famst.data.InstanceRecord;
+import de.famst.data.PatientRecord;
+import de.famst.data.SeriesRecord;
+import de.famst.data.StudyRecord;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Converts read model records into C-FIND match attributes.
+ *
+ * <p>For every query level the attributes the archive knows are listed as {@link MatchField}s.
+ * The C-FIND SCP compiles a {@link ProjectionPlan} from these catalogs, so that only the
+ * requested attributes are read; QIDO-RS compiles its plan from the default attributes of the
+ * level and {@code includefield}. The full matches are built by
+ * {@link #patient}, {@link #study}, {@link #series} and {@link #instance}.
+ * The records already carry the identifying attributes of their parents, so building
+ * a match never touches the database.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class DcmMatchBuilder
+{
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("HHmmss");
+
+    /**
+     * Attributes returned on PATIENT level.
+     */
+    public static final List<MatchField<PatientRecord>> PATIENT_FIELDS = catalog(List.of(
+        field(Tag.PatientName, VR.PN, PatientRecord::patientName),
+        field(Tag.PatientID, VR.LO, PatientRecord::patientId),
+        field(Tag.PatientBirthDate, VR.DA, p -> date(p.patientBirthDate())),
+        field(Tag.PatientSex, VR.CS, PatientRecord::patientSex)));
+
+    /**
+     * Attributes returned on STUDY level, including the attributes of the patient.
+     */
+    public static final List<MatchField<StudyRecord>> STUDY_FIELDS = catalog(List.of(
+        field(Tag.PatientName, VR.PN, StudyRecord::patientName),
+        field(Tag.PatientID, VR.LO, StudyRecord::patientId),
+        field(Tag.PatientBirthDate, VR.DA, s -> date(s.patientBirthDate())),
+        field(Tag.PatientSex, VR.CS, StudyRecord::patientSex),
+        field(Tag.StudyInstanceUID, VR.UI, StudyRecord::studyInstanceUID),
+        field(Tag.StudyID, VR.SH, StudyRecord::studyId),
+        field(Tag.StudyDate, VR.DA, s -> date(s.studyDate())),
+        field(Tag.StudyTime, VR.TM, s -> time(s.studyTime())),
+        field(Tag.StudyDescription, VR.LO, StudyRecord::studyDescription),
+        field(Tag.AccessionNumber, VR.SH, StudyRecord::accessionNumber),
+        field(Tag.ModalitiesInStudy, VR.CS, StudyRecord::modalitiesInStudy),
+        field(Tag.ReferringPhysicianName, VR.PN, StudyRecord::referringPhysicianName)));
+
+    /**
+     * Attributes returned on SERIES level, including the Study Instance UID.
+     */
+    public static final List<MatchField<SeriesRecord>> SERIES_FIELDS = catalog(List.of(
+        field(Tag.StudyInstanceUID, VR.UI, SeriesRecord::studyInstanceUID),
+        field(Tag.SeriesInstanceUID, VR.UI, SeriesRecord::seriesInstanceUID),
+        field(Tag.Modality, VR.CS, SeriesRecord::modality),
+        field(Tag.SeriesNumber, VR.IS, SeriesRecord::seriesNumber),
+        field(Tag.SeriesDescription, VR.LO, SeriesRecord::seriesDescription),
+        field(Tag.SeriesDate, VR.DA, s -> date(s.seriesDate())),
+        field(Tag.SeriesTime, VR.TM, s -> time(s.seriesTime())),
+        field(Tag.PerformingPhysicianName, VR.PN, SeriesRecord::performingPhysicianName),
+        field(Tag.ProtocolName, VR.LO, SeriesRecord::protocolName),
+        field(Tag.BodyPartExamined, VR.CS, SeriesRecord::bodyPartExamined),
+        field(Tag.PatientPosition, VR.CS, SeriesRecord::patientPosition),
+        field(Tag.Laterality, VR.CS, SeriesRecord::laterality),
+        field(Tag.OperatorsName, VR.PN, SeriesRecord::operatorsName)));
+
+    /**
+     * Attributes returned on IMAGE level, including the Series Instance UID.
+     */
+    public static final List<MatchField<InstanceRecord>> INSTANCE_FIELDS = catalog(List.of(
+        field(Tag.SeriesInstanceUID, VR.UI, InstanceRecord::seriesInstanceUID),
+        field(Tag.SOPInstanceUID, VR.UI, InstanceRecord::instanceUID),
+        field(Tag.InstanceNumber, VR.IS, InstanceRecord::instanceNumber),
+        field(Tag.ContentDate, VR.DA, i -> date(i.contentDate())),
+        field(Tag.ContentTime, VR.TM, i -> time(i.contentTime())),
+        field(Tag.ImageType, VR.CS, InstanceRecord::imageType),
+        field(Tag.AcquisitionNumber, VR.IS, InstanceRecord::acquisitionNumber),
+        field(Tag.AcquisitionDate, VR.DA, i -> date(i.acquisitionDate())),
+        field(Tag.AcquisitionTime, VR.TM, i -> time(i.acquisitionTime())),
+        field(Tag.Rows, VR.US, InstanceRecord::rows),
+        field(Tag.Columns, VR.US, InstanceRecord::columns),
+        field(Tag.BitsAllocated, VR.US, InstanceRecord::bitsAllocated),
+        field(Tag.BitsStored, VR.US, InstanceRecord::bitsStored)));
+
+    private static final ProjectionPlan<PatientRecord> ALL_PATIENT_FIELDS = ProjectionPlan.all(PATIENT_FIELDS);
+    private static final ProjectionPlan<StudyRecord> ALL_STUDY_FIELDS = ProjectionPlan.all(STUDY_FIELDS);
+    private static final ProjectionPlan<SeriesRecord> ALL_SERIES_FIELDS = ProjectionPlan.all(SERIES_FIELDS);
+    private static final ProjectionPlan<InstanceRecord> ALL_INSTANCE_FIELDS = ProjectionPlan.all(INSTANCE_FIELDS);
+
+    private DcmMatchBuilder()
+    {
+
+    }
+
+    /**
+     * Builds the PATIENT level match for a patient.
+     *
+     * @param patient the patient
+     * @return the match attributes
+     */
+    public static Attributes patient(PatientRecord patient)
+    {
+        return ALL_PATIENT_FIELDS.project(patient);
+    }
+
+    /**
+     * Builds the STUDY level match for a study, including the patient attributes.
+     *
+     * @param study the study
+     * @return the match attributes
+     */
+    public static Attributes study(StudyRecord study)
+    {
+        return ALL_STUDY_FIELDS.project(study);
+    }
+
+    /**
+     * Builds the SERIES level match for a series, including its Study Instance UID.
+     *
+     * @param series the series
+     * @return the match attributes
+     */
+    public static Attributes series(SeriesRecord series)
+    {
+        return ALL_SERIES_FIELDS.project(series);
+    }
+
+    /**
+     * Builds the IMAGE level match for an instance, including its Series Instance UID.
+     *
+     * @param instance the instance
+     * @return the match attributes
+     */
+    public static Attributes instance(InstanceRecord instance)
+    {
+        return ALL_INSTANCE_FIELDS.project(instance);
+    }
+
+    private static <T> MatchField<T> field(int tag, VR vr, Function<T, Object> accessor)
+    {
+        return new MatchField<>(tag, vr, accessor);
+    }
+
+    /**
+     * Sorts the fields by tag, so that building a match appends to the attributes.
+     */
+    private static <T> List<MatchField<T>> catalog(List<MatchField<T>> fields)
+    {
+        List<MatchField<T>> sorted = new ArrayList<>(fields);
+        sorted.sort((a, b) -> Integer.compareUnsigned(a.tag(), b.tag()));
+        return List.copyOf(sorted);
+    }
+
+    private static String date(LocalDate value)
+    {
+        return value != null ? value.format(DATE_FORMATTER) : null;
+    }
+
+    private static String time(LocalTime value)
+    {
+        return value != null ? value.format(TIME_FORMATTER) : null;
+    }
+}
@@ -0,0 +1,127 @@
+package de.famst.dcm;
+
+import de.famst.data.SqlOperation;
+import de.famst.data.SqlStatementCounter;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+/**
+ * Runs C-FIND database work in a read-only transaction that is bounded by
+ * {@code mupacs.dicom.query.timeout} and can be aborted through a {@link QueryCancellation}.
+ * QIDO-RS database work runs the same way, bounded by the QIDO-RS timeout of the {@link QueryGuard}.
+ *
+ * <p>The transaction timeout is applied by Hibernate to every JDBC statement of the query,
+ * so an abandoned wide query releases its database connection after the timeout even if
+ * the requestor never sends a C-CANCEL.
+ *
+ * <p>The SQL statements of each C-FIND query are counted against the {@link SqlOperation#C_FIND}
+ * budget; those of QIDO-RS searches are counted by the request.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Component
+public class DcmQueryExecutor
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DcmQueryExecutor.class);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+    private final Duration timeout;
+    private final TransactionTemplate qidoTransactionTemplate;
+    private final Duration qidoTimeout;
+
+    /**
+     * Constructs a new DcmQueryExecutor.
+     *
+     * @param transactionManager the transaction manager
+     * @param queryGuard         the guard holding the QIDO-RS timeout
+     * @param timeoutSeconds     the maximum duration of a single query in seconds
+     */
+    public DcmQueryExecutor(
+        PlatformTransactionManager transactionManager,
+        QueryGuard queryGuard,
+        @Value("${mupacs.dicom.query.timeout:30}") int timeoutSeconds)
+    {
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.transactionTemplate = readOnly(transactionManager, timeout);
+
+        this.qidoTimeout = queryGuard.getQidoTimeout();
+        this.qidoTransactionTemplate = readOnly(transactionManager, qidoTimeout);
+
+        LOG.info("DcmQueryExecutor created with query timeout [{}s], QIDO-RS [{}s]", timeoutSeconds,
+            qidoTimeout.toSeconds());
+    }
+
+    private static TransactionTemplate readOnly(PlatformTransactionManager transactionManager, Duration timeout)
+    {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(true);
+        template.setTimeout((int) timeout.toSeconds());
+        return template;
+    }
+
+    /**
+     * Executes a query, attaching the current session to the cancellation handle while it runs.
+     *
+     * @param cancellation the cancellation handle of the query
+     * @param query        the query to run
+     * @param <T>          the result type
+     * @return the query result
+     * @throws QueryCancelledException if the query was cancelled
+     */
+    public <T> T execute(QueryCancellation cancellation, Supplier<T> query)
+    {
+        cancellation.startTimeout(timeout);
+
+        try (SqlStatementCounter.Scope ignored = SqlStatementCounter.open(SqlOperation.C_FIND))
+        {
+            return execute(transactionTemplate, cancellation, query);
+        }
+    }
+
+    /**
+     * Executes the database work of a QIDO-RS search, e.g. the probe for more matches or the
+     * cursor over the matches. The wall clock timeout of the cancellation handle is started;
+     * time the caller spends outside of the query can be excluded by pausing it.
+     *
+     * @param cancellation the cancellation handle of the search
+     * @param query        the query to run
+     * @param <T>          the result type
+     * @return the query result
+     * @throws QueryCancelledException if the search was cancelled
+     */
+    public <T> T executeQido(QueryCancellation cancellation, Supplier<T> query)
+    {
+        cancellation.startTimeout(qidoTimeout);
+        return execute(qidoTransactionTemplate, cancellation, query);
+    }
+
+    private <T> T execute(TransactionTemplate template, QueryCancellation cancellation, Supplier<T> query)
+    {
+        return template.execute(status ->
+        {
+            cancellation.attach(entityManager.unwrap(Session.class));
+            try
+            {
+                return query.get();
+            }
+            finally
+            {
+                cancellation.detach();
+            }
+        });
+    }
+}
@@ -0,0 +1,241 @@
+package de.famst.dcm;
+
+import de.famst.data.QueryOptions;
+import jakarta.inject.Inject;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.AssociationListener;
+import org.dcm4che3.net.QueryOption;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.ExtendedNegotiation;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.dcm4che3.net.service.BasicQueryTask;
+import org.dcm4che3.net.service.DicomServiceException;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Base class of the C-FIND query tasks.
+ *
+ * <p>The matches are not loaded when the task is created, but on the first call of
+ * {@link #hasMoreMatches()}, i.e. in the association's worker thread after the C-CANCEL
+ * handler of the request has been registered. A C-CANCEL received while the database
+ * query is running cancels the running JDBC statement, see {@link QueryCancellation}.
+ * The same happens if the association is closed or aborted before the query has finished.
+ * The query is bounded by {@code mupacs.dicom.query.timeout}, see {@link DcmQueryExecutor}.
+ *
+ * <p>Matches only contain the requested return keys: a {@link ProjectionPlan} is compiled
+ * once per query from the keys, and the remaining keys the archive does not know are copied
+ * once into a response template.
+ *
+ * <p>Person names are matched fuzzily (case-insensitive prefixes of the family and given name)
+ * if the association negotiated fuzzy semantic matching in the extended negotiation of the
+ * SOP class, see {@link DcmServiceRegisty}.
+ *
+ * <p>The number of matches is bounded by the {@link QueryGuard} maximum of the level and the
+ * calling AE: an id probe checks whether more matches exist before any match is read, and the
+ * query is then truncated to the maximum or refused with status {@code Out of Resources}.
+ *
+ * @param <T> the read model record type of the query level
+ * @author jens
+ * @since 2026-10-19
+ */
+public abstract class DcmQueryTask<T> extends BasicQueryTask
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DcmQueryTask.class);
+
+    @Inject
+    @SuppressWarnings("squid:S3306") // Use constructor injection for this field.
+    protected PatientStudyFinder patientStudyFinder;
+
+    @Inject
+    @SuppressWarnings("squid:S3306") // Use constructor injection for this field.
+    private QueryResultCache queryResultCache;
+
+    @Inject
+    @SuppressWarnings("squid:S3306") // Use constructor injection for this field.
+    private DcmQueryExecutor queryExecutor;
+
+    @Inject
+    @SuppressWarnings("squid:S3306") // Use constructor injection for this field.
+    private QueryGuard queryGuard;
+
+    private final QueryCancellation cancellation = new QueryCancellation();
+    private final AssociationListener associationListener = this::onAssociationClosed;
+
+    private Attributes responseTemplate;
+    private List<Attributes> currentMatches;
+    private int currentIndex;
+    private long startTime;
+
+    protected DcmQueryTask(
+            Association as, PresentationContext pc,
+            Attributes rq, Attributes keys)
+    {
+        super(as, pc, rq, keys);
+    }
+
+    /**
+     * @return the query/retrieve level handled by this task
+     */
+    protected abstract QueryRetrieveLevel2 getQueryLevel();
+
+    /**
+     * @return the attributes the archive can return on this level, see {@link DcmMatchBuilder}
+     */
+    protected abstract List<MatchField<T>> getMatchFields();
+
+    /**
+     * Queries the database for the matches of the given keys.
+     *
+     * @param keys         the query keys
+     * @param options      the matching options
+     * @param projection   the attributes to return
+     * @param cancellation the cancellation handle to poll while building the matches
+     * @return the matches
+     */
+    protected abstract List<Attributes> findMatches(Attributes keys, QueryOptions options,
+                                                    ProjectionPlan<T> projection, QueryCancellation cancellation);
+
+    /**
+     * Probes whether more matches exist than fit into the window of the options, without reading them.
+     *
+     * @param keys    the query keys
+     * @param options the window and matching options
+     * @return true if there is a match after the window
+     */
+    protected abstract boolean exceedsWindow(Attributes keys, QueryOptions options);
+
+    @Override
+    protected boolean hasMoreMatches() throws DicomServiceException
+    {
+        if (currentMatches == null)
+        {
+            as.addAssociationListener(associationListener);
+            currentMatches = loadMatches();
+            currentIndex = 0;
+        }
+
+        return currentIndex < currentMatches.size();
+    }
+
+    @Override
+    protected Attributes nextMatch() throws DicomServiceException
+    {
+        Attributes match = currentMatches.get(currentIndex);
+        currentIndex = currentIndex + 1;
+
+        Attributes response = new Attributes(responseTemplate.size() + match.size());
+        response.addAll(responseTemplate);
+        response.addAll(match);
+
+        if (LOG.isTraceEnabled())
+        {
+            LOG.trace("next match \n{}", response);
+        }
+
+        return response;
+    }
+
+    @Override
+    protected Attributes adjust(Attributes match)
+    {
+        // nextMatch() already restricted the response to the requested keys
+        return match;
+    }
+
+    @Override
+    public void onCancelRQ(Association as)
+    {
+        LOG.info("C-CANCEL received for [{}] query on association [{}]", getQueryLevel(), as);
+
+        super.onCancelRQ(as);
+        cancellation.cancel();
+    }
+
+    private void onAssociationClosed(Association as)
+    {
+        LOG.info("association [{}] closed, cancelling [{}] query", as, getQueryLevel());
+        cancellation.cancel();
+    }
+
+    @Override
+    protected void close()
+    {
+        as.removeAssociationListener(associationListener);
+
+        if (currentMatches != null)
+        {
+            LOG.info("[{}] query returned [{}] of [{}] match(es) in [{}] ms{}", getQueryLevel(),
+                currentIndex, currentMatches.size(), (System.nanoTime() - startTime) / 1_000_000,
+                canceled ? ", cancelled" : "");
+        }
+
+        // release the matches, the task object may be referenced by the association a little longer
+        currentMatches = List.of();
+        currentIndex = 0;
+
+        super.close();
+    }
+
+    private List<Attributes> loadMatches() throws DicomServiceException
+    {
+        startTime = System.nanoTime();
+
+        QueryRetrieveLevel2 level = getQueryLevel();
+        LOG.info("Query level [{}]", keys.getString(Tag.QueryRetrieveLevel));
+
+        ProjectionPlan<T> projection = ProjectionPlan.compile(getMatchFields(), keys);
+        String callingAET = as.getCallingAET();
+        int maxMatches = queryGuard.getMaxMatches(level, callingAET);
+        QueryOptions options = new QueryOptions(0, maxMatches > 0 ? maxMatches : QueryOptions.UNLIMITED,
+            fuzzyMatchingNegotiated(), null);
+
+        responseTemplate = new Attributes(keys.size());
+        responseTemplate.addNotSelected(keys, projection.tags());
+
+        try
+        {
+            return queryResultCache.getMatches(level, keys, projection.signature() + ";" + options.signature(),
+                k -> queryExecutor.execute(cancellation, () ->
+                {
+                    if (options.isWindowed() && exceedsWindow(k, options))
+                    {
+                        queryGuard.overLimit(QueryGuard.Protocol.C_FIND, level, callingAET, options.limit());
+                    }
+                    return findMatches(k, options, projection, cancellation);
+                }));
+        }
+        catch (QueryRefusedException e)
+        {
+            throw new DicomServiceException(Status.OutOfResources, e.getMessage());
+        }
+        catch (RuntimeException e)
+        {
+            if (cancellation.isCancelled())
+            {
+                // BasicQueryTask answers with status Cancel
+                LOG.info("[{}] query was cancelled", level);
+                return List.of();
+            }
+
+            if (QueryGuard.isTimeout(e))
+            {
+                queryGuard.recordTimeout(QueryGuard.Protocol.C_FIND);
+            }
+
+            LOG.warn("[{}] query failed: {}", level, e.getMessage());
+            throw new DicomServiceException(Status.UnableToProcess, e);
+        }
+    }
+
+    private boolean fuzzyMatchingNegotiated()
+    {
+        ExtendedNegotiation extNeg = as.getAAssociateAC().getExtNegotiationFor(pc.getAbstractSyntax());
+        return extNeg != null && QueryOption.toOptions(extNeg).contains(QueryOption.FUZZY);
+    }
+}
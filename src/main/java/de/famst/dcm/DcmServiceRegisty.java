@@ -1,8 +1,10 @@
 package de.famst.dcm;
 
+import org.dcm4che3.data.UID;
 import org.dcm4che3.net.ApplicationEntity;
 import org.dcm4che3.net.Connection;
 import org.dcm4che3.net.Device;
+import org.dcm4che3.net.QueryOption;
 import org.dcm4che3.net.TransferCapability;
 import org.dcm4che3.net.service.DicomServiceRegistry;
 import org.slf4j.Logger;
@@ -13,6 +15,7 @@ import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.EnumSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -76,6 +79,17 @@ public class DcmServiceRegisty
 
         ae.addTransferCapability(tc);
 
+        // the query SOP classes additionally accept fuzzy semantic matching of person names
+        for (String cuid : new String[]{
+            UID.PatientRootQueryRetrieveInformationModelFind,
+            UID.StudyRootQueryRetrieveInformationModelFind})
+        {
+            TransferCapability queryTc = new TransferCapability(
+                null, cuid, TransferCapability.Role.SCP, "*");
+            queryTc.setQueryOptions(EnumSet.of(QueryOption.FUZZY));
+            ae.addTransferCapability(queryTc);
+        }
+
         device.addApplicationEntity(ae);
 
         Connection connection = new Connection();
@@ -1,5 +1,7 @@
 package de.famst.dcm;
 
+import de.famst.data.SqlOperation;
+import de.famst.data.SqlStatementCounter;
 import de.famst.service.DicomImportService;
 import jakarta.inject.Inject;
 import org.dcm4che3.data.Attributes;
@@ -74,7 +76,7 @@ public class DcmStoreSCP extends BasicCStoreSCP
             throw new DicomServiceException(Status.ProcessingFailure, e);
         }
 
-        try
+        try (SqlStatementCounter.Scope ignored = SqlStatementCounter.open(SqlOperation.INGEST))
         {
             dicomImportService.dicomToDatabase(file);
         }
@@ -0,0 +1,189 @@
+package de.famst.dcm;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.imageio.codec.Decompressor;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Converts archived Part 10 files and data sets between transfer syntaxes for retrieval and for
+ * sending to nodes which do not accept the stored one.
+ *
+ * <p>Files can be converted between the native transfer syntaxes (implicit and explicit little
+ * endian, deflated and the retired big endian), which only differ in their encoding. Compressed
+ * Pixel Data is decoded with the pure Java decoders also used for previews, see
+ * {@link DcmImage}: RLE and JPEG Baseline can be converted into the little endian syntaxes.
+ * Compressing into an encapsulated syntax is not supported.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class DcmTranscoder
+{
+    /**
+     * The transfer syntaxes which do not encapsulate the Pixel Data.
+     */
+    private static final Set<String> NATIVE = Set.of(
+        UID.ExplicitVRLittleEndian,
+        UID.ImplicitVRLittleEndian,
+        UID.DeflatedExplicitVRLittleEndian,
+        UID.ExplicitVRBigEndian);
+
+    /**
+     * The compressed transfer syntaxes with pure Java decoders.
+     */
+    private static final Set<String> DECODABLE = Set.of(
+        UID.RLELossless,
+        UID.JPEGBaseline8Bit);
+
+    private DcmTranscoder()
+    {
+    }
+
+    /**
+     * @param tsuid a transfer syntax UID
+     * @return true if the transfer syntax does not encapsulate the Pixel Data
+     */
+    public static boolean isNative(String tsuid)
+    {
+        return NATIVE.contains(tsuid);
+    }
+
+    /**
+     * @param from the transfer syntax UID of the source
+     * @param to   the requested transfer syntax UID
+     * @return true if a file can be converted, always if both are the same
+     */
+    public static boolean canTranscode(String from, String to)
+    {
+        if (from.equals(to))
+        {
+            return true;
+        }
+        if (!isNative(to))
+        {
+            return false;
+        }
+        return isNative(from) || (DECODABLE.contains(from) && !UID.ExplicitVRBigEndian.equals(to));
+    }
+
+    /**
+     * Chooses the transfer syntax a data set is sent with.
+     *
+     * @param from     the transfer syntax UID of the data set
+     * @param accepted the transfer syntax UIDs the receiver accepted
+     * @return the stored transfer syntax if it is accepted, otherwise an accepted one the data set
+     * can be converted into, null if there is none
+     */
+    public static String select(String from, Collection<String> accepted)
+    {
+        if (accepted.contains(from))
+        {
+            return from;
+        }
+        for (String tsuid : new String[]{UID.ExplicitVRLittleEndian, UID.ImplicitVRLittleEndian})
+        {
+            if (accepted.contains(tsuid) && canTranscode(from, tsuid))
+            {
+                return tsuid;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the transfer syntax of a file from its File Meta Information, or guesses it from the
+     * first bytes of the data set if it has none.
+     *
+     * @param file the Part 10 file
+     * @return the transfer syntax UID
+     * @throws IOException if the file cannot be read
+     */
+    public static String readTransferSyntax(Path file) throws IOException
+    {
+        try (DicomInputStream dis = new DicomInputStream(file.toFile()))
+        {
+            dis.readFileMetaInformation();
+            return dis.getTransferSyntax();
+        }
+    }
+
+    /**
+     * Decodes the compressed Pixel Data of a data set read with bulk data, so it can be written
+     * with a native transfer syntax. The frames are decoded while the data set is written.
+     *
+     * @param dataset the data set
+     * @param from    the transfer syntax UID the data set was read with
+     * @throws UnsupportedTransferSyntaxException if the Pixel Data cannot be decoded
+     */
+    public static void decompress(Attributes dataset, String from) throws UnsupportedTransferSyntaxException
+    {
+        if (isNative(from))
+        {
+            return;
+        }
+        if (!DECODABLE.contains(from))
+        {
+            throw new UnsupportedTransferSyntaxException("No decoder for transfer syntax " + from);
+        }
+        Decompressor.decompress(dataset, from);
+    }
+
+    /**
+     * Writes a file in another transfer syntax.
+     *
+     * @param source the Part 10 file
+     * @param to     the transfer syntax UID to write
+     * @param out    the stream the converted Part 10 file is written to, not closed
+     * @throws UnsupportedTransferSyntaxException if the file cannot be converted
+     * @throws IOException                        if the file cannot be read or decoded
+     */
+    public static void transcode(Path source, String to, OutputStream out) throws IOException
+    {
+        Attributes fmi;
+        Attributes dataset;
+        String from;
+        try (DicomInputStream dis = new DicomInputStream(source.toFile()))
+        {
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.YES);
+            fmi = dis.readFileMetaInformation();
+            dataset = dis.readDataset();
+            from = dis.getTransferSyntax();
+        }
+
+        if (!canTranscode(from, to))
+        {
+            throw new UnsupportedTransferSyntaxException(
+                "Cannot convert " + source.getFileName() + " from " + from + " to " + to);
+        }
+        decompress(dataset, from);
+
+        if (fmi == null)
+        {
+            fmi = dataset.createFileMetaInformation(to);
+        }
+        fmi.setString(Tag.TransferSyntaxUID, VR.UI, to);
+
+        DicomOutputStream dos = new DicomOutputStream(out, UID.ExplicitVRLittleEndian);
+        try
+        {
+            dos.writeDataset(fmi, dataset);
+            dos.finish();
+        }
+        catch (RuntimeException e)
+        {
+            // the decoders fail unchecked while the frames are written
+            throw new IOException("Cannot decode " + source.getFileName() + ": " + e.getMessage(), e);
+        }
+        dos.flush();
+    }
+}
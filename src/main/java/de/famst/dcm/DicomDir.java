@@ -0,0 +1,249 @@
+package de.famst.dcm;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.ElementDictionary;
+import org.dcm4che3.data.Sequence;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomEncodingOptions;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.util.UIDUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A DICOMDIR built in memory (PS3.10 Section 8, PS3.3 Annex F), for file-sets written as a
+ * stream, e.g. into a ZIP, where the directory cannot be written into a file and patched.
+ *
+ * <p>Files are added with the header of their data set and grouped into PATIENT, STUDY and
+ * SERIES records in the order they are added. The directory holds only these records, about
+ * a few hundred bytes per file, not the files. {@link #encode()} lays out the records depth
+ * first and computes their offsets: all lengths are explicit and the offsets have a fixed
+ * size, so each record is encoded once to find its position.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class DicomDir
+{
+    private static final int[] PATIENT_KEYS = {Tag.PatientName, Tag.PatientID};
+
+    private static final int[] STUDY_KEYS = {Tag.StudyDate, Tag.StudyTime, Tag.AccessionNumber,
+        Tag.StudyDescription, Tag.StudyInstanceUID, Tag.StudyID};
+
+    private static final int[] SERIES_KEYS = {Tag.Modality, Tag.SeriesInstanceUID, Tag.SeriesNumber};
+
+    private static final int[] INSTANCE_KEYS = {Tag.InstanceNumber};
+
+    private static final DicomEncodingOptions EXPLICIT_LENGTHS = new DicomEncodingOptions(false, false, false,
+        false, false);
+
+    /**
+     * A directory record and the records of its lower level, keyed by their identifying UID.
+     */
+    private static final class Node
+    {
+        private final Attributes record;
+        private final Map<String, Node> children = new LinkedHashMap<>();
+
+        private Node(Attributes record)
+        {
+            this.record = record;
+        }
+    }
+
+    private final String fileSetID;
+    private final Map<String, Node> patients = new LinkedHashMap<>();
+    private int size;
+
+    /**
+     * Constructs an empty directory.
+     *
+     * @param fileSetID the File-set ID, at most 16 characters
+     */
+    public DicomDir(String fileSetID)
+    {
+        this.fileSetID = fileSetID;
+    }
+
+    /**
+     * Adds a file of the file-set.
+     *
+     * @param fileID            the components of the path of the file in the file-set, e.g.
+     *                          {@code DICOM, ST000001, SE000001, IM000001}
+     * @param header            the data set of the file, at least up to its Pixel Data
+     * @param transferSyntaxUID the transfer syntax of the file
+     */
+    public void add(String[] fileID, Attributes header, String transferSyntaxUID)
+    {
+        String patientKey = header.getString(Tag.PatientID, "") + '\\' + header.getString(Tag.PatientName, "");
+        Node patient = patients.computeIfAbsent(patientKey, key -> new Node(record("PATIENT", header, PATIENT_KEYS)));
+        Node study = patient.children.computeIfAbsent(header.getString(Tag.StudyInstanceUID, ""),
+            key -> new Node(record("STUDY", header, STUDY_KEYS)));
+        Node series = study.children.computeIfAbsent(header.getString(Tag.SeriesInstanceUID, ""),
+            key -> new Node(record("SERIES", header, SERIES_KEYS)));
+
+        Attributes instance = record(recordType(header), header, INSTANCE_KEYS);
+        instance.setString(Tag.ReferencedFileID, VR.CS, fileID);
+        instance.setString(Tag.ReferencedSOPClassUIDInFile, VR.UI, header.getString(Tag.SOPClassUID));
+        instance.setString(Tag.ReferencedSOPInstanceUIDInFile, VR.UI, header.getString(Tag.SOPInstanceUID));
+        instance.setString(Tag.ReferencedTransferSyntaxUIDInFile, VR.UI, transferSyntaxUID);
+        series.children.put(header.getString(Tag.SOPInstanceUID, String.valueOf(size)), new Node(instance));
+        size++;
+    }
+
+    /**
+     * @return the number of files in the directory
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Encodes the directory as Part 10 file in Explicit VR Little Endian.
+     *
+     * @return the DICOMDIR file
+     */
+    public byte[] encode()
+    {
+        // depth first: each record is followed by the records of its lower level
+        List<Attributes> records = new ArrayList<>();
+        flatten(patients, records);
+
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.FileSetID, VR.CS, fileSetID);
+        dataset.setInt(Tag.OffsetOfTheFirstDirectoryRecordOfTheRootDirectoryEntity, VR.UL, 0);
+        dataset.setInt(Tag.OffsetOfTheLastDirectoryRecordOfTheRootDirectoryEntity, VR.UL, 0);
+        dataset.setInt(Tag.FileSetConsistencyFlag, VR.US, 0);
+        Sequence sequence = dataset.newSequence(Tag.DirectoryRecordSequence, records.size());
+        for (Attributes record : records)
+        {
+            sequence.add(record);
+        }
+
+        Attributes fmi = Attributes.createFileMetaInformation(UIDUtils.createUID(), UID.MediaStorageDirectoryStorage,
+            UID.ExplicitVRLittleEndian);
+
+        // the sequence is the last element, its items end the file: an item takes its header and its content
+        long[] positions = new long[records.size()];
+        long position = encode(fmi, dataset).length;
+        for (int i = records.size() - 1; i >= 0; i--)
+        {
+            position -= 8 + encode(null, records.get(i)).length;
+            positions[i] = position;
+        }
+
+        Map<Attributes, Long> offsets = new IdentityHashMap<>();
+        for (int i = 0; i < records.size(); i++)
+        {
+            offsets.put(records.get(i), positions[i]);
+        }
+        link(patients, offsets);
+        if (!patients.isEmpty())
+        {
+            List<Node> roots = new ArrayList<>(patients.values());
+            dataset.setInt(Tag.OffsetOfTheFirstDirectoryRecordOfTheRootDirectoryEntity, VR.UL,
+                offsets.get(roots.get(0).record).intValue());
+            dataset.setInt(Tag.OffsetOfTheLastDirectoryRecordOfTheRootDirectoryEntity, VR.UL,
+                offsets.get(roots.get(roots.size() - 1).record).intValue());
+        }
+
+        return encode(fmi, dataset);
+    }
+
+    private static void flatten(Map<String, Node> level, List<Attributes> records)
+    {
+        for (Node node : level.values())
+        {
+            records.add(node.record);
+            flatten(node.children, records);
+        }
+    }
+
+    /**
+     * Sets the offsets of the next record of the same level and of the first record of the lower level.
+     */
+    private static void link(Map<String, Node> level, Map<Attributes, Long> offsets)
+    {
+        List<Node> siblings = new ArrayList<>(level.values());
+        for (int i = 0; i < siblings.size(); i++)
+        {
+            Node node = siblings.get(i);
+            long next = i + 1 < siblings.size() ? offsets.get(siblings.get(i + 1).record) : 0;
+            long lower = node.children.isEmpty() ? 0 : offsets.get(node.children.values().iterator().next().record);
+            node.record.setInt(Tag.OffsetOfTheNextDirectoryRecord, VR.UL, (int) next);
+            node.record.setInt(Tag.OffsetOfReferencedLowerLevelDirectoryEntity, VR.UL, (int) lower);
+            link(node.children, offsets);
+        }
+    }
+
+    private static Attributes record(String type, Attributes header, int[] keys)
+    {
+        Attributes record = new Attributes();
+        record.setInt(Tag.OffsetOfTheNextDirectoryRecord, VR.UL, 0);
+        record.setInt(Tag.RecordInUseFlag, VR.US, 0xFFFF);
+        record.setInt(Tag.OffsetOfReferencedLowerLevelDirectoryEntity, VR.UL, 0);
+        record.setString(Tag.DirectoryRecordType, VR.CS, type);
+        if (header.contains(Tag.SpecificCharacterSet))
+        {
+            record.setString(Tag.SpecificCharacterSet, VR.CS, header.getStrings(Tag.SpecificCharacterSet));
+        }
+
+        for (int tag : keys)
+        {
+            // keys missing in the header are sent empty, they are type 1 or 2 in the records
+            VR vr = ElementDictionary.vrOf(tag, null);
+            String[] values = header.getStrings(tag);
+            if (values != null)
+            {
+                record.setString(tag, vr, values);
+            }
+            else
+            {
+                record.setNull(tag, vr);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Chooses the record type of a file, PS3.3 Table F.4-1, for the objects an archive usually holds.
+     */
+    private static String recordType(Attributes header)
+    {
+        return switch (header.getString(Tag.Modality, ""))
+        {
+            case "SR" -> "SR";
+            case "PR" -> "PRESENTATION";
+            case "KO" -> "KEY OBJECT DOC";
+            case "RTSTRUCT" -> "RT STRUCTURE SET";
+            case "RTPLAN" -> "RT PLAN";
+            case "RTDOSE" -> "RT DOSE";
+            default -> "IMAGE";
+        };
+    }
+
+    private static byte[] encode(Attributes fmi, Attributes dataset)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DicomOutputStream dos = new DicomOutputStream(bytes, UID.ExplicitVRLittleEndian))
+        {
+            dos.setEncodingOptions(EXPLICIT_LENGTHS);
+            dos.writeDataset(fmi, dataset);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("encoding DICOMDIR failed", e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -240,6 +240,11 @@ public class DicomReader
       instance.setBitsStored(dcm.getInt(Tag.BitsStored, 0));
     }
 
+    if (dcm.contains(Tag.NumberOfFrames))
+    {
+      instance.setNumberOfFrames(dcm.getInt(Tag.NumberOfFrames, 1));
+    }
+
     return instance;
   }
 
@@ -0,0 +1,47 @@
+package de.famst.dcm;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.VR;
+
+import java.util.function.Function;
+
+/**
+ * A single attribute a query level can return: the DICOM tag, its VR and the accessor
+ * reading the value from the source object.
+ *
+ * <p>Accessors return either a {@link String}, an {@link Integer} or {@code null} for an
+ * unknown value. They are plain method references, no reflection is involved.
+ *
+ * @param tag      the DICOM tag
+ * @param vr       the value representation
+ * @param accessor reads the value from the source object
+ * @param <T>      the type of the source object
+ * @author jens
+ * @since 2026-10-19
+ */
+public record MatchField<T>(int tag, VR vr, Function<T, Object> accessor)
+{
+    /**
+     * Reads the value from the source and writes it to the match.
+     * An unknown value is written as empty attribute, as required for requested return keys.
+     *
+     * @param source the source object
+     * @param match  the match to write to
+     */
+    void write(T source, Attributes match)
+    {
+        Object value = accessor.apply(source);
+        if (value instanceof Integer intValue)
+        {
+            match.setInt(tag, vr, intValue);
+        }
+        else if (value != null)
+        {
+            match.setString(tag, vr, value.toString());
+        }
+        else
+        {
+            match.setNull(tag, vr);
+        }
+    }
+}
@@ -1,523 +1,295 @@
 package de.famst.dcm;
 
-import de.famst.data.InstanceEty;
-import de.famst.data.InstanceRepository;
-import de.famst.data.PatientEty;
-import de.famst.data.PatientRepository;
-import de.famst.data.SeriesEty;
-import de.famst.data.SeriesRepository;
-import de.famst.data.StudyEty;
-import de.famst.data.StudyRepository;
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceRecord;
+import de.famst.data.PatientRecord;
+import de.famst.data.QueryOptions;
+import de.famst.data.SeriesRecord;
+import de.famst.data.StudyRecord;
+import de.famst.service.StudyCatalog;
 import org.dcm4che3.data.Attributes;
-import org.dcm4che3.data.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * Created by jens on 06/11/2016.
+ *
+ * <p>All reads run in read-only transactions. The C-FIND / QIDO-RS matches are built from the
+ * records of {@link DicomReadRepository}, whose queries match the keys in SQL; no entity is
+ * loaded.
+ *
+ * <p>STUDY level queries are answered by the {@link StudyCatalog} instead, if it is enabled and
+ * can match all keys of the query.
  */
 @Component
-@Transactional
+@Transactional(readOnly = true)
 public class PatientStudyFinder
 {
     private static Logger LOG = LoggerFactory.getLogger(PatientStudyFinder.class);
 
-    private PatientRepository patientRepository;
-    private StudyRepository studyRepository;
-    private SeriesRepository seriesRepository;
-    private InstanceRepository instanceRepository;
+    private DicomReadRepository dicomReadRepository;
+    private StudyCatalog studyCatalog;
 
     @Autowired
-    public PatientStudyFinder(PatientRepository patientRepository,
-                              StudyRepository studyRepository,
-                              SeriesRepository seriesRepository,
-                              InstanceRepository instanceRepository)
+    public PatientStudyFinder(DicomReadRepository dicomReadRepository,
+                              StudyCatalog studyCatalog)
     {
-        this.patientRepository = patientRepository;
-        this.studyRepository = studyRepository;
-        this.seriesRepository = seriesRepository;
-        this.instanceRepository = instanceRepository;
+        this.dicomReadRepository = dicomReadRepository;
+        this.studyCatalog = studyCatalog;
 
         LOG.info("PatientStudyFinder created");
     }
 
-    @Transactional
-    public List<PatientEty> findPatients(Attributes keys)
+    /**
+     * Finds patients matching the given keys with the matching of the options, e.g. fuzzy
+     * person name matching, and converts them into C-FIND matches.
+     *
+     * @param keys         the DICOM attributes containing search criteria
+     * @param options      the matching options
+     * @param projection   the attributes to return
+     * @param cancellation the cancellation handle of the query
+     * @return list of PATIENT level matches
+     * @throws QueryCancelledException if the query was cancelled
+     */
+    @Transactional(readOnly = true)
+    public List<Attributes> findPatientMatches(Attributes keys, QueryOptions options,
+                                               ProjectionPlan<PatientRecord> projection, QueryCancellation cancellation)
     {
-        // Get all patients initially
-        List<PatientEty> patientEtyList = patientRepository.findAll();
-
-        // Filter by PatientName if provided
-        String patientName = keys.getString(Tag.PatientName);
-        if (null != patientName && !patientName.isEmpty())
-        {
-            String namePattern = patientName.replace('*', '%');
-            if (namePattern.contains("%"))
-            {
-                // Use LIKE query for wildcards
-                patientEtyList = patientRepository.findByPatientNameLike(namePattern);
-            }
-            else
-            {
-                // Exact match
-                PatientEty patient = patientRepository.findByPatientName(patientName);
-                patientEtyList = patient != null ? List.of(patient) : List.of();
-            }
-        }
-
-        // Filter by PatientID if provided
-        String patientId = keys.getString(Tag.PatientID);
-        if (null != patientId && !patientId.isEmpty())
-        {
-            patientEtyList = patientEtyList.stream()
-                .filter(p -> p.getPatientId() != null && matchesPattern(p.getPatientId(), patientId))
-                .toList();
-        }
-
-        // Filter by PatientBirthDate if provided
-        if (keys.contains(Tag.PatientBirthDate))
-        {
-            java.util.Date birthDate = keys.getDate(Tag.PatientBirthDate);
-            if (birthDate != null)
-            {
-                java.time.LocalDate localBirthDate = new java.sql.Date(birthDate.getTime()).toLocalDate();
-                patientEtyList = patientEtyList.stream()
-                    .filter(p -> p.getPatientBirthDate() != null && p.getPatientBirthDate().equals(localBirthDate))
-                    .toList();
-            }
-        }
-
-        // Filter by PatientSex if provided
-        String patientSex = keys.getString(Tag.PatientSex);
-        if (null != patientSex && !patientSex.isEmpty())
-        {
-            patientEtyList = patientEtyList.stream()
-                .filter(p -> p.getPatientSex() != null && matchesPattern(p.getPatientSex(), patientSex))
-                .toList();
-        }
-
-        if (patientEtyList != null && !patientEtyList.isEmpty())
-        {
-            LOG.info("found [{}] patient(s) matching query criteria", patientEtyList.size());
-        }
-        else
-        {
-            LOG.info("found no patients matching query criteria");
-            patientEtyList = List.of();
-        }
-
-        return patientEtyList;
+        return toMatches(dicomReadRepository.findPatients(keys, options), projection::project, cancellation);
     }
 
     /**
-     * Matches a value against a pattern that may contain DICOM wildcards (* or ?).
-     * * matches any sequence of characters
-     * ? matches any single character
+     * Checks whether more patients match the given keys than fit into the window of the options.
      *
-     * @param value the value to match
-     * @param pattern the pattern with optional wildcards
-     * @return true if the value matches the pattern
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if the window truncates the matches
      */
-    private boolean matchesPattern(String value, String pattern)
+    @Transactional(readOnly = true)
+    public boolean hasMorePatientMatches(Attributes keys, QueryOptions options)
     {
-        if (pattern == null || value == null)
-        {
-            return false;
-        }
-
-        // If no wildcards, do exact match
-        if (!pattern.contains("*") && !pattern.contains("?"))
-        {
-            return value.equals(pattern);
-        }
-
-        // Convert DICOM wildcards to regex
-        String regex = pattern
-            .replace(".", "\\.")
-            .replace("*", ".*")
-            .replace("?", ".");
-
-        return value.matches(regex);
+        return dicomReadRepository.hasMorePatients(keys, options);
     }
 
-
-    @Transactional
-    public List<SeriesEty> findSeries(Attributes keys)
+    /**
+     * Finds studies matching the given keys with the matching of the options, e.g. fuzzy
+     * person name matching, and converts them into C-FIND matches.
+     *
+     * @param keys         the DICOM attributes containing search criteria
+     * @param options      the matching options
+     * @param projection   the attributes to return
+     * @param cancellation the cancellation handle of the query
+     * @return list of STUDY level matches
+     * @throws QueryCancelledException if the query was cancelled
+     */
+    @Transactional(readOnly = true)
+    public List<Attributes> findStudyMatches(Attributes keys, QueryOptions options,
+                                             ProjectionPlan<StudyRecord> projection, QueryCancellation cancellation)
     {
-        List<SeriesEty> seriesEtyList = new ArrayList<>();
-
-        // First, filter by StudyInstanceUID if provided (required for SERIES level query)
-        String studyInstanceUID = keys.getString(Tag.StudyInstanceUID);
-        if (null != studyInstanceUID && !studyInstanceUID.isEmpty())
-        {
-            StudyEty studyEty = studyRepository.findByStudyInstanceUID(studyInstanceUID);
-            if (null != studyEty)
-            {
-                seriesEtyList = new ArrayList<>(seriesRepository.findByStudyId(studyEty.getId()));
-            }
-        }
-        else
-        {
-            // If no StudyInstanceUID, get all series
-            seriesEtyList = new ArrayList<>(seriesRepository.findAll());
-        }
-
-        // Filter by SeriesInstanceUID if provided
-        String seriesInstanceUID = keys.getString(Tag.SeriesInstanceUID);
-        if (null != seriesInstanceUID && !seriesInstanceUID.isEmpty())
-        {
-            seriesEtyList = seriesEtyList.stream()
-                .filter(s -> s.getSeriesInstanceUID() != null && matchesPattern(s.getSeriesInstanceUID(), seriesInstanceUID))
-                .toList();
-        }
-
-        // Filter by Modality if provided
-        String modality = keys.getString(Tag.Modality);
-        if (null != modality && !modality.isEmpty())
-        {
-            seriesEtyList = seriesEtyList.stream()
-                .filter(s -> s.getModality() != null && matchesPattern(s.getModality(), modality))
-                .toList();
-        }
-
-        // Filter by SeriesNumber if provided
-        if (keys.contains(Tag.SeriesNumber))
-        {
-            int seriesNumber = keys.getInt(Tag.SeriesNumber, -1);
-            if (seriesNumber >= 0)
-            {
-                seriesEtyList = seriesEtyList.stream()
-                    .filter(s -> s.getSeriesNumber() != null && s.getSeriesNumber() == seriesNumber)
-                    .toList();
-            }
-        }
-
-        // Filter by SeriesDescription if provided
-        String seriesDescription = keys.getString(Tag.SeriesDescription);
-        if (null != seriesDescription && !seriesDescription.isEmpty())
-        {
-            seriesEtyList = seriesEtyList.stream()
-                .filter(s -> s.getSeriesDescription() != null && matchesPattern(s.getSeriesDescription(), seriesDescription))
-                .toList();
-        }
-
-        // Filter by SeriesDate if provided
-        if (keys.contains(Tag.SeriesDate))
-        {
-            java.util.Date seriesDate = keys.getDate(Tag.SeriesDate);
-            if (seriesDate != null)
-            {
-                java.time.LocalDate localSeriesDate = new java.sql.Date(seriesDate.getTime()).toLocalDate();
-                seriesEtyList = seriesEtyList.stream()
-                    .filter(s -> s.getSeriesDate() != null && s.getSeriesDate().equals(localSeriesDate))
-                    .toList();
-            }
-        }
-
-        // Filter by PerformingPhysicianName if provided
-        String performingPhysicianName = keys.getString(Tag.PerformingPhysicianName);
-        if (null != performingPhysicianName && !performingPhysicianName.isEmpty())
-        {
-            seriesEtyList = seriesEtyList.stream()
-                .filter(s -> s.getPerformingPhysicianName() != null && matchesPattern(s.getPerformingPhysicianName(), performingPhysicianName))
-                .toList();
-        }
-
-        // Filter by BodyPartExamined if provided
-        String bodyPartExamined = keys.getString(Tag.BodyPartExamined);
-        if (null != bodyPartExamined && !bodyPartExamined.isEmpty())
-        {
-            seriesEtyList = seriesEtyList.stream()
-                .filter(s -> s.getBodyPartExamined() != null && matchesPattern(s.getBodyPartExamined(), bodyPartExamined))
-                .toList();
-        }
-
-        if (!seriesEtyList.isEmpty())
-        {
-            LOG.info("found [{}] series matching query criteria", seriesEtyList.size());
-        }
-        else
-        {
-            LOG.info("found no series matching query criteria");
-        }
-
-        return seriesEtyList;
+        List<StudyRecord> records = studyCatalog.canAnswer(keys, options)
+            ? studyCatalog.findStudies(keys, options)
+            : dicomReadRepository.findStudies(keys, options);
+        return toMatches(records, projection::project, cancellation);
     }
 
-
     /**
-     * Finds studies matching the given DICOM query keys.
-     * Supports filtering by PatientID, PatientName, StudyInstanceUID, StudyID,
-     * StudyDate, StudyDescription, AccessionNumber, and ModalitiesInStudy.
+     * Finds series matching the given keys with the matching of the options, e.g. fuzzy
+     * person name matching, and converts them into C-FIND matches.
      *
-     * @param keys the DICOM attributes containing search criteria
-     * @return list of matching studies
+     * @param keys         the DICOM attributes containing search criteria
+     * @param options      the matching options
+     * @param projection   the attributes to return
+     * @param cancellation the cancellation handle of the query
+     * @return list of SERIES level matches
+     * @throws QueryCancelledException if the query was cancelled
      */
-    @Transactional
-    public List<StudyEty> findStudies(Attributes keys)
+    @Transactional(readOnly = true)
+    public List<Attributes> findSeriesMatches(Attributes keys, QueryOptions options,
+                                              ProjectionPlan<SeriesRecord> projection, QueryCancellation cancellation)
     {
-        List<StudyEty> studyEtyList = new ArrayList<>();
-
-        // First check if we should filter by patient criteria
-        String patientId = keys.getString(Tag.PatientID);
-        String patientName = keys.getString(Tag.PatientName);
-
-        if ((null != patientId && !patientId.isEmpty()) || (null != patientName && !patientName.isEmpty()))
-        {
-            // Get patients matching criteria first
-            List<PatientEty> patientEtyList = findPatients(keys);
-            for (PatientEty patientEty : patientEtyList)
-            {
-                studyEtyList.addAll(studyRepository.findByPatientId(patientEty.getId()));
-            }
-        }
-        else
-        {
-            // No patient filter, get all studies
-            studyEtyList = new ArrayList<>(studyRepository.findAll());
-        }
-
-        // Filter by StudyInstanceUID if provided
-        String studyInstanceUID = keys.getString(Tag.StudyInstanceUID);
-        if (null != studyInstanceUID && !studyInstanceUID.isEmpty())
-        {
-            studyEtyList = studyEtyList.stream()
-                .filter(s -> s.getStudyInstanceUID() != null && matchesPattern(s.getStudyInstanceUID(), studyInstanceUID))
-                .toList();
-        }
-
-        // Filter by StudyID if provided
-        String studyId = keys.getString(Tag.StudyID);
-        if (null != studyId && !studyId.isEmpty())
-        {
-            studyEtyList = studyEtyList.stream()
-                .filter(s -> s.getStudyId() != null && matchesPattern(s.getStudyId(), studyId))
-                .toList();
-        }
-
-        // Filter by StudyDate if provided
-        if (keys.contains(Tag.StudyDate))
-        {
-            java.util.Date studyDate = keys.getDate(Tag.StudyDate);
-            if (studyDate != null)
-            {
-                java.time.LocalDate localStudyDate = new java.sql.Date(studyDate.getTime()).toLocalDate();
-                studyEtyList = studyEtyList.stream()
-                    .filter(s -> s.getStudyDate() != null && s.getStudyDate().equals(localStudyDate))
-                    .toList();
-            }
-        }
-
-        // Filter by StudyDescription if provided
-        String studyDescription = keys.getString(Tag.StudyDescription);
-        if (null != studyDescription && !studyDescription.isEmpty())
-        {
-            studyEtyList = studyEtyList.stream()
-                .filter(s -> s.getStudyDescription() != null && matchesPattern(s.getStudyDescription(), studyDescription))
-                .toList();
-        }
-
-        // Filter by AccessionNumber if provided
-        String accessionNumber = keys.getString(Tag.AccessionNumber);
-        if (null != accessionNumber && !accessionNumber.isEmpty())
-        {
-            studyEtyList = studyEtyList.stream()
-                .filter(s -> s.getAccessionNumber() != null && matchesPattern(s.getAccessionNumber(), accessionNumber))
-                .toList();
-        }
-
-        // Filter by ModalitiesInStudy if provided
-        String modalitiesInStudy = keys.getString(Tag.ModalitiesInStudy);
-        if (null != modalitiesInStudy && !modalitiesInStudy.isEmpty())
-        {
-            studyEtyList = studyEtyList.stream()
-                .filter(s -> s.getModalitiesInStudy() != null && s.getModalitiesInStudy().contains(modalitiesInStudy))
-                .toList();
-        }
-
-        // Filter by ReferringPhysicianName if provided
-        String referringPhysicianName = keys.getString(Tag.ReferringPhysicianName);
-        if (null != referringPhysicianName && !referringPhysicianName.isEmpty())
-        {
-            studyEtyList = studyEtyList.stream()
-                .filter(s -> s.getReferringPhysicianName() != null && matchesPattern(s.getReferringPhysicianName(), referringPhysicianName))
-                .toList();
-        }
-
-        if (!studyEtyList.isEmpty())
-        {
-            LOG.info("found [{}] study(ies) matching query criteria", studyEtyList.size());
-        }
-        else
-        {
-            LOG.info("found no studies matching query criteria");
-        }
-
-        return studyEtyList;
+        return toMatches(dicomReadRepository.findSeries(keys, options), projection::project, cancellation);
     }
 
-    @Transactional
-    public List<StudyEty> getStudiesForPatient(List<PatientEty> patientEtyList)
+    /**
+     * Finds instances matching the given keys with the matching of the options, e.g. fuzzy
+     * person name matching, and converts them into C-FIND matches.
+     *
+     * @param keys         the DICOM attributes containing search criteria
+     * @param options      the matching options
+     * @param projection   the attributes to return
+     * @param cancellation the cancellation handle of the query
+     * @return list of IMAGE level matches
+     * @throws QueryCancelledException if the query was cancelled
+     */
+    @Transactional(readOnly = true)
+    public List<Attributes> findInstanceMatches(Attributes keys, QueryOptions options,
+                                                ProjectionPlan<InstanceRecord> projection, QueryCancellation cancellation)
     {
-        List<StudyEty> studyEtyList = new ArrayList<>();
+        return toMatches(dicomReadRepository.findInstances(keys, options), projection::project, cancellation);
+    }
 
-        if (null == patientEtyList)
+    /**
+     * Streams a window of the studies matching the given keys from a database cursor and passes
+     * each match to the sink as soon as it has been read. Queries answered by the {@link StudyCatalog}
+     * pass the same window from memory.
+     *
+     * @param keys       the DICOM attributes containing search criteria
+     * @param options    the window, matching and column options
+     * @param projection the attributes to return
+     * @param sink       receives the STUDY level matches in database order
+     */
+    @Transactional(readOnly = true)
+    public void streamStudyMatches(Attributes keys, QueryOptions options, ProjectionPlan<StudyRecord> projection,
+                                   Consumer<Attributes> sink)
+    {
+        if (studyCatalog.canAnswer(keys, options))
         {
-            return studyEtyList;
+            studyCatalog.findStudies(keys, options).stream().map(projection::project).forEach(sink);
+            return;
         }
 
-        for(PatientEty patientEty: patientEtyList)
+        try (Stream<StudyRecord> records = dicomReadRepository.streamStudies(keys, options))
         {
-            List<StudyEty> studyRepositoryByPatientId = studyRepository.findByPatientId(patientEty.getId());
-
-            for(StudyEty studyEty: studyRepositoryByPatientId)
-            {
-                studyEtyList.add(studyEty);
-            }
+            records.map(projection::project).forEach(sink);
         }
-
-        LOG.info("found [{}] studie(s) matching", studyEtyList.size());
-
-        return studyEtyList;
     }
 
     /**
-     * Finds instances (images) matching the given DICOM query keys.
-     * Supports filtering by SeriesInstanceUID, SOPInstanceUID, InstanceNumber,
-     * ContentDate, and ImageType.
+     * Checks whether more studies match the given keys than fit into the window of the options.
      *
-     * @param keys the DICOM attributes containing search criteria
-     * @return list of matching instances
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if the window truncates the matches
      */
-    @Transactional
-    public List<InstanceEty> findInstances(Attributes keys)
+    @Transactional(readOnly = true)
+    public boolean hasMoreStudyMatches(Attributes keys, QueryOptions options)
     {
-        List<InstanceEty> instanceEtyList = new ArrayList<>();
-
-        // First, filter by SeriesInstanceUID if provided (required for IMAGE level query)
-        String seriesInstanceUID = keys.getString(Tag.SeriesInstanceUID);
-        if (null != seriesInstanceUID && !seriesInstanceUID.isEmpty())
-        {
-            SeriesEty seriesEty = seriesRepository.findBySeriesInstanceUID(seriesInstanceUID);
-            if (null != seriesEty)
-            {
-                instanceEtyList = new ArrayList<>(instanceRepository.findBySeriesId(seriesEty.getId()));
-            }
-        }
-        else
-        {
-            // If no SeriesInstanceUID, get all instances
-            instanceEtyList = new ArrayList<>(instanceRepository.findAll());
-        }
-
-        // Filter by SOPInstanceUID if provided
-        String sopInstanceUID = keys.getString(Tag.SOPInstanceUID);
-        if (null != sopInstanceUID && !sopInstanceUID.isEmpty())
-        {
-            instanceEtyList = instanceEtyList.stream()
-                .filter(i -> i.getInstanceUID() != null && matchesPattern(i.getInstanceUID(), sopInstanceUID))
-                .toList();
-        }
+        return studyCatalog.canAnswer(keys, options)
+            ? studyCatalog.hasMoreStudies(keys, options)
+            : dicomReadRepository.hasMoreStudies(keys, options);
+    }
 
-        // Filter by InstanceNumber if provided
-        if (keys.contains(Tag.InstanceNumber))
+    /**
+     * Streams a window of the series matching the given keys from a database cursor and passes
+     * each match to the sink as soon as it has been read.
+     *
+     * @param keys       the DICOM attributes containing search criteria
+     * @param options    the window, matching and column options
+     * @param projection the attributes to return
+     * @param sink       receives the SERIES level matches in database order
+     */
+    @Transactional(readOnly = true)
+    public void streamSeriesMatches(Attributes keys, QueryOptions options, ProjectionPlan<SeriesRecord> projection,
+                                    Consumer<Attributes> sink)
+    {
+        try (Stream<SeriesRecord> records = dicomReadRepository.streamSeries(keys, options))
         {
-            int instanceNumber = keys.getInt(Tag.InstanceNumber, -1);
-            if (instanceNumber >= 0)
-            {
-                instanceEtyList = instanceEtyList.stream()
-                    .filter(i -> i.getInstanceNumber() != null && i.getInstanceNumber() == instanceNumber)
-                    .toList();
-            }
+            records.map(projection::project).forEach(sink);
         }
+    }
 
-        // Filter by ContentDate if provided
-        if (keys.contains(Tag.ContentDate))
-        {
-            java.util.Date contentDate = keys.getDate(Tag.ContentDate);
-            if (contentDate != null)
-            {
-                java.time.LocalDate localContentDate = new java.sql.Date(contentDate.getTime()).toLocalDate();
-                instanceEtyList = instanceEtyList.stream()
-                    .filter(i -> i.getContentDate() != null && i.getContentDate().equals(localContentDate))
-                    .toList();
-            }
-        }
+    /**
+     * Checks whether more series match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if the window truncates the matches
+     */
+    @Transactional(readOnly = true)
+    public boolean hasMoreSeriesMatches(Attributes keys, QueryOptions options)
+    {
+        return dicomReadRepository.hasMoreSeries(keys, options);
+    }
 
-        // Filter by AcquisitionNumber if provided
-        if (keys.contains(Tag.AcquisitionNumber))
+    /**
+     * Streams a window of the instances matching the given keys from a database cursor and passes
+     * each match to the sink as soon as it has been read.
+     *
+     * @param keys       the DICOM attributes containing search criteria
+     * @param options    the window, matching and column options
+     * @param projection the attributes to return
+     * @param sink       receives the IMAGE level matches in database order
+     */
+    @Transactional(readOnly = true)
+    public void streamInstanceMatches(Attributes keys, QueryOptions options, ProjectionPlan<InstanceRecord> projection,
+                                      Consumer<Attributes> sink)
+    {
+        try (Stream<InstanceRecord> records = dicomReadRepository.streamInstances(keys, options))
         {
-            int acquisitionNumber = keys.getInt(Tag.AcquisitionNumber, -1);
-            if (acquisitionNumber >= 0)
-            {
-                instanceEtyList = instanceEtyList.stream()
-                    .filter(i -> i.getAcquisitionNumber() != null && i.getAcquisitionNumber() == acquisitionNumber)
-                    .toList();
-            }
+            records.map(projection::project).forEach(sink);
         }
+    }
 
-        // Filter by AcquisitionDate if provided
-        if (keys.contains(Tag.AcquisitionDate))
-        {
-            java.util.Date acquisitionDate = keys.getDate(Tag.AcquisitionDate);
-            if (acquisitionDate != null)
-            {
-                java.time.LocalDate localAcquisitionDate = new java.sql.Date(acquisitionDate.getTime()).toLocalDate();
-                instanceEtyList = instanceEtyList.stream()
-                    .filter(i -> i.getAcquisitionDate() != null && i.getAcquisitionDate().equals(localAcquisitionDate))
-                    .toList();
-            }
-        }
+    /**
+     * Checks whether more instances match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window, matching and column options
+     * @return true if the window truncates the matches
+     */
+    @Transactional(readOnly = true)
+    public boolean hasMoreInstanceMatches(Attributes keys, QueryOptions options)
+    {
+        return dicomReadRepository.hasMoreInstances(keys, options);
+    }
 
-        // Filter by ImageType if provided
-        String imageType = keys.getString(Tag.ImageType);
-        if (null != imageType && !imageType.isEmpty())
-        {
-            instanceEtyList = instanceEtyList.stream()
-                .filter(i -> i.getImageType() != null && i.getImageType().contains(imageType))
-                .toList();
-        }
+    /**
+     * Returns the latest modification stamp of the archive, see {@link DicomReadRepository#findLastModified()}.
+     *
+     * @return the latest stamp, null if the archive is empty
+     */
+    @Transactional(readOnly = true)
+    public Instant findLastModified()
+    {
+        return dicomReadRepository.findLastModified();
+    }
 
-        // Filter by Rows if provided
-        if (keys.contains(Tag.Rows))
-        {
-            int rows = keys.getInt(Tag.Rows, -1);
-            if (rows >= 0)
-            {
-                instanceEtyList = instanceEtyList.stream()
-                    .filter(i -> i.getRows() != null && i.getRows() == rows)
-                    .toList();
-            }
-        }
+    /**
+     * Returns the modification stamp of a study.
+     *
+     * @param studyInstanceUID the Study Instance UID
+     * @return the stamp, null if the study does not exist
+     */
+    @Transactional(readOnly = true)
+    public Instant findStudyLastModified(String studyInstanceUID)
+    {
+        return dicomReadRepository.findStudyLastModified(studyInstanceUID);
+    }
 
-        // Filter by Columns if provided
-        if (keys.contains(Tag.Columns))
-        {
-            int columns = keys.getInt(Tag.Columns, -1);
-            if (columns >= 0)
-            {
-                instanceEtyList = instanceEtyList.stream()
-                    .filter(i -> i.getColumns() != null && i.getColumns() == columns)
-                    .toList();
-            }
-        }
+    /**
+     * Returns the modification stamp of a series.
+     *
+     * @param seriesInstanceUID the Series Instance UID
+     * @return the stamp, null if the series does not exist
+     */
+    @Transactional(readOnly = true)
+    public Instant findSeriesLastModified(String seriesInstanceUID)
+    {
+        return dicomReadRepository.findSeriesLastModified(seriesInstanceUID);
+    }
 
-        if (!instanceEtyList.isEmpty())
-        {
-            LOG.info("found [{}] instance(s) matching query criteria", instanceEtyList.size());
-        }
-        else
+    /**
+     * Converts records into matches, checking the cancellation before each record.
+     */
+    private static <T> List<Attributes> toMatches(List<T> records, Function<T, Attributes> converter,
+                                                  QueryCancellation cancellation)
+    {
+        List<Attributes> matches = new ArrayList<>(records.size());
+        for (T record : records)
         {
-            LOG.info("found no instances matching query criteria");
+            cancellation.checkCancelled();
+            matches.add(converter.apply(record));
         }
-
-        return instanceEtyList;
+        return matches;
     }
-
 }
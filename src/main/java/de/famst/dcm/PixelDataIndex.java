@@ -0,0 +1,37 @@
+package de.famst.dcm;
+
+import de.famst.data.FrameIndex;
+
+/**
+ * Where the value of the Pixel Data element of an archived Part 10 file is, read once at ingest.
+ *
+ * <p>The value of native Pixel Data are the pixels, the value of encapsulated Pixel Data are the
+ * items of the Basic Offset Table and the fragments without the Sequence Delimitation Item. File
+ * size and modification time are kept to detect a file that changed after it was indexed.
+ *
+ * @param transferSyntaxUID the transfer syntax of the data set
+ * @param offset            the position of the value in the file, {@link #NONE} if there is no Pixel Data
+ * @param length            the length of the value in bytes, {@link #NONE} if there is no Pixel Data
+ * @param fileSize          the size of the file in bytes
+ * @param lastModified      the modification time of the file in milliseconds since the epoch
+ * @param frames            the frames of encapsulated Pixel Data, null for native Pixel Data or
+ *                          if the fragments cannot be assigned to frames
+ * @author jens
+ * @since 2026-10-19
+ */
+public record PixelDataIndex(String transferSyntaxUID, long offset, long length, long fileSize, long lastModified,
+                             FrameIndex frames)
+{
+    /**
+     * Offset and length of a file without Pixel Data.
+     */
+    public static final long NONE = -1;
+
+    /**
+     * @return true if the file has Pixel Data
+     */
+    public boolean hasPixelData()
+    {
+        return offset != NONE;
+    }
+}
@@ -0,0 +1,144 @@
+package de.famst.dcm;
+
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.util.TagUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+/**
+ * The attributes to return for the matches of one query, compiled once from its keys.
+ *
+ * <p>A C-FIND response only has to contain the attributes present in the request identifier.
+ * The plan keeps the {@link MatchField}s of the query level whose tags occur in the keys,
+ * in tag order, so that building a match only calls the accessors of requested attributes
+ * and only allocates the attributes that are sent.
+ *
+ * @param <T> the type of the source object
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class ProjectionPlan<T>
+{
+    /**
+     * Signature of a plan returning all fields of a level.
+     */
+    public static final String ALL = "*";
+
+    private final List<MatchField<T>> fields;
+    private final String signature;
+
+    private ProjectionPlan(List<MatchField<T>> fields, String signature)
+    {
+        this.fields = fields;
+        this.signature = signature;
+    }
+
+    /**
+     * Creates a plan returning all fields of the catalog.
+     *
+     * @param catalog the fields known for the query level, in tag order
+     * @param <T>     the type of the source object
+     * @return the plan
+     */
+    public static <T> ProjectionPlan<T> all(List<MatchField<T>> catalog)
+    {
+        return new ProjectionPlan<>(List.copyOf(catalog), ALL);
+    }
+
+    /**
+     * Compiles the plan for the given query keys.
+     *
+     * @param catalog the fields known for the query level, in tag order
+     * @param keys    the query keys, i.e. matching and return keys
+     * @param <T>     the type of the source object
+     * @return the plan
+     */
+    public static <T> ProjectionPlan<T> compile(List<MatchField<T>> catalog, Attributes keys)
+    {
+        return compile(catalog, keys::contains);
+    }
+
+    /**
+     * Compiles the plan returning the fields whose tags are selected.
+     *
+     * @param catalog  the fields known for the query level, in tag order
+     * @param selected whether the attribute with the given tag is returned
+     * @param <T>      the type of the source object
+     * @return the plan
+     */
+    public static <T> ProjectionPlan<T> compile(List<MatchField<T>> catalog, IntPredicate selected)
+    {
+        List<MatchField<T>> fields = new ArrayList<>();
+        StringBuilder signature = new StringBuilder();
+
+        for (MatchField<T> field : catalog)
+        {
+            if (selected.test(field.tag()))
+            {
+                fields.add(field);
+                signature.append(TagUtils.toHexString(field.tag())).append(',');
+            }
+        }
+
+        return new ProjectionPlan<>(List.copyOf(fields), signature.toString());
+    }
+
+    /**
+     * Builds the match for a source object.
+     *
+     * @param source the source object
+     * @return the match, containing all planned fields; unknown values are empty
+     */
+    public Attributes project(T source)
+    {
+        Attributes match = new Attributes(fields.size());
+        for (MatchField<T> field : fields)
+        {
+            field.write(source, match);
+        }
+        return match;
+    }
+
+    /**
+     * @return the tags returned by the plan, in ascending order
+     */
+    public int[] tags()
+    {
+        int[] tags = new int[fields.size()];
+        for (int i = 0; i < tags.length; i++)
+        {
+            tags[i] = fields.get(i).tag();
+        }
+        return tags;
+    }
+
+    /**
+     * @return the tags returned by the plan
+     */
+    public Set<Integer> tagSet()
+    {
+        Set<Integer> tags = new HashSet<>();
+        for (MatchField<T> field : fields)
+        {
+            tags.add(field.tag());
+        }
+        return tags;
+    }
+
+    public int size()
+    {
+        return fields.size();
+    }
+
+    /**
+     * @return a string identifying the planned fields, used to key cached results
+     */
+    public String signature()
+    {
+        return signature;
+    }
+}
@@ -0,0 +1,128 @@
+package de.famst.dcm;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+
+/**
+ * Cancellation handle of a single query.
+ *
+ * <p>The query runs in the association's worker thread while the C-CANCEL request is
+ * received by the association's reader thread. {@link #cancel()} therefore sets a flag
+ * that is polled by the query via {@link #checkCancelled()} and additionally cancels
+ * the JDBC statement currently executed by the attached Hibernate {@link Session}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public class QueryCancellation
+{
+    private static final Logger LOG = LoggerFactory.getLogger(QueryCancellation.class);
+
+    private volatile boolean cancelled;
+    private volatile long deadline;
+    private volatile boolean deadlineSet;
+    private volatile long pausedAt;
+
+    // the session executing the query, guarded by "this"
+    private Session session;
+
+    /**
+     * Limits the wall clock time of the query, starting now.
+     *
+     * @param timeout the maximum duration of the query
+     */
+    public void startTimeout(Duration timeout)
+    {
+        deadline = System.nanoTime() + timeout.toNanos();
+        deadlineSet = true;
+    }
+
+    /**
+     * Stops the wall clock of the query, e.g. while its caller writes a match to a client.
+     */
+    public void pauseTimeout()
+    {
+        pausedAt = System.nanoTime();
+    }
+
+    /**
+     * Restarts the wall clock stopped by {@link #pauseTimeout()}, moving the deadline by the pause.
+     */
+    public void resumeTimeout()
+    {
+        deadline += System.nanoTime() - pausedAt;
+    }
+
+    /**
+     * Attaches the session executing the query, so that a later cancel can abort its statement.
+     *
+     * @param session the Hibernate session
+     * @throws QueryCancelledException if the query was already cancelled
+     */
+    public synchronized void attach(Session session)
+    {
+        checkCancelled();
+        this.session = session;
+    }
+
+    /**
+     * Detaches the session once the query has finished.
+     */
+    public synchronized void detach()
+    {
+        this.session = null;
+    }
+
+    /**
+     * Cancels the query and the statement currently executed for it.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+
+        synchronized (this)
+        {
+            if (session != null)
+            {
+                try
+                {
+                    session.cancelQuery();
+                    LOG.info("cancelled running query statement");
+                }
+                catch (HibernateException e)
+                {
+                    LOG.warn("unable to cancel running query statement: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Aborts the calling query if it was cancelled or ran out of time.
+     *
+     * @throws QueryCancelledException if the query was cancelled
+     * @throws QueryTimeoutException   if the query exceeded its timeout
+     */
+    public void checkCancelled()
+    {
+        if (cancelled)
+        {
+            throw new QueryCancelledException("Query was cancelled");
+        }
+
+        if (deadlineSet && System.nanoTime() - deadline > 0)
+        {
+            throw new QueryTimeoutException("Query exceeded its timeout");
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package de.famst.dcm;
+
+/**
+ * Thrown when a running query was aborted because the requestor sent a C-CANCEL.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public class QueryCancelledException extends RuntimeException
+{
+    public QueryCancelledException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,298 @@
+package de.famst.dcm;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionTimedOutException;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Guardrails of the C-FIND SCP and QIDO-RS against queries that are too broad for the archive.
+ *
+ * <p>Every level has a maximum number of matches a single query may return
+ * ({@code mupacs.query.max-matches.<level>}), which can be lowered for single clients, i.e.
+ * calling AE titles of the C-FIND SCP or remote addresses of QIDO-RS
+ * ({@code mupacs.query.max-matches.clients=STORESCU=500,10.0.0.7=100}).
+ *
+ * <p>Before the matches are read, the caller probes with a single id lookup whether a match
+ * exists after the maximum. If so, the query is truncated to the maximum or refused, depending
+ * on {@code mupacs.query.over-limit.<protocol>}. C-FIND has no way to tell the requestor that
+ * matches are missing, so it refuses by default with status {@code Out of Resources}; QIDO-RS
+ * truncates by default and flags the response with a {@code Warning} header, a refused search is
+ * answered with {@code 413 Payload Too Large}.
+ * Wall clock timeouts of the queries of both protocols are counted here as well.
+ *
+ * <p>Truncated and refused queries and timeouts are exported as {@code mupacs.query.guard.*} metrics.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Component
+public class QueryGuard implements MeterBinder
+{
+    private static final Logger LOG = LoggerFactory.getLogger(QueryGuard.class);
+
+    /**
+     * What happens with a query matching more than its maximum.
+     */
+    public enum OverLimitAction
+    {
+        /**
+         * Return the first matches up to the maximum.
+         */
+        TRUNCATE,
+
+        /**
+         * Return no matches and fail the query.
+         */
+        REFUSE
+    }
+
+    /**
+     * The protocols whose queries are guarded.
+     */
+    public enum Protocol
+    {
+        C_FIND("c-find"),
+        QIDO_RS("qido-rs");
+
+        private final String key;
+
+        Protocol(String key)
+        {
+            this.key = key;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+    }
+
+    private final Map<QueryRetrieveLevel2, Integer> maxMatches = new EnumMap<>(QueryRetrieveLevel2.class);
+    private final Map<String, Integer> clientMaxMatches;
+    private final Map<Protocol, OverLimitAction> overLimitActions = new EnumMap<>(Protocol.class);
+    private final Duration qidoTimeout;
+
+    private final Map<QueryRetrieveLevel2, AtomicLong> truncated = new EnumMap<>(QueryRetrieveLevel2.class);
+    private final Map<QueryRetrieveLevel2, AtomicLong> refused = new EnumMap<>(QueryRetrieveLevel2.class);
+    private final Map<Protocol, AtomicLong> timeouts = new EnumMap<>(Protocol.class);
+
+    /**
+     * Constructs a new QueryGuard.
+     *
+     * @param patientMaxMatches  the maximum number of matches of a PATIENT level query, 0 for no maximum
+     * @param studyMaxMatches    the maximum number of matches of a STUDY level query, 0 for no maximum
+     * @param seriesMaxMatches   the maximum number of matches of a SERIES level query, 0 for no maximum
+     * @param imageMaxMatches    the maximum number of matches of an IMAGE level query, 0 for no maximum
+     * @param clientMaxMatches   lower maximums of single clients as {@code client=max} list, comma separated
+     * @param cFindOverLimit     {@code truncate} or {@code refuse} for C-FIND queries
+     * @param qidoOverLimit      {@code truncate} or {@code refuse} for QIDO-RS searches
+     * @param qidoTimeoutSeconds the maximum duration of reading the matches of a QIDO-RS search
+     */
+    public QueryGuard(
+        @Value("${mupacs.query.max-matches.patient:10000}") int patientMaxMatches,
+        @Value("${mupacs.query.max-matches.study:10000}") int studyMaxMatches,
+        @Value("${mupacs.query.max-matches.series:50000}") int seriesMaxMatches,
+        @Value("${mupacs.query.max-matches.image:100000}") int imageMaxMatches,
+        @Value("${mupacs.query.max-matches.clients:}") String clientMaxMatches,
+        @Value("${mupacs.query.over-limit.c-find:refuse}") String cFindOverLimit,
+        @Value("${mupacs.query.over-limit.qido-rs:truncate}") String qidoOverLimit,
+        @Value("${mupacs.qido.query.timeout:30}") int qidoTimeoutSeconds)
+    {
+        maxMatches.put(QueryRetrieveLevel2.PATIENT, patientMaxMatches);
+        maxMatches.put(QueryRetrieveLevel2.STUDY, studyMaxMatches);
+        maxMatches.put(QueryRetrieveLevel2.SERIES, seriesMaxMatches);
+        maxMatches.put(QueryRetrieveLevel2.IMAGE, imageMaxMatches);
+
+        this.clientMaxMatches = parseClientMaxMatches(clientMaxMatches);
+        overLimitActions.put(Protocol.C_FIND, OverLimitAction.valueOf(cFindOverLimit.trim().toUpperCase(Locale.ROOT)));
+        overLimitActions.put(Protocol.QIDO_RS, OverLimitAction.valueOf(qidoOverLimit.trim().toUpperCase(Locale.ROOT)));
+        this.qidoTimeout = Duration.ofSeconds(qidoTimeoutSeconds);
+
+        for (QueryRetrieveLevel2 level : maxMatches.keySet())
+        {
+            truncated.put(level, new AtomicLong());
+            refused.put(level, new AtomicLong());
+        }
+        for (Protocol protocol : Protocol.values())
+        {
+            timeouts.put(protocol, new AtomicLong());
+        }
+
+        LOG.info("QueryGuard created: max matches {}, clients {}, over limit [{}], QIDO-RS timeout [{}s]",
+            maxMatches, this.clientMaxMatches, overLimitActions, qidoTimeoutSeconds);
+    }
+
+    /**
+     * Returns the maximum number of matches a query of the client may return at a level.
+     *
+     * @param level  the query level
+     * @param client the calling AE title or remote address, may be null
+     * @return the maximum number of matches, 0 for no maximum
+     */
+    public int getMaxMatches(QueryRetrieveLevel2 level, String client)
+    {
+        int max = maxMatches.getOrDefault(level, 0);
+
+        Integer clientMax = client != null ? clientMaxMatches.get(client) : null;
+        if (clientMax != null && clientMax > 0)
+        {
+            max = max > 0 ? Math.min(max, clientMax) : clientMax;
+        }
+        return max;
+    }
+
+    /**
+     * Handles a query whose estimate showed that more matches exist than fit into its window.
+     * Windows smaller than the maximum of the client are ordinary paging and pass unnoticed.
+     *
+     * @param protocol the protocol of the query
+     * @param level    the query level
+     * @param client   the calling AE title or remote address, may be null
+     * @param limit    the size of the window of the query
+     * @throws QueryRefusedException if the maximum limits the query and such queries of the protocol are refused
+     */
+    public void overLimit(Protocol protocol, QueryRetrieveLevel2 level, String client, int limit)
+    {
+        int max = getMaxMatches(level, client);
+        if (max <= 0 || limit < max)
+        {
+            return;
+        }
+
+        if (overLimitActions.get(protocol) == OverLimitAction.REFUSE)
+        {
+            refused.get(level).incrementAndGet();
+            LOG.warn("refused [{}] {} query of [{}] matching more than {} entities", level, protocol.getKey(), client,
+                max);
+            throw new QueryRefusedException("Query matches more than " + max + " entities, refine the keys");
+        }
+
+        truncated.get(level).incrementAndGet();
+        LOG.warn("truncated [{}] {} query of [{}] to {} matches", level, protocol.getKey(), client, max);
+    }
+
+    /**
+     * @return the maximum duration of reading the matches of a QIDO-RS search
+     */
+    public Duration getQidoTimeout()
+    {
+        return qidoTimeout;
+    }
+
+    /**
+     * Counts a query that was aborted by its timeout.
+     *
+     * @param protocol the protocol of the query
+     */
+    public void recordTimeout(Protocol protocol)
+    {
+        timeouts.get(protocol).incrementAndGet();
+    }
+
+    /**
+     * Checks whether a query failed because it exceeded a wall clock or transaction timeout.
+     *
+     * @param e the failure of the query
+     * @return true if a timeout caused the failure
+     */
+    public static boolean isTimeout(Throwable e)
+    {
+        for (Throwable cause = e; cause != null; cause = cause.getCause())
+        {
+            if (cause instanceof QueryTimeoutException
+                || cause instanceof TransactionTimedOutException
+                || cause instanceof jakarta.persistence.QueryTimeoutException)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param level the query level
+     * @return the number of queries of the level that were truncated to their maximum
+     */
+    public long getTruncatedCount(QueryRetrieveLevel2 level)
+    {
+        return truncated.get(level).get();
+    }
+
+    /**
+     * @param level the query level
+     * @return the number of queries of the level that were refused
+     */
+    public long getRefusedCount(QueryRetrieveLevel2 level)
+    {
+        return refused.get(level).get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        for (QueryRetrieveLevel2 level : maxMatches.keySet())
+        {
+            String tag = level.name().toLowerCase(Locale.ROOT);
+
+            FunctionCounter.builder("mupacs.query.guard.truncated", truncated.get(level), AtomicLong::get)
+                .tag("level", tag)
+                .description("Queries truncated to the maximum number of matches")
+                .register(registry);
+            FunctionCounter.builder("mupacs.query.guard.refused", refused.get(level), AtomicLong::get)
+                .tag("level", tag)
+                .description("Queries refused because they matched more than the maximum")
+                .register(registry);
+            Gauge.builder("mupacs.query.guard.max-matches", maxMatches, m -> m.get(level))
+                .tag("level", tag)
+                .description("Maximum number of matches of a query, 0 for no maximum")
+                .register(registry);
+        }
+
+        for (Protocol protocol : Protocol.values())
+        {
+            FunctionCounter.builder("mupacs.query.guard.timeouts", timeouts.get(protocol), AtomicLong::get)
+                .tag("protocol", protocol.getKey())
+                .description("Queries aborted by their timeout")
+                .register(registry);
+        }
+    }
+
+    /**
+     * Parses {@code client=max} entries, comma separated. The client is split off at the last
+     * {@code =}, so both AE titles and (IPv6) addresses can be used.
+     */
+    private static Map<String, Integer> parseClientMaxMatches(String value)
+    {
+        Map<String, Integer> result = new HashMap<>();
+        if (value == null || value.isBlank())
+        {
+            return result;
+        }
+
+        for (String entry : value.split(","))
+        {
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0)
+            {
+                throw new IllegalArgumentException("invalid client maximum [" + entry.trim() + "], expected client=max");
+            }
+            result.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+        }
+        return result;
+    }
+}
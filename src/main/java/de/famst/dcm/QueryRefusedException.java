@@ -0,0 +1,16 @@
+package de.famst.dcm;
+
+/**
+ * Thrown when a query is refused up front because it matches more than the
+ * {@link QueryGuard} allows for its level and client.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public class QueryRefusedException extends RuntimeException
+{
+    public QueryRefusedException(String message)
+    {
+        super(message);
+    }
+}
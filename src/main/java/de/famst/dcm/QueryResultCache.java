@@ -0,0 +1,528 @@
+package de.famst.dcm;
+
+import de.famst.data.InstanceEty;
+import de.famst.data.PatientEty;
+import de.famst.data.SeriesEty;
+import de.famst.data.StudyEty;
+import de.famst.service.DicomImportedEvent;
+import de.famst.service.StudyCatalog;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.dcm4che3.util.TagUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.rest.core.event.RepositoryEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Bounded cache of query results shared by the C-FIND SCP and QIDO-RS.
+ *
+ * <p>Results are keyed by query level, the normalized matching keys and the signature of the
+ * {@link ProjectionPlan} used to build the matches, so repeated
+ * polling with the same query is answered by a hash lookup instead of a database scan.
+ * Entries are evicted in least-recently-used order once {@code mupacs.query.cache.max-entries}
+ * is reached; results with more than {@code mupacs.query.cache.max-matches-per-entry}
+ * matches are never cached.
+ *
+ * <p>Invalidation is driven by {@link DicomImportedEvent}s after the import transaction
+ * has committed. An entry is only dropped if the import created a new entity on the
+ * entry's query level and the entry's exact PatientID / StudyInstanceUID /
+ * SeriesInstanceUID keys (if any) match the imported instance. The cache is invalidated after
+ * the {@link StudyCatalog} was updated by the same event, otherwise a query loading while the
+ * event is handled could store the stale answer of the catalog as the result of the new
+ * generation.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Component
+public class QueryResultCache implements MeterBinder
+{
+    private static final Logger LOG = LoggerFactory.getLogger(QueryResultCache.class);
+
+    private final boolean enabled;
+    private final int maxEntries;
+    private final int maxMatchesPerEntry;
+
+    private final Map<CacheKey, CacheEntry> entries;
+
+    // incremented on every invalidation, guarded by "this"
+    private long generation;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Constructs a new QueryResultCache.
+     *
+     * @param enabled            whether results should be cached at all
+     * @param maxEntries         the maximum number of cached queries
+     * @param maxMatchesPerEntry the maximum number of matches of a cacheable query result
+     */
+    public QueryResultCache(
+        @Value("${mupacs.query.cache.enabled:true}") boolean enabled,
+        @Value("${mupacs.query.cache.max-entries:1000}") int maxEntries,
+        @Value("${mupacs.query.cache.max-matches-per-entry:5000}") int maxMatchesPerEntry)
+    {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.maxMatchesPerEntry = maxMatchesPerEntry;
+
+        this.entries = new LinkedHashMap<>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest)
+            {
+                if (size() > QueryResultCache.this.maxEntries)
+                {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        LOG.info("QueryResultCache created: enabled={}, maxEntries={}, maxMatchesPerEntry={}",
+            enabled, maxEntries, maxMatchesPerEntry);
+    }
+
+    /**
+     * Returns the full matches for a query, loading them with the given loader on a cache miss.
+     *
+     * <p>The returned list and its attributes are shared between callers and must not be modified.
+     *
+     * @param level  the query/retrieve level
+     * @param keys   the query keys
+     * @param loader function computing the matches for the keys
+     * @return the unmodifiable list of matches
+     */
+    public List<Attributes> getMatches(QueryRetrieveLevel2 level, Attributes keys,
+                                       Function<Attributes, List<Attributes>> loader)
+    {
+        return getMatches(level, keys, ProjectionPlan.ALL, loader);
+    }
+
+    /**
+     * Returns the matches for a query built with a specific projection,
+     * loading them with the given loader on a cache miss.
+     *
+     * @param level      the query/retrieve level
+     * @param keys       the query keys
+     * @param projection the signature of the projection the loader applies
+     * @param loader     function computing the matches for the keys
+     * @return the unmodifiable list of matches
+     */
+    public List<Attributes> getMatches(QueryRetrieveLevel2 level, Attributes keys, String projection,
+                                       Function<Attributes, List<Attributes>> loader)
+    {
+        if (!enabled)
+        {
+            return loader.apply(keys);
+        }
+
+        CacheKey key = new CacheKey(level, normalize(keys), projection);
+        long loadGeneration;
+
+        synchronized (this)
+        {
+            CacheEntry entry = entries.get(key);
+            if (entry != null)
+            {
+                hits.incrementAndGet();
+                LOG.debug("query cache hit for {}", key);
+                return entry.matches();
+            }
+            loadGeneration = generation;
+        }
+
+        misses.incrementAndGet();
+        List<Attributes> matches = List.copyOf(loader.apply(keys));
+
+        if (matches.size() <= maxMatchesPerEntry)
+        {
+            synchronized (this)
+            {
+                // an import committed while loading, the result might already be stale
+                if (loadGeneration == generation)
+                {
+                    entries.put(key, new CacheEntry(level, QueryScope.of(keys), matches));
+                }
+            }
+        }
+
+        return matches;
+    }
+
+    /**
+     * Returns the cached matches for a query built with a specific projection and window, without
+     * loading them. Lets callers answer a hit without opening a transaction; a miss is not counted,
+     * it is counted by the lookup loading the matches.
+     *
+     * @param level   the query/retrieve level
+     * @param keys    the query keys
+     * @param variant the signature of the projection and window
+     * @return the unmodifiable list of cached matches, null if the query is not cached
+     */
+    public List<Attributes> getCachedMatches(QueryRetrieveLevel2 level, Attributes keys, String variant)
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+
+        CacheKey key = new CacheKey(level, normalize(keys), variant);
+        CacheEntry entry;
+        synchronized (this)
+        {
+            entry = entries.get(key);
+        }
+
+        if (entry == null)
+        {
+            return null;
+        }
+        hits.incrementAndGet();
+        LOG.debug("query cache hit for {}", key);
+        return entry.matches();
+    }
+
+    /**
+     * Passes the full matches for a query to the sink, streaming them with the given streamer
+     * on a cache miss.
+     *
+     * <p>On a miss every match is handed to the sink as soon as the streamer produces it. The
+     * matches are only collected for the cache until {@code max-matches-per-entry} is exceeded,
+     * so results too large to be cached are never held in memory.
+     *
+     * @param level    the query/retrieve level
+     * @param keys     the query keys
+     * @param streamer streams the matches for the keys
+     * @param sink     receives the matches, which must not be modified
+     * @return the number of matches passed to the sink
+     */
+    public int forEachMatch(QueryRetrieveLevel2 level, Attributes keys, MatchStreamer streamer,
+                            Consumer<Attributes> sink)
+    {
+        return forEachMatch(level, keys, ProjectionPlan.ALL, streamer, sink);
+    }
+
+    /**
+     * Passes the matches for a query built with a specific projection and window to the sink,
+     * streaming them with the given streamer on a cache miss.
+     *
+     * @param level    the query/retrieve level
+     * @param keys     the query keys
+     * @param variant  the signature of the projection and window the streamer applies
+     * @param streamer streams the matches for the keys
+     * @param sink     receives the matches, which must not be modified
+     * @return the number of matches passed to the sink
+     */
+    public int forEachMatch(QueryRetrieveLevel2 level, Attributes keys, String variant, MatchStreamer streamer,
+                            Consumer<Attributes> sink)
+    {
+        if (!enabled)
+        {
+            MatchCollector collector = new MatchCollector(sink, 0);
+            streamer.stream(keys, collector);
+            return collector.count;
+        }
+
+        CacheKey key = new CacheKey(level, normalize(keys), variant);
+        long loadGeneration;
+        List<Attributes> cached;
+
+        synchronized (this)
+        {
+            CacheEntry entry = entries.get(key);
+            cached = entry != null ? entry.matches() : null;
+            loadGeneration = generation;
+        }
+
+        if (cached != null)
+        {
+            hits.incrementAndGet();
+            LOG.debug("query cache hit for {}", key);
+            cached.forEach(sink);
+            return cached.size();
+        }
+
+        misses.incrementAndGet();
+        MatchCollector collector = new MatchCollector(sink, maxMatchesPerEntry);
+        streamer.stream(keys, collector);
+
+        if (collector.matches != null)
+        {
+            synchronized (this)
+            {
+                // an import committed while loading, the result might already be stale
+                if (loadGeneration == generation)
+                {
+                    entries.put(key, new CacheEntry(level, QueryScope.of(keys), List.copyOf(collector.matches)));
+                }
+            }
+        }
+
+        return collector.count;
+    }
+
+    /**
+     * Drops all entries affected by a committed import.
+     *
+     * @param event the import event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(StudyCatalog.LISTENER_ORDER + 1)
+    public void onDicomImported(DicomImportedEvent event)
+    {
+        int removed = 0;
+
+        synchronized (this)
+        {
+            generation++;
+
+            Iterator<CacheEntry> iterator = entries.values().iterator();
+            while (iterator.hasNext())
+            {
+                if (iterator.next().isAffectedBy(event))
+                {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+
+        invalidations.addAndGet(removed);
+
+        if (removed > 0)
+        {
+            LOG.debug("import of [{}] invalidated {} cached query result(s)", event.sopInstanceUID(), removed);
+        }
+    }
+
+    /**
+     * Drops all entries when DICOM entities are modified through the REST API.
+     *
+     * @param event the Spring Data REST repository event
+     */
+    @EventListener
+    @Order(StudyCatalog.LISTENER_ORDER + 1)
+    public void onRepositoryEvent(RepositoryEvent event)
+    {
+        Object source = event.getSource();
+        if (source instanceof PatientEty || source instanceof StudyEty
+            || source instanceof SeriesEty || source instanceof InstanceEty)
+        {
+            LOG.info("DICOM entity modified via REST, clearing query cache");
+            clear();
+        }
+    }
+
+    /**
+     * Removes all cached entries.
+     */
+    public void clear()
+    {
+        synchronized (this)
+        {
+            generation++;
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public long getInvalidationCount()
+    {
+        return invalidations.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        FunctionCounter.builder("mupacs.query.cache.requests", hits, AtomicLong::get)
+            .tag("result", "hit")
+            .description("Query cache lookups")
+            .register(registry);
+        FunctionCounter.builder("mupacs.query.cache.requests", misses, AtomicLong::get)
+            .tag("result", "miss")
+            .description("Query cache lookups")
+            .register(registry);
+        FunctionCounter.builder("mupacs.query.cache.evictions", evictions, AtomicLong::get)
+            .description("Query cache entries evicted because the cache was full")
+            .register(registry);
+        FunctionCounter.builder("mupacs.query.cache.invalidations", invalidations, AtomicLong::get)
+            .description("Query cache entries dropped because of imported data")
+            .register(registry);
+        Gauge.builder("mupacs.query.cache.size", this, QueryResultCache::size)
+            .description("Number of cached query results")
+            .register(registry);
+    }
+
+    /**
+     * Builds the normalized representation of the matching keys. Empty return keys,
+     * sequences and the Query/Retrieve Level itself do not influence the matches.
+     */
+    static String normalize(Attributes keys)
+    {
+        StringBuilder normalized = new StringBuilder();
+
+        for (int tag : keys.tags())
+        {
+            if (tag == Tag.QueryRetrieveLevel || tag == Tag.SpecificCharacterSet || keys.getVR(tag) == VR.SQ)
+            {
+                continue;
+            }
+
+            String[] values = keys.getStrings(tag);
+            if (values == null || values.length == 0)
+            {
+                continue;
+            }
+
+            String value = String.join("\\", values);
+            if (!value.isEmpty())
+            {
+                normalized.append(TagUtils.toHexString(tag)).append('=').append(value).append('|');
+            }
+        }
+
+        return normalized.toString();
+    }
+
+    /**
+     * Produces the matches of a query one by one, e.g. from a database cursor.
+     */
+    @FunctionalInterface
+    public interface MatchStreamer
+    {
+        void stream(Attributes keys, Consumer<Attributes> sink);
+    }
+
+    /**
+     * Forwards matches to a sink and keeps them for the cache as long as they fit into an entry.
+     */
+    private static final class MatchCollector implements Consumer<Attributes>
+    {
+        private final Consumer<Attributes> sink;
+        private final int maxMatches;
+        private List<Attributes> matches;
+        private int count;
+
+        MatchCollector(Consumer<Attributes> sink, int maxMatches)
+        {
+            this.sink = sink;
+            this.maxMatches = maxMatches;
+            this.matches = maxMatches > 0 ? new ArrayList<>() : null;
+        }
+
+        @Override
+        public void accept(Attributes match)
+        {
+            count++;
+            if (matches != null)
+            {
+                if (matches.size() < maxMatches)
+                {
+                    matches.add(match);
+                }
+                else
+                {
+                    // too large to be cached, stop holding on to the matches
+                    matches = null;
+                }
+            }
+            sink.accept(match);
+        }
+    }
+
+    private record CacheKey(QueryRetrieveLevel2 level, String keys, String projection)
+    {
+    }
+
+    private record CacheEntry(QueryRetrieveLevel2 level, QueryScope scope, List<Attributes> matches)
+    {
+        boolean isAffectedBy(DicomImportedEvent event)
+        {
+            return event.created(level) && scope.admits(event);
+        }
+    }
+
+    /**
+     * The exact (non-wildcard) hierarchy keys of a query, used to decide whether an import can
+     * change its result. A null value means the query is not restricted on that level.
+     */
+    private record QueryScope(String patientId, String studyInstanceUID, String seriesInstanceUID)
+    {
+        static QueryScope of(Attributes keys)
+        {
+            return new QueryScope(
+                exactValue(keys, Tag.PatientID),
+                exactValue(keys, Tag.StudyInstanceUID),
+                exactValue(keys, Tag.SeriesInstanceUID));
+        }
+
+        boolean admits(DicomImportedEvent event)
+        {
+            return (patientId == null || patientId.equals(event.patientId()))
+                && (studyInstanceUID == null || studyInstanceUID.equals(event.studyInstanceUID()))
+                && (seriesInstanceUID == null || seriesInstanceUID.equals(event.seriesInstanceUID()));
+        }
+
+        private static String exactValue(Attributes keys, int tag)
+        {
+            // a list of UIDs restricts the query to several entities
+            String[] values = keys.getStrings(tag);
+            if (values == null || values.length != 1)
+            {
+                return null;
+            }
+
+            String value = values[0];
+            if (value == null || value.isEmpty() || value.contains("*") || value.contains("?"))
+            {
+                return null;
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package de.famst.dcm;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a file cannot be converted into a requested transfer syntax, see {@link DcmTranscoder}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public class UnsupportedTransferSyntaxException extends IOException
+{
+    public UnsupportedTransferSyntaxException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,458 @@
+package de.famst.service;
+
+import de.famst.data.InstanceEty;
+import de.famst.data.PatientEty;
+import de.famst.data.SeriesEty;
+import de.famst.data.StudyEty;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Off-heap cache of the bulk data of recently served instances, see {@link DicomBulkDataService}.
+ *
+ * <p>The content of an instance is held in a direct {@link ByteBuffer}, outside of the Java heap,
+ * and served from it without touching the file. Entries are evicted in least-recently-used order
+ * once the cached bytes exceed {@code mupacs.wado.cache.max-bytes}; instances larger than
+ * {@code mupacs.wado.cache.max-entry-bytes} are never cached, so a single multi-frame object
+ * cannot flush the cache. The memory of an evicted entry is released when the buffer is garbage
+ * collected, after the last response using it has been written.
+ *
+ * <p>Instances are not loaded by the request which missed them but afterwards by a single loader
+ * thread, when the file is still in the page cache. The loader also reads ahead when a client
+ * walks through a series: the cache remembers the instance number last served per series, and a
+ * request for another instance of the series makes the service load the next instances in that
+ * direction, see {@link #direction(InstanceEty)}. Loads which do not fit the queue of the loader
+ * are dropped.
+ *
+ * <p>An entry remembers the path, size and modification time of the archived file as indexed for
+ * its instance, and is only returned for an instance with the same values. The bulk data of an
+ * instance which was re-imported, or deleted and imported again, is therefore never served from
+ * an entry loaded before. Entries are also evicted when an instance is imported and when
+ * entities are deleted through the REST API, so that they do not hold memory until they age out.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Component
+public class BulkDataCache implements MeterBinder
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BulkDataCache.class);
+
+    /**
+     * The number of series whose last served instance is remembered.
+     */
+    private static final int MAX_SERIES = 1024;
+
+    /**
+     * The number of loads waiting for the loader.
+     */
+    private static final int MAX_PENDING_LOADS = 64;
+
+    private final boolean enabled;
+    private final long maxBytes;
+    private final long maxEntryBytes;
+    private final int readAhead;
+
+    // guarded by "this"
+    private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    // instance number last served per series id, guarded by "this"
+    private final Map<Long, Integer> lastServed = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest)
+        {
+            return size() > MAX_SERIES;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong readAheadLoads = new AtomicLong();
+
+    private final ThreadPoolExecutor loader = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(MAX_PENDING_LOADS), runnable ->
+    {
+        Thread thread = new Thread(runnable, "BulkDataCache");
+        thread.setDaemon(true);
+        return thread;
+    }, new ThreadPoolExecutor.DiscardPolicy());
+
+    /**
+     * Constructs a new BulkDataCache.
+     *
+     * @param enabled       whether bulk data should be cached at all
+     * @param maxBytes      the maximum number of cached bytes
+     * @param maxEntryBytes the maximum size of a cached instance in bytes
+     * @param readAhead     the number of instances loaded ahead of a client walking through a series
+     */
+    public BulkDataCache(
+        @Value("${mupacs.wado.cache.enabled:true}") boolean enabled,
+        @Value("${mupacs.wado.cache.max-bytes:134217728}") long maxBytes,
+        @Value("${mupacs.wado.cache.max-entry-bytes:16777216}") long maxEntryBytes,
+        @Value("${mupacs.wado.cache.read-ahead:4}") int readAhead)
+    {
+        this.enabled = enabled;
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.min(Math.min(maxEntryBytes, maxBytes), Integer.MAX_VALUE);
+        this.readAhead = readAhead;
+
+        LOG.info("BulkDataCache created: enabled={}, maxBytes={}, maxEntryBytes={}, readAhead={}",
+            enabled, maxBytes, maxEntryBytes, readAhead);
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        loader.shutdownNow();
+    }
+
+    /**
+     * Returns the cached bulk data of an instance. An entry loaded for another archived file of
+     * the instance, e.g. before it was re-imported, is evicted and not returned.
+     *
+     * @param instance the instance
+     * @return the bulk data held in memory, null if it is not cached
+     */
+    public BulkDataFile get(InstanceEty instance)
+    {
+        if (!enabled)
+        {
+            return null;
+        }
+
+        BulkDataFile cached = null;
+        synchronized (this)
+        {
+            Entry entry = entries.get(instance.getInstanceUID());
+            if (entry != null && entry.version().equals(Version.of(instance)))
+            {
+                cached = entry.file();
+            }
+            else if (entry != null)
+            {
+                remove(instance.getInstanceUID());
+            }
+        }
+
+        (cached != null ? hits : misses).incrementAndGet();
+        return cached;
+    }
+
+    /**
+     * Loads the bulk data of an instance into the cache in the background, if it fits.
+     *
+     * @param instance the instance
+     * @param file     the bulk data in the archived file
+     */
+    public void admit(InstanceEty instance, BulkDataFile file)
+    {
+        if (enabled && file.size() <= maxEntryBytes)
+        {
+            String instanceUID = instance.getInstanceUID();
+            Version version = Version.of(instance);
+            loader.execute(() -> load(instanceUID, version, file, loads));
+        }
+    }
+
+    /**
+     * Records that an instance is served and returns the direction in which its client walks
+     * through the series.
+     *
+     * @param instance the served instance
+     * @return 1 if the previous instance of the series served had a lower instance number, -1 if
+     * it had a higher one, 0 if there is none or read-ahead is off
+     */
+    public int direction(InstanceEty instance)
+    {
+        Integer number = instance.getInstanceNumber();
+        if (!enabled || readAhead < 1 || number == null || !instance.hasSeries())
+        {
+            return 0;
+        }
+
+        Integer previous;
+        synchronized (this)
+        {
+            previous = lastServed.put(instance.getSeries().getId(), number);
+        }
+        return previous == null ? 0 : Integer.signum(number - previous);
+    }
+
+    /**
+     * @return the number of instances loaded ahead of a client walking through a series
+     */
+    public int getReadAhead()
+    {
+        return readAhead;
+    }
+
+    /**
+     * Runs a read-ahead on the loader thread, which finds the instances to load and loads them
+     * with {@link #preload(InstanceEty, BulkDataFile)}. Dropped if the loader is busy.
+     *
+     * @param task the read-ahead
+     */
+    public void readAhead(Runnable task)
+    {
+        if (enabled)
+        {
+            loader.execute(task);
+        }
+    }
+
+    /**
+     * Loads the bulk data of an instance found by a read-ahead into the cache, on the calling
+     * thread, unless it is already cached or does not fit.
+     *
+     * @param instance the instance
+     * @param file     the bulk data in the archived file
+     */
+    public void preload(InstanceEty instance, BulkDataFile file)
+    {
+        if (enabled && file.size() <= maxEntryBytes)
+        {
+            load(instance.getInstanceUID(), Version.of(instance), file, readAheadLoads);
+        }
+    }
+
+    /**
+     * @param instance the instance
+     * @return true if the bulk data of the instance is cached for its current archived file
+     */
+    public boolean contains(InstanceEty instance)
+    {
+        return contains(instance.getInstanceUID(), Version.of(instance));
+    }
+
+    /**
+     * Evicts the bulk data of an instance, e.g. because it was imported again.
+     *
+     * @param instanceUID the SOP Instance UID
+     */
+    public synchronized void evict(String instanceUID)
+    {
+        remove(instanceUID);
+    }
+
+    /**
+     * Evicts all entries.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Evicts the bulk data of an imported instance, which may replace an archived file.
+     *
+     * @param event the import event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDicomImported(DicomImportedEvent event)
+    {
+        evict(event.sopInstanceUID());
+    }
+
+    /**
+     * Evicts the bulk data of the instances deleted through the REST API. The deletion of a
+     * patient, study or series cascades to instances which are not known here, it clears the
+     * cache.
+     *
+     * @param event the Spring Data REST event
+     */
+    @EventListener
+    public void onAfterDelete(AfterDeleteEvent event)
+    {
+        Object source = event.getSource();
+        if (source instanceof InstanceEty instance)
+        {
+            evict(instance.getInstanceUID());
+        }
+        else if (source instanceof PatientEty || source instanceof StudyEty || source instanceof SeriesEty)
+        {
+            clear();
+        }
+    }
+
+    private synchronized boolean contains(String instanceUID, Version version)
+    {
+        Entry entry = entries.get(instanceUID);
+        return entry != null && entry.version().equals(version);
+    }
+
+    // called with the lock held
+    private void remove(String instanceUID)
+    {
+        Entry removed = entries.remove(instanceUID);
+        if (removed != null)
+        {
+            bytes -= removed.file().size();
+        }
+    }
+
+    private void load(String instanceUID, Version version, BulkDataFile file, AtomicLong counter)
+    {
+        if (contains(instanceUID, version))
+        {
+            return;
+        }
+
+        ByteBuffer content;
+        try
+        {
+            content = read(file);
+        }
+        catch (IOException e)
+        {
+            LOG.debug("Bulk data of {} not cached: {}", instanceUID, e.getMessage());
+            return;
+        }
+        catch (OutOfMemoryError e)
+        {
+            // direct memory is limited by -XX:MaxDirectMemorySize, which defaults to the heap size
+            LOG.warn("No direct memory left to cache the bulk data of {}, lower mupacs.wado.cache.max-bytes",
+                instanceUID);
+            return;
+        }
+
+        synchronized (this)
+        {
+            if (contains(instanceUID, version))
+            {
+                return;
+            }
+            remove(instanceUID);
+            entries.put(instanceUID, new Entry(version, new BulkDataFile(file.path(), file.offset(), file.size(),
+                content.asReadOnlyBuffer())));
+            bytes += file.size();
+
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext())
+            {
+                bytes -= eldest.next().file().size();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * The archived file of an instance as indexed, an entry is only valid for the same file.
+     */
+    private record Version(String path, Long fileSize, Long fileLastModified)
+    {
+        static Version of(InstanceEty instance)
+        {
+            return new Version(instance.getPath(), instance.getFileSize(), instance.getFileLastModified());
+        }
+    }
+
+    private record Entry(Version version, BulkDataFile file)
+    {
+    }
+
+    private static ByteBuffer read(BulkDataFile file) throws IOException
+    {
+        ByteBuffer content = ByteBuffer.allocateDirect((int) file.size());
+        try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.READ))
+        {
+            while (content.hasRemaining())
+            {
+                if (channel.read(content, file.offset() + content.position()) < 0)
+                {
+                    throw new EOFException("File " + file.path() + " ends before " + (file.offset() + file.size()) + " bytes");
+                }
+            }
+        }
+        return content.flip();
+    }
+
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getBytes()
+    {
+        return bytes;
+    }
+
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    public long getReadAheadCount()
+    {
+        return readAheadLoads.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        FunctionCounter.builder("mupacs.wado.cache.requests", hits, AtomicLong::get)
+            .tag("result", "hit")
+            .description("Bulk data cache lookups")
+            .register(registry);
+        FunctionCounter.builder("mupacs.wado.cache.requests", misses, AtomicLong::get)
+            .tag("result", "miss")
+            .description("Bulk data cache lookups")
+            .register(registry);
+        FunctionCounter.builder("mupacs.wado.cache.evictions", evictions, AtomicLong::get)
+            .description("Bulk data cache entries evicted because the cache was full")
+            .register(registry);
+        FunctionCounter.builder("mupacs.wado.cache.loads", loads, AtomicLong::get)
+            .tag("reason", "miss")
+            .description("Instances loaded into the bulk data cache")
+            .register(registry);
+        FunctionCounter.builder("mupacs.wado.cache.loads", readAheadLoads, AtomicLong::get)
+            .tag("reason", "read-ahead")
+            .description("Instances loaded into the bulk data cache")
+            .register(registry);
+        Gauge.builder("mupacs.wado.cache.size", this, BulkDataCache::size)
+            .description("Number of instances in the bulk data cache")
+            .register(registry);
+        Gauge.builder("mupacs.wado.cache.bytes", this, BulkDataCache::getBytes)
+            .description("Bytes held off-heap by the bulk data cache")
+            .register(registry);
+    }
+}
@@ -0,0 +1,184 @@
+package de.famst.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * The content of an archived file, either the whole file or a part of it such as the value of
+ * its Pixel Data, see {@link DicomBulkDataService#getBulkData}. The file is not opened to create it.
+ * Positions of regions are relative to the content.
+ *
+ * <p>The content is copied with {@link FileChannel#transferTo}, which lets the kernel move the
+ * bytes if the target is a file or socket channel and otherwise copies through a single buffer
+ * of the JDK, without skipping through the file. Content held by the {@link BulkDataCache} is
+ * copied from memory instead, the file is not opened then.
+ *
+ * @param path    the absolute path of the file
+ * @param offset  the position of the content in the file
+ * @param size    the size of the content in bytes
+ * @param content the content in memory, null if it is read from the file
+ * @author jens
+ * @since 2026-10-19
+ */
+public record BulkDataFile(Path path, long offset, long size, ByteBuffer content)
+{
+    /**
+     * A part of a file as content, read from the file.
+     *
+     * @param path   the absolute path of the file
+     * @param offset the position of the content in the file
+     * @param size   the size of the content in bytes
+     */
+    public BulkDataFile(Path path, long offset, long size)
+    {
+        this(path, offset, size, null);
+    }
+
+    /**
+     * The whole file as content.
+     *
+     * @param path the absolute path of the file
+     * @param size the size of the file in bytes
+     */
+    public BulkDataFile(Path path, long size)
+    {
+        this(path, 0, size);
+    }
+
+    /**
+     * @return true if the content is held in memory and the file is not read
+     */
+    public boolean isCached()
+    {
+        return content != null;
+    }
+
+    /**
+     * Copies a region of the content to the output stream, the stream is not closed.
+     *
+     * @param position the first byte of the region
+     * @param count    the number of bytes of the region
+     * @param out      the output stream
+     * @throws IOException              if the file cannot be read, e.g. because it was truncated
+     * @throws IllegalArgumentException if the region is not within the content
+     */
+    public void transferTo(long position, long count, OutputStream out) throws IOException
+    {
+        transferTo(List.of(new Region(position, count)), out, (index, region, stream) -> {
+        });
+    }
+
+    /**
+     * Copies several regions of the content to the output stream through a single open channel,
+     * each with a positioned transfer, so the regions are read in the given order without seeking
+     * through the file. The stream is not closed.
+     *
+     * @param regions the regions, usually in file order
+     * @param out     the output stream
+     * @param header  written to the output stream before each region
+     * @throws IOException              if the file cannot be read, e.g. because it was truncated
+     * @throws IllegalArgumentException if a region is not within the content
+     */
+    public void transferTo(List<Region> regions, OutputStream out, RegionHeader header) throws IOException
+    {
+        for (Region region : regions)
+        {
+            if (region.position() < 0 || region.count() < 0 || region.position() + region.count() > size)
+            {
+                throw new IllegalArgumentException(String.format("Invalid range: position=%d, count=%d, fileSize=%d",
+                    region.position(), region.count(), size));
+            }
+        }
+
+        if (content != null)
+        {
+            transferFromMemory(regions, out, header);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            // not closed, closing it would close the output stream
+            WritableByteChannel target = Channels.newChannel(out);
+
+            for (int index = 0; index < regions.size(); index++)
+            {
+                Region region = regions.get(index);
+                header.write(index, region, out);
+
+                long transferred = 0;
+                while (transferred < region.count())
+                {
+                    long bytes = channel.transferTo(offset + region.position() + transferred,
+                        region.count() - transferred, target);
+                    if (bytes <= 0)
+                    {
+                        throw new EOFException("File " + path + " ends before " + (offset + region.end()) + " bytes");
+                    }
+                    transferred += bytes;
+                }
+            }
+        }
+    }
+
+    private void transferFromMemory(List<Region> regions, OutputStream out, RegionHeader header) throws IOException
+    {
+        // not closed, closing it would close the output stream
+        WritableByteChannel target = Channels.newChannel(out);
+
+        for (int index = 0; index < regions.size(); index++)
+        {
+            Region region = regions.get(index);
+            header.write(index, region, out);
+
+            // the cache holds contents of int size only
+            ByteBuffer slice = content.duplicate();
+            slice.limit((int) region.end());
+            slice.position((int) region.position());
+            while (slice.hasRemaining())
+            {
+                target.write(slice);
+            }
+        }
+    }
+
+    /**
+     * A region of the content.
+     *
+     * @param position the first byte of the region
+     * @param count    the number of bytes of the region
+     */
+    public record Region(long position, long count)
+    {
+        /**
+         * @return the position after the last byte of the region
+         */
+        public long end()
+        {
+            return position + count;
+        }
+    }
+
+    /**
+     * Writes what precedes a region in the output, e.g. the headers of a part of a multipart body.
+     */
+    @FunctionalInterface
+    public interface RegionHeader
+    {
+        /**
+         * @param index  the index of the region in the list of regions
+         * @param region the region
+         * @param out    the output stream
+         * @throws IOException if the stream cannot be written
+         */
+        void write(int index, Region region, OutputStream out) throws IOException;
+    }
+}
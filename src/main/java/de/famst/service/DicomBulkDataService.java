@@ -1,18 +1,26 @@
 package de.famst.service;
 
+import de.famst.data.FrameIndex;
+import de.famst.data.InstanceEty;
+import de.famst.data.InstanceFramesEty;
+import de.famst.data.InstanceFramesRepository;
+import de.famst.data.InstanceRepository;
+import org.dcm4che3.data.UID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Service for handling DICOM bulk data operations.
@@ -24,6 +32,19 @@ import java.nio.file.Paths;
  *   <li>File size queries</li>
  * </ul>
  *
+ * <p>A request stats its file once with {@link #getFile(String)}; the returned {@link BulkDataFile}
+ * copies its content with {@link java.nio.channels.FileChannel#transferTo}, or the servlet
+ * container sends it with {@code sendfile}.
+ *
+ * <p>The bulk data of an instance is the value of its Pixel Data, located in the archived file at
+ * ingest, see {@link #getBulkData(InstanceEty)}. Serving it needs the same single stat, which also
+ * verifies that the file did not change since it was indexed. Its frames are located with
+ * {@link #getFrameIndex(InstanceEty)}.
+ *
+ * <p>Recently served instances are kept off-heap by the {@link BulkDataCache} and served from
+ * memory without a stat. When a client walks through a series, the next instances in its
+ * direction are loaded into the cache before they are requested.
+ *
  * @author jens
  * @since 2026-04-24
  */
@@ -32,6 +53,32 @@ public class DicomBulkDataService
 {
     private static final Logger LOG = LoggerFactory.getLogger(DicomBulkDataService.class);
 
+    /**
+     * The transfer syntaxes of native Pixel Data whose frames follow each other with equal size.
+     */
+    private static final Set<String> NATIVE_TRANSFER_SYNTAXES =
+        Set.of(UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian, UID.ExplicitVRBigEndian);
+
+    private final InstanceFramesRepository instanceFramesRepository;
+    private final InstanceRepository instanceRepository;
+    private final BulkDataCache bulkDataCache;
+
+    /**
+     * Constructs a new DicomBulkDataService.
+     *
+     * @param instanceFramesRepository repository for the frame indexes of encapsulated Pixel Data
+     * @param instanceRepository       repository for finding the instances to read ahead
+     * @param bulkDataCache            the cache of recently served bulk data
+     */
+    public DicomBulkDataService(InstanceFramesRepository instanceFramesRepository,
+                                InstanceRepository instanceRepository,
+                                BulkDataCache bulkDataCache)
+    {
+        this.instanceFramesRepository = instanceFramesRepository;
+        this.instanceRepository = instanceRepository;
+        this.bulkDataCache = bulkDataCache;
+    }
+
     /**
      * Gets the size of a file.
      *
@@ -41,167 +88,168 @@ public class DicomBulkDataService
      */
     public long getFileSize(String filePath) throws IOException
     {
-        Path path = Paths.get(filePath);
-
-        if (!Files.exists(path))
-        {
-            LOG.error("File not found: {}", filePath);
-            throw new IOException("File not found: " + filePath);
-        }
-
-        if (!Files.isRegularFile(path))
-        {
-            LOG.error("Path is not a regular file: {}", filePath);
-            throw new IOException("Path is not a regular file: " + filePath);
-        }
-
-        long size = Files.size(path);
-        LOG.debug("File size for {}: {} bytes", filePath, size);
-
-        return size;
+        return getFile(filePath).size();
     }
 
     /**
-     * Retrieves the full file as a Resource.
+     * Reads the attributes of a file with a single stat, without opening it.
      *
      * @param filePath the path to the file
-     * @return a Resource representing the full file
-     * @throws IOException if the file cannot be read
+     * @return the file with its absolute path and size
+     * @throws IOException if the file cannot be accessed, does not exist or is not a regular file
      */
-    public Resource getFullFile(String filePath) throws IOException
+    public BulkDataFile getFile(String filePath) throws IOException
     {
-        Path path = Paths.get(filePath);
-
-        if (!Files.exists(path))
-        {
-            LOG.error("File not found: {}", filePath);
-            throw new IOException("File not found: " + filePath);
-        }
-
-        LOG.debug("Reading full file: {}", filePath);
+        Path path = Paths.get(filePath).toAbsolutePath();
+        BasicFileAttributes attributes = readAttributes(path, filePath);
 
-        File file = path.toFile();
-        InputStream inputStream = new FileInputStream(file);
-
-        return new InputStreamResource(inputStream);
+        LOG.debug("File size for {}: {} bytes", filePath, attributes.size());
+        return new BulkDataFile(path, attributes.size());
     }
 
     /**
-     * Retrieves a range of bytes from a file as a Resource.
-     * This supports HTTP Range requests.
+     * Returns the bulk data of an instance: the value of its Pixel Data if its position in the
+     * archived file was indexed at ingest, otherwise the whole file. Cached bulk data is returned
+     * without touching the file, otherwise the file is stat'ed once and not opened.
      *
-     * @param filePath the path to the file
-     * @param start the starting byte position (inclusive)
-     * @param end the ending byte position (inclusive)
-     * @return a Resource representing the requested byte range
-     * @throws IOException if the file cannot be read or range is invalid
+     * @param instance the instance
+     * @return the Pixel Data or the file of the instance
+     * @throws IOException if the file cannot be accessed, does not exist, is not a regular file
+     *                     or changed since it was indexed
      */
-    public Resource getFileRange(String filePath, long start, long end) throws IOException
+    public BulkDataFile getBulkData(InstanceEty instance) throws IOException
     {
-        Path path = Paths.get(filePath);
+        readAhead(instance);
 
-        if (!Files.exists(path))
+        BulkDataFile cached = bulkDataCache.get(instance);
+        if (cached != null)
         {
-            LOG.error("File not found: {}", filePath);
-            throw new IOException("File not found: " + filePath);
+            LOG.debug("Bulk data of {} served from cache", instance.getInstanceUID());
+            return cached;
         }
 
-        long fileSize = Files.size(path);
+        BulkDataFile file = readBulkData(instance);
+        bulkDataCache.admit(instance, file);
+        return file;
+    }
 
-        // Validate range
-        if (start < 0 || end < start || end >= fileSize)
+    /**
+     * Locates the bulk data of an instance in its archived file with a single stat.
+     */
+    private BulkDataFile readBulkData(InstanceEty instance) throws IOException
+    {
+        if (!instance.hasPixelData())
         {
-            LOG.error("Invalid range: start={}, end={}, fileSize={}", start, end, fileSize);
-            throw new IllegalArgumentException(
-                    String.format("Invalid range: start=%d, end=%d, fileSize=%d", start, end, fileSize));
+            return getFile(instance.getPath());
         }
 
-        LOG.debug("Reading file range: {} bytes {}-{}", filePath, start, end);
+        Path path = Paths.get(instance.getPath()).toAbsolutePath();
+        BasicFileAttributes attributes = readAttributes(path, instance.getPath());
 
-        InputStream inputStream = new RangeInputStream(path.toFile(), start, end);
+        if (attributes.size() != instance.getFileSize()
+            || attributes.lastModifiedTime().toMillis() != instance.getFileLastModified())
+        {
+            LOG.error("File changed since it was indexed: {}, size={}, indexed size={}",
+                instance.getPath(), attributes.size(), instance.getFileSize());
+            throw new IOException("File changed since it was indexed: " + instance.getPath());
+        }
 
-        return new InputStreamResource(inputStream);
+        LOG.debug("Pixel Data of {}: {} bytes at {}",
+            instance.getPath(), instance.getPixelDataLength(), instance.getPixelDataOffset());
+        return new BulkDataFile(path, instance.getPixelDataOffset(), instance.getPixelDataLength());
     }
 
     /**
-     * InputStream implementation that reads a specific byte range from a file.
-     * This class ensures that only the specified range is read and properly closes resources.
+     * Returns the frame index of the Pixel Data of an instance: computed for native Pixel Data,
+     * built at ingest for encapsulated Pixel Data. Offsets are relative to the Pixel Data, as
+     * returned by {@link #getBulkData(InstanceEty)}.
+     *
+     * @param instance the instance
+     * @return the frame index, or null if the Pixel Data of the instance was not indexed
+     * or cannot be split into frames
      */
-    private static class RangeInputStream extends InputStream
+    public FrameIndex getFrameIndex(InstanceEty instance)
     {
-        private final FileInputStream fileInputStream;
-        private long remainingBytes;
-
-        /**
-         * Creates a new RangeInputStream.
-         *
-         * @param file the file to read from
-         * @param start the starting byte position (inclusive)
-         * @param end the ending byte position (inclusive)
-         * @throws IOException if the file cannot be opened or positioned
-         */
-        public RangeInputStream(File file, long start, long end) throws IOException
+        if (!instance.hasPixelData())
         {
-            this.fileInputStream = new FileInputStream(file);
-            this.remainingBytes = end - start + 1;
-
-            // Skip to start position
-            long skipped = fileInputStream.skip(start);
-            if (skipped != start)
-            {
-                fileInputStream.close();
-                throw new IOException("Failed to skip to start position: " + start);
-            }
+            return null;
         }
 
-        @Override
-        public int read() throws IOException
+        int frames = instance.getNumberOfFrames() != null ? instance.getNumberOfFrames() : 1;
+        if (NATIVE_TRANSFER_SYNTAXES.contains(instance.getTransferSyntaxUID()))
         {
-            if (remainingBytes <= 0)
-            {
-                return -1; // End of range
-            }
+            return FrameIndex.ofNative(instance.getPixelDataLength(), frames);
+        }
 
-            int data = fileInputStream.read();
-            if (data != -1)
-            {
-                remainingBytes--;
-            }
+        return instanceFramesRepository.findById(instance.getId())
+            .map(InstanceFramesEty::getFrameIndex)
+            .orElse(null);
+    }
 
-            return data;
+    /**
+     * Loads the next instances of the series into the cache if the client walks through it, on
+     * the loader thread of the cache. Instances without instance number are not read ahead.
+     */
+    private void readAhead(InstanceEty instance)
+    {
+        int direction = bulkDataCache.direction(instance);
+        if (direction == 0)
+        {
+            return;
         }
 
-        @Override
-        public int read(byte[] b, int off, int len) throws IOException
+        long seriesId = instance.getSeries().getId();
+        Integer number = instance.getInstanceNumber();
+        bulkDataCache.readAhead(() ->
         {
-            if (remainingBytes <= 0)
-            {
-                return -1; // End of range
-            }
+            List<InstanceEty> next = direction > 0
+                ? instanceRepository.findBySeriesIdAndInstanceNumberGreaterThan(seriesId, number,
+                    nextInstances(Sort.Direction.ASC))
+                : instanceRepository.findBySeriesIdAndInstanceNumberLessThan(seriesId, number,
+                    nextInstances(Sort.Direction.DESC));
 
-            // Don't read more than the remaining bytes in the range
-            int toRead = (int) Math.min(len, remainingBytes);
-
-            int bytesRead = fileInputStream.read(b, off, toRead);
-            if (bytesRead > 0)
+            for (InstanceEty following : next)
             {
-                remainingBytes -= bytesRead;
+                if (bulkDataCache.contains(following))
+                {
+                    continue;
+                }
+
+                try
+                {
+                    bulkDataCache.preload(following, readBulkData(following));
+                }
+                catch (IOException e)
+                {
+                    LOG.debug("Read-ahead of {} failed: {}", following.getInstanceUID(), e.getMessage());
+                }
             }
+        });
+    }
 
-            return bytesRead;
-        }
+    private Pageable nextInstances(Sort.Direction direction)
+    {
+        return PageRequest.of(0, bulkDataCache.getReadAhead(), Sort.by(direction, "instanceNumber"));
+    }
 
-        @Override
-        public void close() throws IOException
+    private static BasicFileAttributes readAttributes(Path path, String filePath) throws IOException
+    {
+        BasicFileAttributes attributes;
+        try
+        {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        }
+        catch (NoSuchFileException e)
         {
-            fileInputStream.close();
+            LOG.error("File not found: {}", filePath);
+            throw new IOException("File not found: " + filePath, e);
         }
 
-        @Override
-        public int available()
+        if (!attributes.isRegularFile())
         {
-            return (int) Math.min(remainingBytes, Integer.MAX_VALUE);
+            LOG.error("Path is not a regular file: {}", filePath);
+            throw new IOException("Path is not a regular file: " + filePath);
         }
+        return attributes;
     }
 }
-
@@ -1,6 +1,10 @@
 package de.famst.service;
 
 import de.famst.data.InstanceEty;
+import de.famst.data.InstanceFramesEty;
+import de.famst.data.InstanceFramesRepository;
+import de.famst.data.InstanceHeaderEty;
+import de.famst.data.InstanceHeaderRepository;
 import de.famst.data.InstanceRepository;
 import de.famst.data.PatientEty;
 import de.famst.data.PatientRepository;
@@ -8,13 +12,17 @@ import de.famst.data.SeriesEty;
 import de.famst.data.SeriesRepository;
 import de.famst.data.StudyEty;
 import de.famst.data.StudyRepository;
+import de.famst.data.TextIndex;
 import de.famst.dcm.DcmFile;
 import de.famst.dcm.DicomReader;
+import de.famst.dcm.PixelDataIndex;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,6 +32,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.EnumSet;
+import java.util.Set;
 
 /**
  * Service responsible for importing DICOM data into the database.
@@ -32,6 +42,15 @@ import java.nio.file.StandardCopyOption;
  * <p>This service ensures referential integrity by checking for existing entities
  * before creating new ones, preventing duplicate entries in the database.
  *
+ * <p>Whenever an import creates new entities a {@link DicomImportedEvent} is published,
+ * which allows caches and indexes to be invalidated once the transaction has committed.
+ * The modification stamps of the affected study and series are updated in the same transaction.
+ *
+ * <p>The header of every new instance is stored with it in the database, see {@link InstanceHeaderEty}.
+ * The free text of new entities is added to the {@link TextIndex} in the same transaction.
+ * The position of the Pixel Data in the archived copy is recorded on the instance, see {@link PixelDataIndex},
+ * the frames of encapsulated Pixel Data in a side table, see {@link InstanceFramesEty}.
+ *
  * @author jens
  * @since 2016-10-08
  */
@@ -46,31 +65,47 @@ public class DicomImportService
 
     private final DicomReader dicomReader;
     private final InstanceRepository instanceRepository;
+    private final InstanceHeaderRepository instanceHeaderRepository;
+    private final InstanceFramesRepository instanceFramesRepository;
     private final SeriesRepository seriesRepository;
     private final StudyRepository studyRepository;
     private final PatientRepository patientRepository;
+    private final TextIndex textIndex;
+    private final ApplicationEventPublisher eventPublisher;
 
     /**
      * Constructs a new DicomImportService.
      *
      * @param instanceRepository repository for DICOM instances
+     * @param instanceHeaderRepository repository for the headers of DICOM instances
+     * @param instanceFramesRepository repository for the frame indexes of DICOM instances
      * @param seriesRepository   repository for DICOM series
      * @param studyRepository    repository for DICOM studies
      * @param patientRepository  repository for patients
      * @param dicomReader        reader for extracting data from DICOM attributes
+     * @param textIndex          index of the free text of the entities
+     * @param eventPublisher     publisher for {@link DicomImportedEvent}s
      */
     public DicomImportService(
         InstanceRepository instanceRepository,
+        InstanceHeaderRepository instanceHeaderRepository,
+        InstanceFramesRepository instanceFramesRepository,
         SeriesRepository seriesRepository,
         StudyRepository studyRepository,
         PatientRepository patientRepository,
-        DicomReader dicomReader)
+        DicomReader dicomReader,
+        TextIndex textIndex,
+        ApplicationEventPublisher eventPublisher)
     {
         this.instanceRepository = instanceRepository;
+        this.instanceHeaderRepository = instanceHeaderRepository;
+        this.instanceFramesRepository = instanceFramesRepository;
         this.seriesRepository = seriesRepository;
         this.studyRepository = studyRepository;
         this.patientRepository = patientRepository;
         this.dicomReader = dicomReader;
+        this.textIndex = textIndex;
+        this.eventPublisher = eventPublisher;
     }
 
     @Transactional
@@ -121,17 +156,25 @@ public class DicomImportService
         // Validate required tags
         validateRequiredTags(patientId, studyInstanceUID, seriesInstanceUID, sopInstanceUID);
 
+        Set<QueryRetrieveLevel2> createdLevels = EnumSet.noneOf(QueryRetrieveLevel2.class);
+
         // Process Patient level
-        PatientEty patient = findOrCreatePatient(dcm, patientId);
+        PatientEty patient = findOrCreatePatient(dcm, patientId, createdLevels);
 
         // Process Study level
-        StudyEty study = findOrCreateStudy(dcm, studyInstanceUID, patient);
+        StudyEty study = findOrCreateStudy(dcm, studyInstanceUID, patient, createdLevels);
 
         // Process Series level
-        SeriesEty series = findOrCreateSeries(dcm, seriesInstanceUID, study);
+        SeriesEty series = findOrCreateSeries(dcm, seriesInstanceUID, patient, study, createdLevels);
 
         // Process Instance level
-        processInstance(dcm, path, sopInstanceUID, study, series);
+        processInstance(dcm, path, sopInstanceUID, patient, study, series, createdLevels);
+
+        if (!createdLevels.isEmpty())
+        {
+            eventPublisher.publishEvent(new DicomImportedEvent(
+                patientId, studyInstanceUID, seriesInstanceUID, sopInstanceUID, createdLevels));
+        }
     }
 
     /**
@@ -164,7 +207,7 @@ public class DicomImportService
     /**
      * Finds an existing patient or creates a new one.
      */
-    private PatientEty findOrCreatePatient(Attributes dcm, String patientId)
+    private PatientEty findOrCreatePatient(Attributes dcm, String patientId, Set<QueryRetrieveLevel2> createdLevels)
     {
         PatientEty patient = patientRepository.findByPatientId(patientId);
 
@@ -173,6 +216,8 @@ public class DicomImportService
             LOG.debug("Creating new patient: [{}]", patientId);
             patient = dicomReader.readPatient(dcm);
             patient = patientRepository.save(patient);
+            createdLevels.add(QueryRetrieveLevel2.PATIENT);
+            textIndex.index(QueryRetrieveLevel2.PATIENT, patient.getId(), patient.getId(), patient.getPatientComments());
             LOG.info("Created new patient: [{}]", patientId);
         }
         else
@@ -186,7 +231,8 @@ public class DicomImportService
     /**
      * Finds an existing study or creates a new one and links it to the patient.
      */
-    private StudyEty findOrCreateStudy(Attributes dcm, String studyInstanceUID, PatientEty patient)
+    private StudyEty findOrCreateStudy(Attributes dcm, String studyInstanceUID, PatientEty patient,
+                                       Set<QueryRetrieveLevel2> createdLevels)
     {
         StudyEty study = studyRepository.findByStudyInstanceUID(studyInstanceUID);
 
@@ -196,6 +242,8 @@ public class DicomImportService
             study = dicomReader.readStudy(dcm);
             study.setPatient(patient);
             study = studyRepository.save(study);
+            createdLevels.add(QueryRetrieveLevel2.STUDY);
+            textIndex.index(QueryRetrieveLevel2.STUDY, study.getId(), patient.getId(), study.getStudyDescription());
 
             patient.addStudy(study);
             // Patient save is handled by cascade or can be explicit if needed
@@ -214,7 +262,8 @@ public class DicomImportService
     /**
      * Finds an existing series or creates a new one and links it to the study.
      */
-    private SeriesEty findOrCreateSeries(Attributes dcm, String seriesInstanceUID, StudyEty study)
+    private SeriesEty findOrCreateSeries(Attributes dcm, String seriesInstanceUID, PatientEty patient, StudyEty study,
+                                         Set<QueryRetrieveLevel2> createdLevels)
     {
         SeriesEty series = seriesRepository.findBySeriesInstanceUID(seriesInstanceUID);
 
@@ -224,6 +273,8 @@ public class DicomImportService
             series = dicomReader.readSeries(dcm);
             series.setStudy(study);
             series = seriesRepository.save(series);
+            createdLevels.add(QueryRetrieveLevel2.SERIES);
+            textIndex.index(QueryRetrieveLevel2.SERIES, series.getId(), patient.getId(), series.getSeriesDescription());
 
             study.addSeries(series);
             // Study save is handled by cascade or can be explicit if needed
@@ -243,7 +294,8 @@ public class DicomImportService
      * Processes a DICOM instance, creating it if it doesn't exist or skipping if it does.
      * Copies the DICOM file to the archive structure: PatientID/StudyInstanceUID/SeriesInstanceUID/SOPInstanceUID.dcm
      */
-    private void processInstance(Attributes dcm, Path path, String sopInstanceUID, StudyEty study, SeriesEty series)
+    private void processInstance(Attributes dcm, Path path, String sopInstanceUID, PatientEty patient, StudyEty study,
+                                 SeriesEty series, Set<QueryRetrieveLevel2> createdLevels)
     {
         InstanceEty instance = instanceRepository.findByInstanceUID(sopInstanceUID);
 
@@ -260,16 +312,59 @@ public class DicomImportService
 
         instance = dicomReader.readInstance(dcm);
         instance.setPath(archivePath.toAbsolutePath().toString());
+        PixelDataIndex index = indexPixelData(instance, archivePath);
         instance.setSeries(series);
         instance = instanceRepository.save(instance);
+        instanceHeaderRepository.save(new InstanceHeaderEty(instance, dcm));
+        if (index != null && index.frames() != null)
+        {
+            instanceFramesRepository.save(new InstanceFramesEty(instance, index.frames()));
+        }
+        createdLevels.add(QueryRetrieveLevel2.IMAGE);
+        textIndex.index(QueryRetrieveLevel2.IMAGE, instance.getId(), patient.getId(), instance.getImageComments());
 
         series.addInstance(instance);
         // Series save is handled by cascade or can be explicit if needed
 
+        // the new instance changes the query results of its series and study, new ones are stamped on insert
+        if (!createdLevels.contains(QueryRetrieveLevel2.SERIES))
+        {
+            series.markModified();
+        }
+        if (!createdLevels.contains(QueryRetrieveLevel2.STUDY))
+        {
+            study.markModified();
+        }
+
         LOG.info("Created new instance: [{}] for series: [{}]",
             sopInstanceUID, series.getSeriesInstanceUID());
     }
 
+    /**
+     * Records where the Pixel Data of the archived file is, so WADO-RS can serve it without parsing the file.
+     *
+     * @return the index, with the frames of encapsulated Pixel Data, or null if the file cannot be indexed
+     */
+    private PixelDataIndex indexPixelData(InstanceEty instance, Path archivePath)
+    {
+        PixelDataIndex index = DcmFile.indexPixelData(archivePath);
+        if (index == null)
+        {
+            LOG.debug("Archived file not indexed, bulk data is served as whole file: [{}]", archivePath);
+            return null;
+        }
+
+        instance.setTransferSyntaxUID(index.transferSyntaxUID());
+        instance.setFileSize(index.fileSize());
+        instance.setFileLastModified(index.lastModified());
+        if (index.hasPixelData())
+        {
+            instance.setPixelDataOffset(index.offset());
+            instance.setPixelDataLength(index.length());
+        }
+        return index;
+    }
+
     /**
      * Copies the DICOM file to the archive directory structure.
      * Structure: {archive}/PatientID/StudyInstanceUID/SeriesInstanceUID/SOPInstanceUID.dcm
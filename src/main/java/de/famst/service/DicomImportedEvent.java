@@ -0,0 +1,45 @@
+package de.famst.service;
+
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+
+import java.util.Set;
+
+/**
+ * Published by {@link DicomImportService} whenever an import created new entities.
+ *
+ * <p>Listeners should react after the surrounding transaction has committed
+ * (see {@link org.springframework.transaction.event.TransactionalEventListener}),
+ * so that they only observe data that is actually visible to other transactions.
+ *
+ * @param patientId         the Patient ID of the imported instance
+ * @param studyInstanceUID  the Study Instance UID of the imported instance
+ * @param seriesInstanceUID the Series Instance UID of the imported instance
+ * @param sopInstanceUID    the SOP Instance UID of the imported instance
+ * @param createdLevels     the levels for which a new entity was created
+ *                          (e.g. {@code [SERIES, IMAGE]} for the first instance of a new series)
+ * @author jens
+ * @since 2026-10-19
+ */
+public record DicomImportedEvent(
+    String patientId,
+    String studyInstanceUID,
+    String seriesInstanceUID,
+    String sopInstanceUID,
+    Set<QueryRetrieveLevel2> createdLevels)
+{
+    public DicomImportedEvent
+    {
+        createdLevels = Set.copyOf(createdLevels);
+    }
+
+    /**
+     * Checks whether an entity was created at the given level.
+     *
+     * @param level the query/retrieve level
+     * @return true if a new entity was created at this level
+     */
+    public boolean created(QueryRetrieveLevel2 level)
+    {
+        return createdLevels.contains(level);
+    }
+}
@@ -0,0 +1,152 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.data.InstanceRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service retrieving the archived files of whole studies and series for WADO-RS.
+ *
+ * <p>The paths of the instances are found with a single statement. The files are read in the
+ * order they are stored on disk by a pool with a fixed number of I/O threads, see
+ * {@link FileSequence}: each retrieval occupies one of them while its files are read, further
+ * retrievals wait for a free thread instead of competing for the disk.
+ *
+ * <p>If a transfer syntax is requested, instances stored in another one are converted before the
+ * files are read, see {@link TranscodeService}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class DicomRetrieveService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DicomRetrieveService.class);
+
+    private final InstanceRepository instanceRepository;
+    private final TranscodeService transcodeService;
+    private final int readAhead;
+    private final int bufferSize;
+    private final ExecutorService ioExecutor;
+
+    /**
+     * Constructs a new DicomRetrieveService.
+     *
+     * @param instanceRepository the repository for finding the files of the instances
+     * @param transcodeService   the service converting instances into requested transfer syntaxes
+     * @param ioThreads          the number of threads reading files, the retrievals read at the same time
+     * @param readAhead          the number of buffers of a retrieval, the chunks read ahead of the response
+     * @param bufferSize         the size of a buffer in bytes
+     */
+    public DicomRetrieveService(InstanceRepository instanceRepository,
+                                TranscodeService transcodeService,
+                                @Value("${mupacs.wado.retrieve.io-threads:4}") int ioThreads,
+                                @Value("${mupacs.wado.retrieve.read-ahead:8}") int readAhead,
+                                @Value("${mupacs.wado.retrieve.buffer-size:262144}") int bufferSize)
+    {
+        this.instanceRepository = instanceRepository;
+        this.transcodeService = transcodeService;
+        this.readAhead = readAhead;
+        this.bufferSize = bufferSize;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "WadoRetrieve-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LOG.info("DicomRetrieveService created with [{}] I/O threads, read-ahead [{}] x [{}] bytes",
+            ioThreads, readAhead, bufferSize);
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the archived files of all instances of a study in the order they are stored on disk.
+     *
+     * @param studyInstanceUID the Study Instance UID
+     * @return the files, empty if the study does not exist
+     * @throws IOException if a file does not exist or cannot be stat'ed
+     */
+    public FileSequence getStudy(String studyInstanceUID) throws IOException
+    {
+        List<String> paths = instanceRepository.findPathsByStudyInstanceUID(studyInstanceUID);
+        LOG.debug("Retrieving {} instances of study {}", paths.size(), studyInstanceUID);
+        return FileSequence.inDiskOrder(paths, ioExecutor, readAhead, bufferSize);
+    }
+
+    /**
+     * Returns the archived files of all instances of a series in the order they are stored on disk.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @return the files, empty if the series does not exist in the study
+     * @throws IOException if a file does not exist or cannot be stat'ed
+     */
+    public FileSequence getSeries(String studyInstanceUID, String seriesInstanceUID) throws IOException
+    {
+        List<String> paths = instanceRepository.findPathsBySeriesInstanceUID(studyInstanceUID, seriesInstanceUID);
+        LOG.debug("Retrieving {} instances of series {}", paths.size(), seriesInstanceUID);
+        return FileSequence.inDiskOrder(paths, ioExecutor, readAhead, bufferSize);
+    }
+
+    /**
+     * Returns the files of all instances of a study in a transfer syntax.
+     *
+     * @param studyInstanceUID the Study Instance UID
+     * @param tsuid            the transfer syntax UID
+     * @return the files in the order they are stored on disk, empty if the study does not exist
+     * @throws de.famst.dcm.UnsupportedTransferSyntaxException if an instance cannot be converted
+     * @throws IOException                                     if a file does not exist or cannot be read; a
+     *                                                         failed conversion fails the transfer
+     */
+    public FileSequence getStudy(String studyInstanceUID, String tsuid) throws IOException
+    {
+        List<InstanceFileRecord> files = instanceRepository.findFilesByStudyInstanceUIDs(List.of(studyInstanceUID));
+        LOG.debug("Retrieving {} instances of study {} as {}", files.size(), studyInstanceUID, tsuid);
+        return inTransferSyntax(files, tsuid);
+    }
+
+    /**
+     * Returns the files of all instances of a series in a transfer syntax.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @param tsuid             the transfer syntax UID
+     * @return the files in the order they are stored on disk, empty if the series does not exist in the study
+     * @throws de.famst.dcm.UnsupportedTransferSyntaxException if an instance cannot be converted
+     * @throws IOException                                     if a file does not exist or cannot be read; a
+     *                                                         failed conversion fails the transfer
+     */
+    public FileSequence getSeries(String studyInstanceUID, String seriesInstanceUID, String tsuid) throws IOException
+    {
+        List<InstanceFileRecord> files =
+            instanceRepository.findFilesBySeriesInstanceUID(studyInstanceUID, seriesInstanceUID);
+        LOG.debug("Retrieving {} instances of series {} as {}", files.size(), seriesInstanceUID, tsuid);
+        return inTransferSyntax(files, tsuid);
+    }
+
+    private FileSequence inTransferSyntax(List<InstanceFileRecord> files, String tsuid) throws IOException
+    {
+        // the archived files are read in disk order, the variants are converted while streaming
+        FileSequence archived = FileSequence.inDiskOrder(
+            files.stream().map(InstanceFileRecord::path).toList(), ioExecutor, readAhead, bufferSize);
+        return archived.withOpener(transcodeService.opener(files, archived.files(), tsuid));
+    }
+}
@@ -0,0 +1,314 @@
+package de.famst.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * A directory of generated files with a size cap, e.g. thumbnails or transcoded instances.
+ *
+ * <p>The files are kept in an index in the order they were last served. Once they exceed the
+ * cap, the least recently served ones are deleted until they take 90% of it; the file just
+ * written is kept, even if it is larger than that. Files are written to a temporary file first and
+ * moved into place, so readers never see a partial file. The directory is listed once, at
+ * construction; {@link #get} touches the modification time of a file, so the order survives a
+ * restart. The modification time only orders the files: a cached file does not get outdated, if
+ * it depends on the state of something, the state belongs into its name, e.g. a modification
+ * stamp; the file of a previous state is then no longer served and evicted in time.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class DiskCache
+{
+    private static final Logger LOG = LoggerFactory.getLogger(DiskCache.class);
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Writes the content of a cached file.
+     */
+    @FunctionalInterface
+    public interface Content
+    {
+        /**
+         * @param out the stream to the file, closed by the cache
+         * @throws IOException if the content cannot be generated or written
+         */
+        void write(OutputStream out) throws IOException;
+    }
+
+    private record CachedFile(Path path, long size, FileTime lastModified)
+    {
+    }
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * The size of the files by name, the least recently served first; guarded by this.
+     */
+    private final Map<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Opens a cache directory, which is created if it does not exist.
+     *
+     * @param directory the directory
+     * @param maxBytes  the maximum size of the files in bytes
+     * @throws UncheckedIOException if the directory cannot be created or listed
+     */
+    public DiskCache(Path directory, long maxBytes)
+    {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+
+        try
+        {
+            Files.createDirectories(directory);
+            List<CachedFile> files = files();
+            files.sort(Comparator.comparing(CachedFile::lastModified));
+            for (CachedFile file : files)
+            {
+                index.put(file.path().getFileName().toString(), file.size());
+                bytes.addAndGet(file.size());
+            }
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException("Cannot open cache " + directory, e);
+        }
+    }
+
+    /**
+     * @return the directory of the cache
+     */
+    public Path getDirectory()
+    {
+        return directory;
+    }
+
+    /**
+     * Returns a cached file and marks it as recently served.
+     *
+     * @param name the name of the file
+     * @return the file, null if it is not cached
+     * @throws IOException if the file cannot be touched
+     */
+    public Path get(String name) throws IOException
+    {
+        Path file = directory.resolve(name);
+        try
+        {
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+        }
+        catch (NoSuchFileException e)
+        {
+            // not generated yet, or evicted in the meantime
+            return null;
+        }
+
+        synchronized (this)
+        {
+            // moves it to the most recently served end
+            index.get(name);
+        }
+        return file;
+    }
+
+    /**
+     * Opens a cached file and marks it as recently served. Unlike a file returned by {@link #get},
+     * the open file can be read even if it is evicted right after.
+     *
+     * @param name the name of the file
+     * @return the channel reading the file, null if it is not cached
+     * @throws IOException if the file cannot be opened
+     */
+    public synchronized FileChannel open(String name) throws IOException
+    {
+        if (!index.containsKey(name))
+        {
+            return null;
+        }
+
+        Path file = directory.resolve(name);
+        try
+        {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            // moves it to the most recently served end
+            index.get(name);
+            return channel;
+        }
+        catch (NoSuchFileException e)
+        {
+            // deleted from outside
+            bytes.addAndGet(-index.remove(name));
+            return null;
+        }
+    }
+
+    /**
+     * Writes a file into the cache, replacing one of the same name, and evicts the least recently
+     * served files if the cache is full.
+     *
+     * @param name    the name of the file
+     * @param content writes the content of the file
+     * @return the file
+     * @throws IOException if the content cannot be written; the cache is unchanged then
+     */
+    public Path put(String name, Content content) throws IOException
+    {
+        store(name, content, false);
+        return directory.resolve(name);
+    }
+
+    /**
+     * Writes a file into the cache like {@link #put} and opens it before any other file is written,
+     * so it can be read even if it is evicted right after.
+     *
+     * @param name    the name of the file
+     * @param content writes the content of the file
+     * @return the channel reading the file
+     * @throws IOException if the content cannot be written; the cache is unchanged then
+     */
+    public FileChannel putAndOpen(String name, Content content) throws IOException
+    {
+        return store(name, content, true);
+    }
+
+    private FileChannel store(String name, Content content, boolean open) throws IOException
+    {
+        Path file = directory.resolve(name);
+        // concurrent writers of a name each have their own temporary file, the last move wins
+        Path temp = Files.createTempFile(directory, name, TEMP_SUFFIX);
+        try
+        {
+            try (OutputStream out = Files.newOutputStream(temp))
+            {
+                content.write(out);
+            }
+
+            long size = Files.size(temp);
+            synchronized (this)
+            {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                FileChannel channel = open ? FileChannel.open(file, StandardOpenOption.READ) : null;
+                Long replaced = index.put(name, size);
+                try
+                {
+                    if (bytes.addAndGet(size - (replaced != null ? replaced : 0)) > maxBytes)
+                    {
+                        evict(name);
+                    }
+                }
+                catch (IOException e)
+                {
+                    if (channel != null)
+                    {
+                        channel.close();
+                    }
+                    throw e;
+                }
+                return channel;
+            }
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return the number of bytes in the cache
+     */
+    public long getBytes()
+    {
+        return bytes.get();
+    }
+
+    /**
+     * @return the number of files deleted because the cache was full
+     */
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    /**
+     * Deletes the least recently served files, except the one just written, until the cache is at
+     * 90% of its maximum.
+     */
+    private void evict(String written) throws IOException
+    {
+        long target = maxBytes / 10 * 9;
+
+        int evicted = 0;
+        Iterator<Map.Entry<String, Long>> entries = index.entrySet().iterator();
+        while (bytes.get() > target && entries.hasNext())
+        {
+            Map.Entry<String, Long> entry = entries.next();
+            if (entry.getKey().equals(written))
+            {
+                continue;
+            }
+            Files.deleteIfExists(directory.resolve(entry.getKey()));
+            entries.remove();
+            bytes.addAndGet(-entry.getValue());
+            evicted++;
+        }
+        evictions.addAndGet(evicted);
+        LOG.debug("evicted {} files from [{}], {} bytes left", evicted, directory, bytes.get());
+    }
+
+    private List<CachedFile> files() throws IOException
+    {
+        List<CachedFile> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory))
+        {
+            for (Path path : (Iterable<Path>) list::iterator)
+            {
+                if (path.getFileName().toString().endsWith(TEMP_SUFFIX))
+                {
+                    // left by a write that did not finish
+                    Files.deleteIfExists(path);
+                    continue;
+                }
+                try
+                {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    if (attributes.isRegularFile())
+                    {
+                        files.add(new CachedFile(path, attributes.size(), attributes.lastModifiedTime()));
+                    }
+                }
+                catch (NoSuchFileException e)
+                {
+                    // replaced or evicted while listing
+                }
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,287 @@
+package de.famst.service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The archived files of several instances, e.g. of a study, which are written one after the
+ * other to an output stream, see {@link DicomRetrieveService}.
+ *
+ * <p>The files are read in the order they are stored on disk, approximated by their inode
+ * numbers, and read ahead of the output by a task on a bounded I/O pool: while the response
+ * thread writes a chunk, the next chunks are already read. Reading and writing share a fixed
+ * number of buffers, so the memory of a transfer does not depend on the size of the files and
+ * a slow client holds the reader back instead of letting the chunks pile up. The files are
+ * opened by the reader when it reaches them, through a {@link FileOpener}; an opener can e.g.
+ * generate the file first, so the output starts before the last file is ready.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class FileSequence
+{
+    /**
+     * A read chunk of a file. The last element of the queue has no buffer, it either marks the
+     * end of the files or carries the failure of the reader.
+     */
+    private record Chunk(int file, byte[] buffer, int length, Exception failure)
+    {
+    }
+
+    private static final Chunk END = new Chunk(-1, null, 0, null);
+
+    private static final FileOpener READ = (index, file) -> FileChannel.open(file, StandardOpenOption.READ);
+
+    private final List<Path> files;
+    private final ExecutorService ioExecutor;
+    private final int readAhead;
+    private final int bufferSize;
+    private final FileOpener opener;
+
+    /**
+     * Constructs a sequence of files, which are written in the given order.
+     *
+     * @param files      the files
+     * @param ioExecutor the pool reading the files
+     * @param readAhead  the number of buffers, at most this number of chunks is read ahead
+     * @param bufferSize the size of a buffer in bytes
+     * @throws IllegalArgumentException if readAhead or bufferSize is not positive
+     */
+    public FileSequence(List<Path> files, ExecutorService ioExecutor, int readAhead, int bufferSize)
+    {
+        this(files, ioExecutor, readAhead, bufferSize, READ);
+    }
+
+    private FileSequence(List<Path> files, ExecutorService ioExecutor, int readAhead, int bufferSize,
+                         FileOpener opener)
+    {
+        if (readAhead < 1 || bufferSize < 1)
+        {
+            throw new IllegalArgumentException("Read-ahead and buffer size must be positive");
+        }
+
+        this.files = List.copyOf(files);
+        this.ioExecutor = ioExecutor;
+        this.readAhead = readAhead;
+        this.bufferSize = bufferSize;
+        this.opener = opener;
+    }
+
+    /**
+     * Returns the sequence of the same files, which are opened by another opener.
+     *
+     * @param opener opens the files when the reader reaches them
+     * @return the sequence
+     */
+    public FileSequence withOpener(FileOpener opener)
+    {
+        return new FileSequence(files, ioExecutor, readAhead, bufferSize, opener);
+    }
+
+    /**
+     * Constructs a sequence of files in the order they are stored on disk. The files are stat'ed
+     * once for their inode numbers; if the file system has none, they are ordered by path, which
+     * groups the files of a series directory of the archive.
+     *
+     * @param paths      the paths of the files
+     * @param ioExecutor the pool reading the files
+     * @param readAhead  the number of buffers, at most this number of chunks is read ahead
+     * @param bufferSize the size of a buffer in bytes
+     * @return the sequence
+     * @throws IOException if a file does not exist or cannot be stat'ed
+     */
+    public static FileSequence inDiskOrder(List<String> paths, ExecutorService ioExecutor, int readAhead,
+                                           int bufferSize) throws IOException
+    {
+        List<Path> files = new ArrayList<>(paths.size());
+        for (String path : paths)
+        {
+            files.add(Paths.get(path).toAbsolutePath());
+        }
+        Collections.sort(files);
+
+        Map<Path, Long> inodes = new HashMap<>();
+        boolean unix = true;
+        for (Path file : files)
+        {
+            if (unix)
+            {
+                try
+                {
+                    inodes.put(file, ((Number) Files.getAttribute(file, "unix:ino")).longValue());
+                    continue;
+                }
+                catch (UnsupportedOperationException | IllegalArgumentException e)
+                {
+                    // no unix view, e.g. on Windows; the files stay in path order
+                    unix = false;
+                }
+            }
+            Files.readAttributes(file, BasicFileAttributes.class);
+        }
+
+        if (unix)
+        {
+            files.sort(Comparator.comparingLong(inodes::get));
+        }
+        return new FileSequence(files, ioExecutor, readAhead, bufferSize);
+    }
+
+    /**
+     * @return the files in the order they are written
+     */
+    public List<Path> files()
+    {
+        return files;
+    }
+
+    /**
+     * Writes the files one after the other to the output stream, the stream is not closed. Fails
+     * if a file cannot be read; the files before it have been written then.
+     *
+     * @param out    the output stream
+     * @param header written to the output stream before each file
+     * @throws IOException if a file cannot be read or the stream not written
+     */
+    public void transferTo(OutputStream out, FileHeader header) throws IOException
+    {
+        BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(readAhead);
+        for (int i = 0; i < readAhead; i++)
+        {
+            free.add(new byte[bufferSize]);
+        }
+        // every buffer plus the end of the files
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(readAhead + 1);
+
+        Future<?> reader = ioExecutor.submit(() -> read(free, chunks));
+        try
+        {
+            int current = -1;
+            for (Chunk chunk = chunks.take(); chunk != END; chunk = chunks.take())
+            {
+                if (chunk.failure() != null)
+                {
+                    throw new IOException("Reading " + files.get(chunk.file()) + " failed", chunk.failure());
+                }
+
+                if (chunk.file() != current)
+                {
+                    current = chunk.file();
+                    header.write(current, files.get(current), out);
+                }
+                out.write(chunk.buffer(), 0, chunk.length());
+                free.add(chunk.buffer());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer of files interrupted");
+        }
+        finally
+        {
+            // stops the reader if the client went away
+            reader.cancel(true);
+        }
+    }
+
+    /**
+     * Reads the files into the free buffers until the end of the last file, runs on the I/O pool.
+     * Each file yields at least one chunk, an empty file an empty one.
+     */
+    private void read(BlockingQueue<byte[]> free, BlockingQueue<Chunk> chunks)
+    {
+        int file = 0;
+        try
+        {
+            for (; file < files.size(); file++)
+            {
+                try (FileChannel channel = opener.open(file, files.get(file)))
+                {
+                    boolean full;
+                    do
+                    {
+                        byte[] buffer = free.take();
+                        int length = fill(channel, buffer);
+                        chunks.put(new Chunk(file, buffer, length, null));
+                        full = length == buffer.length;
+                    }
+                    while (full);
+                }
+            }
+            chunks.put(END);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // there is always room, the failing read holds no buffer
+            chunks.add(new Chunk(file, null, 0, e));
+        }
+    }
+
+    /**
+     * Reads from the channel until the buffer is full or the file ends.
+     *
+     * @return the number of bytes read
+     */
+    private static int fill(FileChannel channel, byte[] buffer) throws IOException
+    {
+        ByteBuffer target = ByteBuffer.wrap(buffer);
+        while (target.hasRemaining() && channel.read(target) >= 0)
+        {
+            // read on
+        }
+        return target.position();
+    }
+
+    /**
+     * Writes what precedes a file in the output, e.g. the headers of a part of a multipart body.
+     */
+    @FunctionalInterface
+    public interface FileHeader
+    {
+        /**
+         * @param index the index of the file in the sequence
+         * @param file  the file
+         * @param out   the output stream
+         * @throws IOException if the stream cannot be written
+         */
+        void write(int index, Path file, OutputStream out) throws IOException;
+    }
+
+    /**
+     * Opens the content of a file of the sequence, called by the reader when it reaches the file.
+     */
+    @FunctionalInterface
+    public interface FileOpener
+    {
+        /**
+         * @param index the index of the file in the sequence
+         * @param file  the file
+         * @return the channel the content is read from, closed by the reader
+         * @throws IOException if the content cannot be opened
+         */
+        FileChannel open(int index, Path file) throws IOException;
+    }
+}
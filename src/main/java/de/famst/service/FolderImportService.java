@@ -1,17 +1,22 @@
 package de.famst.service;
 
+import de.famst.data.SqlOperation;
+import de.famst.data.SqlStatementCounter;
 import de.famst.dcm.DcmFile;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,6 +27,11 @@ import java.util.concurrent.atomic.AtomicInteger;
  * <p>This service performs asynchronous imports to avoid blocking the main application thread.
  * Each import operation tracks the number of files processed and provides status information.
  *
+ * <p>Directories are imported by an {@link ImportPipeline}: the tree is enumerated and the files
+ * are parsed in parallel, while the import thread writes the parsed files in batches of one
+ * transaction each. If a batch fails, its files are imported one by one, so a single broken file
+ * only costs its own import.
+ *
  * @author jens
  * @since 2016-10-03
  */
@@ -31,15 +41,38 @@ public class FolderImportService
     private static final Logger LOG = LoggerFactory.getLogger(FolderImportService.class);
 
     private final DicomImportService dicomImportService;
+    private final TransactionTemplate transactionTemplate;
+    private final int scanThreads;
+    private final int parseThreads;
+    private final int queueSize;
+    private final int batchSize;
 
     /**
      * Constructs a new FolderImportService.
      *
      * @param dicomImportService the service responsible for importing DICOM data to the database
+     * @param transactionManager the transaction manager for the batches of an import
+     * @param scanThreads        the number of threads enumerating the directories of an import
+     * @param parseThreads       the number of threads reading the files of an import
+     * @param queueSize          the number of files enumerated or parsed ahead of the database
+     * @param batchSize          the maximum number of files written in one transaction
      */
-    public FolderImportService(DicomImportService dicomImportService)
+    public FolderImportService(DicomImportService dicomImportService,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${mupacs.import.scan-threads:2}") int scanThreads,
+                               @Value("${mupacs.import.parse-threads:4}") int parseThreads,
+                               @Value("${mupacs.import.queue-size:1024}") int queueSize,
+                               @Value("${mupacs.import.batch-size:100}") int batchSize)
     {
         this.dicomImportService = dicomImportService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.scanThreads = scanThreads;
+        this.parseThreads = parseThreads;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+
+        LOG.info("FolderImportService created with [{}] scan threads, [{}] parse threads, batches of [{}]",
+            scanThreads, parseThreads, batchSize);
     }
 
     /**
@@ -90,9 +123,10 @@ public class FolderImportService
             LOG.info("DICOM import completed from [{}]. Processed: {}, Errors: {}",
                 rootPath.toAbsolutePath(), processedCount.get(), errorCount.get());
         }
-        catch (IOException e)
+        catch (InterruptedException e)
         {
-            LOG.error("IOException while accessing path [{}]: {}", rootPath.toAbsolutePath(), e.getMessage(), e);
+            Thread.currentThread().interrupt();
+            LOG.warn("DICOM import from [{}] interrupted after {} files", rootPath.toAbsolutePath(), processedCount.get());
         }
         catch (Exception e)
         {
@@ -141,44 +175,74 @@ public class FolderImportService
      * Recursively imports all DICOM files from a directory.
      */
     private void importDirectory(Path rootPath, FolderImportInformation importInfo,
-                                 AtomicInteger processedCount, AtomicInteger errorCount) throws IOException
+                                 AtomicInteger processedCount, AtomicInteger errorCount) throws InterruptedException
+    {
+        ImportPipeline.Result result = new ImportPipeline(scanThreads, parseThreads, queueSize, batchSize)
+            .run(rootPath, batch -> importBatch(batch, rootPath, importInfo, processedCount, errorCount));
+
+        errorCount.addAndGet(result.unreadable());
+        LOG.debug("Found {} files in [{}], {} non-DICOM files skipped", result.files(), rootPath, result.skipped());
+    }
+
+    /**
+     * Writes a batch of parsed files in one transaction, or one by one if the batch fails.
+     */
+    private void importBatch(List<ImportPipeline.ParsedFile> batch, Path rootPath, FolderImportInformation importInfo,
+                             AtomicInteger processedCount, AtomicInteger errorCount)
     {
-        try (var stream = Files.walk(rootPath))
+        try
         {
-            stream
-                .filter(Files::isRegularFile)
-                .filter(path -> DcmFile.isDCMFile(path.toFile()))
-                .forEach(path ->
+            transactionTemplate.executeWithoutResult(status -> batch.forEach(this::toDatabase));
+        }
+        catch (RuntimeException e)
+        {
+            LOG.warn("Batch of {} files from [{}] failed, importing them one by one: {}",
+                batch.size(), rootPath.getFileName(), e.getMessage());
+
+            for (ImportPipeline.ParsedFile file : batch)
+            {
+                try
+                {
+                    transactionTemplate.executeWithoutResult(status -> toDatabase(file));
+                    imported(file, rootPath, importInfo, processedCount);
+                }
+                catch (RuntimeException fileError)
                 {
-                    try
-                    {
-                        String sopInstanceUID = insertToDatabase(path);
-                        if (sopInstanceUID != null)
-                        {
-                            importInfo.addInfo(sopInstanceUID);
-                            int count = processedCount.incrementAndGet();
-
-                            if (count % 100 == 0)
-                            {
-                                LOG.info("Progress: {} DICOM files imported from [{}]", count, rootPath.getFileName());
-                            }
-                            else
-                            {
-                                LOG.debug("Imported DICOM file: [{}]", path.getFileName());
-                            }
-                        }
-                        else
-                        {
-                            errorCount.incrementAndGet();
-                            LOG.warn("Failed to import DICOM file (no SOP Instance UID): [{}]", path);
-                        }
-                    }
-                    catch (Exception e)
-                    {
-                        errorCount.incrementAndGet();
-                        LOG.error("Error importing DICOM file [{}]: {}", path, e.getMessage());
-                    }
-                });
+                    errorCount.incrementAndGet();
+                    LOG.error("Error importing DICOM file [{}]: {}", file.path(), fileError.getMessage());
+                }
+            }
+            return;
+        }
+
+        for (ImportPipeline.ParsedFile file : batch)
+        {
+            imported(file, rootPath, importInfo, processedCount);
+        }
+    }
+
+    private void toDatabase(ImportPipeline.ParsedFile file)
+    {
+        try (SqlStatementCounter.Scope ignored = SqlStatementCounter.open(SqlOperation.INGEST))
+        {
+            dicomImportService.dicomToDatabase(file.attributes(), file.path());
+        }
+    }
+
+    private static void imported(ImportPipeline.ParsedFile file, Path rootPath, FolderImportInformation importInfo,
+                                 AtomicInteger processedCount)
+    {
+        // the import has validated the SOP Instance UID
+        importInfo.addInfo(file.attributes().getString(Tag.SOPInstanceUID));
+        int count = processedCount.incrementAndGet();
+
+        if (count % 100 == 0)
+        {
+            LOG.info("Progress: {} DICOM files imported from [{}]", count, rootPath.getFileName());
+        }
+        else
+        {
+            LOG.debug("Imported DICOM file: [{}]", file.path().getFileName());
         }
     }
 
@@ -210,7 +274,10 @@ public class FolderImportService
                 return null;
             }
 
-            dicomImportService.dicomToDatabase(dcmAttributes, path);
+            try (SqlStatementCounter.Scope ignored = SqlStatementCounter.open(SqlOperation.INGEST))
+            {
+                dicomImportService.dicomToDatabase(dcmAttributes, path);
+            }
 
             String sopInstanceUID = dcmAttributes.getString(Tag.SOPInstanceUID);
 
@@ -0,0 +1,432 @@
+package de.famst.service;
+
+import de.famst.dcm.DcmFile;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Imports the Part 10 files of a directory tree in three stages connected by bounded queues:
+ * <ol>
+ *   <li>the tree is enumerated by a fork/join pool, a task per directory, so idle threads steal
+ *   the subtrees of busy ones;</li>
+ *   <li>parse workers sniff the files for the DICM prefix and read their headers;</li>
+ *   <li>the calling thread hands the parsed files to a {@link BatchWriter} in batches, sorted by
+ *   study and series, so the entities of a series are looked up once per batch.</li>
+ * </ol>
+ *
+ * <p>The queues hold a fixed number of files, so enumeration and parsing wait for the writer
+ * instead of piling up headers. A batch takes what the parsers have produced up to its size: a
+ * slow writer gets full batches, a fast one does not wait for them. A pipeline runs one import
+ * and its threads end with it.
+ *
+ * <p>The stages end their output in {@code finally} blocks, so a stage killed by an
+ * {@link Error} does not leave the next one waiting; the import then fails with the error. The
+ * writer also checks that parse workers are alive while it waits for files.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class ImportPipeline
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ImportPipeline.class);
+
+    /**
+     * Ends the input of a parse worker.
+     */
+    private static final Path END = Paths.get("");
+
+    /**
+     * Ends the output of a parse worker.
+     */
+    private static final ParsedFile DONE = new ParsedFile(END, new Attributes());
+
+    /**
+     * How long the writer waits for a parsed file before it checks the parse workers.
+     */
+    private static final long LIVENESS_CHECK_MS = 1000;
+
+    private static final Comparator<ParsedFile> BY_SERIES = Comparator
+        .comparing((ParsedFile file) -> Objects.toString(file.attributes().getString(Tag.StudyInstanceUID), ""))
+        .thenComparing(file -> Objects.toString(file.attributes().getString(Tag.SeriesInstanceUID), ""))
+        .thenComparing(ParsedFile::path);
+
+    /**
+     * A file whose header was read.
+     *
+     * @param path       the file
+     * @param attributes the data set without bulk data
+     */
+    public record ParsedFile(Path path, Attributes attributes)
+    {
+    }
+
+    /**
+     * The outcome of the enumeration and parse stages.
+     *
+     * @param files      the number of regular files found
+     * @param skipped    the number of files without DICM prefix
+     * @param unreadable the number of DICOM files and directories which could not be read
+     * @param parsed     the number of files handed to the writer
+     */
+    public record Result(int files, int skipped, int unreadable, int parsed)
+    {
+    }
+
+    /**
+     * Writes the parsed files to the database.
+     */
+    @FunctionalInterface
+    public interface BatchWriter
+    {
+        /**
+         * @param batch the parsed files, sorted by Study and Series Instance UID
+         */
+        void write(List<ParsedFile> batch);
+    }
+
+    private final int scanThreads;
+    private final int parseThreads;
+    private final int batchSize;
+    private final Function<File, Attributes> reader;
+
+    private final AtomicInteger files = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger unreadable = new AtomicInteger();
+
+    private final BlockingQueue<Path> paths;
+    private final BlockingQueue<ParsedFile> parsed;
+
+    /**
+     * Constructs a new ImportPipeline.
+     *
+     * @param scanThreads  the number of threads enumerating directories
+     * @param parseThreads the number of threads reading headers
+     * @param queueSize    the number of files each queue holds
+     * @param batchSize    the maximum number of files handed to the writer at once
+     */
+    public ImportPipeline(int scanThreads, int parseThreads, int queueSize, int batchSize)
+    {
+        this(scanThreads, parseThreads, queueSize, batchSize, DcmFile::readContent);
+    }
+
+    /**
+     * Constructs a new ImportPipeline reading the headers with the given reader.
+     */
+    ImportPipeline(int scanThreads, int parseThreads, int queueSize, int batchSize, Function<File, Attributes> reader)
+    {
+        this.scanThreads = scanThreads;
+        this.parseThreads = parseThreads;
+        this.batchSize = batchSize;
+        this.reader = reader;
+        this.paths = new ArrayBlockingQueue<>(queueSize);
+        this.parsed = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /**
+     * Runs the import of a directory tree; the writer runs on the calling thread. A pipeline
+     * runs once.
+     *
+     * @param root   the root directory
+     * @param writer writes the parsed files
+     * @return the outcome of enumeration and parsing
+     * @throws InterruptedException  if the calling thread was interrupted; the import is stopped
+     * @throws IllegalStateException if the enumeration or a parse worker failed; the files already
+     *                               parsed are written
+     * @throws RuntimeException      thrown by the writer; the import is stopped
+     */
+    public Result run(Path root, BatchWriter writer) throws InterruptedException
+    {
+        AtomicInteger scanners = new AtomicInteger();
+        ForkJoinPool scanPool = new ForkJoinPool(scanThreads, pool ->
+        {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("ImportScanner-" + scanners.incrementAndGet());
+            return thread;
+        }, null, false);
+
+        AtomicInteger parsers = new AtomicInteger();
+        ExecutorService parsePool = Executors.newFixedThreadPool(parseThreads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "ImportParser-" + parsers.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try
+        {
+            List<Future<?>> workers = new ArrayList<>(parseThreads);
+            for (int i = 0; i < parseThreads; i++)
+            {
+                workers.add(parsePool.submit(this::parse));
+            }
+            Future<?> scan = scanPool.submit(() ->
+            {
+                try
+                {
+                    new ScanTask(root).invoke();
+                }
+                catch (RuntimeException e)
+                {
+                    unreadable.incrementAndGet();
+                    LOG.error("Error enumerating [{}]: {}", root, e.getMessage(), e);
+                }
+                finally
+                {
+                    endInput();
+                }
+            });
+
+            int written = write(writer, workers);
+
+            // all parse workers queued the end of their output, a failed one is done as well; the
+            // enumeration ends once every worker took the end of its input
+            for (Future<?> worker : workers)
+            {
+                checkCompleted(worker, "parse worker");
+            }
+            checkCompleted(scan, "enumeration");
+            return new Result(files.get(), skipped.get(), unreadable.get(), written);
+        }
+        finally
+        {
+            scanPool.shutdownNow();
+            parsePool.shutdownNow();
+        }
+    }
+
+    /**
+     * Hands the parsed files to the writer until all parse workers are done.
+     */
+    private int write(BatchWriter writer, List<Future<?>> workers) throws InterruptedException
+    {
+        int running = parseThreads;
+        int written = 0;
+        List<ParsedFile> drained = new ArrayList<>(batchSize);
+
+        while (running > 0)
+        {
+            ParsedFile next = parsed.poll(LIVENESS_CHECK_MS, TimeUnit.MILLISECONDS);
+            if (next == null)
+            {
+                // a worker ends its output before it ends, so an empty queue after all ended is final
+                if (workers.stream().allMatch(Future::isDone) && parsed.isEmpty())
+                {
+                    throw new IllegalStateException(running + " parse worker(s) ended without finishing their output");
+                }
+                continue;
+            }
+            drained.add(next);
+            parsed.drainTo(drained, batchSize - 1);
+
+            List<ParsedFile> batch = new ArrayList<>(drained.size());
+            for (ParsedFile file : drained)
+            {
+                if (file == DONE)
+                {
+                    running--;
+                }
+                else
+                {
+                    batch.add(file);
+                }
+            }
+            drained.clear();
+
+            if (!batch.isEmpty())
+            {
+                batch.sort(BY_SERIES);
+                writer.write(batch);
+                written += batch.size();
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Reads the headers of the enumerated files until the end of the input.
+     */
+    private void parse()
+    {
+        try
+        {
+            for (Path path = paths.take(); path != END; path = paths.take())
+            {
+                try
+                {
+                    if (!DcmFile.isDCMFile(path.toFile()))
+                    {
+                        skipped.incrementAndGet();
+                        LOG.debug("Skipping non-DICOM file: [{}]", path);
+                        continue;
+                    }
+
+                    Attributes attributes = reader.apply(path.toFile());
+                    if (attributes == null)
+                    {
+                        unreadable.incrementAndGet();
+                        continue;
+                    }
+                    parsed.put(new ParsedFile(path, attributes));
+                }
+                catch (RuntimeException e)
+                {
+                    unreadable.incrementAndGet();
+                    LOG.error("Error reading DICOM file [{}]: {}", path, e.getMessage());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // the import was stopped
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            endOutput();
+        }
+    }
+
+    /**
+     * Queues the end of the input of every parse worker, they end when they take it.
+     */
+    private void endInput()
+    {
+        try
+        {
+            for (int i = 0; i < parseThreads; i++)
+            {
+                paths.put(END);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            // the import was stopped
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Queues the end of the output of a parse worker.
+     */
+    private void endOutput()
+    {
+        try
+        {
+            parsed.put(DONE);
+        }
+        catch (InterruptedException e)
+        {
+            // the import was stopped
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for a stage which ended its output and rethrows what it failed with.
+     */
+    private static void checkCompleted(Future<?> stage, String name) throws InterruptedException
+    {
+        try
+        {
+            stage.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("Import " + name + " failed: " + e.getCause(), e.getCause());
+        }
+    }
+
+    /**
+     * Enumerates a directory: forks its subdirectories, then queues its files.
+     */
+    private final class ScanTask extends RecursiveAction
+    {
+        private final Path directory;
+
+        private ScanTask(Path directory)
+        {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute()
+        {
+            List<ScanTask> subtrees = new ArrayList<>();
+            List<Path> regularFiles = new ArrayList<>();
+
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+            {
+                for (Path entry : entries)
+                {
+                    // like Files.walk, links are not followed
+                    BasicFileAttributes attributes =
+                        Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    if (attributes.isDirectory())
+                    {
+                        subtrees.add(new ScanTask(entry));
+                    }
+                    else if (attributes.isRegularFile())
+                    {
+                        regularFiles.add(entry);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                unreadable.incrementAndGet();
+                LOG.warn("Cannot list directory [{}]: {}", directory, e.getMessage());
+            }
+
+            for (ScanTask subtree : subtrees)
+            {
+                subtree.fork();
+            }
+
+            try
+            {
+                for (Path file : regularFiles)
+                {
+                    paths.put(file);
+                    files.incrementAndGet();
+                }
+            }
+            catch (InterruptedException e)
+            {
+                // the import was stopped
+                Thread.currentThread().interrupt();
+            }
+
+            for (ScanTask subtree : subtrees)
+            {
+                subtree.join();
+            }
+        }
+    }
+}
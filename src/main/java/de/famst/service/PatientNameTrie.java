@@ -0,0 +1,339 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.PatientEty;
+import de.famst.data.PatientRepository;
+import de.famst.data.PersonNames;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.rest.core.event.AfterCreateEvent;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.data.rest.core.event.RepositoryEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * In-memory prefix trie of the patient names of the archive, answering the typeahead of the
+ * patient list without a database query.
+ *
+ * <p>Every name is reachable under its normalized family name, its normalized given name and
+ * both joined by {@code ^} (see {@link PersonNames}), so {@code mül}, {@code jurg} and
+ * {@code muller^j} all suggest {@code Müller^Jürgen}.
+ *
+ * <p>The trie is built from the database when the application is ready and extended with the
+ * name of every patient created by an import. Names are not counted per patient, so a patient
+ * created, renamed or deleted through the REST API rebuilds the trie. Names imported while it is
+ * rebuilt are added to the new trie as well. Lookups share a read lock, updates take the
+ * write lock.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class PatientNameTrie
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PatientNameTrie.class);
+
+    private final DicomReadRepository dicomReadRepository;
+    private final PatientRepository patientRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Node root = new Node();
+    private int size;
+
+    // names added while the trie is rebuilt, null if no rebuild runs, guarded by "lock"
+    private List<String> pendingNames;
+
+    // held by the running rebuild
+    private final Object rebuildMonitor = new Object();
+
+    /**
+     * Creates the trie, it is empty until {@link #rebuild()} runs.
+     *
+     * @param dicomReadRepository the read model reading the names of all patients
+     * @param patientRepository   the repository reading the names of imported patients
+     */
+    public PatientNameTrie(DicomReadRepository dicomReadRepository, PatientRepository patientRepository)
+    {
+        this.dicomReadRepository = dicomReadRepository;
+        this.patientRepository = patientRepository;
+    }
+
+    /**
+     * Builds the trie from the names of all patients of the database and replaces the current one.
+     * Names added while it is built are added to the new trie as well.
+     *
+     * @return the number of names in the trie
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public int rebuild()
+    {
+        synchronized (rebuildMonitor)
+        {
+            long startTime = System.nanoTime();
+
+            lock.writeLock().lock();
+            try
+            {
+                pendingNames = new ArrayList<>();
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+
+            Node newRoot = null;
+            int newSize = 0;
+            try
+            {
+                Node built = new Node();
+                try (Stream<String> names = dicomReadRepository.streamPatientNames())
+                {
+                    Iterator<String> iterator = names.iterator();
+                    while (iterator.hasNext())
+                    {
+                        if (insert(built, iterator.next()))
+                        {
+                            newSize++;
+                        }
+                    }
+                }
+                newRoot = built;
+            }
+            finally
+            {
+                lock.writeLock().lock();
+                try
+                {
+                    if (newRoot != null)
+                    {
+                        root = newRoot;
+                        size = newSize;
+                    }
+
+                    // committed while the names were read, they might not have been read
+                    for (String patientName : pendingNames)
+                    {
+                        if (insert(root, patientName))
+                        {
+                            size++;
+                        }
+                    }
+                    pendingNames = null;
+                    newSize = size;
+                }
+                finally
+                {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            LOG.info("built patient name trie with {} names in {} ms", newSize, (System.nanoTime() - startTime) / 1_000_000);
+            return newSize;
+        }
+    }
+
+    /**
+     * Adds the name of a patient created by an import.
+     *
+     * @param event the import event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDicomImported(DicomImportedEvent event)
+    {
+        if (!event.created(QueryRetrieveLevel2.PATIENT))
+        {
+            return;
+        }
+
+        PatientEty patient = patientRepository.findByPatientId(event.patientId());
+        if (patient != null)
+        {
+            add(patient.getPatientName());
+        }
+    }
+
+    /**
+     * Rebuilds the trie when a patient was created, modified or deleted through the REST API,
+     * its name may be shared by other patients.
+     *
+     * @param event the Spring Data REST repository event
+     */
+    @EventListener
+    @Transactional(readOnly = true)
+    public void onRepositoryEvent(RepositoryEvent event)
+    {
+        if (event.getSource() instanceof PatientEty && (event instanceof AfterCreateEvent
+            || event instanceof AfterSaveEvent || event instanceof AfterDeleteEvent))
+        {
+            LOG.info("patient modified via REST, rebuilding patient name trie");
+            rebuild();
+        }
+    }
+
+    /**
+     * Adds a name to the trie.
+     *
+     * @param patientName the patient name, null is ignored
+     */
+    public void add(String patientName)
+    {
+        lock.writeLock().lock();
+        try
+        {
+            if (pendingNames != null)
+            {
+                pendingNames.add(patientName);
+            }
+            if (insert(root, patientName))
+            {
+                size++;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the names whose family name, given name or family and given name joined by
+     * {@code ^} start with the prefix, regardless of case and diacritics.
+     *
+     * @param prefix the typed prefix
+     * @param limit  the maximum number of names to return
+     * @return the matching names, ordered by their normalized name components
+     */
+    public List<String> suggest(String prefix, int limit)
+    {
+        String key = PersonNames.normalize(prefix);
+        if (key == null || key.isEmpty() || limit < 1)
+        {
+            return List.of();
+        }
+
+        lock.readLock().lock();
+        try
+        {
+            Node node = root;
+            for (int i = 0; i < key.length() && node != null; i++)
+            {
+                node = node.children.get(key.charAt(i));
+            }
+            if (node == null)
+            {
+                return List.of();
+            }
+
+            Set<String> names = new LinkedHashSet<>();
+            Deque<Node> pending = new ArrayDeque<>();
+            pending.push(node);
+            while (!pending.isEmpty() && names.size() < limit)
+            {
+                Node current = pending.pop();
+                for (String name : current.names)
+                {
+                    names.add(name);
+                    if (names.size() == limit)
+                    {
+                        break;
+                    }
+                }
+
+                // push in reverse, so the children are visited in order
+                List<Node> children = new ArrayList<>(current.children.values());
+                for (int i = children.size() - 1; i >= 0; i--)
+                {
+                    pending.push(children.get(i));
+                }
+            }
+            return List.copyOf(names);
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of distinct names in the trie
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return size;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a name under its family name, given name and both joined.
+     *
+     * @return true if the name was not in the trie yet
+     */
+    private static boolean insert(Node root, String patientName)
+    {
+        String family = PersonNames.family(patientName);
+        String given = PersonNames.given(patientName);
+        if (family == null && given == null)
+        {
+            return false;
+        }
+
+        boolean added = false;
+        if (family != null)
+        {
+            added = node(root, family).names.add(patientName);
+        }
+        if (given != null)
+        {
+            added |= node(root, given).names.add(patientName);
+        }
+        if (family != null && given != null)
+        {
+            added |= node(root, family + PersonNames.COMPONENT_SEPARATOR + given).names.add(patientName);
+        }
+        return added;
+    }
+
+    private static Node node(Node root, String key)
+    {
+        Node node = root;
+        for (int i = 0; i < key.length(); i++)
+        {
+            node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+        }
+        return node;
+    }
+
+    private static final class Node
+    {
+        private final Map<Character, Node> children = new TreeMap<>();
+        private final Set<String> names = new TreeSet<>();
+    }
+}
@@ -0,0 +1,284 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceHeaderEty;
+import de.famst.data.InstanceHeaderRepository;
+import de.famst.data.InstanceRecord;
+import jakarta.annotation.PreDestroy;
+import jakarta.json.Json;
+import jakarta.json.stream.JsonGenerator;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.BulkData;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.json.JSONWriter;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Maintains the WADO-RS metadata document of every series.
+ *
+ * <p>The document is the DICOM JSON array of the headers of all instances of the series
+ * (PS3.18 Section 10.4.1.1.2). Pixel Data is not included but referenced by a BulkDataURI
+ * pointing to the bulk data endpoint of the instance; other bulk data attributes are omitted.
+ * The document is stored gzip compressed next to the instances of the series, so it can be
+ * sent to clients as it is. The headers are taken from the database, see {@link InstanceHeaderEty};
+ * only instances imported without a stored header are read from the archive.
+ *
+ * <p>Documents are built in the background shortly after an import has added instances to a
+ * series, so a burst of imports into the same series results in a single build. Each document
+ * remembers the modification stamp of the series it was built from; a document whose series
+ * has been modified since is rebuilt on request.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class SeriesMetadataService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SeriesMetadataService.class);
+
+    static final String FILE_NAME = "metadata.json.gz";
+
+    private final DicomReadRepository dicomReadRepository;
+    private final InstanceHeaderRepository instanceHeaderRepository;
+    private final Path archive;
+    private final long buildDelay;
+
+    private final Map<String, Built> built = new ConcurrentHashMap<>();
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "SeriesMetadata");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a new SeriesMetadataService.
+     *
+     * @param dicomReadRepository the read model used to find the instances of a series
+     * @param instanceHeaderRepository the stored headers of the instances
+     * @param archive             the archive directory holding the series directories
+     * @param buildDelay          the delay in milliseconds between an import and the rebuild of its series
+     */
+    public SeriesMetadataService(DicomReadRepository dicomReadRepository,
+                                 InstanceHeaderRepository instanceHeaderRepository,
+                                 @Value("${mupacs.archive}") String archive,
+                                 @Value("${mupacs.metadata.build-delay:2000}") long buildDelay)
+    {
+        this.dicomReadRepository = dicomReadRepository;
+        this.instanceHeaderRepository = instanceHeaderRepository;
+        this.archive = Paths.get(archive);
+        this.buildDelay = buildDelay;
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the modification stamp of a series, which identifies the version of its metadata.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @return the stamp, null if the series does not exist in the study
+     */
+    public Instant getLastModified(String studyInstanceUID, String seriesInstanceUID)
+    {
+        return dicomReadRepository.findSeriesLastModified(studyInstanceUID, seriesInstanceUID);
+    }
+
+    /**
+     * Returns the gzip compressed metadata document of a series, building it if there is none
+     * for the given stamp yet.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @param lastModified      the modification stamp of the series, see {@link #getLastModified}
+     * @return the path of the compressed document
+     * @throws IOException if the document cannot be written
+     */
+    public Path getDocument(String studyInstanceUID, String seriesInstanceUID, Instant lastModified)
+            throws IOException
+    {
+        Built current = built.get(seriesInstanceUID);
+        if (current != null && !current.lastModified().isBefore(lastModified) && Files.exists(current.document()))
+        {
+            return current.document();
+        }
+
+        return build(studyInstanceUID, seriesInstanceUID, lastModified);
+    }
+
+    /**
+     * Schedules the rebuild of the metadata of a series to which an import added an instance.
+     *
+     * @param event the import event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDicomImported(DicomImportedEvent event)
+    {
+        if (!event.created(QueryRetrieveLevel2.IMAGE) || !scheduled.add(event.seriesInstanceUID()))
+        {
+            return;
+        }
+
+        executor.schedule(() -> rebuild(event.studyInstanceUID(), event.seriesInstanceUID()),
+                buildDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void rebuild(String studyInstanceUID, String seriesInstanceUID)
+    {
+        // imports from now on schedule another rebuild
+        scheduled.remove(seriesInstanceUID);
+
+        try
+        {
+            Instant lastModified = getLastModified(studyInstanceUID, seriesInstanceUID);
+            if (lastModified != null)
+            {
+                getDocument(studyInstanceUID, seriesInstanceUID, lastModified);
+            }
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOG.warn("building metadata of series [{}] failed: {}", seriesInstanceUID, e.getMessage());
+        }
+    }
+
+    private synchronized Path build(String studyInstanceUID, String seriesInstanceUID, Instant lastModified)
+            throws IOException
+    {
+        // another thread may have built it while this one was waiting
+        Built current = built.get(seriesInstanceUID);
+        if (current != null && !current.lastModified().isBefore(lastModified) && Files.exists(current.document()))
+        {
+            return current.document();
+        }
+
+        long startTime = System.nanoTime();
+
+        Attributes keys = new Attributes();
+        keys.setString(Tag.SeriesInstanceUID, VR.UI, seriesInstanceUID);
+        List<InstanceRecord> instances = dicomReadRepository.findInstances(keys);
+
+        // the compressed headers of the whole series, decoded one at a time while writing
+        Map<Long, InstanceHeaderEty> stored = new HashMap<>();
+        for (InstanceHeaderEty header : instanceHeaderRepository.findBySeriesInstanceUID(seriesInstanceUID))
+        {
+            stored.put(header.getId(), header);
+        }
+
+        Path document = archive.resolve(studyInstanceUID).resolve(seriesInstanceUID).resolve(FILE_NAME);
+        Path temp = document.resolveSibling(FILE_NAME + ".tmp");
+        Files.createDirectories(document.getParent());
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp));
+             JsonGenerator generator = Json.createGenerator(out))
+        {
+            JSONWriter writer = new JSONWriter(generator);
+
+            generator.writeStartArray();
+            for (InstanceRecord instance : instances)
+            {
+                InstanceHeaderEty storedHeader = stored.get(instance.id());
+                Attributes header = storedHeader != null
+                        ? storedHeader(studyInstanceUID, instance, storedHeader)
+                        : readHeader(studyInstanceUID, instance);
+                if (header != null)
+                {
+                    writer.write(header);
+                }
+            }
+            generator.writeEnd();
+        }
+
+        Files.move(temp, document, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        built.put(seriesInstanceUID, new Built(lastModified, document));
+
+        LOG.info("built metadata of series [{}] with {} instance(s), {} read from the archive, in {} ms",
+                seriesInstanceUID, instances.size(), instances.size() - stored.size(),
+                (System.nanoTime() - startTime) / 1_000_000);
+
+        return document;
+    }
+
+    /**
+     * Decodes the stored header of an instance. An image gets a BulkDataURI for its Pixel Data.
+     */
+    private static Attributes storedHeader(String studyInstanceUID, InstanceRecord instance, InstanceHeaderEty stored)
+    {
+        Attributes header = stored.getHeader();
+        if (header.contains(Tag.Rows))
+        {
+            VR vr = header.getInt(Tag.BitsAllocated, 8) > 8 ? VR.OW : VR.OB;
+            header.setValue(Tag.PixelData, vr, new BulkData(null, bulkDataURI(studyInstanceUID, instance), false));
+        }
+        return header;
+    }
+
+    /**
+     * Reads the data set of an instance up to its Pixel Data, which is replaced by a BulkDataURI.
+     */
+    private static Attributes readHeader(String studyInstanceUID, InstanceRecord instance)
+    {
+        try (DicomInputStream dis = new DicomInputStream(new File(instance.path())))
+        {
+            dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.NO);
+            Attributes header = dis.readDatasetUntilPixelData();
+
+            if (dis.tag() == Tag.PixelData)
+            {
+                header.setValue(Tag.PixelData, dis.vr(),
+                        new BulkData(null, bulkDataURI(studyInstanceUID, instance), dis.bigEndian()));
+            }
+            return header;
+        }
+        catch (IOException e)
+        {
+            LOG.warn("skipping unreadable instance [{}] in metadata: {}", instance.instanceUID(), e.getMessage());
+            return null;
+        }
+    }
+
+    static String bulkDataURI(String studyInstanceUID, InstanceRecord instance)
+    {
+        return "/wado-rs/studies/" + studyInstanceUID
+                + "/series/" + instance.seriesInstanceUID()
+                + "/instances/" + instance.instanceUID()
+                + "/bulkdata";
+    }
+
+    /**
+     * A document and the modification stamp of the series it was built from.
+     */
+    private record Built(Instant lastModified, Path document)
+    {
+    }
+}
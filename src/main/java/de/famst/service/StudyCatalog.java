@@ -0,0 +1,857 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceEty;
+import de.famst.data.PatientEty;
+import de.famst.data.QueryOptions;
+import de.famst.data.SeriesEty;
+import de.famst.data.StudyEty;
+import de.famst.data.StudyRecord;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.DateRange;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.rest.core.event.AfterCreateEvent;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.data.rest.core.event.AfterLinkDeleteEvent;
+import org.springframework.data.rest.core.event.AfterLinkSaveEvent;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.data.rest.core.event.RepositoryEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Optional in-memory columnar catalog of all studies, answering STUDY level queries without a
+ * database query ({@code mupacs.query.catalog.enabled}).
+ *
+ * <p>Every attribute of {@link StudyRecord} is held in its own column: dates, times and ids in
+ * primitive arrays, strings dictionary encoded as {@code int} codes into the distinct values
+ * of the column. The rows are in database id order, the order of the database results, so a
+ * window of the matches is the same window the database returns. Dates are matched by a scan of
+ * their column, the other keys once per distinct value of their column and then applied to the
+ * candidate rows, which are kept as a bitmap.
+ *
+ * <p>The catalog is built from the database when the application is ready and updated with
+ * every study created or extended by an import after its transaction committed. Changes made
+ * through the REST API re-read the studies of the patient concerned. Queries with
+ * keys the catalog cannot match like the database does, e.g. Patient Comments or fuzzy matched
+ * names and descriptions, are answered by {@link DicomReadRepository}. Lookups share a read lock,
+ * updates take the write lock.
+ *
+ * <p>The catalog reacts to imports and REST changes before other listeners, see
+ * {@link #LISTENER_ORDER}, so that a cache of query results invalidated by the same event
+ * cannot load the answer of the catalog before it was updated.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class StudyCatalog implements MeterBinder
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StudyCatalog.class);
+
+    /**
+     * The order of the listeners of the catalog, listeners depending on its answers are ordered
+     * after it.
+     */
+    public static final int LISTENER_ORDER = Ordered.HIGHEST_PRECEDENCE;
+
+    /**
+     * The keys matched differently with fuzzy semantic matching.
+     */
+    private static final int[] FUZZY_KEYS = {Tag.PatientName, Tag.StudyDescription, Tag.ReferringPhysicianName};
+
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final long NO_TIME = -1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final DicomReadRepository dicomReadRepository;
+    private final boolean enabled;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Columns columns;
+    private Set<String> pendingStudies;
+    private Set<Long> pendingPatients;
+
+    private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * Creates the catalog, it answers no queries until {@link #rebuild()} ran.
+     *
+     * @param dicomReadRepository the read model reading the studies
+     * @param enabled             whether the catalog is built and answers queries
+     */
+    public StudyCatalog(DicomReadRepository dicomReadRepository,
+                        @Value("${mupacs.query.catalog.enabled:false}") boolean enabled)
+    {
+        this.dicomReadRepository = dicomReadRepository;
+        this.enabled = enabled;
+
+        LOG.info("StudyCatalog created: enabled [{}]", enabled);
+    }
+
+    /**
+     * Builds the catalog from all studies of the database and replaces the current one.
+     *
+     * @return the number of studies in the catalog
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public int rebuild()
+    {
+        if (!enabled)
+        {
+            return 0;
+        }
+
+        long startTime = System.nanoTime();
+
+        lock.writeLock().lock();
+        try
+        {
+            pendingStudies = new LinkedHashSet<>();
+            pendingPatients = new LinkedHashSet<>();
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        List<StudyRecord> studies = List.of();
+        Set<String> pending;
+        Set<Long> pendingPatientIds;
+        try
+        {
+            // ordered by database id
+            try (Stream<StudyRecord> records = dicomReadRepository.streamStudies(new Attributes(), QueryOptions.ALL))
+            {
+                studies = records.toList();
+            }
+
+            Columns newColumns = new Columns(Math.max(INITIAL_CAPACITY, studies.size()));
+            for (StudyRecord study : studies)
+            {
+                newColumns.insert(newColumns.size, study);
+            }
+
+            lock.writeLock().lock();
+            try
+            {
+                columns = newColumns;
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+        finally
+        {
+            lock.writeLock().lock();
+            try
+            {
+                pending = pendingStudies;
+                pendingPatientIds = pendingPatients;
+                pendingStudies = null;
+                pendingPatients = null;
+            }
+            finally
+            {
+                lock.writeLock().unlock();
+            }
+        }
+
+        // studies imported while the database was read may be missing or outdated
+        pending.forEach(this::refresh);
+        pendingPatientIds.forEach(this::refreshPatient);
+
+        LOG.info("built study catalog with {} studies in {} ms", studies.size(), (System.nanoTime() - startTime) / 1_000_000);
+        return studies.size();
+    }
+
+    /**
+     * Updates the study of an import that created a study or a series, the latter may add a
+     * modality to the study.
+     *
+     * @param event the import event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    @Order(LISTENER_ORDER)
+    public void onDicomImported(DicomImportedEvent event)
+    {
+        if (!enabled || !(event.created(QueryRetrieveLevel2.STUDY) || event.created(QueryRetrieveLevel2.SERIES)))
+        {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try
+        {
+            if (pendingStudies != null)
+            {
+                pendingStudies.add(event.studyInstanceUID());
+                return;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        refresh(event.studyInstanceUID());
+    }
+
+    /**
+     * Re-reads the studies of the patient of a DICOM entity created, modified or deleted through
+     * the REST API. Instances carry no attribute of the catalog.
+     *
+     * @param event the Spring Data REST repository event
+     */
+    @EventListener
+    @Order(LISTENER_ORDER)
+    public void onRepositoryEvent(RepositoryEvent event)
+    {
+        if (!enabled || !(event instanceof AfterCreateEvent || event instanceof AfterSaveEvent
+            || event instanceof AfterDeleteEvent || event instanceof AfterLinkSaveEvent
+            || event instanceof AfterLinkDeleteEvent))
+        {
+            return;
+        }
+
+        Object source = event.getSource();
+        Long patientDbId;
+        if (source instanceof PatientEty patient)
+        {
+            patientDbId = patient.getId();
+        }
+        else if (source instanceof StudyEty study)
+        {
+            patientDbId = study.getPatient() != null ? study.getPatient().getId() : null;
+        }
+        else if (source instanceof SeriesEty series)
+        {
+            // the study of a deleted series cannot be loaded anymore, its row knows the patient
+            patientDbId = series.getStudy() != null ? patientOfStudy(series.getStudy().getId()) : null;
+        }
+        else
+        {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try
+        {
+            if (pendingPatients != null && patientDbId != null)
+            {
+                pendingPatients.add(patientDbId);
+                return;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        if (patientDbId != null)
+        {
+            LOG.info("DICOM entity modified via REST, refreshing studies of patient {} in catalog", patientDbId);
+            refreshPatient(patientDbId);
+        }
+    }
+
+    /**
+     * Checks whether the catalog is built and can match all keys of a STUDY level query.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return true if {@link #findStudies} answers the query
+     */
+    public boolean canAnswer(Attributes keys, QueryOptions options)
+    {
+        lock.readLock().lock();
+        try
+        {
+            if (columns == null)
+            {
+                return false;
+            }
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+
+        if (restricts(keys, Tag.PatientComments))
+        {
+            return false;
+        }
+        if (options.fuzzyMatching())
+        {
+            for (int tag : FUZZY_KEYS)
+            {
+                if (restricts(keys, tag))
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the window of the studies matching the given keys, see {@link #canAnswer}.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return the matching studies ordered by database id
+     */
+    public List<StudyRecord> findStudies(Attributes keys, QueryOptions options)
+    {
+        lock.readLock().lock();
+        try
+        {
+            BitSet matches = match(keys);
+
+            List<StudyRecord> records = new ArrayList<>();
+            int skip = options.offset();
+            for (int row = matches.nextSetBit(0); row >= 0 && records.size() < options.limit(); row = matches.nextSetBit(row + 1))
+            {
+                if (skip > 0)
+                {
+                    skip--;
+                    continue;
+                }
+                records.add(columns.get(row));
+            }
+
+            queries.incrementAndGet();
+            LOG.info("found [{}] study record(s) matching query criteria in catalog", records.size());
+            return records;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checks whether more studies match the given keys than fit into the window of the options.
+     *
+     * @param keys    the DICOM attributes containing search criteria
+     * @param options the window and matching options
+     * @return true if there is a match after the window
+     */
+    public boolean hasMoreStudies(Attributes keys, QueryOptions options)
+    {
+        if (options.limit() == QueryOptions.UNLIMITED)
+        {
+            return false;
+        }
+
+        lock.readLock().lock();
+        try
+        {
+            return match(keys).cardinality() > (long) options.offset() + options.limit();
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of studies in the catalog
+     */
+    public int size()
+    {
+        lock.readLock().lock();
+        try
+        {
+            return columns != null ? columns.size : 0;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry)
+    {
+        Gauge.builder("mupacs.query.catalog.studies", this, StudyCatalog::size)
+            .description("Studies held in the in-memory study catalog")
+            .register(registry);
+        FunctionCounter.builder("mupacs.query.catalog.queries", queries, AtomicLong::get)
+            .description("STUDY level queries answered by the in-memory study catalog")
+            .register(registry);
+    }
+
+    /**
+     * Reads a study from the database and replaces its row, or inserts it at its id.
+     */
+    private void refresh(String studyInstanceUID)
+    {
+        Attributes keys = new Attributes(1);
+        keys.setString(Tag.StudyInstanceUID, VR.UI, studyInstanceUID);
+        List<StudyRecord> studies = dicomReadRepository.findStudies(keys);
+
+        lock.writeLock().lock();
+        try
+        {
+            if (columns == null)
+            {
+                return;
+            }
+
+            for (StudyRecord study : studies)
+            {
+                int row = columns.rowOf(study.id());
+                if (row >= 0)
+                {
+                    columns.remove(row);
+                }
+                columns.insert(columns.insertionRow(study.id()), study);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the studies of a patient from the database and replaces all rows of the patient.
+     */
+    private void refreshPatient(long patientDbId)
+    {
+        List<StudyRecord> studies = dicomReadRepository.findStudiesOfPatients(List.of(patientDbId));
+
+        lock.writeLock().lock();
+        try
+        {
+            if (columns == null)
+            {
+                return;
+            }
+
+            for (int row = columns.size - 1; row >= 0; row--)
+            {
+                if (columns.patientDbIds[row] == patientDbId)
+                {
+                    columns.remove(row);
+                }
+            }
+            for (StudyRecord study : studies)
+            {
+                columns.insert(columns.insertionRow(study.id()), study);
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the database id of the patient of a study in the catalog, null if it is not in it
+     */
+    private Long patientOfStudy(long studyId)
+    {
+        lock.readLock().lock();
+        try
+        {
+            int row = columns != null ? columns.rowOf(studyId) : -1;
+            return row >= 0 ? columns.patientDbIds[row] : null;
+        }
+        finally
+        {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Matches the keys like {@link DicomReadRepository} does: every key clears the candidate rows
+     * whose value does not match.
+     */
+    private BitSet match(Attributes keys)
+    {
+        BitSet rows = new BitSet(columns.size);
+        rows.set(0, columns.size);
+
+        retainDates(rows, keys, Tag.StudyDate, columns.studyDates);
+        retain(rows, keys, Tag.PatientName, columns.patientNames);
+        retain(rows, keys, Tag.PatientID, columns.patientIds);
+        retain(rows, keys, Tag.PatientSex, columns.patientSexes);
+        retain(rows, keys, Tag.StudyInstanceUID, columns.studyInstanceUIDs);
+        retain(rows, keys, Tag.StudyID, columns.studyIds);
+        retain(rows, keys, Tag.StudyDescription, columns.studyDescriptions);
+        retain(rows, keys, Tag.AccessionNumber, columns.accessionNumbers);
+        retain(rows, keys, Tag.ReferringPhysicianName, columns.referringPhysicianNames);
+
+        String modality = keys.getString(Tag.ModalitiesInStudy);
+        if (restricts(keys, Tag.ModalitiesInStudy))
+        {
+            columns.modalitiesInStudy.retain(rows, value -> value.contains(modality));
+        }
+
+        retainDates(rows, keys, Tag.PatientBirthDate, columns.patientBirthDates);
+        return rows;
+    }
+
+    /**
+     * Date range matching; rows without date never match, like {@code NULL} in SQL.
+     */
+    private static void retainDates(BitSet rows, Attributes keys, int tag, int[] dates)
+    {
+        DateRange range = dateRange(keys, tag);
+        if (range == null)
+        {
+            return;
+        }
+
+        LocalDate start = toLocalDate(range.getStartDate());
+        LocalDate end = toLocalDate(range.getEndDate());
+        int first = start != null ? epochDay(start) : NO_DATE + 1;
+        int last = end != null ? epochDay(end) : Integer.MAX_VALUE;
+        for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1))
+        {
+            if (dates[row] < first || dates[row] > last)
+            {
+                rows.clear(row);
+            }
+        }
+    }
+
+    /**
+     * Single value, wild card or list of UID matching, see {@code DicomReadRepository.KeyPredicates#string}.
+     */
+    private static void retain(BitSet rows, Attributes keys, int tag, DictionaryColumn column)
+    {
+        if (!restricts(keys, tag))
+        {
+            return;
+        }
+
+        String[] values = keys.getStrings(tag);
+        if (values.length > 1)
+        {
+            Set<String> accepted = new HashSet<>(Arrays.asList(values));
+            column.retain(rows, accepted::contains);
+        }
+        else if (values[0].indexOf('*') >= 0 || values[0].indexOf('?') >= 0)
+        {
+            Pattern pattern = wildcardPattern(values[0]);
+            column.retain(rows, value -> pattern.matcher(value).matches());
+        }
+        else
+        {
+            column.retain(rows, values[0]::equals);
+        }
+    }
+
+    /**
+     * Checks whether a key restricts the query: absent and empty keys and the universal match do not.
+     */
+    private static boolean restricts(Attributes keys, int tag)
+    {
+        String value = keys.getString(tag);
+        return value != null && !value.isEmpty() && !"*".equals(value);
+    }
+
+    private static DateRange dateRange(Attributes keys, int tag)
+    {
+        return keys.containsValue(tag) ? keys.getDateRange(tag, null) : null;
+    }
+
+    private static Pattern wildcardPattern(String value)
+    {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : value.toCharArray())
+        {
+            if (c == '*' || c == '?')
+            {
+                if (!literal.isEmpty())
+                {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            }
+            else
+            {
+                literal.append(c);
+            }
+        }
+        if (!literal.isEmpty())
+        {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static LocalDate toLocalDate(Date date)
+    {
+        return date != null ? LocalDate.ofInstant(date.toInstant(), ZoneId.systemDefault()) : null;
+    }
+
+    private static int epochDay(LocalDate date)
+    {
+        return date != null ? (int) date.toEpochDay() : NO_DATE;
+    }
+
+    /**
+     * The columns of the catalog, the rows sorted by database id.
+     */
+    private static final class Columns
+    {
+        private int size;
+
+        private long[] ids;
+        private long[] patientDbIds;
+        private int[] studyDates;
+        private long[] studyTimes;
+        private int[] patientBirthDates;
+
+        private final DictionaryColumn patientNames;
+        private final DictionaryColumn patientIds;
+        private final DictionaryColumn patientSexes;
+        private final DictionaryColumn studyInstanceUIDs;
+        private final DictionaryColumn studyIds;
+        private final DictionaryColumn studyDescriptions;
+        private final DictionaryColumn accessionNumbers;
+        private final DictionaryColumn modalitiesInStudy;
+        private final DictionaryColumn referringPhysicianNames;
+
+        Columns(int capacity)
+        {
+            ids = new long[capacity];
+            patientDbIds = new long[capacity];
+            studyDates = new int[capacity];
+            studyTimes = new long[capacity];
+            patientBirthDates = new int[capacity];
+
+            patientNames = new DictionaryColumn(capacity);
+            patientIds = new DictionaryColumn(capacity);
+            patientSexes = new DictionaryColumn(capacity);
+            studyInstanceUIDs = new DictionaryColumn(capacity);
+            studyIds = new DictionaryColumn(capacity);
+            studyDescriptions = new DictionaryColumn(capacity);
+            accessionNumbers = new DictionaryColumn(capacity);
+            modalitiesInStudy = new DictionaryColumn(capacity);
+            referringPhysicianNames = new DictionaryColumn(capacity);
+        }
+
+        StudyRecord get(int row)
+        {
+            return new StudyRecord(
+                ids[row],
+                patientDbIds[row],
+                patientNames.get(row),
+                patientIds.get(row),
+                fromEpochDay(patientBirthDates[row]),
+                patientSexes.get(row),
+                studyInstanceUIDs.get(row),
+                studyIds.get(row),
+                fromEpochDay(studyDates[row]),
+                studyTimes[row] != NO_TIME ? LocalTime.ofNanoOfDay(studyTimes[row]) : null,
+                studyDescriptions.get(row),
+                accessionNumbers.get(row),
+                modalitiesInStudy.get(row),
+                referringPhysicianNames.get(row));
+        }
+
+        void insert(int row, StudyRecord study)
+        {
+            if (size == ids.length)
+            {
+                int capacity = size * 2;
+                ids = Arrays.copyOf(ids, capacity);
+                patientDbIds = Arrays.copyOf(patientDbIds, capacity);
+                studyDates = Arrays.copyOf(studyDates, capacity);
+                studyTimes = Arrays.copyOf(studyTimes, capacity);
+                patientBirthDates = Arrays.copyOf(patientBirthDates, capacity);
+            }
+
+            int moved = size - row;
+            System.arraycopy(ids, row, ids, row + 1, moved);
+            System.arraycopy(patientDbIds, row, patientDbIds, row + 1, moved);
+            System.arraycopy(studyDates, row, studyDates, row + 1, moved);
+            System.arraycopy(studyTimes, row, studyTimes, row + 1, moved);
+            System.arraycopy(patientBirthDates, row, patientBirthDates, row + 1, moved);
+
+            ids[row] = study.id();
+            patientDbIds[row] = study.patientDbId();
+            studyDates[row] = epochDay(study.studyDate());
+            studyTimes[row] = study.studyTime() != null ? study.studyTime().toNanoOfDay() : NO_TIME;
+            patientBirthDates[row] = epochDay(study.patientBirthDate());
+
+            patientNames.insert(row, size, study.patientName());
+            patientIds.insert(row, size, study.patientId());
+            patientSexes.insert(row, size, study.patientSex());
+            studyInstanceUIDs.insert(row, size, study.studyInstanceUID());
+            studyIds.insert(row, size, study.studyId());
+            studyDescriptions.insert(row, size, study.studyDescription());
+            accessionNumbers.insert(row, size, study.accessionNumber());
+            modalitiesInStudy.insert(row, size, study.modalitiesInStudy());
+            referringPhysicianNames.insert(row, size, study.referringPhysicianName());
+
+            size++;
+        }
+
+        void remove(int row)
+        {
+            int moved = size - row - 1;
+            System.arraycopy(ids, row + 1, ids, row, moved);
+            System.arraycopy(patientDbIds, row + 1, patientDbIds, row, moved);
+            System.arraycopy(studyDates, row + 1, studyDates, row, moved);
+            System.arraycopy(studyTimes, row + 1, studyTimes, row, moved);
+            System.arraycopy(patientBirthDates, row + 1, patientBirthDates, row, moved);
+
+            patientNames.remove(row, size);
+            patientIds.remove(row, size);
+            patientSexes.remove(row, size);
+            studyInstanceUIDs.remove(row, size);
+            studyIds.remove(row, size);
+            studyDescriptions.remove(row, size);
+            accessionNumbers.remove(row, size);
+            modalitiesInStudy.remove(row, size);
+            referringPhysicianNames.remove(row, size);
+
+            size--;
+        }
+
+        /**
+         * @return the row of the study, -1 if it is not in the catalog
+         */
+        int rowOf(long id)
+        {
+            int row = insertionRow(id);
+            return row < size && ids[row] == id ? row : -1;
+        }
+
+        /**
+         * @return the first row whose id is not less than the id, keeping the rows sorted
+         */
+        int insertionRow(long id)
+        {
+            int low = 0;
+            int high = size;
+            while (low < high)
+            {
+                int middle = (low + high) >>> 1;
+                if (ids[middle] < id)
+                {
+                    low = middle + 1;
+                }
+                else
+                {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        private static LocalDate fromEpochDay(int epochDay)
+        {
+            return epochDay != NO_DATE ? LocalDate.ofEpochDay(epochDay) : null;
+        }
+    }
+
+    /**
+     * A string column stored as codes into the distinct values of the column, -1 for no value.
+     * Values are never removed from the dictionary, a rebuild drops the unused ones.
+     */
+    private static final class DictionaryColumn
+    {
+        private final List<String> values = new ArrayList<>();
+        private final Map<String, Integer> codes = new HashMap<>();
+        private int[] rows;
+
+        DictionaryColumn(int capacity)
+        {
+            rows = new int[capacity];
+        }
+
+        String get(int row)
+        {
+            int code = rows[row];
+            return code >= 0 ? values.get(code) : null;
+        }
+
+        void insert(int row, int size, String value)
+        {
+            if (size == rows.length)
+            {
+                rows = Arrays.copyOf(rows, size * 2);
+            }
+            System.arraycopy(rows, row, rows, row + 1, size - row);
+            rows[row] = value != null ? codes.computeIfAbsent(value, this::add) : -1;
+        }
+
+        void remove(int row, int size)
+        {
+            System.arraycopy(rows, row + 1, rows, row, size - row - 1);
+        }
+
+        /**
+         * Evaluates the predicate once per distinct value and clears the rows whose value does
+         * not match; rows without value never match, like {@code NULL} in SQL.
+         */
+        void retain(BitSet candidates, Predicate<String> predicate)
+        {
+            boolean[] accepted = new boolean[values.size()];
+            for (int code = 0; code < accepted.length; code++)
+            {
+                accepted[code] = predicate.test(values.get(code));
+            }
+
+            for (int row = candidates.nextSetBit(0); row >= 0; row = candidates.nextSetBit(row + 1))
+            {
+                int code = rows[row];
+                if (code < 0 || !accepted[code])
+                {
+                    candidates.clear(row);
+                }
+            }
+        }
+
+        private int add(String value)
+        {
+            values.add(value);
+            return values.size() - 1;
+        }
+    }
+}
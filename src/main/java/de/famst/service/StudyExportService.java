@@ -0,0 +1,122 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.data.InstanceRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports studies from the archive as ZIP, optionally with a DICOMDIR, for the HTTP endpoint
+ * and the command line. The files are streamed from the archive, see {@link ZipExport}.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class StudyExportService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StudyExportService.class);
+
+    private static final int OUTPUT_BUFFER_SIZE = 262144;
+
+    private final InstanceRepository instanceRepository;
+    private final int readAhead;
+    private final ExecutorService ioExecutor;
+
+    /**
+     * Constructs a new StudyExportService.
+     *
+     * @param instanceRepository the repository for finding the files of the studies
+     * @param ioThreads          the number of threads preparing files, shared by all exports
+     * @param readAhead          the number of files an export prepares ahead of its output
+     */
+    public StudyExportService(InstanceRepository instanceRepository,
+                              @Value("${mupacs.export.io-threads:4}") int ioThreads,
+                              @Value("${mupacs.export.read-ahead:8}") int readAhead)
+    {
+        this.instanceRepository = instanceRepository;
+        this.readAhead = readAhead;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(ioThreads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "StudyExport-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LOG.info("StudyExportService created with [{}] I/O threads, read-ahead [{}] files", ioThreads, readAhead);
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        ioExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns the export of the archived files of studies, grouped by study and series.
+     *
+     * @param studyInstanceUIDs the Study Instance UIDs
+     * @param dicomDir          whether a DICOMDIR should be written
+     * @return the export, without files if none of the studies exists
+     */
+    public ZipExport export(Collection<String> studyInstanceUIDs, boolean dicomDir)
+    {
+        List<InstanceFileRecord> files = instanceRepository.findFilesByStudyInstanceUIDs(studyInstanceUIDs);
+        LOG.debug("Exporting {} instances of {} studies", files.size(), studyInstanceUIDs.size());
+        return new ZipExport(files, ioExecutor, readAhead, dicomDir);
+    }
+
+    /**
+     * Exports studies into a ZIP file, which is replaced if it exists. The ZIP file is written next
+     * to it and moved into place when it is complete, so a failed export leaves an existing file as
+     * it was and no truncated one.
+     *
+     * @param zipFile           the ZIP file
+     * @param studyInstanceUIDs the Study Instance UIDs
+     * @param dicomDir          whether a DICOMDIR should be written
+     * @return the number of exported instances, 0 if none of the studies exists and no file was written
+     * @throws IOException if an archived file cannot be read or the ZIP file not written
+     */
+    public int exportTo(Path zipFile, Collection<String> studyInstanceUIDs, boolean dicomDir) throws IOException
+    {
+        ZipExport export = export(studyInstanceUIDs, dicomDir);
+        if (export.files().isEmpty())
+        {
+            return 0;
+        }
+
+        Path temp = zipFile.resolveSibling(zipFile.getFileName() + ".tmp");
+        try
+        {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), OUTPUT_BUFFER_SIZE))
+            {
+                export.writeTo(out);
+            }
+            Files.move(temp, zipFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally
+        {
+            Files.deleteIfExists(temp);
+        }
+        LOG.info("Exported {} instances of {} studies to [{}]", export.files().size(), studyInstanceUIDs.size(),
+            zipFile.toAbsolutePath());
+        return export.files().size();
+    }
+}
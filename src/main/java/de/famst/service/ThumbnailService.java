@@ -0,0 +1,393 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceRepository;
+import de.famst.dcm.DcmImage;
+import jakarta.annotation.PreDestroy;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders previews of series and instances for WADO-RS and the web UI, see {@link DcmImage}.
+ *
+ * <p>Thumbnails fit into a square of {@code mupacs.thumbnail.size} pixels. The thumbnail of a
+ * series is the middle image in instance number order, for a multi-frame image its middle frame.
+ * Thumbnails are kept in a disk cache of {@code mupacs.thumbnail.cache.max-bytes}; once it is
+ * exceeded, the least recently served ones are deleted. The file name of a series thumbnail
+ * contains the modification stamp of its series, so a modified series gets a new thumbnail, an
+ * instance thumbnail is kept as it is.
+ * Series thumbnails are rendered shortly after an import into the series, so a burst of imports
+ * results in a single rendering, or on their first request.
+ *
+ * <p>All rendering runs on a fixed number of worker threads with a bounded queue. Requests for a
+ * thumbnail which is being rendered wait for it instead of rendering it again; requests finding
+ * the queue full are rejected.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class ThumbnailService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailService.class);
+
+    /**
+     * The number of renderings waiting for a worker.
+     */
+    private static final int MAX_PENDING = 64;
+
+    /**
+     * The maximum time a request waits for its rendering in seconds.
+     */
+    private static final long RENDER_TIMEOUT = 30;
+
+    private final InstanceRepository instanceRepository;
+    private final DicomReadRepository dicomReadRepository;
+    private final DiskCache cache;
+    private final int size;
+    private final boolean pregenerate;
+    private final long buildDelay;
+
+    private final Map<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<>();
+    private final Set<String> scheduled = ConcurrentHashMap.newKeySet();
+
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+    {
+        Thread thread = new Thread(runnable, "ThumbnailScheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructs a new ThumbnailService.
+     *
+     * @param instanceRepository  the repository for finding the images of series and instances
+     * @param dicomReadRepository the read model providing the modification stamps of series
+     * @param cacheDir            the directory of the thumbnail cache
+     * @param size                the maximum width and height of a thumbnail in pixels
+     * @param maxBytes            the maximum size of the thumbnail cache in bytes
+     * @param workerThreads       the number of threads rendering images
+     * @param pregenerate         whether series thumbnails are rendered after imports
+     * @param buildDelay          the delay in milliseconds between an import and the rendering of its series
+     */
+    public ThumbnailService(InstanceRepository instanceRepository,
+                            DicomReadRepository dicomReadRepository,
+                            @Value("${mupacs.thumbnail.cache-dir:./thumbnails}") String cacheDir,
+                            @Value("${mupacs.thumbnail.size:128}") int size,
+                            @Value("${mupacs.thumbnail.cache.max-bytes:67108864}") long maxBytes,
+                            @Value("${mupacs.thumbnail.workers:2}") int workerThreads,
+                            @Value("${mupacs.thumbnail.pregenerate:true}") boolean pregenerate,
+                            @Value("${mupacs.thumbnail.build-delay:5000}") long buildDelay)
+    {
+        this.instanceRepository = instanceRepository;
+        this.dicomReadRepository = dicomReadRepository;
+        this.cache = new DiskCache(Paths.get(cacheDir), maxBytes);
+        this.size = size;
+        this.pregenerate = pregenerate;
+        this.buildDelay = buildDelay;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING), runnable ->
+        {
+            Thread thread = new Thread(runnable, "ThumbnailRenderer-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LOG.info("ThumbnailService created: cache [{}] with {} of {} bytes, size {}, {} workers",
+            cache.getDirectory(), cache.getBytes(), maxBytes, size, workerThreads);
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Returns the thumbnail of a series, rendering it if there is none for its current state.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @param format            the format of the thumbnail
+     * @return the encoded thumbnail, null if the series does not exist in the study or has no images
+     * @throws IOException                if the image cannot be rendered
+     * @throws InterruptedIOException     if the rendering timed out or was interrupted
+     * @throws RejectedExecutionException if the workers are busy
+     */
+    public byte[] getSeriesThumbnail(String studyInstanceUID, String seriesInstanceUID, DcmImage.Format format)
+        throws IOException
+    {
+        Instant lastModified = dicomReadRepository.findSeriesLastModified(studyInstanceUID, seriesInstanceUID);
+        if (lastModified == null)
+        {
+            return null;
+        }
+
+        // an import takes its stamp before it commits, a thumbnail rendered in between is newer than
+        // the stamp but misses the import; named by the committed stamp, it shows at least that state
+        String thumbnail = fileName(seriesInstanceUID + "." + ChronoUnit.MICROS.between(Instant.EPOCH, lastModified),
+            format);
+        byte[] cached = readCached(thumbnail);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        return render(thumbnail, () ->
+        {
+            List<String> images = instanceRepository.findImagePathsBySeriesInstanceUID(studyInstanceUID,
+                seriesInstanceUID);
+            if (images.isEmpty())
+            {
+                return null;
+            }
+            return store(thumbnail, encode(Paths.get(images.get(images.size() / 2)), -1, size, size, format));
+        });
+    }
+
+    /**
+     * Returns the thumbnail of an instance, rendering it on the first request.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @param instanceUID       the SOP Instance UID
+     * @param format            the format of the thumbnail
+     * @return the encoded thumbnail, null if the instance does not exist in the series
+     * @throws IOException                if the image cannot be rendered
+     * @throws InterruptedIOException     if the rendering timed out or was interrupted
+     * @throws RejectedExecutionException if the workers are busy
+     */
+    public byte[] getInstanceThumbnail(String studyInstanceUID, String seriesInstanceUID, String instanceUID,
+                                       DcmImage.Format format) throws IOException
+    {
+        String path = instanceRepository.findPath(studyInstanceUID, seriesInstanceUID, instanceUID);
+        if (path == null)
+        {
+            return null;
+        }
+
+        // instances never change, any cached thumbnail is current
+        String thumbnail = fileName(instanceUID, format);
+        byte[] cached = readCached(thumbnail);
+        if (cached != null)
+        {
+            return cached;
+        }
+
+        return render(thumbnail, () -> store(thumbnail, encode(Paths.get(path), -1, size, size, format)));
+    }
+
+    /**
+     * Renders the first frame of an instance to fit into a viewport, without caching it.
+     *
+     * @param studyInstanceUID  the Study Instance UID
+     * @param seriesInstanceUID the Series Instance UID
+     * @param instanceUID       the SOP Instance UID
+     * @param maxWidth          the width of the viewport
+     * @param maxHeight         the height of the viewport
+     * @param format            the format of the image
+     * @return the encoded image, null if the instance does not exist in the series
+     * @throws IOException                if the image cannot be rendered
+     * @throws InterruptedIOException     if the rendering timed out or was interrupted
+     * @throws RejectedExecutionException if the workers are busy
+     */
+    public byte[] getRendered(String studyInstanceUID, String seriesInstanceUID, String instanceUID,
+                              int maxWidth, int maxHeight, DcmImage.Format format) throws IOException
+    {
+        String path = instanceRepository.findPath(studyInstanceUID, seriesInstanceUID, instanceUID);
+        if (path == null)
+        {
+            return null;
+        }
+
+        return render(instanceUID + "." + maxWidth + "x" + maxHeight + "." + format.extension(),
+            () -> encode(Paths.get(path), 0, maxWidth, maxHeight, format));
+    }
+
+    /**
+     * Schedules the rendering of the thumbnail of a series to which an import added an instance.
+     *
+     * @param event the import event
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDicomImported(DicomImportedEvent event)
+    {
+        if (!pregenerate || !event.created(QueryRetrieveLevel2.IMAGE) || !scheduled.add(event.seriesInstanceUID()))
+        {
+            return;
+        }
+
+        scheduler.schedule(() -> pregenerate(event.studyInstanceUID(), event.seriesInstanceUID()),
+            buildDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private void pregenerate(String studyInstanceUID, String seriesInstanceUID)
+    {
+        // imports from now on schedule another rendering
+        scheduled.remove(seriesInstanceUID);
+
+        try
+        {
+            getSeriesThumbnail(studyInstanceUID, seriesInstanceUID, DcmImage.Format.JPEG);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            LOG.warn("rendering thumbnail of series [{}] failed: {}", seriesInstanceUID, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of bytes in the thumbnail cache
+     */
+    public long getCachedBytes()
+    {
+        return cache.getBytes();
+    }
+
+    private String fileName(String uid, DcmImage.Format format)
+    {
+        return uid + "." + size + "." + format.extension();
+    }
+
+    /**
+     * Reads a cached thumbnail.
+     *
+     * @return the thumbnail, null if it is not cached
+     */
+    private byte[] readCached(String thumbnail) throws IOException
+    {
+        Path file = cache.get(thumbnail);
+        try
+        {
+            return file != null ? Files.readAllBytes(file) : null;
+        }
+        catch (NoSuchFileException e)
+        {
+            // evicted in the meantime
+            return null;
+        }
+    }
+
+    /**
+     * Runs a rendering on the workers and waits for it. Concurrent requests with the same key
+     * share one rendering.
+     */
+    private byte[] render(String key, Rendering rendering) throws IOException
+    {
+        CompletableFuture<byte[]> created = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = this.rendering.putIfAbsent(key, created);
+        if (running == null)
+        {
+            running = created;
+            try
+            {
+                workers.execute(() ->
+                {
+                    try
+                    {
+                        created.complete(rendering.render());
+                    }
+                    catch (Exception e)
+                    {
+                        created.completeExceptionally(e);
+                    }
+                    finally
+                    {
+                        this.rendering.remove(key, created);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                this.rendering.remove(key, created);
+                LOG.warn("rendering of [{}] rejected, {} renderings are waiting", key, workers.getQueue().size());
+                throw e;
+            }
+        }
+
+        try
+        {
+            return running.get(RENDER_TIMEOUT, TimeUnit.SECONDS);
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException cause)
+            {
+                throw cause;
+            }
+            throw new IOException("Rendering " + key + " failed", e.getCause());
+        }
+        catch (TimeoutException e)
+        {
+            // a busy pool rather than a broken image, the client can retry later
+            InterruptedIOException timeout = new InterruptedIOException("Rendering " + key + " timed out");
+            timeout.initCause(e);
+            throw timeout;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Rendering " + key + " interrupted");
+        }
+    }
+
+    private static byte[] encode(Path file, int frame, int maxWidth, int maxHeight, DcmImage.Format format)
+        throws IOException
+    {
+        BufferedImage image = DcmImage.scale(DcmImage.read(file, frame), maxWidth, maxHeight);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DcmImage.write(image, format, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a thumbnail into the cache.
+     */
+    private byte[] store(String thumbnail, byte[] bytes) throws IOException
+    {
+        cache.put(thumbnail, out -> out.write(bytes));
+        return bytes;
+    }
+
+    /**
+     * Renders an encoded image on a worker.
+     */
+    @FunctionalInterface
+    private interface Rendering
+    {
+        byte[] render() throws IOException;
+    }
+}
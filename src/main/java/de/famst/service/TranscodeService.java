@@ -0,0 +1,286 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.dcm.DcmTranscoder;
+import de.famst.dcm.UnsupportedTransferSyntaxException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides archived instances in a requested transfer syntax, see {@link DcmTranscoder}.
+ *
+ * <p>Converted files are kept in a size-capped {@link DiskCache} by SOP Instance UID, transfer
+ * syntax and modification time of the archived file, so a client which cannot read the stored
+ * syntax gets an instance converted once and then served like an archived file, until the archived
+ * file is replaced.
+ * Files are converted by a fixed number of workers while they are streamed, as many ahead of the
+ * read position as there are workers; concurrent requests for the same variant share one
+ * conversion.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@Service
+public class TranscodeService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TranscodeService.class);
+
+    /**
+     * An archived file and its stored transfer syntax.
+     */
+    private record Source(InstanceFileRecord file, String stored)
+    {
+    }
+
+    private final DiskCache cache;
+    private final ExecutorService workers;
+    private final int lookAhead;
+    private final Map<String, CompletableFuture<Path>> inProgress = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new TranscodeService.
+     *
+     * @param cacheDir      the directory of the cache of converted files
+     * @param maxBytes      the maximum size of the cache in bytes
+     * @param workerThreads the number of threads converting files
+     */
+    public TranscodeService(@Value("${mupacs.transcode.cache-dir:./transcoded}") String cacheDir,
+                            @Value("${mupacs.transcode.cache.max-bytes:1073741824}") long maxBytes,
+                            @Value("${mupacs.transcode.workers:2}") int workerThreads)
+    {
+        this.cache = new DiskCache(Paths.get(cacheDir), maxBytes);
+        this.lookAhead = workerThreads;
+
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerThreads, runnable ->
+        {
+            Thread thread = new Thread(runnable, "Transcoder-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LOG.info("TranscodeService created: cache [{}] with {} of {} bytes, {} workers",
+            cache.getDirectory(), cache.getBytes(), maxBytes, workerThreads);
+    }
+
+    @PreDestroy
+    void shutdown()
+    {
+        workers.shutdownNow();
+    }
+
+    /**
+     * Returns an opener of the files of instances in a transfer syntax, for a {@link FileSequence}
+     * of their archived files. Each file is converted when the sequence reaches it, the next ones
+     * are converted ahead on the workers; a variant which was evicted before it was opened is
+     * converted again. So the transfer starts with the first file and only the variants close to
+     * the read position have to stay in the cache.
+     *
+     * @param files    the archived files
+     * @param sequence the archived files in the order the sequence reads them
+     * @param tsuid    the transfer syntax UID
+     * @return the opener, which opens the archived file of each instance stored in the transfer
+     * syntax, otherwise the converted one
+     * @throws UnsupportedTransferSyntaxException if an instance cannot be converted; nothing is
+     *                                            converted then
+     * @throws IOException                        if the transfer syntax of a file cannot be read
+     */
+    public FileSequence.FileOpener opener(List<InstanceFileRecord> files, List<Path> sequence, String tsuid)
+        throws IOException
+    {
+        Map<Path, Source> sources = new HashMap<>();
+        for (InstanceFileRecord file : files)
+        {
+            sources.put(Paths.get(file.path()).toAbsolutePath(), new Source(file, convertible(file, tsuid)));
+        }
+
+        List<Source> ordered = new ArrayList<>(sequence.size());
+        for (Path path : sequence)
+        {
+            ordered.add(sources.get(path.toAbsolutePath()));
+        }
+        return (index, path) -> open(ordered, index, tsuid);
+    }
+
+    /**
+     * Returns the file of an instance in a transfer syntax.
+     *
+     * @param file  the archived file
+     * @param tsuid the transfer syntax UID
+     * @return the archived file if it is stored in the transfer syntax, otherwise the converted one
+     * @throws UnsupportedTransferSyntaxException if the instance cannot be converted
+     * @throws IOException                        if the file cannot be read or converted
+     */
+    public Path getVariant(InstanceFileRecord file, String tsuid) throws IOException
+    {
+        return join(variant(file, convertible(file, tsuid), tsuid));
+    }
+
+    /**
+     * @return the number of bytes in the cache of converted files
+     */
+    public long getCachedBytes()
+    {
+        return cache.getBytes();
+    }
+
+    /**
+     * Opens the variant of a file of a sequence and schedules the conversion of the next ones.
+     */
+    private FileChannel open(List<Source> sources, int index, String tsuid) throws IOException
+    {
+        Source source = sources.get(index);
+        InstanceFileRecord file = source.file();
+        Path archived = Paths.get(file.path());
+        if (tsuid.equals(source.stored()))
+        {
+            return FileChannel.open(archived, StandardOpenOption.READ);
+        }
+
+        CompletableFuture<Path> variant = variant(file, source.stored(), tsuid);
+        for (int next = index + 1; next < Math.min(sources.size(), index + 1 + lookAhead); next++)
+        {
+            Source ahead = sources.get(next);
+            try
+            {
+                variant(ahead.file(), ahead.stored(), tsuid);
+            }
+            catch (IOException e)
+            {
+                // reported when the sequence reaches the file
+                LOG.debug("Cannot convert {} ahead: {}", ahead.file().instanceUID(), e.getMessage());
+            }
+        }
+
+        join(variant);
+        String name = name(file, tsuid);
+        FileChannel channel = cache.open(name);
+        if (channel == null)
+        {
+            // evicted between conversion and read, converted again on this thread and opened at once
+            LOG.debug("Variant of {} was evicted before it was read, converting again", file.instanceUID());
+            channel = cache.putAndOpen(name, out -> DcmTranscoder.transcode(archived, tsuid, out));
+        }
+        return channel;
+    }
+
+    private CompletableFuture<Path> variant(InstanceFileRecord file, String stored, String tsuid)
+        throws IOException
+    {
+        Path source = Paths.get(file.path());
+        if (tsuid.equals(stored))
+        {
+            return CompletableFuture.completedFuture(source);
+        }
+
+        String name = name(file, tsuid);
+        Path cached = cache.get(name);
+        if (cached != null)
+        {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> running = inProgress.putIfAbsent(name, created);
+        if (running != null)
+        {
+            return running;
+        }
+
+        workers.execute(() ->
+        {
+            try
+            {
+                long start = System.nanoTime();
+                Path variant = cache.put(name, out -> DcmTranscoder.transcode(source, tsuid, out));
+                LOG.debug("Converted {} to {} in {} ms", file.instanceUID(), tsuid,
+                    (System.nanoTime() - start) / 1_000_000);
+                created.complete(variant);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                created.completeExceptionally(e);
+            }
+            finally
+            {
+                inProgress.remove(name, created);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Returns the name of a variant, which contains the modification time of the archived file, so
+     * the variant of a replaced file is not served.
+     */
+    private static String name(InstanceFileRecord file, String tsuid) throws IOException
+    {
+        long lastModified = Files.getLastModifiedTime(Paths.get(file.path())).toMillis();
+        return file.instanceUID() + "." + tsuid + "." + lastModified + ".dcm";
+    }
+
+    /**
+     * Returns the stored transfer syntax of a file which can be converted to the requested one.
+     */
+    private static String convertible(InstanceFileRecord file, String tsuid) throws IOException
+    {
+        // instances imported before the transfer syntax was recorded
+        String from = file.transferSyntaxUID() != null
+            ? file.transferSyntaxUID()
+            : DcmTranscoder.readTransferSyntax(Paths.get(file.path()));
+
+        if (!DcmTranscoder.canTranscode(from, tsuid))
+        {
+            throw new UnsupportedTransferSyntaxException(
+                "Instance " + file.instanceUID() + " in " + from + " cannot be converted to " + tsuid);
+        }
+        return from;
+    }
+
+    private static Path join(CompletableFuture<Path> variant) throws IOException
+    {
+        try
+        {
+            return variant.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while converting");
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException io)
+            {
+                throw io;
+            }
+            if (e.getCause() instanceof UncheckedIOException io)
+            {
+                throw io.getCause();
+            }
+            throw new IOException("Conversion failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.dcm.DicomDir;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.io.DicomInputStream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The archived files of one or more studies, which are written as ZIP to an output stream,
+ * see {@link StudyExportService}.
+ *
+ * <p>Each file is written as entry while it is read, nothing is buffered in memory or in a
+ * temporary file. Files in a compressed transfer syntax (everything but the uncompressed little
+ * and big endian ones) are STORED, deflating them again costs time and saves nothing; the others
+ * are deflated at the fastest level. A STORED entry needs its size and CRC before its data, so
+ * its file is read twice: the first read on a task of the I/O pool computes the CRC and leaves
+ * the file in the page cache for the second one. These tasks run ahead of the output for the
+ * next files, in parallel, and also read the headers for the DICOMDIR.
+ *
+ * <p>With a DICOMDIR, the files are named by their File IDs ({@code DICOM/ST000001/SE000001/IM000001})
+ * and the DICOMDIR is the last entry, built from the headers of the written files; otherwise they
+ * are named {@code {study}/{series}/{instance}.dcm}. The memory of an export is bounded by the
+ * number of files read ahead, plus a few hundred bytes per file for the DICOMDIR.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+public final class ZipExport
+{
+    static final String DICOMDIR = "DICOMDIR";
+
+    private static final String FILE_SET_ID = "MUPACS";
+
+    private static final Set<String> UNCOMPRESSED = Set.of(UID.ImplicitVRLittleEndian, UID.ExplicitVRLittleEndian,
+        UID.ExplicitVRBigEndian);
+
+    private static final int CRC_BUFFER_SIZE = 65536;
+
+    /**
+     * A file ready to be written: its entry and, for the DICOMDIR, its header.
+     */
+    private record Prepared(Path path, ZipEntry entry, String[] fileID, Attributes header, String transferSyntaxUID)
+    {
+    }
+
+    private final List<InstanceFileRecord> files;
+    private final ExecutorService ioExecutor;
+    private final int readAhead;
+    private final boolean dicomDir;
+
+    /**
+     * Constructs an export of files, which are written in the given order.
+     *
+     * @param files      the files, grouped by study and series
+     * @param ioExecutor the pool preparing the files
+     * @param readAhead  the number of files prepared ahead of the output
+     * @param dicomDir   whether a DICOMDIR should be written
+     * @throws IllegalArgumentException if readAhead is not positive
+     */
+    public ZipExport(List<InstanceFileRecord> files, ExecutorService ioExecutor, int readAhead, boolean dicomDir)
+    {
+        if (readAhead < 1)
+        {
+            throw new IllegalArgumentException("Read-ahead must be positive");
+        }
+
+        this.files = List.copyOf(files);
+        this.ioExecutor = ioExecutor;
+        this.readAhead = readAhead;
+        this.dicomDir = dicomDir;
+    }
+
+    /**
+     * @return the files in the order they are written
+     */
+    public List<InstanceFileRecord> files()
+    {
+        return files;
+    }
+
+    /**
+     * Writes the files as ZIP to the output stream, the stream is not closed. Fails if a file
+     * cannot be read; the ZIP is incomplete then.
+     *
+     * @param out the output stream
+     * @throws IOException if a file cannot be read or the stream not written
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        String[][] fileIDs = dicomDir ? fileIDs(files) : null;
+        DicomDir directory = dicomDir ? new DicomDir(FILE_SET_ID) : null;
+
+        ZipOutputStream zip = new ZipOutputStream(out);
+        zip.setLevel(Deflater.BEST_SPEED);
+
+        Deque<Future<Prepared>> pending = new ArrayDeque<>();
+        int next = 0;
+        try
+        {
+            for (int i = 0; i < files.size(); i++)
+            {
+                while (next < files.size() && pending.size() < readAhead)
+                {
+                    int index = next++;
+                    pending.add(ioExecutor.submit(() -> prepare(index, fileIDs)));
+                }
+
+                Prepared prepared = await(pending.poll());
+                zip.putNextEntry(prepared.entry());
+                Files.copy(prepared.path(), zip);
+                zip.closeEntry();
+
+                if (directory != null)
+                {
+                    directory.add(prepared.fileID(), prepared.header(), prepared.transferSyntaxUID());
+                }
+            }
+
+            if (directory != null)
+            {
+                zip.putNextEntry(new ZipEntry(DICOMDIR));
+                zip.write(directory.encode());
+                zip.closeEntry();
+            }
+            zip.finish();
+        }
+        finally
+        {
+            // stops the preparation if the client went away
+            pending.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Stats a file, reads its header if needed and computes the CRC of a STORED entry, runs on the I/O pool.
+     */
+    private Prepared prepare(int index, String[][] fileIDs) throws IOException
+    {
+        InstanceFileRecord file = files.get(index);
+        Path path = Paths.get(file.path());
+        long size = Files.size(path);
+
+        Attributes header = null;
+        String transferSyntaxUID = file.transferSyntaxUID();
+        if (dicomDir || transferSyntaxUID == null)
+        {
+            try (DicomInputStream dis = new DicomInputStream(path.toFile()))
+            {
+                dis.setIncludeBulkData(DicomInputStream.IncludeBulkData.NO);
+                header = dis.readDatasetUntilPixelData();
+                transferSyntaxUID = dis.getTransferSyntax();
+            }
+        }
+
+        ZipEntry entry = new ZipEntry(fileIDs != null
+            ? String.join("/", fileIDs[index])
+            : file.studyInstanceUID() + "/" + file.seriesInstanceUID() + "/" + file.instanceUID() + ".dcm");
+        if (!UNCOMPRESSED.contains(transferSyntaxUID))
+        {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(size);
+            entry.setCompressedSize(size);
+            entry.setCrc(crc(path));
+        }
+        return new Prepared(path, entry, fileIDs != null ? fileIDs[index] : null, header, transferSyntaxUID);
+    }
+
+    private static long crc(Path path) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(CRC_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            while (channel.read(buffer) >= 0)
+            {
+                crc.update(buffer.flip());
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static Prepared await(Future<Prepared> future) throws IOException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof IOException cause)
+            {
+                throw cause;
+            }
+            throw new IOException("Preparing a file for export failed", e.getCause());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        }
+    }
+
+    /**
+     * Numbers the studies, the series of each study and the instances of each series in the
+     * order of the files, which are grouped by study and series; the components of File IDs have
+     * at most 8 characters.
+     */
+    static String[][] fileIDs(List<InstanceFileRecord> files)
+    {
+        String[][] fileIDs = new String[files.size()][];
+        String studyInstanceUID = null;
+        String seriesInstanceUID = null;
+        int study = 0;
+        int series = 0;
+        int instance = 0;
+        for (int i = 0; i < files.size(); i++)
+        {
+            InstanceFileRecord file = files.get(i);
+            if (!file.studyInstanceUID().equals(studyInstanceUID))
+            {
+                studyInstanceUID = file.studyInstanceUID();
+                seriesInstanceUID = null;
+                study++;
+                series = 0;
+            }
+            if (!file.seriesInstanceUID().equals(seriesInstanceUID))
+            {
+                seriesInstanceUID = file.seriesInstanceUID();
+                series++;
+                instance = 0;
+            }
+            instance++;
+            fileIDs[i] = new String[]{"DICOM", "ST" + pad(study), "SE" + pad(series), "IM" + pad(instance)};
+        }
+        return fileIDs;
+    }
+
+    private static String pad(int number)
+    {
+        return String.format("%06d", number);
+    }
+}
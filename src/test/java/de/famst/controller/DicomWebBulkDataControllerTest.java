@@ -1,10 +1,12 @@
 package de.famst.controller;
 
+import de.famst.data.FrameIndex;
 import de.famst.data.InstanceEty;
 import de.famst.data.InstanceRepository;
 import de.famst.data.PatientEty;
 import de.famst.data.SeriesEty;
 import de.famst.data.StudyEty;
+import de.famst.service.BulkDataFile;
 import de.famst.service.DicomBulkDataService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,21 +15,30 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
-import org.springframework.core.io.ByteArrayResource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
 
-import static org.mockito.ArgumentMatchers.eq;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -39,6 +50,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  *   <li>HTTP Range request handling</li>
  *   <li>HEAD request for metadata/file size</li>
  *   <li>Error cases (not found, invalid ranges, etc.)</li>
+ *   <li>Conditional requests and caching headers</li>
  * </ul>
  *
  * @author jens
@@ -64,6 +76,7 @@ class DicomWebBulkDataControllerTest
     private SeriesEty series;
     private InstanceEty instance;
     private String testFilePath;
+    private BulkDataFile testFile;
     private byte[] testData;
 
     @BeforeEach
@@ -71,9 +84,10 @@ class DicomWebBulkDataControllerTest
     {
         // Create test data
         testData = "DICOM_TEST_DATA_1234567890".getBytes();
-        Path testFile = tempDir.resolve("test.dcm");
-        Files.write(testFile, testData);
-        testFilePath = testFile.toString();
+        Path testPath = tempDir.resolve("test.dcm");
+        Files.write(testPath, testData);
+        testFilePath = testPath.toString();
+        testFile = new BulkDataFile(testPath, testData.length);
 
         // Create test entities
         patient = new PatientEty("12345", "Test^Patient");
@@ -87,6 +101,17 @@ class DicomWebBulkDataControllerTest
         series.addInstance(instance);
     }
 
+    /**
+     * Performs a request whose body is streamed after the handler returned.
+     */
+    private ResultActions performStreamed(RequestBuilder requestBuilder) throws Exception
+    {
+        MvcResult result = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(result));
+    }
+
     @Nested
     @DisplayName("Full file retrieval tests")
     class FullFileRetrievalTests
@@ -97,11 +122,10 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
-            when(bulkDataService.getFullFile(testFilePath)).thenReturn(new ByteArrayResource(testData));
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
-            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
                     .andExpect(status().isOk())
                     .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/octet-stream"))
                     .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
@@ -151,7 +175,7 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenThrow(new IOException("File not found"));
+            when(bulkDataService.getBulkData(instance)).thenThrow(new IOException("File not found"));
 
             // When/Then
             mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
@@ -170,12 +194,10 @@ class DicomWebBulkDataControllerTest
             // Given
             byte[] rangeData = "DICOM".getBytes();
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
-            when(bulkDataService.getFileRange(eq(testFilePath), eq(0L), eq(4L)))
-                    .thenReturn(new ByteArrayResource(rangeData));
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
-            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
                             .header(HttpHeaders.RANGE, "bytes=0-4"))
                     .andExpect(status().isPartialContent())
                     .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/octet-stream"))
@@ -195,12 +217,10 @@ class DicomWebBulkDataControllerTest
             long end = testData.length - 1; // 26 - end is inclusive, so 17-25 = 9 bytes (not 10)
 
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
-            when(bulkDataService.getFileRange(eq(testFilePath), eq(start), eq(end)))
-                    .thenReturn(new ByteArrayResource(rangeData));
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
-            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
                             .header(HttpHeaders.RANGE, "bytes=17-"))
                     .andExpect(status().isPartialContent())
                     .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 17-25/" + testData.length))
@@ -216,12 +236,10 @@ class DicomWebBulkDataControllerTest
             byte[] rangeData = new byte[26]; // bytes 0-25 = 26 bytes
             System.arraycopy(testData, 0, rangeData, 0, 26);
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
-            when(bulkDataService.getFileRange(eq(testFilePath), eq(0L), eq(25L)))
-                    .thenReturn(new ByteArrayResource(rangeData));
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then - HttpRange automatically caps the end to file size - 2 when out of bounds
-            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
                             .header(HttpHeaders.RANGE, "bytes=0-1000"))
                     .andExpect(status().isPartialContent())
                     .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/octet-stream"))
@@ -237,7 +255,7 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
             mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
@@ -252,7 +270,7 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
             mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
@@ -262,16 +280,66 @@ class DicomWebBulkDataControllerTest
         }
 
         @Test
-        @DisplayName("Should return 416 for multiple ranges (not supported)")
-        void shouldReturn416ForMultipleRanges() throws Exception
+        @DisplayName("Should return multiple ranges as multipart/byteranges in file order")
+        void shouldReturnMultipleRangesAsMultipart() throws Exception
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
+
+            // When
+            MvcResult result = performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=20-22,0-5"))
+                    .andExpect(status().isPartialContent())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges; boundary=")))
+                    .andReturn();
+
+            // Then
+            String boundary = result.getResponse().getContentType().substring("multipart/byteranges; boundary=".length());
+            String expected = "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Range: bytes 0-5/26\r\n\r\n"
+                    + "DICOM_"
+                    + "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: application/octet-stream\r\n"
+                    + "Content-Range: bytes 20-22/26\r\n\r\n"
+                    + "567"
+                    + "\r\n--" + boundary + "--\r\n";
+
+            assertThat(result.getResponse().getContentAsString()).isEqualTo(expected);
+            assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH))
+                    .isEqualTo(String.valueOf(expected.length()));
+        }
+
+        @Test
+        @DisplayName("Should coalesce overlapping and adjacent ranges")
+        void shouldCoalesceOverlappingAndAdjacentRanges() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
+
+            // When/Then - 0-5, 3-8 and 9-9 form a single range, the range beyond the file is dropped
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=3-8,0-5,9-9,100-200"))
+                    .andExpect(status().isPartialContent())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/octet-stream"))
+                    .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-9/" + testData.length))
+                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "10"))
+                    .andExpect(content().bytes("DICOM_TEST".getBytes()));
+        }
+
+        @Test
+        @DisplayName("Should return 416 if none of multiple ranges is satisfiable")
+        void shouldReturn416ForUnsatisfiableMultipleRanges() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
             mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
-                            .header(HttpHeaders.RANGE, "bytes=0-5,10-15"))
+                            .header(HttpHeaders.RANGE, "bytes=30-40,100-200"))
                     .andExpect(status().isRequestedRangeNotSatisfiable())
                     .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */" + testData.length));
         }
@@ -282,7 +350,7 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then - start at position 100 which is beyond the 27 byte file
             mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
@@ -300,16 +368,288 @@ class DicomWebBulkDataControllerTest
             long lastByte = testData.length - 1; // 26 (0-indexed)
 
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
-            when(bulkDataService.getFileRange(eq(testFilePath), eq(lastByte), eq(lastByte)))
-                    .thenReturn(new ByteArrayResource(rangeData));
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then - get the last byte (position 25, not 26)
-            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
                             .header(HttpHeaders.RANGE, "bytes=25-25"))
                     .andExpect(status().isPartialContent())
                     .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 25-25/" + testData.length))
-                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "1"));
+                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "1"))
+                    .andExpect(content().bytes(rangeData));
+        }
+
+        @Test
+        @DisplayName("Should leave the range to the container if it supports sendfile")
+        void shouldLeaveRangeToSendfile() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
+
+            // When/Then - no body is written, the container sends bytes 5-9 of the file
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=5-9")
+                            .requestAttr(DicomWebBulkDataController.SENDFILE_SUPPORT, Boolean.TRUE))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isPartialContent())
+                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "5"))
+                    .andExpect(request().attribute(DicomWebBulkDataController.SENDFILE_FILENAME, testFilePath))
+                    .andExpect(request().attribute(DicomWebBulkDataController.SENDFILE_START, 5L))
+                    .andExpect(request().attribute(DicomWebBulkDataController.SENDFILE_END, 10L))
+                    .andExpect(content().bytes(new byte[0]));
+        }
+
+        @Test
+        @DisplayName("Should send cached content from memory even if the container supports sendfile")
+        void shouldSendCachedRangeFromMemory() throws Exception
+        {
+            // Given - the file is gone, only the cache holds the content
+            BulkDataFile cached = new BulkDataFile(testFile.path(), 0, testData.length,
+                    ByteBuffer.wrap(testData).asReadOnlyBuffer());
+            Files.delete(testFile.path());
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(cached);
+
+            // When/Then
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=5-9")
+                            .requestAttr(DicomWebBulkDataController.SENDFILE_SUPPORT, Boolean.TRUE))
+                    .andExpect(status().isPartialContent())
+                    .andExpect(request().attribute(DicomWebBulkDataController.SENDFILE_FILENAME, nullValue()))
+                    .andExpect(content().bytes(Arrays.copyOfRange(testData, 5, 10)));
+        }
+    }
+
+    @Nested
+    @DisplayName("Pixel Data tests")
+    class PixelDataTests
+    {
+        private BulkDataFile pixelData;
+
+        @BeforeEach
+        void setUp()
+        {
+            // the file was indexed at ingest, "TEST_DATA" are the pixels
+            instance.setTransferSyntaxUID("1.2.840.10008.1.2.1");
+            instance.setPixelDataOffset(6L);
+            instance.setPixelDataLength(9L);
+            instance.setFileSize((long) testData.length);
+            instance.setFileLastModified(0L);
+            pixelData = new BulkDataFile(testFile.path(), 6, 9);
+        }
+
+        @Test
+        @DisplayName("Should serve the Pixel Data labeled with its transfer syntax")
+        void shouldServePixelData() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When/Then
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE,
+                            "application/octet-stream; transfer-syntax=1.2.840.10008.1.2.1"))
+                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "9"))
+                    .andExpect(content().bytes("TEST_DATA".getBytes()));
+        }
+
+        @Test
+        @DisplayName("Should serve ranges relative to the Pixel Data")
+        void shouldServeRangeOfPixelData() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When/Then
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=5-"))
+                    .andExpect(status().isPartialContent())
+                    .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 5-8/9"))
+                    .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "4"))
+                    .andExpect(content().bytes("DATA".getBytes()));
+        }
+
+        @Test
+        @DisplayName("Should hand the position of the Pixel Data in the file to sendfile")
+        void shouldSendPixelDataWithSendfile() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When/Then
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=0-3")
+                            .requestAttr(DicomWebBulkDataController.SENDFILE_SUPPORT, Boolean.TRUE))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isPartialContent())
+                    .andExpect(request().attribute(DicomWebBulkDataController.SENDFILE_START, 6L))
+                    .andExpect(request().attribute(DicomWebBulkDataController.SENDFILE_END, 10L));
+        }
+
+        @Test
+        @DisplayName("Should serve encapsulated Pixel Data as frames without item headers, ignoring ranges")
+        void shouldServeEncapsulatedPixelDataAsFrames() throws Exception
+        {
+            // Given - JPEG Baseline, frame 1 are the fragments "TE" and "ST", frame 2 is "DATA"
+            instance.setTransferSyntaxUID("1.2.840.10008.1.2.4.50");
+            FrameIndex frameIndex = new FrameIndex(new long[]{0, 2, 5}, new long[]{2, 2, 4}, new int[]{0, 2});
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getFrameIndex(instance)).thenReturn(frameIndex);
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When
+            MvcResult result = performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.RANGE, "bytes=0-3"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE,
+                            startsWith("multipart/related; type=\"application/octet-stream\"; boundary=")))
+                    .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "none"))
+                    .andReturn();
+
+            // Then
+            String contentType = result.getResponse().getContentType();
+            String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+            String part = "Content-Type: application/octet-stream; transfer-syntax=1.2.840.10008.1.2.4.50\r\n\r\n";
+            String expected = "\r\n--" + boundary + "\r\n" + part + "TEST"
+                    + "\r\n--" + boundary + "\r\n" + part + "DATA"
+                    + "\r\n--" + boundary + "--\r\n";
+
+            assertThat(result.getResponse().getContentAsString()).isEqualTo(expected);
+            assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH))
+                    .isEqualTo(String.valueOf(expected.length()));
+
+            mockMvc.perform(head("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/related;")))
+                    .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "none"));
+        }
+
+        @Test
+        @DisplayName("Should return 406 for encapsulated Pixel Data whose frames are not indexed")
+        void shouldReturn406ForEncapsulatedPixelDataWithoutFrameIndex() throws Exception
+        {
+            // Given
+            instance.setTransferSyntaxUID("1.2.840.10008.1.2.4.50");
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getFrameIndex(instance)).thenReturn(null);
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When/Then
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
+                    .andExpect(request().asyncNotStarted())
+                    .andExpect(status().isNotAcceptable());
+        }
+    }
+
+    @Nested
+    @DisplayName("Frame retrieval tests")
+    class FrameRetrievalTests
+    {
+        private BulkDataFile pixelData;
+
+        @BeforeEach
+        void setUp()
+        {
+            // "TEST_DATA" are three native frames of three bytes
+            instance.setTransferSyntaxUID("1.2.840.10008.1.2.1");
+            instance.setNumberOfFrames(3);
+            instance.setPixelDataOffset(6L);
+            instance.setPixelDataLength(9L);
+            instance.setFileSize((long) testData.length);
+            instance.setFileLastModified(0L);
+            pixelData = new BulkDataFile(testFile.path(), 6, 9);
+        }
+
+        @Test
+        @DisplayName("Should return the requested frames as multipart/related in the requested order")
+        void shouldReturnFramesAsMultipart() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getFrameIndex(instance)).thenReturn(FrameIndex.ofNative(9, 3));
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When
+            MvcResult result = performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/frames/3,1"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.CONTENT_TYPE,
+                            startsWith("multipart/related; type=\"application/octet-stream\"; boundary=")))
+                    .andReturn();
+
+            // Then
+            String contentType = result.getResponse().getContentType();
+            String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+            String part = "Content-Type: application/octet-stream; transfer-syntax=1.2.840.10008.1.2.1\r\n\r\n";
+            String expected = "\r\n--" + boundary + "\r\n" + part + "ATA"
+                    + "\r\n--" + boundary + "\r\n" + part + "TES"
+                    + "\r\n--" + boundary + "--\r\n";
+
+            assertThat(result.getResponse().getContentAsString()).isEqualTo(expected);
+            assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH))
+                    .isEqualTo(String.valueOf(expected.length()));
+        }
+
+        @Test
+        @DisplayName("Should join the fragments of an encapsulated frame")
+        void shouldJoinFragmentsOfFrame() throws Exception
+        {
+            // Given - frame 1 are the fragments "TE" and "ST", frame 2 is "DATA"
+            FrameIndex frameIndex = new FrameIndex(new long[]{0, 2, 5}, new long[]{2, 2, 4}, new int[]{0, 2});
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getFrameIndex(instance)).thenReturn(frameIndex);
+            when(bulkDataService.getBulkData(instance)).thenReturn(pixelData);
+
+            // When
+            MvcResult result = performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/frames/1"))
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            // Then
+            assertThat(result.getResponse().getContentAsString()).contains("\r\n\r\nTEST\r\n--");
+        }
+
+        @Test
+        @DisplayName("Should return 404 for a frame the instance does not have")
+        void shouldReturn404ForMissingFrame() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getFrameIndex(instance)).thenReturn(FrameIndex.ofNative(9, 3));
+
+            // When/Then
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/frames/1,4"))
+                    .andExpect(status().isNotFound());
+        }
+
+        @Test
+        @DisplayName("Should return 404 if the frames are not indexed")
+        void shouldReturn404WithoutFrameIndex() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getFrameIndex(instance)).thenReturn(null);
+
+            // When/Then
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/frames/1"))
+                    .andExpect(status().isNotFound());
+        }
+
+        @Test
+        @DisplayName("Should return 400 for an invalid frame list")
+        void shouldReturn400ForInvalidFrameList() throws Exception
+        {
+            // When/Then
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/frames/1,x"))
+                    .andExpect(status().isBadRequest());
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/frames/0"))
+                    .andExpect(status().isBadRequest());
+
+            verifyNoInteractions(bulkDataService);
         }
     }
 
@@ -323,7 +663,7 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenReturn((long) testData.length);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
 
             // When/Then
             mockMvc.perform(head("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
@@ -375,12 +715,68 @@ class DicomWebBulkDataControllerTest
         {
             // Given
             when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
-            when(bulkDataService.getFileSize(testFilePath)).thenThrow(new IOException("File not accessible"));
+            when(bulkDataService.getBulkData(instance)).thenThrow(new IOException("File not accessible"));
 
             // When/Then
             mockMvc.perform(head("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
                     .andExpect(status().isInternalServerError());
         }
     }
-}
 
+    @Nested
+    @DisplayName("Conditional request tests")
+    class ConditionalRequestTests
+    {
+        @Test
+        @DisplayName("Should mark the instance payload as immutable and tag it with the instance ETag")
+        void shouldMarkPayloadImmutable() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+            when(bulkDataService.getBulkData(instance)).thenReturn(testFile);
+
+            // When/Then
+            performStreamed(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string(HttpHeaders.ETAG, DicomWebBulkDataController.etag(instance)))
+                    .andExpect(header().string(HttpHeaders.CACHE_CONTROL, DicomWebBulkDataController.IMMUTABLE));
+        }
+
+        @Test
+        @DisplayName("Should answer a matching If-None-Match with 304 without touching the file")
+        void shouldAnswerMatchingETagWithoutTouchingFile() throws Exception
+        {
+            // Given
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+
+            // When/Then
+            mockMvc.perform(get("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .header(HttpHeaders.IF_NONE_MATCH, DicomWebBulkDataController.etag(instance))
+                            .header(HttpHeaders.RANGE, "bytes=0-9"))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string(HttpHeaders.CACHE_CONTROL, DicomWebBulkDataController.IMMUTABLE))
+                    .andExpect(content().bytes(new byte[0]));
+
+            verifyNoInteractions(bulkDataService);
+        }
+
+        @Test
+        @DisplayName("Should answer If-Modified-Since with 304 for HEAD requests")
+        void shouldAnswerIfModifiedSinceForHeadRequest() throws Exception
+        {
+            // Given
+            series.markModified();
+            when(instanceRepository.findByInstanceUID("1.2.3.4.5.6.7")).thenReturn(instance);
+
+            HttpHeaders conditional = new HttpHeaders();
+            conditional.setIfModifiedSince(series.getLastModified().plusSeconds(1));
+
+            // When/Then
+            mockMvc.perform(head("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata")
+                            .headers(conditional))
+                    .andExpect(status().isNotModified());
+
+            verifyNoInteractions(bulkDataService);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package de.famst.controller;
+
+import de.famst.service.SeriesMetadataService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit tests for DicomWebMetadataController.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@WebMvcTest(DicomWebMetadataController.class)
+class DicomWebMetadataControllerTest
+{
+    private static final String METADATA = "/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/metadata";
+    private static final String JSON = "[{\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4.5.6.7\"]}}]";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private SeriesMetadataService metadataService;
+
+    @TempDir
+    Path tempDir;
+
+    private Path document;
+    private Instant lastModified;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        document = tempDir.resolve("metadata.json.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(document)))
+        {
+            out.write(JSON.getBytes(StandardCharsets.UTF_8));
+        }
+
+        lastModified = Instant.parse("2026-10-19T08:00:00Z");
+        when(metadataService.getLastModified("1.2.3.4.5", "1.2.3.4.5.6")).thenReturn(lastModified);
+        when(metadataService.getDocument("1.2.3.4.5", "1.2.3.4.5.6", lastModified)).thenReturn(document);
+    }
+
+    @Test
+    @DisplayName("Should send the stored document unchanged to clients accepting gzip")
+    void shouldSendCompressedDocument() throws Exception
+    {
+        byte[] body = mockMvc.perform(get(METADATA).header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(DicomWebQidoController.DICOM_JSON))
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ETAG, DicomWebMetadataController.etag(lastModified, true)))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        assertThat(body).isEqualTo(Files.readAllBytes(document));
+    }
+
+    @Test
+    @DisplayName("Should decompress the document for clients not accepting gzip")
+    void shouldDecompressDocument() throws Exception
+    {
+        mockMvc.perform(get(METADATA))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ETAG, DicomWebMetadataController.etag(lastModified, false)))
+                .andExpect(jsonPath("$[0].00080018.Value[0]").value("1.2.3.4.5.6.7"));
+    }
+
+    @Test
+    @DisplayName("Should answer a matching If-None-Match with 304 without looking at the document")
+    void shouldAnswerMatchingETagWithNotModified() throws Exception
+    {
+        mockMvc.perform(get(METADATA).header(HttpHeaders.IF_NONE_MATCH, DicomWebMetadataController.etag(lastModified, false)))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING));
+
+        verify(metadataService, never()).getDocument(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Should not answer the ETag of the gzip encoded document with 304 for a decoded response")
+    void shouldSeparateETagsByEncoding() throws Exception
+    {
+        String gzipETag = DicomWebMetadataController.etag(lastModified, true);
+        assertThat(gzipETag).isNotEqualTo(DicomWebMetadataController.etag(lastModified, false));
+
+        mockMvc.perform(get(METADATA).header(HttpHeaders.IF_NONE_MATCH, gzipETag))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING));
+        mockMvc.perform(get(METADATA).header(HttpHeaders.IF_NONE_MATCH, gzipETag)
+                        .header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    @DisplayName("Should return 404 when the series does not exist in the study")
+    void shouldReturn404ForUnknownSeries() throws Exception
+    {
+        mockMvc.perform(get("/wado-rs/studies/9.9.9/series/1.2.3.4.5.6/metadata"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should honour q=0 in Accept-Encoding")
+    void shouldHonourRejectedGzip()
+    {
+        assertThat(DicomWebMetadataController.acceptsGzip("gzip;q=0, identity")).isFalse();
+        assertThat(DicomWebMetadataController.acceptsGzip("br, gzip;q=0.8")).isTrue();
+        assertThat(DicomWebMetadataController.acceptsGzip("*")).isTrue();
+        assertThat(DicomWebMetadataController.acceptsGzip(null)).isFalse();
+    }
+}
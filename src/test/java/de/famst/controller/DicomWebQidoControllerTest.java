@@ -1,28 +1,51 @@
 package de.famst.controller;
 
-import de.famst.data.InstanceEty;
-import de.famst.data.PatientEty;
-import de.famst.data.SeriesEty;
-import de.famst.data.StudyEty;
+import de.famst.data.InstanceRecord;
+import de.famst.data.QueryOptions;
+import de.famst.data.SeriesRecord;
+import de.famst.data.StudyRecord;
+import de.famst.dcm.DcmQueryExecutor;
 import de.famst.dcm.PatientStudyFinder;
+import de.famst.dcm.ProjectionPlan;
+import de.famst.dcm.QueryGuard;
+import de.famst.dcm.QueryResultCache;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.stubbing.Answer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
-import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -34,12 +57,17 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  *   <li>Series queries</li>
  *   <li>Instance queries</li>
  *   <li>Query parameter handling</li>
+ *   <li>Query result caching</li>
+ *   <li>Streamed DICOM JSON responses</li>
+ *   <li>Paging, includefield and fuzzy matching</li>
+ *   <li>Conditional requests</li>
  * </ul>
  *
  * @author jens
  * @since 2026-04-24
  */
 @WebMvcTest(DicomWebQidoController.class)
+@Import({QueryResultCache.class, QueryGuard.class})
 class DicomWebQidoControllerTest
 {
     @Autowired
@@ -48,38 +76,69 @@ class DicomWebQidoControllerTest
     @MockitoBean
     private PatientStudyFinder patientStudyFinder;
 
-    private PatientEty patient;
-    private StudyEty study;
-    private SeriesEty series;
-    private InstanceEty instance;
+    @MockitoBean
+    private DcmQueryExecutor queryExecutor;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    private QueryGuard queryGuard;
+
+    private StudyRecord study;
+    private SeriesRecord series;
+    private InstanceRecord instance;
 
     @BeforeEach
     void setUp()
     {
-        // Create test entities (constructor is PatientEty(patientName, patientId))
-        patient = new PatientEty("Test^Patient", "12345");
-        patient.setPatientBirthDate(LocalDate.of(1980, 1, 15));
-        patient.setPatientSex("M");
+        // Create test records, each carrying the identifying attributes of its parent
+        study = new StudyRecord(1L, 1L, "Test^Patient", "12345", LocalDate.of(1980, 1, 15), "M",
+            "1.2.3.4.5", "STUDY001", LocalDate.of(2024, 1, 10), LocalTime.of(10, 30, 0),
+            "Test Study", "ACC123", null, null);
+
+        series = new SeriesRecord(2L, 1L, "1.2.3.4.5", "1.2.3.4.5.6", 1, "CT", "Test Series",
+            null, null, null, null, null, null, null, null);
+
+        instance = new InstanceRecord(3L, 2L, "1.2.3.4.5.6", "1.2.3.4.5.6.7", "/path/to/file.dcm", 1,
+            null, null, null, null, null, null, null, null, null, null);
+
+        queryResultCache.clear();
 
-        study = new StudyEty("1.2.3.4.5");
-        study.setStudyId("STUDY001");
-        study.setStudyDate(LocalDate.of(2024, 1, 10));
-        study.setStudyTime(LocalTime.of(10, 30, 0));
-        study.setStudyDescription("Test Study");
-        study.setAccessionNumber("ACC123");
+        // without database, the timed transactions just run the queries
+        when(queryExecutor.executeQido(any(), any()))
+            .thenAnswer(invocation -> invocation.<Supplier<?>>getArgument(1).get());
+    }
 
-        series = new SeriesEty("1.2.3.4.5.6");
-        series.setModality("CT");
-        series.setSeriesNumber(1);
-        series.setSeriesDescription("Test Series");
+    /**
+     * Performs a request and waits for the streamed response body.
+     */
+    private ResultActions perform(MockHttpServletRequestBuilder builder) throws Exception
+    {
+        MvcResult result = mockMvc.perform(builder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
 
-        instance = new InstanceEty("1.2.3.4.5.6.7", "/path/to/file.dcm");
-        instance.setInstanceNumber(1);
+        return mockMvc.perform(asyncDispatch(result));
+    }
 
-        // Setup relationships
-        patient.addStudy(study);
-        study.addSeries(series);
-        series.addInstance(instance);
+    /**
+     * Answers a streaming finder call by projecting the given records with the requested
+     * projection and passing them to its sink.
+     */
+    @SuppressWarnings("unchecked")
+    private static Answer<Void> streaming(Object... records)
+    {
+        return invocation ->
+        {
+            ProjectionPlan<Object> projection = invocation.getArgument(2);
+            Consumer<Attributes> sink = invocation.getArgument(3);
+            for (Object record : records)
+            {
+                sink.accept(projection.project(record));
+            }
+            return null;
+        };
     }
 
     @Test
@@ -87,16 +146,19 @@ class DicomWebQidoControllerTest
     void shouldSearchStudies() throws Exception
     {
         // Given
-        when(patientStudyFinder.findStudies(any())).thenReturn(List.of(study));
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies")
+        perform(get("/qido-rs/studies")
                         .param("PatientID", "12345")
                         .contentType(MediaType.APPLICATION_JSON))
                 .andExpect(status().isOk())
-                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().contentType(DicomWebQidoController.DICOM_JSON))
                 .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$[0].0020000D.Value[0]").value("1.2.3.4.5"));
+                .andExpect(jsonPath("$[0].0020000D.vr").value("UI"))
+                .andExpect(jsonPath("$[0].0020000D.Value[0]").value("1.2.3.4.5"))
+                .andExpect(jsonPath("$[0].00080020.vr").value("DA"))
+                .andExpect(jsonPath("$[0].00080020.Value[0]").value("20240110"));
     }
 
     @Test
@@ -104,14 +166,15 @@ class DicomWebQidoControllerTest
     void shouldSearchStudiesByPatientName() throws Exception
     {
         // Given
-        when(patientStudyFinder.findStudies(any())).thenReturn(List.of(study));
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies")
+        perform(get("/qido-rs/studies")
                         .param("PatientName", "Test*"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$[0].00100010.Value[0]").value("Test^Patient"));
+                .andExpect(jsonPath("$[0].00100010.vr").value("PN"))
+                .andExpect(jsonPath("$[0].00100010.Value[0].Alphabetic").value("Test^Patient"));
     }
 
     @Test
@@ -119,12 +182,12 @@ class DicomWebQidoControllerTest
     void shouldSearchSeries() throws Exception
     {
         // Given
-        when(patientStudyFinder.findSeries(any())).thenReturn(List.of(series));
+        doAnswer(streaming(series)).when(patientStudyFinder).streamSeriesMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies/1.2.3.4.5/series"))
+        perform(get("/qido-rs/studies/1.2.3.4.5/series"))
                 .andExpect(status().isOk())
-                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().contentType(DicomWebQidoController.DICOM_JSON))
                 .andExpect(jsonPath("$").isArray())
                 .andExpect(jsonPath("$[0].0020000E.Value[0]").value("1.2.3.4.5.6"))
                 .andExpect(jsonPath("$[0].00080060.Value[0]").value("CT"));
@@ -135,10 +198,10 @@ class DicomWebQidoControllerTest
     void shouldSearchSeriesByModality() throws Exception
     {
         // Given
-        when(patientStudyFinder.findSeries(any())).thenReturn(List.of(series));
+        doAnswer(streaming(series)).when(patientStudyFinder).streamSeriesMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies/1.2.3.4.5/series")
+        perform(get("/qido-rs/studies/1.2.3.4.5/series")
                         .param("Modality", "CT"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0].00080060.Value[0]").value("CT"));
@@ -149,14 +212,15 @@ class DicomWebQidoControllerTest
     void shouldSearchInstances() throws Exception
     {
         // Given
-        when(patientStudyFinder.findInstances(any())).thenReturn(List.of(instance));
+        doAnswer(streaming(instance)).when(patientStudyFinder).streamInstanceMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances"))
+        perform(get("/qido-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances"))
                 .andExpect(status().isOk())
-                .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+                .andExpect(content().contentType(DicomWebQidoController.DICOM_JSON))
                 .andExpect(jsonPath("$").isArray())
-                .andExpect(jsonPath("$[0].00080018.Value[0]").value("1.2.3.4.5.6.7"));
+                .andExpect(jsonPath("$[0].00080018.Value[0]").value("1.2.3.4.5.6.7"))
+                .andExpect(jsonPath("$[0].00200013.vr").value("IS"));
     }
 
     @Test
@@ -164,10 +228,10 @@ class DicomWebQidoControllerTest
     void shouldReturnEmptyArrayWhenNoStudiesFound() throws Exception
     {
         // Given
-        when(patientStudyFinder.findStudies(any())).thenReturn(List.of());
+        doAnswer(streaming()).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies")
+        perform(get("/qido-rs/studies")
                         .param("PatientID", "NONEXISTENT"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray())
@@ -179,10 +243,10 @@ class DicomWebQidoControllerTest
     void shouldReturnEmptyArrayWhenNoSeriesFound() throws Exception
     {
         // Given
-        when(patientStudyFinder.findSeries(any())).thenReturn(List.of());
+        doAnswer(streaming()).when(patientStudyFinder).streamSeriesMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies/NONEXISTENT/series"))
+        perform(get("/qido-rs/studies/NONEXISTENT/series"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray())
                 .andExpect(jsonPath("$").isEmpty());
@@ -193,10 +257,10 @@ class DicomWebQidoControllerTest
     void shouldReturnEmptyArrayWhenNoInstancesFound() throws Exception
     {
         // Given
-        when(patientStudyFinder.findInstances(any())).thenReturn(List.of());
+        doAnswer(streaming()).when(patientStudyFinder).streamInstanceMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies/NONEXISTENT/series/NONEXISTENT/instances"))
+        perform(get("/qido-rs/studies/NONEXISTENT/series/NONEXISTENT/instances"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray())
                 .andExpect(jsonPath("$").isEmpty());
@@ -207,15 +271,288 @@ class DicomWebQidoControllerTest
     void shouldHandleMultipleQueryParametersForStudies() throws Exception
     {
         // Given
-        when(patientStudyFinder.findStudies(any())).thenReturn(List.of(study));
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
 
         // When/Then
-        mockMvc.perform(get("/qido-rs/studies")
+        perform(get("/qido-rs/studies")
                         .param("PatientID", "12345")
                         .param("StudyDate", "20240110")
                         .param("Modality", "CT"))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$").isArray());
     }
-}
 
+    @Test
+    @DisplayName("Should answer repeated study queries from the query cache")
+    void shouldAnswerRepeatedStudyQueriesFromCache() throws Exception
+    {
+        // Given
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
+
+        // When
+        perform(get("/qido-rs/studies").param("PatientID", "12345"))
+                .andExpect(status().isOk());
+        perform(get("/qido-rs/studies").param("PatientID", "12345"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].0020000D.Value[0]").value("1.2.3.4.5"));
+
+        // Then the hit is written without opening a transaction
+        verify(patientStudyFinder, times(1)).streamStudyMatches(any(), any(), any(), any());
+        verify(queryExecutor, times(1)).executeQido(any(), any());
+    }
+
+    @Test
+    @DisplayName("Should return only the default attributes and the matching keys without includefield")
+    void shouldReturnDefaultAttributesWithoutIncludefield() throws Exception
+    {
+        // Given
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
+
+        // When/Then
+        perform(get("/qido-rs/studies"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].0020000D.Value[0]").value("1.2.3.4.5"))
+                .andExpect(jsonPath("$[0].00081030").doesNotExist());
+    }
+
+    @Test
+    @DisplayName("Should return the attributes named by includefield")
+    void shouldReturnIncludedFields() throws Exception
+    {
+        // Given
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
+
+        // When/Then
+        perform(get("/qido-rs/studies").param("includefield", "StudyDescription"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].00081030.Value[0]").value("Test Study"));
+
+        perform(get("/qido-rs/studies").param("includefield", "all"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].00081030.Value[0]").value("Test Study"));
+    }
+
+    @Test
+    @DisplayName("Should push limit, offset and fuzzy matching into the database query")
+    void shouldPushQueryOptionsIntoDatabase() throws Exception
+    {
+        // Given
+        doAnswer(streaming(series)).when(patientStudyFinder).streamSeriesMatches(any(), any(), any(), any());
+
+        // When
+        perform(get("/qido-rs/studies/1.2.3.4.5/series")
+                        .param("limit", "5")
+                        .param("offset", "10")
+                        .param("fuzzymatching", "true"))
+                .andExpect(status().isOk());
+
+        // Then
+        ArgumentCaptor<QueryOptions> options = ArgumentCaptor.forClass(QueryOptions.class);
+        verify(patientStudyFinder).streamSeriesMatches(any(), options.capture(), any(), any());
+        assertThat(options.getValue().limit()).isEqualTo(5);
+        assertThat(options.getValue().offset()).isEqualTo(10);
+        assertThat(options.getValue().fuzzyMatching()).isTrue();
+        assertThat(options.getValue().returns(Tag.Modality)).isTrue();
+        assertThat(options.getValue().returns(Tag.OperatorsName)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should add a Warning header when the limit truncates the matches")
+    void shouldWarnWhenResultsAreTruncated() throws Exception
+    {
+        // Given
+        doAnswer(streaming(instance)).when(patientStudyFinder).streamInstanceMatches(any(), any(), any(), any());
+        when(patientStudyFinder.hasMoreInstanceMatches(any(), any())).thenReturn(true);
+
+        // When/Then
+        perform(get("/qido-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances").param("limit", "1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(DicomWebQidoController.WARNING, DicomWebQidoController.TRUNCATED_WARNING))
+                .andExpect(jsonPath("$.length()").value(1));
+    }
+
+    @Test
+    @DisplayName("Should bound a search without limit by the maximum matches of the level")
+    void shouldBoundSearchWithoutLimit() throws Exception
+    {
+        // Given
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
+
+        // When/Then
+        perform(get("/qido-rs/studies"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(DicomWebQidoController.WARNING));
+
+        ArgumentCaptor<QueryOptions> options = ArgumentCaptor.forClass(QueryOptions.class);
+        verify(patientStudyFinder).hasMoreStudyMatches(any(), options.capture());
+        assertThat(options.getValue().limit()).isEqualTo(10000);
+        // the probe and the cursor run in timed transactions
+        verify(queryExecutor, times(2)).executeQido(any(), any());
+    }
+
+    @Test
+    @DisplayName("Should warn when the maximum matches of the level truncate a search")
+    void shouldWarnWhenMaximumTruncatesSearch() throws Exception
+    {
+        // Given
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
+        when(patientStudyFinder.hasMoreStudyMatches(any(), any())).thenReturn(true);
+        long truncated = queryGuard.getTruncatedCount(QueryRetrieveLevel2.STUDY);
+
+        // When/Then
+        perform(get("/qido-rs/studies").param("limit", "20000"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(DicomWebQidoController.WARNING, DicomWebQidoController.TRUNCATED_WARNING));
+
+        assertThat(queryGuard.getTruncatedCount(QueryRetrieveLevel2.STUDY)).isEqualTo(truncated + 1);
+    }
+
+    @Test
+    @DisplayName("Should reject an invalid limit")
+    void shouldRejectInvalidLimit() throws Exception
+    {
+        mockMvc.perform(get("/qido-rs/studies").param("limit", "0"))
+                .andExpect(status().isBadRequest());
+
+        verify(patientStudyFinder, times(0)).streamStudyMatches(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Should cache windows of the same query separately")
+    void shouldCacheWindowsSeparately() throws Exception
+    {
+        // Given
+        doAnswer(streaming(study)).when(patientStudyFinder).streamStudyMatches(any(), any(), any(), any());
+
+        // When
+        perform(get("/qido-rs/studies").param("limit", "1").param("offset", "0"))
+                .andExpect(status().isOk());
+        perform(get("/qido-rs/studies").param("limit", "1").param("offset", "1"))
+                .andExpect(status().isOk());
+        perform(get("/qido-rs/studies").param("limit", "1").param("offset", "0"))
+                .andExpect(status().isOk());
+
+        // Then
+        verify(patientStudyFinder, times(2)).streamStudyMatches(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Should answer a matching If-None-Match with 304 without running the query")
+    void shouldAnswerMatchingETagWithNotModified() throws Exception
+    {
+        // Given
+        when(patientStudyFinder.findStudyLastModified("1.2.3.4.5")).thenReturn(Instant.parse("2026-10-19T08:00:00Z"));
+        doAnswer(streaming(series)).when(patientStudyFinder).streamSeriesMatches(any(), any(), any(), any());
+
+        String etag = perform(get("/qido-rs/studies/1.2.3.4.5/series"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-cache, private"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        queryResultCache.clear();
+
+        // When/Then
+        assertThat(etag).startsWith("\"");
+        mockMvc.perform(get("/qido-rs/studies/1.2.3.4.5/series").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+
+        verify(patientStudyFinder, times(1)).streamSeriesMatches(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Should run the query again when the scope has been modified")
+    void shouldRunQueryWhenScopeModified() throws Exception
+    {
+        // Given
+        when(patientStudyFinder.findSeriesLastModified("1.2.3.4.5.6"))
+                .thenReturn(Instant.parse("2026-10-19T08:00:00Z"), Instant.parse("2026-10-19T08:00:00.5Z"));
+        doAnswer(streaming(instance)).when(patientStudyFinder).streamInstanceMatches(any(), any(), any(), any());
+
+        String etag = perform(get("/qido-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        // When/Then
+        String modified = perform(get("/qido-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances")
+                        .header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].00080018.Value[0]").value("1.2.3.4.5.6.7"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+
+        assertThat(modified).isNotEqualTo(etag);
+    }
+
+    @Test
+    @DisplayName("Should answer If-Modified-Since with 304 when the archive has not changed")
+    void shouldAnswerIfModifiedSinceWithNotModified() throws Exception
+    {
+        // Given
+        Instant lastModified = Instant.parse("2026-10-19T08:00:00Z");
+        when(patientStudyFinder.findLastModified()).thenReturn(lastModified);
+
+        HttpHeaders conditional = new HttpHeaders();
+        conditional.setIfModifiedSince(lastModified);
+
+        // When/Then
+        mockMvc.perform(get("/qido-rs/studies").param("PatientID", "12345").headers(conditional))
+                .andExpect(status().isNotModified());
+
+        verify(patientStudyFinder, times(0)).hasMoreStudyMatches(any(), any());
+        verify(patientStudyFinder, times(0)).streamStudyMatches(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Should match the study of the path in the instances query")
+    void shouldMatchStudyOfInstancesPath() throws Exception
+    {
+        // Given
+        doAnswer(streaming(instance)).when(patientStudyFinder).streamInstanceMatches(any(), any(), any(), any());
+
+        // When
+        perform(get("/qido-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances"))
+                .andExpect(status().isOk());
+
+        // Then
+        ArgumentCaptor<Attributes> keys = ArgumentCaptor.forClass(Attributes.class);
+        verify(patientStudyFinder).streamInstanceMatches(keys.capture(), any(), any(), any());
+        assertThat(keys.getValue().getString(Tag.StudyInstanceUID)).isEqualTo("1.2.3.4.5");
+        assertThat(keys.getValue().getString(Tag.SeriesInstanceUID)).isEqualTo("1.2.3.4.5.6");
+    }
+
+    @Test
+    @DisplayName("Should pass patient and study keys of a root level series search to the query")
+    void shouldSearchAllSeriesByUpperLevelKeys() throws Exception
+    {
+        // Given
+        doAnswer(streaming(series)).when(patientStudyFinder).streamSeriesMatches(any(), any(), any(), any());
+
+        // When
+        perform(get("/qido-rs/series")
+                        .param("PatientID", "12345")
+                        .param("StudyDate", "20240101-20241231")
+                        .param("Modality", "CT")
+                        .param("limit", "10"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].0020000E.Value[0]").value("1.2.3.4.5.6"));
+
+        // Then
+        ArgumentCaptor<Attributes> keys = ArgumentCaptor.forClass(Attributes.class);
+        verify(patientStudyFinder).streamSeriesMatches(keys.capture(), any(), any(), any());
+        assertThat(keys.getValue().getString(Tag.PatientID)).isEqualTo("12345");
+        assertThat(keys.getValue().getString(Tag.StudyDate)).isEqualTo("20240101-20241231");
+        assertThat(keys.getValue().getString(Tag.Modality)).isEqualTo("CT");
+        assertThat(keys.getValue().contains(Tag.SeriesNumber)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should reject a root level instance search with a non-numeric key")
+    void shouldRejectNonNumericKeyOfAllInstances() throws Exception
+    {
+        mockMvc.perform(get("/qido-rs/instances").param("InstanceNumber", "first"))
+                .andExpect(status().isBadRequest());
+
+        verify(patientStudyFinder, times(0)).streamInstanceMatches(any(), any(), any(), any());
+    }
+}
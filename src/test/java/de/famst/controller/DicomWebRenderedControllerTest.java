@@ -0,0 +1,141 @@
+package de.famst.controller;
+
+import de.famst.dcm.DcmImage;
+import de.famst.service.ThumbnailService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit tests for DicomWebRenderedController.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@WebMvcTest(DicomWebRenderedController.class)
+class DicomWebRenderedControllerTest
+{
+    private static final String SERIES_URL = "/wado-rs/studies/1.2.3/series/1.2.3.4";
+
+    private static final byte[] IMAGE = {1, 2, 3};
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private ThumbnailService thumbnailService;
+
+    @Test
+    @DisplayName("Should send the series thumbnail as JPEG by default")
+    void shouldSendSeriesThumbnail() throws Exception
+    {
+        when(thumbnailService.getSeriesThumbnail("1.2.3", "1.2.3.4", DcmImage.Format.JPEG)).thenReturn(IMAGE);
+
+        mockMvc.perform(get(SERIES_URL + "/thumbnail"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/jpeg"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("no-cache")))
+                .andExpect(content().bytes(IMAGE));
+    }
+
+    @Test
+    @DisplayName("Should send PNG if the client prefers it")
+    void shouldSendPngIfPreferred() throws Exception
+    {
+        when(thumbnailService.getInstanceThumbnail("1.2.3", "1.2.3.4", "1.2.3.4.5", DcmImage.Format.PNG))
+                .thenReturn(IMAGE);
+
+        mockMvc.perform(get(SERIES_URL + "/instances/1.2.3.4.5/thumbnail")
+                        .header(HttpHeaders.ACCEPT, "image/jpeg;q=0.5, image/png"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("image/png"))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, containsString("immutable")))
+                .andExpect(header().string(HttpHeaders.VARY, HttpHeaders.ACCEPT));
+    }
+
+    @Test
+    @DisplayName("Should render an instance into the requested viewport")
+    void shouldRenderIntoViewport() throws Exception
+    {
+        when(thumbnailService.getRendered("1.2.3", "1.2.3.4", "1.2.3.4.5", 512, 256, DcmImage.Format.JPEG))
+                .thenReturn(IMAGE);
+
+        mockMvc.perform(get(SERIES_URL + "/instances/1.2.3.4.5/rendered").param("viewport", "512,256"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(IMAGE));
+    }
+
+    @Test
+    @DisplayName("Should reject invalid viewports and unsupported media types")
+    void shouldRejectInvalidRequests() throws Exception
+    {
+        mockMvc.perform(get(SERIES_URL + "/instances/1.2.3.4.5/rendered").param("viewport", "512"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(get(SERIES_URL + "/thumbnail").header(HttpHeaders.ACCEPT, "image/gif"))
+                .andExpect(status().isNotAcceptable());
+
+        verifyNoInteractions(thumbnailService);
+    }
+
+    @Test
+    @DisplayName("Should return 404 for unknown series and images which cannot be rendered")
+    void shouldReturn404() throws Exception
+    {
+        when(thumbnailService.getSeriesThumbnail("1.2.3", "1.2.3.4", DcmImage.Format.JPEG)).thenReturn(null);
+        when(thumbnailService.getInstanceThumbnail(anyString(), anyString(), anyString(), any()))
+                .thenThrow(new IOException("Unsupported Transfer Syntax"));
+
+        mockMvc.perform(get(SERIES_URL + "/thumbnail"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get(SERIES_URL + "/instances/1.2.3.4.5/thumbnail"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should return 503 if all renderers are busy or the rendering timed out")
+    void shouldReturn503IfBusy() throws Exception
+    {
+        when(thumbnailService.getRendered(anyString(), anyString(), anyString(), anyInt(), anyInt(), any()))
+                .thenThrow(new RejectedExecutionException());
+        when(thumbnailService.getInstanceThumbnail(anyString(), anyString(), anyString(), any()))
+                .thenThrow(new InterruptedIOException("Rendering timed out"));
+
+        mockMvc.perform(get(SERIES_URL + "/instances/1.2.3.4.5/rendered"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+        mockMvc.perform(get(SERIES_URL + "/instances/1.2.3.4.5/thumbnail"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+    }
+
+    @Test
+    @DisplayName("Should choose the image format from the Accept header")
+    void shouldChooseFormat()
+    {
+        assertThat(DicomWebRenderedController.format(null)).isEqualTo(DcmImage.Format.JPEG);
+        assertThat(DicomWebRenderedController.format("*/*")).isEqualTo(DcmImage.Format.JPEG);
+        assertThat(DicomWebRenderedController.format("image/png")).isEqualTo(DcmImage.Format.PNG);
+        assertThat(DicomWebRenderedController.format("image/*, image/png")).isEqualTo(DcmImage.Format.PNG);
+        assertThat(DicomWebRenderedController.format("application/json")).isNull();
+    }
+}
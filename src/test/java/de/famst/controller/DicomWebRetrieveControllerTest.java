@@ -0,0 +1,183 @@
+package de.famst.controller;
+
+import de.famst.dcm.UnsupportedTransferSyntaxException;
+import de.famst.service.DicomRetrieveService;
+import de.famst.service.FileSequence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.dcm4che3.data.UID;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit tests for DicomWebRetrieveController.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@WebMvcTest(DicomWebRetrieveController.class)
+class DicomWebRetrieveControllerTest
+{
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private DicomRetrieveService retrieveService;
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown()
+    {
+        ioExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should stream all instances of a study as multipart/related")
+    void shouldRetrieveStudy() throws Exception
+    {
+        // Given, buffers smaller than the files
+        when(retrieveService.getStudy("1.2.3")).thenReturn(files(3, "FIRST_INSTANCE", "SECOND"));
+
+        // When
+        MvcResult started = mockMvc.perform(get("/wado-rs/studies/1.2.3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE,
+                        startsWith("multipart/related; type=\"application/dicom\"; boundary=")))
+                .andReturn();
+
+        // Then
+        String contentType = result.getResponse().getContentType();
+        String boundary = contentType.substring(contentType.indexOf("boundary=") + "boundary=".length());
+        String part = "Content-Type: application/dicom\r\n\r\n";
+        String expected = "\r\n--" + boundary + "\r\n" + part + "FIRST_INSTANCE"
+                + "\r\n--" + boundary + "\r\n" + part + "SECOND"
+                + "\r\n--" + boundary + "--\r\n";
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(expected);
+    }
+
+    @Test
+    @DisplayName("Should stream all instances of a series")
+    void shouldRetrieveSeries() throws Exception
+    {
+        when(retrieveService.getSeries("1.2.3", "1.2.3.4")).thenReturn(files(8, "ONLY"));
+
+        MvcResult started = mockMvc.perform(get("/wado-rs/studies/1.2.3/series/1.2.3.4"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        assertThat(result.getResponse().getContentAsString()).contains("\r\n\r\nONLY\r\n--");
+    }
+
+    @Test
+    @DisplayName("Should return 404 for a study without instances")
+    void shouldReturn404ForUnknownStudy() throws Exception
+    {
+        when(retrieveService.getStudy("9.9.9")).thenReturn(files(8));
+
+        mockMvc.perform(get("/wado-rs/studies/9.9.9"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @DisplayName("Should return 500 if a file of the series is missing")
+    void shouldReturn500ForMissingFile() throws Exception
+    {
+        when(retrieveService.getSeries("1.2.3", "1.2.3.4")).thenThrow(new NoSuchFileException("gone.dcm"));
+
+        mockMvc.perform(get("/wado-rs/studies/1.2.3/series/1.2.3.4"))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    @DisplayName("Should retrieve in the transfer syntax of the Accept header")
+    void shouldRetrieveInRequestedTransferSyntax() throws Exception
+    {
+        when(retrieveService.getSeries("1.2.3", "1.2.3.4", UID.ImplicitVRLittleEndian)).thenReturn(files(8, "IMPLICIT"));
+
+        MvcResult started = mockMvc.perform(get("/wado-rs/studies/1.2.3/series/1.2.3.4")
+                        .header(HttpHeaders.ACCEPT, "multipart/related; type=\"application/dicom\"; transfer-syntax="
+                                + UID.ImplicitVRLittleEndian))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith(
+                        "multipart/related; type=\"application/dicom\"; transfer-syntax=" + UID.ImplicitVRLittleEndian)))
+                .andReturn();
+
+        assertThat(result.getResponse().getContentAsString()).contains(
+                "Content-Type: application/dicom; transfer-syntax=" + UID.ImplicitVRLittleEndian + "\r\n\r\nIMPLICIT");
+    }
+
+    @Test
+    @DisplayName("Should return 406 if the instances cannot be converted")
+    void shouldReturn406ForUnsupportedTransferSyntax() throws Exception
+    {
+        when(retrieveService.getStudy("1.2.3", UID.JPEG2000))
+                .thenThrow(new UnsupportedTransferSyntaxException("no encoder"));
+
+        mockMvc.perform(get("/wado-rs/studies/1.2.3")
+                        .header(HttpHeaders.ACCEPT, "multipart/related; type=\"application/dicom\"; transfer-syntax="
+                                + UID.JPEG2000))
+                .andExpect(status().isNotAcceptable());
+    }
+
+    @Test
+    @DisplayName("Should find the transfer syntax of the preferred multipart type")
+    void shouldParseTransferSyntax()
+    {
+        assertThat(DicomWebRetrieveController.transferSyntax(null)).isNull();
+        assertThat(DicomWebRetrieveController.transferSyntax("multipart/related; type=\"application/dicom\""))
+                .isNull();
+        assertThat(DicomWebRetrieveController.transferSyntax(
+                "multipart/related; type=\"application/dicom\"; transfer-syntax=*")).isNull();
+        assertThat(DicomWebRetrieveController.transferSyntax(
+                "multipart/related; type=\"application/dicom\"; transfer-syntax=1.2.840.10008.1.2;q=0.5,"
+                        + "multipart/related; type=\"application/dicom\"; transfer-syntax=\"1.2.840.10008.1.2.1\""))
+                .isEqualTo(UID.ExplicitVRLittleEndian);
+    }
+
+    private FileSequence files(int bufferSize, String... contents) throws IOException
+    {
+        Path[] files = new Path[contents.length];
+        for (int i = 0; i < contents.length; i++)
+        {
+            files[i] = Files.writeString(tempDir.resolve(i + ".dcm"), contents[i], StandardCharsets.US_ASCII);
+        }
+        return new FileSequence(List.of(files), ioExecutor, 2, bufferSize);
+    }
+}
@@ -1,8 +1,12 @@
 package de.famst.controller;
 
 
-import de.famst.data.PatientEty;
-import de.famst.data.PatientRepository;
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceRecord;
+import de.famst.data.PatientRecord;
+import de.famst.data.SeriesRecord;
+import de.famst.data.StudyRecord;
+import de.famst.service.PatientNameTrie;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
@@ -24,7 +28,9 @@ import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.isA;
 import static org.hamcrest.collection.IsCollectionWithSize.hasSize;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.model;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.view;
@@ -36,18 +42,27 @@ public class PatientListControllerTest
   private MockMvc mockMvc;
 
   @MockitoBean
-  private PatientRepository patientRepository;
+  private DicomReadRepository dicomReadRepository;
+
+  @MockitoBean
+  private PatientNameTrie patientNameTrie;
+
+  private static PatientRecord patient(long id, String name, String patientId)
+  {
+    return new PatientRecord(id, name, patientId, null, null, null, null, null, null,
+        null, null, null, null, null, null, null, null, null);
+  }
 
   @Test
   public void canGetListOfPatients() throws Exception
   {
-    List<PatientEty> patients = new ArrayList<>();
-    patients.add(new PatientEty("NAME", "ID"));
+    List<PatientRecord> patients = new ArrayList<>();
+    patients.add(patient(1L, "NAME", "ID"));
 
     // Create a Page object with the patient list
-    Page<PatientEty> patientPage = new PageImpl<>(patients, PageRequest.of(0, 10), 1);
+    Page<PatientRecord> patientPage = new PageImpl<>(patients, PageRequest.of(0, 10), 1);
 
-    given(patientRepository.findAllWithStudies(any(Pageable.class))).willReturn(patientPage);
+    given(dicomReadRepository.findPatients(any(Pageable.class), any(), any())).willReturn(patientPage);
 
     mockMvc.perform(MockMvcRequestBuilders.get("/patientlist"))
       .andExpect(status().isOk())
@@ -71,4 +86,81 @@ public class PatientListControllerTest
       .andExpect(model().attribute("pageSize", is(10)))
       .andExpect(view().name("patientList"));
   }
+
+  @Test
+  public void groupsStudiesSeriesAndInstancesByParent() throws Exception
+  {
+    Page<PatientRecord> patientPage = new PageImpl<>(
+        List.of(patient(1L, "NAME", "ID"), patient(2L, "OTHER", "ID2")), PageRequest.of(0, 10), 2);
+
+    given(dicomReadRepository.findPatients(any(Pageable.class), any(), any())).willReturn(patientPage);
+    given(dicomReadRepository.findStudiesOfPatients(List.of(1L, 2L))).willReturn(List.of(
+        new StudyRecord(10L, 1L, "NAME", "ID", null, null, "1.2.3", null, null, null, "STUDY", null, null, null)));
+    given(dicomReadRepository.findSeriesOfStudies(List.of(10L))).willReturn(List.of(
+        new SeriesRecord(100L, 10L, "1.2.3", "1.2.3.4", 1, "CT", null, null, null, null, null, null, null, null, null)));
+    given(dicomReadRepository.findInstancesOfSeries(List.of(100L))).willReturn(List.of(
+        new InstanceRecord(1000L, 100L, "1.2.3.4", "1.2.3.4.5", "/archive/a.dcm", 1, null, null, null, null, null, null,
+            null, null, null, null),
+        new InstanceRecord(1001L, 100L, "1.2.3.4", "1.2.3.4.6", "/archive/b.dcm", 2, null, null, null, null, null, null,
+            null, null, null, null)));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/patientlist"))
+      .andExpect(status().isOk())
+      .andExpect(model().attribute("patients", hasSize(2)))
+      .andExpect(model().attribute("patients", hasItem(
+        allOf(
+          hasProperty("patientId", is("ID")),
+          hasProperty("numberOfStudies", is(1L)),
+          hasProperty("studies", hasItem(
+            allOf(
+              hasProperty("studyDescription", is("STUDY")),
+              hasProperty("numberOfSeries", is(1L)),
+              hasProperty("series", hasItem(
+                hasProperty("numberOfInstances", is(2L))))))))
+        )
+      ))
+      .andExpect(model().attribute("patients", hasItem(
+        allOf(
+          hasProperty("patientId", is("ID2")),
+          hasProperty("numberOfStudies", is(0L)))
+        )
+      ));
+  }
+
+  @Test
+  public void searchesPatientsByText() throws Exception
+  {
+    Page<PatientRecord> patientPage = new PageImpl<>(List.of(patient(1L, "NAME", "ID")), PageRequest.of(0, 10), 1);
+
+    given(dicomReadRepository.findPatients(any(Pageable.class), any(), eq("contrast follow*"))).willReturn(patientPage);
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/patientlist").param("q", "contrast follow*"))
+      .andExpect(status().isOk())
+      .andExpect(model().attribute("patients", hasSize(1)))
+      .andExpect(model().attribute("query", is("contrast follow*")));
+  }
+
+  @Test
+  public void searchesPatientsByName() throws Exception
+  {
+    Page<PatientRecord> patientPage = new PageImpl<>(List.of(patient(1L, "Müller^Jürgen", "ID")), PageRequest.of(0, 10), 1);
+
+    given(dicomReadRepository.findPatients(any(Pageable.class), eq("muller^j"), any())).willReturn(patientPage);
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/patientlist").param("name", "muller^j"))
+      .andExpect(status().isOk())
+      .andExpect(model().attribute("patients", hasSize(1)))
+      .andExpect(model().attribute("name", is("muller^j")));
+  }
+
+  @Test
+  public void suggestsPatientNames() throws Exception
+  {
+    given(patientNameTrie.suggest("mul", 10)).willReturn(List.of("Mulder^Fox", "Muller^Jurgen"));
+
+    mockMvc.perform(MockMvcRequestBuilders.get("/patientlist/suggest").param("prefix", "mul"))
+      .andExpect(status().isOk())
+      .andExpect(jsonPath("$", hasSize(2)))
+      .andExpect(jsonPath("$[0]", is("Mulder^Fox")));
+  }
 }
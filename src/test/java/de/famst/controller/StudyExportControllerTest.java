@@ -0,0 +1,121 @@
+package de.famst.controller;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.service.StudyExportService;
+import de.famst.service.ZipExport;
+import org.dcm4che3.data.UID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Unit tests for StudyExportController.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@WebMvcTest(StudyExportController.class)
+class StudyExportControllerTest
+{
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoBean
+    private StudyExportService exportService;
+
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown()
+    {
+        ioExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should stream a study as ZIP attachment")
+    void shouldExportStudy() throws Exception
+    {
+        Path file = Files.writeString(tempDir.resolve("1.dcm"), "INSTANCE");
+        when(exportService.export(List.of("1.2.3"), false)).thenReturn(new ZipExport(List.of(
+            new InstanceFileRecord("1.2.3", "1.2.3.4", "1.2.3.4.5", file.toString(), UID.ExplicitVRLittleEndian)),
+            ioExecutor, 2, false));
+
+        MvcResult started = mockMvc.perform(get("/export/studies/1.2.3"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        MvcResult result = mockMvc.perform(asyncDispatch(started))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip"))
+                .andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, containsString("1.2.3.zip")))
+                .andReturn();
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())))
+        {
+            ZipEntry entry = zip.getNextEntry();
+            assertThat(entry.getName()).isEqualTo("1.2.3/1.2.3.4/1.2.3.4.5.dcm");
+            assertThat(new String(zip.readAllBytes())).isEqualTo("INSTANCE");
+            assertThat(zip.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    @DisplayName("Should export several studies given as comma separated list")
+    void shouldExportStudies() throws Exception
+    {
+        when(exportService.export(anyCollection(), anyBoolean())).thenReturn(empty());
+
+        mockMvc.perform(get("/export/studies").param("study", "1.2.3,1.2.4").param("dicomdir", "true"))
+                .andExpect(status().isNotFound());
+
+        verify(exportService).export(Set.of("1.2.3", "1.2.4"), true);
+    }
+
+    @Test
+    @DisplayName("Should return 404 for a study without instances and 400 without study")
+    void shouldRejectEmptyExports() throws Exception
+    {
+        when(exportService.export(List.of("9.9.9"), false)).thenReturn(empty());
+
+        mockMvc.perform(get("/export/studies/9.9.9"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/export/studies").param("study", " "))
+                .andExpect(status().isBadRequest());
+    }
+
+    private ZipExport empty()
+    {
+        return new ZipExport(List.of(), ioExecutor, 2, false);
+    }
+}
@@ -0,0 +1,194 @@
+package de.famst.data;
+
+import de.famst.MuPACSApplication;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the query options of the read model, which are applied in SQL:
+ * the window of matches, fuzzy person name matching, the selected columns and the
+ * matching of keys of upper levels.
+ */
+@DataJpaTest
+@ContextConfiguration(classes = {MuPACSApplication.class, DicomReadRepositoryTest.SpringConfig.class})
+@DisplayName("DicomReadRepository Tests")
+class DicomReadRepositoryTest
+{
+    @Configuration
+    @ComponentScan("de.famst.data")
+    public static class SpringConfig
+    {
+    }
+
+    @Autowired
+    private DataBaseFiller dbFiller;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private DicomReadRepository dicomReadRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @BeforeEach
+    void setUp()
+    {
+        dbFiller.fillDB(entityManager);
+        entityManager.clear();
+    }
+
+    private List<StudyRecord> streamStudies(Attributes keys, QueryOptions options)
+    {
+        try (Stream<StudyRecord> records = dicomReadRepository.streamStudies(keys, options))
+        {
+            return records.toList();
+        }
+    }
+
+    private static Attributes patientName(String value)
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientName, VR.PN, value);
+        return keys;
+    }
+
+    @Test
+    @DisplayName("Should stream the same matches as the list query")
+    void shouldStreamSameMatchesAsListQuery()
+    {
+        List<StudyRecord> streamed = streamStudies(new Attributes(), QueryOptions.ALL);
+
+        assertThat(streamed).isEqualTo(dicomReadRepository.findStudies(new Attributes()));
+    }
+
+    @Test
+    @DisplayName("Should read only the window of matches given by offset and limit")
+    void shouldReadWindowOfMatches()
+    {
+        List<StudyRecord> all = dicomReadRepository.findStudies(new Attributes());
+
+        List<StudyRecord> window = streamStudies(new Attributes(), new QueryOptions(5, 10, false, null));
+
+        assertThat(window).isEqualTo(all.subList(5, 15));
+    }
+
+    @Test
+    @DisplayName("Should detect matches after the window")
+    void shouldDetectMatchesAfterWindow()
+    {
+        assertThat(dicomReadRepository.hasMoreStudies(new Attributes(), new QueryOptions(5, 10, false, null))).isTrue();
+        assertThat(dicomReadRepository.hasMoreStudies(new Attributes(), new QueryOptions(10, 10, false, null))).isFalse();
+        assertThat(dicomReadRepository.hasMoreStudies(new Attributes(), QueryOptions.ALL)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should not read the columns of attributes that are not returned")
+    void shouldNotReadColumnsOfUnreturnedAttributes()
+    {
+        List<StudyRecord> withoutName = streamStudies(new Attributes(),
+            new QueryOptions(0, QueryOptions.UNLIMITED, false, Set.of(Tag.StudyInstanceUID)));
+        List<StudyRecord> withName = streamStudies(new Attributes(),
+            new QueryOptions(0, QueryOptions.UNLIMITED, false, Set.of(Tag.StudyInstanceUID, Tag.PatientName)));
+
+        assertThat(withoutName).hasSize(20);
+        assertThat(withoutName).allSatisfy(study ->
+        {
+            assertThat(study.studyInstanceUID()).isNotNull();
+            assertThat(study.patientName()).isNull();
+        });
+        assertThat(withName).allSatisfy(study -> assertThat(study.patientName()).startsWith("Demo_"));
+    }
+
+    @Test
+    @DisplayName("Should match person names case-insensitively only with fuzzy matching")
+    void shouldMatchPersonNamesFuzzily()
+    {
+        QueryOptions fuzzy = new QueryOptions(0, QueryOptions.UNLIMITED, true, null);
+
+        assertThat(streamStudies(patientName("demo_003"), QueryOptions.ALL)).isEmpty();
+        assertThat(streamStudies(patientName("demo_003"), fuzzy))
+            .hasSize(2)
+            .allMatch(study -> "Demo_003".equals(study.patientName()));
+        assertThat(streamStudies(patientName("demo"), fuzzy)).hasSize(20);
+    }
+
+    @Test
+    @DisplayName("Should match patient and study keys of series and instance queries")
+    void shouldMatchUpperLevelKeys()
+    {
+        Attributes patient = new Attributes();
+        patient.setString(Tag.PatientID, VR.LO, "1.2.48.3");
+
+        assertThat(dicomReadRepository.findSeries(patient))
+            .hasSize(4)
+            .allMatch(series -> series.seriesInstanceUID().startsWith("1.2.48.3."));
+
+        Attributes patientAndStudy = new Attributes(patient);
+        patientAndStudy.setString(Tag.AccessionNumber, VR.SH, "111");
+
+        assertThat(dicomReadRepository.findInstances(patientAndStudy))
+            .hasSize(4)
+            .allMatch(instance -> instance.instanceUID().startsWith("1.2.48.3.1."));
+    }
+
+    @Test
+    @DisplayName("Should match normalized family and given name prefixes with fuzzy matching")
+    void shouldMatchNormalizedNameComponents()
+    {
+        QueryOptions fuzzy = new QueryOptions(0, QueryOptions.UNLIMITED, true, null);
+
+        PatientEty patient = patientRepository.findByPatientId("1.2.48.3");
+        patient.setPatientName("Müller^Jürgen");
+        entityManager.flush();
+
+        assertThat(patient.getPatientFamilyName()).isEqualTo("MULLER");
+        assertThat(patient.getPatientGivenName()).isEqualTo("JURGEN");
+
+        assertThat(dicomReadRepository.findPatients(patientName("muller^j"), fuzzy))
+            .extracting(PatientRecord::patientId).containsExactly("1.2.48.3");
+        assertThat(dicomReadRepository.findPatients(patientName("JÜRG"), fuzzy))
+            .extracting(PatientRecord::patientId).containsExactly("1.2.48.3");
+        assertThat(dicomReadRepository.findPatients(patientName("^jurgen"), fuzzy)).hasSize(1);
+        assertThat(dicomReadRepository.findPatients(patientName("jurgen^"), fuzzy)).isEmpty();
+        assertThat(dicomReadRepository.findPatients(patientName("mül"), QueryOptions.ALL)).isEmpty();
+
+        assertThat(dicomReadRepository.findPatients(PageRequest.of(0, 10), "mül", null))
+            .extracting(PatientRecord::patientId).containsExactly("1.2.48.3");
+    }
+
+    @Test
+    @DisplayName("Should sort a page of patients only by patient attributes")
+    void shouldSortPatientsByWhitelistedProperties()
+    {
+        List<PatientRecord> sorted = dicomReadRepository.findPatients(
+            PageRequest.of(0, 100, Sort.by("patientId").descending()), null, null).getContent();
+
+        assertThat(sorted).extracting(PatientRecord::patientId)
+            .isSortedAccordingTo((a, b) -> b.compareTo(a));
+        assertThatThrownBy(() -> dicomReadRepository.findPatients(PageRequest.of(0, 10, Sort.by("studies")), null, null))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> dicomReadRepository.findPatients(PageRequest.of(0, 10, Sort.by("unknown")), null, null))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
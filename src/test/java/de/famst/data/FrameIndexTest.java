@@ -0,0 +1,57 @@
+package de.famst.data;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for FrameIndex.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("FrameIndex Tests")
+class FrameIndexTest
+{
+    @Test
+    @DisplayName("Should split native Pixel Data into frames of equal size, ignoring the padding")
+    void shouldSplitNativePixelData()
+    {
+        FrameIndex index = FrameIndex.ofNative(10, 3);
+
+        assertThat(index.frames()).isEqualTo(3);
+        assertThat(index.offset(index.firstFragment(2))).isEqualTo(6);
+        assertThat(index.frameLength(2)).isEqualTo(3);
+
+        assertThat(FrameIndex.ofNative(11, 3)).isNull();
+        assertThat(FrameIndex.ofNative(2, 3)).isNull();
+    }
+
+    @Test
+    @DisplayName("Should keep the fragments of each frame when stored")
+    void shouldEncodeAndDecode()
+    {
+        FrameIndex index = new FrameIndex(new long[]{16, 28, 44}, new long[]{4, 8, 6}, new int[]{0, 2});
+
+        FrameIndex decoded = FrameIndex.decode(index.encode());
+
+        assertThat(decoded.frames()).isEqualTo(2);
+        assertThat(decoded.firstFragment(1)).isEqualTo(2);
+        assertThat(decoded.endFragment(0)).isEqualTo(2);
+        assertThat(decoded.endFragment(1)).isEqualTo(3);
+        assertThat(decoded.offset(1)).isEqualTo(28);
+        assertThat(decoded.frameLength(0)).isEqualTo(12);
+    }
+
+    @Test
+    @DisplayName("Should reject frames without fragments")
+    void shouldRejectInvalidIndex()
+    {
+        assertThatThrownBy(() -> new FrameIndex(new long[]{0, 4}, new long[]{4, 4}, new int[]{0, 2}))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new FrameIndex(new long[]{0, 4}, new long[]{4, 4}, new int[]{1}))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
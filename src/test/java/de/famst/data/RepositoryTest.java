@@ -2,6 +2,10 @@ package de.famst.data;
 
 import de.famst.MuPACSApplication;
 import org.assertj.core.api.Assertions;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -10,8 +14,11 @@ import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
 import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
 import org.springframework.test.context.ContextConfiguration;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -52,6 +59,21 @@ public class RepositoryTest
     @Autowired
     private InstanceRepository instanceRepository;
 
+    @Autowired
+    private InstanceHeaderRepository instanceHeaderRepository;
+
+    @Autowired
+    private InstanceFramesRepository instanceFramesRepository;
+
+    @Autowired
+    private TextIndex textIndex;
+
+    @Autowired
+    private ModificationStamps modificationStamps;
+
+    @Autowired
+    private DicomReadRepository dicomReadRepository;
+
     @Autowired
     private TestEntityManager entityManager;
 
@@ -169,5 +191,97 @@ public class RepositoryTest
         assertThat(seriesEty.getInstances(), hasItem(instanceEty));
     }
 
+    @DisplayName("Should store instance headers and find them by series without Pixel Data")
+    @Test
+    public void canFindInstanceHeadersBySeries()
+    {
+        for (InstanceEty instanceEty : seriesRepository.findBySeriesInstanceUID("1.2.48.3.1.1").getInstances())
+        {
+            Attributes dataset = new Attributes();
+            dataset.setString(Tag.SOPInstanceUID, VR.UI, instanceEty.getInstanceUID());
+            dataset.setString(Tag.ImagePositionPatient, VR.DS, "0", "0", "12.5");
+            dataset.setBytes(Tag.PixelData, VR.OB, new byte[1024]);
+            instanceHeaderRepository.save(new InstanceHeaderEty(instanceEty, dataset));
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        List<InstanceHeaderEty> headers = instanceHeaderRepository.findBySeriesInstanceUID("1.2.48.3.1.1");
+
+        Assertions.assertThat(headers).hasSize(2);
+        Attributes header = headers.get(0).getHeader();
+        Assertions.assertThat(header.getString(Tag.SOPInstanceUID)).startsWith("1.2.48.3.1.1.");
+        Assertions.assertThat(header.getDoubles(Tag.ImagePositionPatient)).containsExactly(0.0, 0.0, 12.5);
+        Assertions.assertThat(header.contains(Tag.PixelData)).isFalse();
+        Assertions.assertThat(headers.get(0).getSize()).isLessThan(1024);
+    }
+
+    @DisplayName("Should delete a series with the headers, frame indexes and text index entries of its instances")
+    @Test
+    public void canDeleteSeriesWithInstanceRows()
+    {
+        SeriesEty seriesEty = seriesRepository.findBySeriesInstanceUID("1.2.48.3.1.1");
+        long patientId = seriesEty.getStudy().getPatient().getId();
+        textIndex.index(QueryRetrieveLevel2.SERIES, seriesEty.getId(), patientId, "Thorax");
+        for (InstanceEty instanceEty : seriesEty.getInstances())
+        {
+            Attributes dataset = new Attributes();
+            dataset.setString(Tag.SOPInstanceUID, VR.UI, instanceEty.getInstanceUID());
+            instanceHeaderRepository.save(new InstanceHeaderEty(instanceEty, dataset));
+            instanceFramesRepository.save(new InstanceFramesEty(instanceEty, FrameIndex.ofNative(1024, 1)));
+            textIndex.index(QueryRetrieveLevel2.IMAGE, instanceEty.getId(), patientId, "Kontrast");
+        }
+        entityManager.flush();
+        entityManager.clear();
+
+        // like the REST API: the series is loaded on its own and deleted
+        seriesRepository.delete(seriesRepository.findBySeriesInstanceUID("1.2.48.3.1.1"));
+        entityManager.flush();
+        entityManager.clear();
+
+        Assertions.assertThat(seriesRepository.findBySeriesInstanceUID("1.2.48.3.1.1")).isNull();
+        Assertions.assertThat(instanceRepository.findByInstanceUID("1.2.48.3.1.1.0")).isNull();
+        Assertions.assertThat(instanceHeaderRepository.count()).isZero();
+        Assertions.assertThat(instanceFramesRepository.count()).isZero();
+
+        Assertions.assertThat(textIndex.removeOrphans()).isEqualTo(3);
+        Assertions.assertThat(textIndex.isEmpty()).isTrue();
+        Assertions.assertThat(studyRepository.findByStudyInstanceUID("1.2.48.3.1").getSeries()).hasSize(1);
+    }
+
+    @DisplayName("Should stamp the series, the study and the archive when an instance or study is deleted")
+    @Test
+    public void canStampParentsOfDeletedEntities()
+    {
+        Instant studyStamp = dicomReadRepository.findStudyLastModified("1.2.48.3.1");
+        Instant seriesStamp = dicomReadRepository.findSeriesLastModified("1.2.48.3.1.1");
+        Instant otherStamp = dicomReadRepository.findStudyLastModified("1.2.48.5.1");
+
+        // like the REST API: the instance is loaded on its own, deleted, then the event is published
+        InstanceEty instanceEty = instanceRepository.findByInstanceUID("1.2.48.3.1.1.0");
+        entityManager.clear();
+        instanceRepository.delete(instanceEty);
+        entityManager.flush();
+        modificationStamps.onRepositoryEvent(new AfterDeleteEvent(instanceEty));
+        entityManager.clear();
+
+        Assertions.assertThat(dicomReadRepository.findSeriesLastModified("1.2.48.3.1.1")).isAfter(seriesStamp);
+        Assertions.assertThat(dicomReadRepository.findStudyLastModified("1.2.48.3.1")).isAfter(studyStamp);
+        Assertions.assertThat(dicomReadRepository.findStudyLastModified("1.2.48.5.1")).isEqualTo(otherStamp);
+
+        // a deleted study leaves nothing to stamp but the archive
+        Instant archiveStamp = dicomReadRepository.findLastModified();
+        StudyEty studyEty = studyRepository.findByStudyInstanceUID("1.2.48.5.1");
+        studyRepository.delete(studyEty);
+        entityManager.flush();
+        modificationStamps.onRepositoryEvent(new AfterDeleteEvent(studyEty));
+
+        Assertions.assertThat(dicomReadRepository.findLastModified()).isAfter(archiveStamp);
 
+        // the time of the deletion is read again after a restart
+        Instant lastChange = modificationStamps.getLastChange();
+        entityManager.flush();
+        entityManager.clear();
+        Assertions.assertThat(modificationStamps.load()).isCloseTo(lastChange, Assertions.within(1, ChronoUnit.MICROS));
+    }
 }
@@ -0,0 +1,390 @@
+package de.famst.data;
+
+import de.famst.dcm.QueryResultCache;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceContext;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.net.ApplicationEntity;
+import org.dcm4che3.net.Association;
+import org.dcm4che3.net.Connection;
+import org.dcm4che3.net.Device;
+import org.dcm4che3.net.DimseRSP;
+import org.dcm4che3.net.Priority;
+import org.dcm4che3.net.Status;
+import org.dcm4che3.net.pdu.AAssociateRQ;
+import org.dcm4che3.net.pdu.PresentationContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Asserts the SQL statement budgets of the C-FIND SCP, the QIDO-RS, WADO-RS and patient list
+ * requests against a filled database. The requests run through the DICOM network and the web
+ * layer, so every statement of a request is counted in the scope the application opens for it.
+ * A path issuing a statement per row exceeds its budget and fails the build.
+ *
+ * <p>The context has a database and SCP port of its own, so it does not share them with the other
+ * cached application contexts.
+ */
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:sqlbudget;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+    "mupacs.dicom.scp.port=11124"})
+@ActiveProfiles("test")
+@AutoConfigureMockMvc
+@DisplayName("SQL Statement Budget Tests")
+class SqlStatementBudgetTest
+{
+    private static final String CALLING_AET = "SQL_BUDGET";
+
+    @TempDir
+    static Path archive;
+
+    @Autowired
+    private DataBaseFiller dbFiller;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private DicomReadRepository dicomReadRepository;
+
+    @Autowired
+    private StudyRepository studyRepository;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    private SqlStatementBudgets budgets;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Value("${mupacs.dicom.ae-title}")
+    private String aeTitle;
+
+    @Value("${mupacs.dicom.scp.port}")
+    private int port;
+
+    private final List<Reported> reported = new CopyOnWriteArrayList<>();
+
+    private record Reported(SqlOperation operation, int statements)
+    {
+    }
+
+    @BeforeAll
+    static void writeInstances() throws IOException
+    {
+        // the instances of the DataBaseFiller, read by WADO-RS
+        for (int patient = 0; patient < 10; patient++)
+        {
+            for (int study = 0; study < 2; study++)
+            {
+                for (int series = 0; series < 2; series++)
+                {
+                    for (int instance = 0; instance < 2; instance++)
+                    {
+                        String studyUID = "1.2.48." + patient + "." + study;
+                        String seriesUID = studyUID + "." + series;
+                        writeInstance(studyUID, seriesUID, seriesUID + "." + instance);
+                    }
+                }
+            }
+        }
+    }
+
+    @BeforeEach
+    void setUp()
+    {
+        transactionTemplate.executeWithoutResult(status ->
+        {
+            dbFiller.fillDB(new TestEntityManager(entityManagerFactory));
+            entityManager.createQuery("update InstanceEty i set i.path = concat(:directory, i.instanceUID, '.dcm')")
+                .setParameter("directory", archive.toString() + File.separator)
+                .executeUpdate();
+        });
+        queryResultCache.clear();
+
+        // the context may be cached, this context's budgets receive the scopes as well
+        SqlStatementCounter.setListener((operation, statements) ->
+        {
+            reported.add(new Reported(operation, statements));
+            budgets.scopeClosed(operation, statements);
+        });
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        SqlStatementCounter.setListener(budgets);
+
+        transactionTemplate.executeWithoutResult(status ->
+        {
+            for (String entity : List.of("InstanceFramesEty", "InstanceHeaderEty", "InstanceEty", "SeriesEty",
+                "StudyEty", "PatientEty"))
+            {
+                entityManager.createQuery("delete from " + entity).executeUpdate();
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("Should answer a C-FIND on every level within the budget")
+    void shouldAnswerCFindWithinBudget() throws Exception
+    {
+        assertThat(cfind("PATIENT")).hasSize(10);
+        assertThat(cfind("STUDY")).hasSize(20);
+        assertThat(cfind("SERIES")).hasSize(40);
+        assertThat(cfind("IMAGE")).hasSize(80);
+
+        assertThat(statements(SqlOperation.C_FIND)).hasSize(4)
+            .allSatisfy(statements -> assertThat(statements).isLessThanOrEqualTo(budgets.getBudget(SqlOperation.C_FIND)));
+    }
+
+    @Test
+    @DisplayName("Should answer a QIDO-RS search on every level with one scope within the budget")
+    void shouldAnswerQidoWithinBudget() throws Exception
+    {
+        for (String search : List.of("/qido-rs/studies", "/qido-rs/series", "/qido-rs/instances",
+            "/qido-rs/studies/1.2.48.3.0/series", "/qido-rs/studies?limit=5", "/qido-rs/instances?limit=5&offset=10"))
+        {
+            reported.clear();
+
+            assertThat(perform(get(search)).getResponse().getStatus()).as(search).isEqualTo(200);
+
+            // the statements of the handler and the probe are added to those of the cursor
+            assertThat(statements(SqlOperation.QIDO_RS)).as(search).singleElement()
+                .satisfies(statements -> assertThat(statements).isPositive()
+                    .isLessThanOrEqualTo(budgets.getBudget(SqlOperation.QIDO_RS)));
+        }
+    }
+
+    @Test
+    @DisplayName("Should retrieve instances, metadata and bulk data with one scope within the budget")
+    void shouldAnswerWadoWithinBudget() throws Exception
+    {
+        for (String retrieve : List.of("/wado-rs/studies/1.2.48.3.0", "/wado-rs/studies/1.2.48.3.0/series/1.2.48.3.0.1",
+            "/wado-rs/studies/1.2.48.3.0/series/1.2.48.3.0.1/metadata",
+            "/wado-rs/studies/1.2.48.3.0/series/1.2.48.3.0.1/instances/1.2.48.3.0.1.0/bulkdata"))
+        {
+            reported.clear();
+
+            assertThat(perform(get(retrieve)).getResponse().getStatus()).as(retrieve).isEqualTo(200);
+
+            assertThat(statements(SqlOperation.WADO_RS)).as(retrieve).singleElement()
+                .satisfies(statements -> assertThat(statements).isPositive()
+                    .isLessThanOrEqualTo(budgets.getBudget(SqlOperation.WADO_RS)));
+        }
+    }
+
+    @Test
+    @DisplayName("Should read a page of the patient list with one statement per level")
+    void shouldReadPatientListPageWithOneStatementPerLevel() throws Exception
+    {
+        MvcResult result = perform(get("/patientlist").param("size", "10"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        // page, count, studies, series, instances
+        assertThat(statements(SqlOperation.PATIENT_LIST)).containsExactly(5);
+        assertThat(budgets.getBudget(SqlOperation.PATIENT_LIST)).isGreaterThanOrEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Should match patient keys of a study query in the same statement")
+    void shouldMatchPatientKeysInSameStatement()
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientID, VR.LO, "1.2.48.3");
+
+        try (SqlStatementCounter.Scope scope = SqlStatementCounter.open(SqlOperation.C_FIND))
+        {
+            List<StudyRecord> studies = dicomReadRepository.findStudies(keys);
+
+            assertThat(studies).hasSize(2);
+            assertThat(studies).allMatch(s -> "Demo_003".equals(s.patientName()));
+            assertThat(scope.getStatements()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    @DisplayName("Should detect a statement per row and count the exceeded budget")
+    void shouldDetectStatementPerRow()
+    {
+        long exceeded = budgets.getExceededCount(SqlOperation.QIDO_RS);
+
+        // loads the patient of every study lazily
+        transactionTemplate.executeWithoutResult(status ->
+        {
+            try (SqlStatementCounter.Scope scope = SqlStatementCounter.open(SqlOperation.QIDO_RS))
+            {
+                long patientNames = studyRepository.findAll().stream()
+                    .map(s -> s.getPatient().getPatientName()).distinct().count();
+
+                assertThat(patientNames).isEqualTo(10L);
+                assertThat(scope.getStatements()).isGreaterThan(budgets.getBudget(SqlOperation.QIDO_RS));
+            }
+        });
+
+        assertThat(budgets.getExceededCount(SqlOperation.QIDO_RS)).isEqualTo(exceeded + 1);
+    }
+
+    @Test
+    @DisplayName("Should add the statements of a nested scope to the enclosing scope")
+    void shouldAddNestedScopeToEnclosingScope()
+    {
+        try (SqlStatementCounter.Scope outer = SqlStatementCounter.open(SqlOperation.QIDO_RS))
+        {
+            try (SqlStatementCounter.Scope inner = SqlStatementCounter.open(SqlOperation.C_FIND))
+            {
+                dicomReadRepository.findPatients(new Attributes());
+                assertThat(inner.getStatements()).isEqualTo(1);
+                assertThat(SqlStatementCounter.current()).isSameAs(inner);
+            }
+
+            assertThat(outer.getStatements()).isEqualTo(1);
+            assertThat(SqlStatementCounter.current()).isSameAs(outer);
+        }
+
+        assertThat(SqlStatementCounter.current()).isNull();
+    }
+
+    /**
+     * Returns the statements of the scopes of an operation reported so far.
+     */
+    private List<Integer> statements(SqlOperation operation)
+    {
+        return reported.stream()
+            .filter(scope -> scope.operation() == operation)
+            .map(Reported::statements)
+            .toList();
+    }
+
+    /**
+     * Performs a request and, if it is handled asynchronously, the dispatch of its result.
+     */
+    private MvcResult perform(MockHttpServletRequestBuilder request) throws Exception
+    {
+        MvcResult result = mockMvc.perform(request).andReturn();
+        if (result.getRequest().isAsyncStarted())
+        {
+            result = mockMvc.perform(asyncDispatch(result)).andReturn();
+        }
+        return result;
+    }
+
+    /**
+     * Sends a Study Root C-FIND with an empty identifier to the SCP of the application.
+     */
+    private List<Attributes> cfind(String level) throws Exception
+    {
+        Device device = new Device("SQL-BUDGET-SCU");
+        ApplicationEntity ae = new ApplicationEntity(CALLING_AET);
+        Connection connection = new Connection();
+        device.addApplicationEntity(ae);
+        device.addConnection(connection);
+        ae.addConnection(connection);
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        ScheduledExecutorService scheduledExecutorService = Executors.newSingleThreadScheduledExecutor();
+        device.setExecutor(executorService);
+        device.setScheduledExecutor(scheduledExecutorService);
+
+        try
+        {
+            Connection remote = new Connection();
+            remote.setHostname("localhost");
+            remote.setPort(port);
+
+            AAssociateRQ rq = new AAssociateRQ();
+            rq.setCalledAET(aeTitle);
+            rq.setCallingAET(CALLING_AET);
+            rq.addPresentationContext(new PresentationContext(1,
+                UID.StudyRootQueryRetrieveInformationModelFind, UID.ImplicitVRLittleEndian));
+
+            Association association = ae.connect(remote, rq);
+            try
+            {
+                Attributes keys = new Attributes();
+                keys.setString(Tag.QueryRetrieveLevel, VR.CS, level);
+
+                List<Attributes> matches = new ArrayList<>();
+                DimseRSP rsp = association.cfind(UID.StudyRootQueryRetrieveInformationModelFind,
+                    Priority.NORMAL, keys, null, 0);
+                while (rsp.next())
+                {
+                    int status = rsp.getCommand().getInt(Tag.Status, -1);
+                    if (Status.isPending(status))
+                    {
+                        matches.add(rsp.getDataset());
+                    }
+                    else
+                    {
+                        assertThat(status).as(level).isEqualTo(Status.Success);
+                    }
+                }
+                return matches;
+            }
+            finally
+            {
+                association.release();
+            }
+        }
+        finally
+        {
+            executorService.shutdownNow();
+            scheduledExecutorService.shutdownNow();
+        }
+    }
+
+    private static void writeInstance(String studyUID, String seriesUID, String instanceUID) throws IOException
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, instanceUID);
+        dataset.setString(Tag.StudyInstanceUID, VR.UI, studyUID);
+        dataset.setString(Tag.SeriesInstanceUID, VR.UI, seriesUID);
+
+        try (DicomOutputStream dos = new DicomOutputStream(archive.resolve(instanceUID + ".dcm").toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.famst.data;
+
+import de.famst.MuPACSApplication;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the tokenization of the text index and the word queries answered from it.
+ */
+@DataJpaTest
+@ContextConfiguration(classes = {MuPACSApplication.class, TextIndexTest.SpringConfig.class})
+@DisplayName("TextIndex Tests")
+class TextIndexTest
+{
+    @Configuration
+    @ComponentScan("de.famst.data")
+    public static class SpringConfig
+    {
+    }
+
+    private static final QueryOptions FUZZY = new QueryOptions(0, QueryOptions.UNLIMITED, true, null);
+
+    @Autowired
+    private DataBaseFiller dbFiller;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private DicomReadRepository dicomReadRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private StudyRepository studyRepository;
+
+    @Autowired
+    private SeriesRepository seriesRepository;
+
+    @Autowired
+    private TextIndex textIndex;
+
+    @BeforeEach
+    void setUp()
+    {
+        dbFiller.fillDB(entityManager);
+
+        studyRepository.findByStudyInstanceUID("1.2.48.3.0").setStudyDescription("CT Thorax mit Kontrastmittel");
+        studyRepository.findByStudyInstanceUID("1.2.48.5.1").setStudyDescription("CT Thorax, Follow-Up");
+        seriesRepository.findBySeriesInstanceUID("1.2.48.7.0.1").setSeriesDescription("Lähmung, Verlaufskontrolle");
+        entityManager.flush();
+
+        assertThat(textIndex.rebuild()).isEqualTo(10);
+        assertThat(textIndex.isEmpty()).isFalse();
+    }
+
+    private List<String> studyUIDs(String studyDescription, QueryOptions options)
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.StudyDescription, VR.LO, studyDescription);
+        try (Stream<StudyRecord> records = dicomReadRepository.streamStudies(keys, options))
+        {
+            return records.map(StudyRecord::studyInstanceUID).toList();
+        }
+    }
+
+    @Test
+    @DisplayName("Should fold case and diacritics and split at punctuation")
+    void shouldTokenizeText()
+    {
+        assertThat(TextTokens.tokenize("CT Thorax, Follow-Up")).containsExactly("ct", "thorax", "follow", "up");
+        assertThat(TextTokens.tokenize("Lähmung   LÄHMUNG")).containsExactly("lahmung");
+        assertThat(TextTokens.tokenize(null)).isEmpty();
+        assertThat(TextTokens.queryTokens("follow-up kontr*")).containsExactly("follow", "up", "kontr*");
+        assertThat(TextTokens.queryTokens(" , ")).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should match all words of a fuzzy description query in any order")
+    void shouldMatchAllWords()
+    {
+        assertThat(studyUIDs("thorax ct", FUZZY)).containsExactly("1.2.48.3.0", "1.2.48.5.1");
+        assertThat(studyUIDs("FOLLOW-UP thorax", FUZZY)).containsExactly("1.2.48.5.1");
+        assertThat(studyUIDs("kontrast*", FUZZY)).containsExactly("1.2.48.3.0");
+        assertThat(studyUIDs("kontrast", FUZZY)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should keep wild card matching of descriptions without fuzzy matching")
+    void shouldKeepWildCardMatchingWithoutFuzzy()
+    {
+        assertThat(studyUIDs("CT Thorax*", QueryOptions.ALL)).containsExactly("1.2.48.3.0", "1.2.48.5.1");
+        assertThat(studyUIDs("thorax ct", QueryOptions.ALL)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should find the patients with a word anywhere in their hierarchy")
+    void shouldFindPatientsByText()
+    {
+        Page<PatientRecord> page = dicomReadRepository.findPatients(PageRequest.of(0, 10), "lahmung");
+
+        assertThat(page.getTotalElements()).isEqualTo(1);
+        assertThat(page.getContent()).extracting(PatientRecord::patientId).containsExactly("1.2.48.7");
+
+        assertThat(dicomReadRepository.findPatients(PageRequest.of(0, 10), "thorax").getTotalElements()).isEqualTo(2);
+        assertThat(dicomReadRepository.findPatients(PageRequest.of(0, 10), " ").getTotalElements()).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("Should add the entries of a new text to the index")
+    void shouldIndexNewText()
+    {
+        SeriesEty series = seriesRepository.findBySeriesInstanceUID("1.2.48.2.1.0");
+        textIndex.index(QueryRetrieveLevel2.SERIES, series.getId(),
+            series.getStudy().getPatient().getId(), "Contrast enhanced");
+        entityManager.flush();
+
+        Attributes keys = new Attributes();
+        keys.setString(Tag.SeriesDescription, VR.LO, "contrast");
+        try (Stream<SeriesRecord> records = dicomReadRepository.streamSeries(keys, FUZZY))
+        {
+            assertThat(records.map(SeriesRecord::seriesInstanceUID)).containsExactly("1.2.48.2.1.0");
+        }
+    }
+
+    @Test
+    @DisplayName("Should index the texts of an entity modified through the REST API again")
+    void shouldReindexSavedEntity()
+    {
+        StudyEty study = studyRepository.findByStudyInstanceUID("1.2.48.3.0");
+        study.setStudyDescription("MR Knie");
+        PatientEty patient = patientRepository.findByPatientId("1.2.48.2");
+        patient.setPatientComments("Kontrastmittelallergie");
+        entityManager.flush();
+
+        textIndex.onAfterSave(new AfterSaveEvent(study));
+        textIndex.onAfterSave(new AfterSaveEvent(patient));
+        entityManager.flush();
+
+        assertThat(studyUIDs("thorax", FUZZY)).containsExactly("1.2.48.5.1");
+        assertThat(studyUIDs("knie", FUZZY)).containsExactly("1.2.48.3.0");
+        assertThat(dicomReadRepository.findPatients(PageRequest.of(0, 10), "kontrastmittel*").getContent())
+            .extracting(PatientRecord::patientId).containsExactly("1.2.48.2");
+    }
+}
@@ -0,0 +1,162 @@
+package de.famst.dcm;
+
+import de.famst.data.FrameIndex;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Fragments;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for the Pixel Data index of DcmFile.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("DcmFile Tests")
+class DcmFileTest
+{
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should locate native Pixel Data in the file")
+    void shouldIndexNativePixelData() throws IOException
+    {
+        byte[] pixels = new byte[64];
+        Arrays.fill(pixels, (byte) 0x5a);
+        Attributes dataset = dataset();
+        dataset.setBytes(Tag.PixelData, VR.OW, pixels);
+        Path file = write(dataset, UID.ExplicitVRLittleEndian);
+
+        PixelDataIndex index = DcmFile.indexPixelData(file);
+
+        assertThat(index).isNotNull();
+        assertThat(index.transferSyntaxUID()).isEqualTo(UID.ExplicitVRLittleEndian);
+        assertThat(index.length()).isEqualTo(pixels.length);
+        assertThat(index.fileSize()).isEqualTo(Files.size(file));
+        assertThat(index.lastModified()).isEqualTo(Files.getLastModifiedTime(file).toMillis());
+        assertThat(slice(file, index)).isEqualTo(pixels);
+    }
+
+    @Test
+    @DisplayName("Should locate the items of encapsulated Pixel Data without the delimiter")
+    void shouldIndexEncapsulatedPixelData() throws IOException
+    {
+        byte[] fragment = {(byte) 0xff, (byte) 0xd8, 1, 2, 3, 4, (byte) 0xff, (byte) 0xd9};
+        Attributes dataset = dataset();
+        Fragments fragments = dataset.newFragments(Tag.PixelData, VR.OB, 2);
+        fragments.add(new byte[0]);
+        fragments.add(fragment);
+        Path file = write(dataset, UID.JPEGBaseline8Bit);
+
+        PixelDataIndex index = DcmFile.indexPixelData(file);
+
+        assertThat(index).isNotNull();
+        assertThat(index.transferSyntaxUID()).isEqualTo(UID.JPEGBaseline8Bit);
+        // empty Basic Offset Table item and one fragment item
+        assertThat(index.length()).isEqualTo(8 + 8 + fragment.length);
+
+        byte[] items = slice(file, index);
+        assertThat(Arrays.copyOfRange(items, 16, items.length)).isEqualTo(fragment);
+    }
+
+    @Test
+    @DisplayName("Should locate the frames of encapsulated Pixel Data by the Basic Offset Table")
+    void shouldIndexFramesByBasicOffsetTable() throws IOException
+    {
+        // frame 1 are the first two fragments, frame 2 starts 8 + 8 + 8 + 4 bytes after the first fragment item
+        PixelDataIndex index = DcmFile.indexPixelData(writeMultiFrame(new byte[]{0, 0, 0, 0, 28, 0, 0, 0}));
+
+        assertFrames(index, 8);
+    }
+
+    @Test
+    @DisplayName("Should locate the frames of encapsulated Pixel Data by their start markers")
+    void shouldIndexFramesByStartMarkers() throws IOException
+    {
+        PixelDataIndex index = DcmFile.indexPixelData(writeMultiFrame(new byte[0]));
+
+        assertFrames(index, 0);
+    }
+
+    private Path writeMultiFrame(byte[] basicOffsetTable) throws IOException
+    {
+        Attributes dataset = dataset();
+        dataset.setInt(Tag.NumberOfFrames, VR.IS, 2);
+        Fragments fragments = dataset.newFragments(Tag.PixelData, VR.OB, 4);
+        fragments.add(basicOffsetTable);
+        fragments.add(new byte[]{(byte) 0xff, (byte) 0xd8, 1, 1, 1, 1, 1, 1});
+        fragments.add(new byte[]{2, 2, (byte) 0xff, (byte) 0xd9});
+        fragments.add(new byte[]{(byte) 0xff, (byte) 0xd8, 3, 3, (byte) 0xff, (byte) 0xd9});
+        return write(dataset, UID.JPEGBaseline8Bit);
+    }
+
+    private static void assertFrames(PixelDataIndex index, int basicOffsetTableLength)
+    {
+        assertThat(index).isNotNull();
+        FrameIndex frames = index.frames();
+        assertThat(frames).isNotNull();
+        assertThat(frames.frames()).isEqualTo(2);
+        assertThat(frames.firstFragment(0)).isZero();
+        assertThat(frames.endFragment(0)).isEqualTo(2);
+        assertThat(frames.frameLength(0)).isEqualTo(12);
+        assertThat(frames.firstFragment(1)).isEqualTo(2);
+        assertThat(frames.frameLength(1)).isEqualTo(6);
+        // the value of the first fragment follows the Basic Offset Table item and its own item header
+        assertThat(frames.offset(0)).isEqualTo(8 + basicOffsetTableLength + 8);
+        assertThat(frames.offset(2)).isEqualTo(8 + basicOffsetTableLength + 8 + 8 + 8 + 4 + 8);
+    }
+
+    @Test
+    @DisplayName("Should index a file without Pixel Data and reject files that are no DICOM")
+    void shouldIndexFileWithoutPixelData() throws IOException
+    {
+        Path file = write(dataset(), UID.ExplicitVRLittleEndian);
+
+        PixelDataIndex index = DcmFile.indexPixelData(file);
+
+        assertThat(index).isNotNull();
+        assertThat(index.hasPixelData()).isFalse();
+
+        Path text = tempDir.resolve("text.txt");
+        Files.writeString(text, "no DICOM");
+        assertThat(DcmFile.indexPixelData(text)).isNull();
+    }
+
+    private static Attributes dataset()
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5.6.7");
+        dataset.setString(Tag.PatientName, VR.PN, "Doe^John");
+        return dataset;
+    }
+
+    private Path write(Attributes dataset, String transferSyntaxUID) throws IOException
+    {
+        Path file = tempDir.resolve(transferSyntaxUID + ".dcm");
+        try (DicomOutputStream dos = new DicomOutputStream(file.toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(transferSyntaxUID), dataset);
+        }
+        return file;
+    }
+
+    private static byte[] slice(Path file, PixelDataIndex index) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file);
+        return Arrays.copyOfRange(bytes, (int) index.offset(), (int) (index.offset() + index.length()));
+    }
+}
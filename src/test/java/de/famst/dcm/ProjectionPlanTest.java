@@ -0,0 +1,127 @@
+package de.famst.dcm;
+
+import de.famst.data.InstanceRecord;
+import de.famst.data.StudyRecord;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for ProjectionPlan and the match field catalogs of DcmMatchBuilder.
+ */
+@DisplayName("ProjectionPlan Tests")
+class ProjectionPlanTest
+{
+    private StudyRecord study;
+
+    @BeforeEach
+    void setUp()
+    {
+        study = new StudyRecord(1L, 1L, "Doe^John", "PAT001", null, null, "1.2.3.4.5", null,
+            LocalDate.of(2024, 1, 10), null, "Test Study", null, null, null);
+    }
+
+    @Test
+    @DisplayName("Should only return the requested attributes")
+    void shouldOnlyReturnRequestedAttributes()
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.QueryRetrieveLevel, VR.CS, "STUDY");
+        keys.setString(Tag.StudyInstanceUID, VR.UI, "1.2.3.4.5");
+        keys.setNull(Tag.StudyDate, VR.DA);
+
+        ProjectionPlan<StudyRecord> plan = ProjectionPlan.compile(DcmMatchBuilder.STUDY_FIELDS, keys);
+        Attributes match = plan.project(study);
+
+        assertArrayEquals(new int[]{Tag.StudyDate, Tag.StudyInstanceUID}, plan.tags());
+        assertEquals(2, match.size());
+        assertEquals("20240110", match.getString(Tag.StudyDate));
+        assertEquals("1.2.3.4.5", match.getString(Tag.StudyInstanceUID));
+        assertFalse(match.contains(Tag.StudyDescription));
+    }
+
+    @Test
+    @DisplayName("Should return requested attributes with unknown value as empty")
+    void shouldReturnUnknownValuesAsEmpty()
+    {
+        Attributes keys = new Attributes();
+        keys.setNull(Tag.AccessionNumber, VR.SH);
+
+        Attributes match = ProjectionPlan.compile(DcmMatchBuilder.STUDY_FIELDS, keys).project(study);
+
+        assertTrue(match.contains(Tag.AccessionNumber));
+        assertFalse(match.containsValue(Tag.AccessionNumber));
+    }
+
+    @Test
+    @DisplayName("Should not call the accessors of unrequested attributes")
+    void shouldNotCallAccessorsOfUnrequestedAttributes()
+    {
+        List<MatchField<StudyRecord>> catalog = List.of(
+            new MatchField<>(Tag.PatientName, VR.PN, s -> {
+                throw new AssertionError("PatientName was not requested");
+            }),
+            new MatchField<>(Tag.StudyDescription, VR.LO, StudyRecord::studyDescription));
+
+        Attributes keys = new Attributes();
+        keys.setNull(Tag.StudyDescription, VR.LO);
+
+        Attributes match = ProjectionPlan.compile(catalog, keys).project(study);
+
+        assertEquals("Test Study", match.getString(Tag.StudyDescription));
+    }
+
+    @Test
+    @DisplayName("Should return patient attributes on study level when requested")
+    void shouldReturnPatientAttributesOnStudyLevel()
+    {
+        Attributes keys = new Attributes();
+        keys.setNull(Tag.PatientName, VR.PN);
+
+        Attributes match = ProjectionPlan.compile(DcmMatchBuilder.STUDY_FIELDS, keys).project(study);
+
+        assertEquals("Doe^John", match.getString(Tag.PatientName));
+    }
+
+    @Test
+    @DisplayName("Should write integer values with their binary VR")
+    void shouldWriteIntegerValues()
+    {
+        InstanceRecord instance = new InstanceRecord(1L, 1L, "1.2.3", "1.2.3.4", "/path/to/file.dcm", 1,
+            null, null, null, null, null, null, 512, 512, 16, 12);
+
+        Attributes keys = new Attributes();
+        keys.setNull(Tag.Rows, VR.US);
+
+        Attributes match = ProjectionPlan.compile(DcmMatchBuilder.INSTANCE_FIELDS, keys).project(instance);
+
+        assertEquals(512, match.getInt(Tag.Rows, -1));
+    }
+
+    @Test
+    @DisplayName("Should distinguish plans with different return keys by signature")
+    void shouldDistinguishPlansBySignature()
+    {
+        Attributes keys = new Attributes();
+        keys.setNull(Tag.StudyDate, VR.DA);
+        Attributes otherKeys = new Attributes();
+        otherKeys.setNull(Tag.StudyDescription, VR.LO);
+
+        assertNotEquals(
+            ProjectionPlan.compile(DcmMatchBuilder.STUDY_FIELDS, keys).signature(),
+            ProjectionPlan.compile(DcmMatchBuilder.STUDY_FIELDS, otherKeys).signature());
+        assertEquals(ProjectionPlan.ALL, ProjectionPlan.all(DcmMatchBuilder.STUDY_FIELDS).signature());
+    }
+}
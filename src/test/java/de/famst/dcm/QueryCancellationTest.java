@@ -0,0 +1,97 @@
+package de.famst.dcm;
+
+import org.hibernate.Session;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for QueryCancellation.
+ */
+@DisplayName("QueryCancellation Tests")
+class QueryCancellationTest
+{
+    @Test
+    @DisplayName("Should not abort a query that was neither cancelled nor timed out")
+    void shouldNotAbortRunningQuery()
+    {
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.startTimeout(Duration.ofMinutes(1));
+
+        assertFalse(cancellation.isCancelled());
+        assertDoesNotThrow(cancellation::checkCancelled);
+    }
+
+    @Test
+    @DisplayName("Should cancel the statement of the attached session")
+    void shouldCancelStatementOfAttachedSession()
+    {
+        Session session = mock(Session.class);
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.attach(session);
+
+        cancellation.cancel();
+
+        verify(session).cancelQuery();
+        assertTrue(cancellation.isCancelled());
+        assertThrows(QueryCancelledException.class, cancellation::checkCancelled);
+    }
+
+    @Test
+    @DisplayName("Should not touch a session that was already detached")
+    void shouldNotCancelDetachedSession()
+    {
+        Session session = mock(Session.class);
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.attach(session);
+        cancellation.detach();
+
+        cancellation.cancel();
+
+        verify(session, never()).cancelQuery();
+    }
+
+    @Test
+    @DisplayName("Should refuse to attach a session to a cancelled query")
+    void shouldRefuseAttachAfterCancel()
+    {
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.cancel();
+
+        assertThrows(QueryCancelledException.class, () -> cancellation.attach(mock(Session.class)));
+    }
+
+    @Test
+    @DisplayName("Should abort a query that exceeded its timeout")
+    void shouldAbortTimedOutQuery()
+    {
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.startTimeout(Duration.ofNanos(-1));
+
+        assertThrows(QueryTimeoutException.class, cancellation::checkCancelled);
+    }
+
+    @Test
+    @DisplayName("Should not count a pause against the timeout")
+    void shouldNotCountPause() throws InterruptedException
+    {
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.startTimeout(Duration.ofMillis(200));
+
+        cancellation.pauseTimeout();
+        Thread.sleep(300);
+        cancellation.resumeTimeout();
+
+        assertDoesNotThrow(cancellation::checkCancelled);
+    }
+}
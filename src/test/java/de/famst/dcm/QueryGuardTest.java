@@ -0,0 +1,97 @@
+package de.famst.dcm;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.transaction.TransactionSystemException;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for QueryGuard.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("QueryGuard Tests")
+class QueryGuardTest
+{
+    private static QueryGuard guard(String overLimit)
+    {
+        return new QueryGuard(100, 200, 0, 1000, "STORESCU=50, 10.0.0.7=500", overLimit, overLimit, 30);
+    }
+
+    @Test
+    @DisplayName("Should apply the lower maximum of level and client")
+    void shouldApplyLowerMaximumOfLevelAndClient()
+    {
+        QueryGuard guard = guard("truncate");
+
+        assertEquals(100, guard.getMaxMatches(QueryRetrieveLevel2.PATIENT, null));
+        assertEquals(50, guard.getMaxMatches(QueryRetrieveLevel2.STUDY, "STORESCU"));
+        assertEquals(200, guard.getMaxMatches(QueryRetrieveLevel2.STUDY, "10.0.0.7"));
+        assertEquals(0, guard.getMaxMatches(QueryRetrieveLevel2.SERIES, "OTHER"));
+        assertEquals(500, guard.getMaxMatches(QueryRetrieveLevel2.SERIES, "10.0.0.7"));
+    }
+
+    @Test
+    @DisplayName("Should count truncated queries and ignore ordinary paging")
+    void shouldCountTruncatedQueries()
+    {
+        QueryGuard guard = guard("truncate");
+
+        guard.overLimit(QueryGuard.Protocol.QIDO_RS, QueryRetrieveLevel2.IMAGE, null, 10);
+        assertEquals(0, guard.getTruncatedCount(QueryRetrieveLevel2.IMAGE));
+
+        guard.overLimit(QueryGuard.Protocol.QIDO_RS, QueryRetrieveLevel2.IMAGE, null, 1000);
+        assertEquals(1, guard.getTruncatedCount(QueryRetrieveLevel2.IMAGE));
+    }
+
+    @Test
+    @DisplayName("Should refuse queries matching more than the maximum")
+    void shouldRefuseQueriesOverMaximum()
+    {
+        QueryGuard guard = guard("refuse");
+
+        assertDoesNotThrow(() -> guard.overLimit(QueryGuard.Protocol.C_FIND, QueryRetrieveLevel2.STUDY, "STORESCU", 20));
+        assertThrows(QueryRefusedException.class,
+            () -> guard.overLimit(QueryGuard.Protocol.C_FIND, QueryRetrieveLevel2.STUDY, "STORESCU", 50));
+        assertEquals(1, guard.getRefusedCount(QueryRetrieveLevel2.STUDY));
+        assertEquals(0, guard.getTruncatedCount(QueryRetrieveLevel2.STUDY));
+    }
+
+    @Test
+    @DisplayName("Should refuse C-FIND queries and truncate QIDO-RS searches over the maximum by default")
+    void shouldApplyOverLimitActionOfProtocol()
+    {
+        QueryGuard guard = new QueryGuard(100, 200, 0, 1000, "", "refuse", "truncate", 30);
+
+        assertThrows(QueryRefusedException.class,
+            () -> guard.overLimit(QueryGuard.Protocol.C_FIND, QueryRetrieveLevel2.STUDY, "STORESCU", 200));
+        assertDoesNotThrow(() -> guard.overLimit(QueryGuard.Protocol.QIDO_RS, QueryRetrieveLevel2.STUDY, null, 200));
+        assertEquals(1, guard.getRefusedCount(QueryRetrieveLevel2.STUDY));
+        assertEquals(1, guard.getTruncatedCount(QueryRetrieveLevel2.STUDY));
+    }
+
+    @Test
+    @DisplayName("Should recognize timeouts and export the counters as metrics")
+    void shouldRecognizeTimeouts()
+    {
+        QueryGuard guard = guard("truncate");
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        guard.bindTo(registry);
+
+        assertTrue(QueryGuard.isTimeout(new TransactionSystemException("failed", new QueryTimeoutException("timeout"))));
+        assertFalse(QueryGuard.isTimeout(new IllegalStateException("failed")));
+
+        guard.recordTimeout(QueryGuard.Protocol.QIDO_RS);
+        assertEquals(1.0, registry.get("mupacs.query.guard.timeouts").tag("protocol", "qido-rs").functionCounter().count());
+        assertEquals(100.0, registry.get("mupacs.query.guard.max-matches").tag("level", "patient").gauge().value());
+    }
+}
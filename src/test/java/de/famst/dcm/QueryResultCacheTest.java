@@ -0,0 +1,337 @@
+package de.famst.dcm;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.PatientEty;
+import de.famst.service.DicomImportedEvent;
+import de.famst.service.StudyCatalog;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListenerFactory;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for QueryResultCache.
+ * Tests hit/miss accounting, LRU eviction and import driven invalidation.
+ */
+@DisplayName("QueryResultCache Tests")
+class QueryResultCacheTest
+{
+    private static final String PATIENT_ID = "12345";
+    private static final String STUDY_UID = "1.2.3.4.5";
+    private static final String SERIES_UID = "1.2.3.4.5.6";
+
+    private QueryResultCache cache;
+    private AtomicInteger loads;
+    private Function<Attributes, List<Attributes>> loader;
+
+    @BeforeEach
+    void setUp()
+    {
+        cache = new QueryResultCache(true, 2, 3);
+        loads = new AtomicInteger();
+        loader = keys ->
+        {
+            loads.incrementAndGet();
+            return List.of(new Attributes());
+        };
+    }
+
+    private static Attributes keys(int tag, VR vr, String value)
+    {
+        Attributes keys = new Attributes();
+        keys.setString(tag, vr, value);
+        return keys;
+    }
+
+    private static DicomImportedEvent imported(QueryRetrieveLevel2... levels)
+    {
+        EnumSet<QueryRetrieveLevel2> created = EnumSet.noneOf(QueryRetrieveLevel2.class);
+        Collections.addAll(created, levels);
+        return new DicomImportedEvent(PATIENT_ID, STUDY_UID, SERIES_UID, "1.2.3.4.5.6.7", created);
+    }
+
+    @Test
+    @DisplayName("Should answer repeated queries from the cache")
+    void shouldAnswerRepeatedQueriesFromCache()
+    {
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    @DisplayName("Should ignore empty return keys when matching cache entries")
+    void shouldIgnoreEmptyReturnKeys()
+    {
+        Attributes withReturnKey = keys(Tag.PatientID, VR.LO, PATIENT_ID);
+        withReturnKey.setNull(Tag.StudyDescription, VR.LO);
+
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+        cache.getMatches(QueryRetrieveLevel2.STUDY, withReturnKey, loader);
+
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    @DisplayName("Should distinguish query levels")
+    void shouldDistinguishQueryLevels()
+    {
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+        cache.getMatches(QueryRetrieveLevel2.PATIENT, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently used entry when full")
+    void shouldEvictLeastRecentlyUsedEntry()
+    {
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "A"), loader);
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "B"), loader);
+        // touch A, so B becomes the eldest entry
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "A"), loader);
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "C"), loader);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "A"), loader);
+        assertEquals(3, loads.get());
+
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "B"), loader);
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    @DisplayName("Should not cache results exceeding the per-entry limit")
+    void shouldNotCacheOversizedResults()
+    {
+        Function<Attributes, List<Attributes>> bigLoader = keys ->
+        {
+            loads.incrementAndGet();
+            List<Attributes> matches = new ArrayList<>();
+            for (int i = 0; i < 4; i++)
+            {
+                matches.add(new Attributes());
+            }
+            return matches;
+        };
+
+        cache.getMatches(QueryRetrieveLevel2.IMAGE, new Attributes(), bigLoader);
+        cache.getMatches(QueryRetrieveLevel2.IMAGE, new Attributes(), bigLoader);
+
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Should invalidate entries whose level and scope are affected by an import")
+    void shouldInvalidateAffectedEntries()
+    {
+        cache.getMatches(QueryRetrieveLevel2.SERIES, keys(Tag.StudyInstanceUID, VR.UI, STUDY_UID), loader);
+
+        cache.onDicomImported(imported(QueryRetrieveLevel2.SERIES, QueryRetrieveLevel2.IMAGE));
+
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    @DisplayName("Should keep entries of other levels and other scopes on import")
+    void shouldKeepUnaffectedEntries()
+    {
+        // no new study was created, so study level results are still valid
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+        // the new instance belongs to another series
+        cache.getMatches(QueryRetrieveLevel2.IMAGE, keys(Tag.SeriesInstanceUID, VR.UI, "9.9.9"), loader);
+
+        cache.onDicomImported(imported(QueryRetrieveLevel2.IMAGE));
+
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getInvalidationCount());
+    }
+
+    @Test
+    @DisplayName("Should treat wildcard keys as unrestricted scope")
+    void shouldTreatWildcardKeysAsUnrestricted()
+    {
+        cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, "99*"), loader);
+
+        cache.onDicomImported(imported(QueryRetrieveLevel2.STUDY, QueryRetrieveLevel2.SERIES, QueryRetrieveLevel2.IMAGE));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Should always call the loader when disabled")
+    void shouldBypassCacheWhenDisabled()
+    {
+        QueryResultCache disabled = new QueryResultCache(false, 2, 3);
+
+        disabled.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+        disabled.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+
+        assertEquals(2, loads.get());
+        assertEquals(0, disabled.size());
+    }
+
+    private QueryResultCache.MatchStreamer streamer(int count)
+    {
+        return (keys, sink) ->
+        {
+            loads.incrementAndGet();
+            for (int i = 0; i < count; i++)
+            {
+                Attributes match = new Attributes();
+                match.setInt(Tag.InstanceNumber, VR.IS, i);
+                sink.accept(match);
+            }
+        };
+    }
+
+    @Test
+    @DisplayName("Should stream matches and answer repeated streamed queries from the cache")
+    void shouldStreamMatchesAndCacheThem()
+    {
+        List<Attributes> first = new ArrayList<>();
+        List<Attributes> second = new ArrayList<>();
+
+        int count = cache.forEachMatch(QueryRetrieveLevel2.IMAGE, new Attributes(), streamer(3), first::add);
+        cache.forEachMatch(QueryRetrieveLevel2.IMAGE, new Attributes(), streamer(3), second::add);
+
+        assertEquals(3, count);
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(first, second);
+    }
+
+    @Test
+    @DisplayName("Should return cached matches without loading them")
+    void shouldReturnCachedMatchesWithoutLoading()
+    {
+        assertEquals(null, cache.getCachedMatches(QueryRetrieveLevel2.IMAGE, new Attributes(), ProjectionPlan.ALL));
+
+        cache.forEachMatch(QueryRetrieveLevel2.IMAGE, new Attributes(), streamer(2), m -> { });
+        List<Attributes> cached = cache.getCachedMatches(QueryRetrieveLevel2.IMAGE, new Attributes(), ProjectionPlan.ALL);
+
+        assertEquals(2, cached.size());
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    @DisplayName("Should stream all matches but not cache results exceeding the per-entry limit")
+    void shouldStreamButNotCacheOversizedResults()
+    {
+        List<Attributes> streamed = new ArrayList<>();
+
+        int count = cache.forEachMatch(QueryRetrieveLevel2.IMAGE, new Attributes(), streamer(4), streamed::add);
+        cache.forEachMatch(QueryRetrieveLevel2.IMAGE, new Attributes(), streamer(4), m -> { });
+
+        assertEquals(4, count);
+        assertEquals(4, streamed.size());
+        assertEquals(3, streamed.get(3).getInt(Tag.InstanceNumber, -1));
+        assertEquals(2, loads.get());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Should be invalidated after the study catalog was updated by the same event")
+    void shouldBeInvalidatedAfterStudyCatalog()
+    {
+        // the size of the cache when the catalog re-reads a study
+        List<Integer> sizes = new ArrayList<>();
+        DicomReadRepository repository = mock(DicomReadRepository.class);
+        when(repository.findStudies(any(Attributes.class))).thenAnswer(invocation ->
+        {
+            sizes.add(cache.size());
+            return List.of();
+        });
+        when(repository.findStudiesOfPatients(anyList())).thenAnswer(invocation ->
+        {
+            sizes.add(cache.size());
+            return List.of();
+        });
+
+        try (AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext())
+        {
+            context.getEnvironment().getPropertySources().addFirst(
+                new MapPropertySource("test", Map.of("mupacs.query.catalog.enabled", "true")));
+            context.registerBean(TransactionalEventListenerFactory.class);
+            context.registerBean(DicomReadRepository.class, () -> repository);
+            context.registerBean(QueryResultCache.class, () -> cache);
+            context.registerBean(StudyCatalog.class);
+            context.refresh();
+
+            cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+            new TransactionTemplate(new NoOpTransactionManager()).executeWithoutResult(status ->
+                context.publishEvent(imported(QueryRetrieveLevel2.STUDY, QueryRetrieveLevel2.SERIES,
+                    QueryRetrieveLevel2.IMAGE)));
+
+            assertEquals(List.of(1), sizes);
+            assertEquals(0, cache.size());
+
+            cache.getMatches(QueryRetrieveLevel2.STUDY, keys(Tag.PatientID, VR.LO, PATIENT_ID), loader);
+            context.publishEvent(new AfterSaveEvent(new PatientEty("Doe^John", PATIENT_ID)));
+
+            assertEquals(List.of(1, 1), sizes);
+            assertEquals(0, cache.size());
+        }
+    }
+
+    /**
+     * Runs the transaction synchronizations of a transaction without resources.
+     */
+    private static class NoOpTransactionManager extends AbstractPlatformTransactionManager
+    {
+        @Override
+        protected Object doGetTransaction()
+        {
+            return new Object();
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition)
+        {
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status)
+        {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status)
+        {
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package de.famst.service;
+
+import de.famst.data.InstanceEty;
+import de.famst.data.SeriesEty;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Unit tests for BulkDataCache.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("BulkDataCache Tests")
+class BulkDataCacheTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final BulkDataCache cache = new BulkDataCache(true, 10, 8, 2);
+
+    @AfterEach
+    void tearDown()
+    {
+        cache.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should hold the content off-heap and count hits and misses")
+    void shouldCacheContent() throws IOException
+    {
+        Path file = Files.write(tempDir.resolve("a.dcm"), "HEADERPIXELS".getBytes());
+
+        InstanceEty instance = new InstanceEty("1", file.toString());
+
+        assertThat(cache.get(instance)).isNull();
+        cache.preload(instance, new BulkDataFile(file, 6, 6));
+        BulkDataFile cached = cache.get(instance);
+
+        assertThat(cached.isCached()).isTrue();
+        assertThat(cached.content().isDirect()).isTrue();
+        assertThat(cached.content().isReadOnly()).isTrue();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cached.transferTo(0, 6, out);
+        assertThat(out.toString()).isEqualTo("PIXELS");
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently used entries beyond the byte budget and skip large entries")
+    void shouldEvictLeastRecentlyUsed() throws IOException
+    {
+        InstanceEty first = new InstanceEty("1", "1.dcm");
+        InstanceEty second = new InstanceEty("2", "2.dcm");
+        InstanceEty third = new InstanceEty("3", "3.dcm");
+        InstanceEty fourth = new InstanceEty("4", "4.dcm");
+
+        cache.preload(first, content("1", 4));
+        cache.preload(second, content("2", 4));
+        cache.get(first);
+        cache.preload(third, content("3", 4));
+        cache.preload(fourth, content("4", 9));
+
+        assertThat(cache.contains(first)).isTrue();
+        assertThat(cache.contains(second)).isFalse();
+        assertThat(cache.contains(third)).isTrue();
+        assertThat(cache.contains(fourth)).isFalse();
+        assertThat(cache.getBytes()).isEqualTo(8);
+        assertThat(cache.getEvictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Should only serve an entry for the archived file it was loaded from")
+    void shouldValidateArchivedFile() throws IOException
+    {
+        InstanceEty before = new InstanceEty("1", "1.dcm");
+        before.setFileSize(4L);
+        before.setFileLastModified(1L);
+        cache.preload(before, content("1", 4));
+
+        InstanceEty after = new InstanceEty("1", "1.dcm");
+        after.setFileSize(4L);
+        after.setFileLastModified(2L);
+
+        assertThat(cache.get(after)).isNull();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getBytes()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should evict entries of imported and deleted instances")
+    void shouldEvictOnImportAndDelete() throws IOException
+    {
+        InstanceEty first = new InstanceEty("1", "1.dcm");
+        InstanceEty second = new InstanceEty("2", "2.dcm");
+        cache.preload(first, content("1", 4));
+        cache.preload(second, content("2", 4));
+
+        cache.onDicomImported(new DicomImportedEvent("P", "1.1", "1.1.1", "1", Set.of(QueryRetrieveLevel2.IMAGE)));
+        assertThat(cache.contains(first)).isFalse();
+        assertThat(cache.contains(second)).isTrue();
+
+        cache.onAfterDelete(new AfterDeleteEvent(second));
+        assertThat(cache.contains(second)).isFalse();
+        assertThat(cache.getBytes()).isZero();
+
+        cache.preload(first, content("1", 4));
+        cache.onAfterDelete(new AfterDeleteEvent(new SeriesEty("1.1.1")));
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    @DisplayName("Should detect the direction in which a client walks through a series")
+    void shouldDetectDirection()
+    {
+        SeriesEty series = new SeriesEty("1.2");
+
+        assertThat(cache.direction(instance(series, 5))).isZero();
+        assertThat(cache.direction(instance(series, 6))).isEqualTo(1);
+        assertThat(cache.direction(instance(series, 4))).isEqualTo(-1);
+        assertThat(cache.direction(new InstanceEty("1.2.9", "9.dcm"))).isZero();
+    }
+
+    private BulkDataFile content(String name, int size) throws IOException
+    {
+        Path file = Files.write(tempDir.resolve(name + ".dcm"), new byte[size]);
+        return new BulkDataFile(file, size);
+    }
+
+    private static InstanceEty instance(SeriesEty series, int number)
+    {
+        InstanceEty instance = new InstanceEty("1.2." + number, number + ".dcm");
+        instance.setInstanceNumber(number);
+        series.addInstance(instance);
+        return instance;
+    }
+}
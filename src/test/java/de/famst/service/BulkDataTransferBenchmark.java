@@ -0,0 +1,130 @@
+package de.famst.service;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the throughput of range reads from a multi-GB file: skipping to the range and copying
+ * it through a heap buffer, as bulk data was served before, against {@link BulkDataFile#transferTo}
+ * into a stream (the fallback without sendfile) and into a file channel (copied by the kernel,
+ * like sendfile into a socket).
+ *
+ * <p>The file is sparse, so the benchmark measures the copies and not the disk. It only runs on
+ * request, the size defaults to 4 GB:
+ * <pre>
+ * ./gradlew test --tests '*BulkDataTransferBenchmark' -Dmupacs.benchmark=true -Dmupacs.benchmark.bulkdata-size=4294967296
+ * </pre>
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@EnabledIfSystemProperty(named = "mupacs.benchmark", matches = "true")
+@DisplayName("Bulk data transfer Benchmark")
+class BulkDataTransferBenchmark
+{
+    private static final Logger LOG = LoggerFactory.getLogger(BulkDataTransferBenchmark.class);
+
+    private static final int RANGES = 8;
+    private static final int BUFFER_SIZE = 8192;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should report the throughput of range reads before and with transferTo")
+    void shouldCompareRangeReads() throws IOException
+    {
+        long size = Long.getLong("mupacs.benchmark.bulkdata-size", 4L << 30);
+        Path path = tempDir.resolve("large.dcm");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw"))
+        {
+            file.setLength(size);
+        }
+        BulkDataFile file = new BulkDataFile(path, size);
+
+        // ranges of the second half of the file, so skipping has to pass the first half
+        long count = size / 2 / RANGES;
+        Path target = tempDir.resolve("target.dat");
+
+        for (int run = 0; run < 2; run++)
+        {
+            long skipCopy = 0;
+            long streamTransfer = 0;
+            long channelTransfer = 0;
+
+            for (int i = 0; i < RANGES; i++)
+            {
+                long position = size / 2 + i * count;
+
+                long startTime = System.nanoTime();
+                assertThat(skipAndCopy(path, position, count, OutputStream.nullOutputStream())).isEqualTo(count);
+                skipCopy += System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                file.transferTo(position, count, OutputStream.nullOutputStream());
+                streamTransfer += System.nanoTime() - startTime;
+
+                startTime = System.nanoTime();
+                try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING))
+                {
+                    file.transferTo(position, count, Channels.newOutputStream(out));
+                    assertThat(out.size()).isEqualTo(count);
+                }
+                channelTransfer += System.nanoTime() - startTime;
+            }
+
+            long bytes = count * RANGES;
+            LOG.info("run {}: {} ranges of {} MB, skip and copy {} MB/s, transferTo stream {} MB/s, transferTo channel {} MB/s",
+                run, RANGES, count >> 20, throughput(bytes, skipCopy), throughput(bytes, streamTransfer),
+                throughput(bytes, channelTransfer));
+        }
+    }
+
+    /**
+     * Reads a range like the former {@code RangeInputStream}: skip to the start, then copy through a heap buffer.
+     */
+    private static long skipAndCopy(Path path, long position, long count, OutputStream out) throws IOException
+    {
+        try (InputStream in = new FileInputStream(path.toFile()))
+        {
+            long skipped = in.skip(position);
+            assertThat(skipped).isEqualTo(position);
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long copied = 0;
+            while (copied < count)
+            {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, count - copied));
+                if (read < 0)
+                {
+                    break;
+                }
+                out.write(buffer, 0, read);
+                copied += read;
+            }
+            return copied;
+        }
+    }
+
+    private static long throughput(long bytes, long nanos)
+    {
+        return nanos > 0 ? (bytes >> 20) * 1_000_000_000L / nanos : 0;
+    }
+}
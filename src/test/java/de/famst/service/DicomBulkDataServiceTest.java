@@ -1,20 +1,31 @@
 package de.famst.service;
 
+import de.famst.data.InstanceEty;
+import de.famst.data.InstanceFramesRepository;
+import de.famst.data.InstanceRepository;
+import de.famst.data.SeriesEty;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
-import org.springframework.core.io.Resource;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.function.BooleanSupplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 /**
  * Unit tests for DicomBulkDataService.
@@ -40,7 +51,8 @@ class DicomBulkDataServiceTest
     @BeforeEach
     void setUp()
     {
-        service = new DicomBulkDataService();
+        service = new DicomBulkDataService(mock(InstanceFramesRepository.class), mock(InstanceRepository.class),
+                new BulkDataCache(false, 0, 0, 0));
     }
 
     @Nested
@@ -89,6 +101,23 @@ class DicomBulkDataServiceTest
                     .hasMessageContaining("not a regular file");
         }
 
+        @Test
+        @DisplayName("Should return the absolute path and size of the file")
+        void shouldReturnAbsolutePathAndSize() throws IOException
+        {
+            // Given
+            byte[] data = "Test data for the file".getBytes();
+            Path testFile = tempDir.resolve("file.dat");
+            Files.write(testFile, data);
+
+            // When
+            BulkDataFile file = service.getFile(testFile.toString());
+
+            // Then
+            assertThat(file.path()).isEqualTo(testFile.toAbsolutePath());
+            assertThat(file.size()).isEqualTo(data.length);
+        }
+
         @Test
         @DisplayName("Should return zero for empty file")
         void shouldReturnZeroForEmptyFile() throws IOException
@@ -119,8 +148,8 @@ class DicomBulkDataServiceTest
             Files.write(testFile, expectedData);
 
             // When
-            Resource resource = service.getFullFile(testFile.toString());
-            byte[] actualData = readResourceBytes(resource);
+            BulkDataFile file = service.getFile(testFile.toString());
+            byte[] actualData = read(file, 0, file.size() - 1);
 
             // Then
             assertThat(actualData).isEqualTo(expectedData);
@@ -134,7 +163,7 @@ class DicomBulkDataServiceTest
             String nonExistentPath = tempDir.resolve("nonexistent.dat").toString();
 
             // When/Then
-            assertThatThrownBy(() -> service.getFullFile(nonExistentPath))
+            assertThatThrownBy(() -> service.getFile(nonExistentPath))
                     .isInstanceOf(IOException.class)
                     .hasMessageContaining("File not found");
         }
@@ -148,8 +177,8 @@ class DicomBulkDataServiceTest
             Files.write(emptyFile, new byte[0]);
 
             // When
-            Resource resource = service.getFullFile(emptyFile.toString());
-            byte[] actualData = readResourceBytes(resource);
+            BulkDataFile file = service.getFile(emptyFile.toString());
+            byte[] actualData = read(file, 0, file.size() - 1);
 
             // Then
             assertThat(actualData).isEmpty();
@@ -169,8 +198,8 @@ class DicomBulkDataServiceTest
             Files.write(largeFile, largeData);
 
             // When
-            Resource resource = service.getFullFile(largeFile.toString());
-            byte[] actualData = readResourceBytes(resource);
+            BulkDataFile file = service.getFile(largeFile.toString());
+            byte[] actualData = read(file, 0, file.size() - 1);
 
             // Then
             assertThat(actualData).isEqualTo(largeData);
@@ -191,8 +220,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When
-            Resource resource = service.getFileRange(testFile.toString(), 5, 9);
-            byte[] actualData = readResourceBytes(resource);
+            byte[] actualData = read(service.getFile(testFile.toString()), 5, 9);
 
             // Then
             assertThat(actualData).isEqualTo("56789".getBytes());
@@ -208,8 +236,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When
-            Resource resource = service.getFileRange(testFile.toString(), 3, 3);
-            byte[] actualData = readResourceBytes(resource);
+            byte[] actualData = read(service.getFile(testFile.toString()), 3, 3);
 
             // Then
             assertThat(actualData).isEqualTo("D".getBytes());
@@ -225,8 +252,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When
-            Resource resource = service.getFileRange(testFile.toString(), 0, 4);
-            byte[] actualData = readResourceBytes(resource);
+            byte[] actualData = read(service.getFile(testFile.toString()), 0, 4);
 
             // Then
             assertThat(actualData).isEqualTo("Start".getBytes());
@@ -242,8 +268,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When
-            Resource resource = service.getFileRange(testFile.toString(), 11, 13);
-            byte[] actualData = readResourceBytes(resource);
+            byte[] actualData = read(service.getFile(testFile.toString()), 11, 13);
 
             // Then
             assertThat(actualData).isEqualTo("End".getBytes());
@@ -259,8 +284,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When
-            Resource resource = service.getFileRange(testFile.toString(), 0, fileData.length - 1);
-            byte[] actualData = readResourceBytes(resource);
+            byte[] actualData = read(service.getFile(testFile.toString()), 0, fileData.length - 1);
 
             // Then
             assertThat(actualData).isEqualTo(fileData);
@@ -274,7 +298,7 @@ class DicomBulkDataServiceTest
             String nonExistentPath = tempDir.resolve("nonexistent.dat").toString();
 
             // When/Then
-            assertThatThrownBy(() -> service.getFileRange(nonExistentPath, 0, 10))
+            assertThatThrownBy(() -> read(service.getFile(nonExistentPath), 0, 10))
                     .isInstanceOf(IOException.class)
                     .hasMessageContaining("File not found");
         }
@@ -289,7 +313,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When/Then
-            assertThatThrownBy(() -> service.getFileRange(testFile.toString(), -1, 5))
+            assertThatThrownBy(() -> read(service.getFile(testFile.toString()), -1, 5))
                     .isInstanceOf(IllegalArgumentException.class)
                     .hasMessageContaining("Invalid range");
         }
@@ -304,7 +328,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When/Then
-            assertThatThrownBy(() -> service.getFileRange(testFile.toString(), 5, 2))
+            assertThatThrownBy(() -> read(service.getFile(testFile.toString()), 5, 2))
                     .isInstanceOf(IllegalArgumentException.class)
                     .hasMessageContaining("Invalid range");
         }
@@ -319,7 +343,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When/Then
-            assertThatThrownBy(() -> service.getFileRange(testFile.toString(), 0, 100))
+            assertThatThrownBy(() -> read(service.getFile(testFile.toString()), 0, 100))
                     .isInstanceOf(IllegalArgumentException.class)
                     .hasMessageContaining("Invalid range");
         }
@@ -334,7 +358,7 @@ class DicomBulkDataServiceTest
             Files.write(testFile, fileData);
 
             // When/Then
-            assertThatThrownBy(() -> service.getFileRange(testFile.toString(), fileData.length, fileData.length))
+            assertThatThrownBy(() -> read(service.getFile(testFile.toString()), fileData.length, fileData.length))
                     .isInstanceOf(IllegalArgumentException.class)
                     .hasMessageContaining("Invalid range");
         }
@@ -353,8 +377,7 @@ class DicomBulkDataServiceTest
             Files.write(largeFile, largeData);
 
             // When
-            Resource resource = service.getFileRange(largeFile.toString(), 10000, 19999);
-            byte[] actualData = readResourceBytes(resource);
+            byte[] actualData = read(service.getFile(largeFile.toString()), 10000, 19999);
 
             // Then
             assertThat(actualData).hasSize(10000);
@@ -365,26 +388,200 @@ class DicomBulkDataServiceTest
         }
     }
 
-    /**
-     * Helper method to read all bytes from a Resource's InputStream.
-     *
-     * @param resource the Resource to read from
-     * @return byte array containing all data from the resource
-     * @throws IOException if reading fails
-     */
-    private byte[] readResourceBytes(Resource resource) throws IOException
+    @Nested
+    @DisplayName("Pixel Data retrieval tests")
+    class PixelDataRetrievalTests
+    {
+        @Test
+        @DisplayName("Should return the indexed Pixel Data with ranges relative to it")
+        void shouldReturnIndexedPixelData() throws IOException
+        {
+            // Given
+            Path testFile = tempDir.resolve("pixels.dcm");
+            Files.write(testFile, "HEADER_PIXELS_TRAILER".getBytes());
+            InstanceEty instance = indexed(testFile, 7, 6);
+
+            // When
+            BulkDataFile pixelData = service.getBulkData(instance);
+
+            // Then
+            assertThat(pixelData.offset()).isEqualTo(7);
+            assertThat(pixelData.size()).isEqualTo(6);
+            assertThat(read(pixelData, 0, 5)).isEqualTo("PIXELS".getBytes());
+            assertThat(read(pixelData, 2, 3)).isEqualTo("XE".getBytes());
+        }
+
+        @Test
+        @DisplayName("Should return the whole file of an instance that was not indexed")
+        void shouldReturnWholeFileWithoutIndex() throws IOException
+        {
+            // Given
+            Path testFile = tempDir.resolve("unindexed.dcm");
+            Files.write(testFile, "HEADER_PIXELS".getBytes());
+
+            // When
+            BulkDataFile file = service.getBulkData(new InstanceEty("1.2.3", testFile.toString()));
+
+            // Then
+            assertThat(file.offset()).isZero();
+            assertThat(file.size()).isEqualTo(13);
+        }
+
+        @Test
+        @DisplayName("Should refuse a file that changed since it was indexed")
+        void shouldRefuseChangedFile() throws IOException
+        {
+            // Given
+            Path testFile = tempDir.resolve("changed.dcm");
+            Files.write(testFile, "HEADER_PIXELS".getBytes());
+            InstanceEty instance = indexed(testFile, 7, 6);
+            Files.write(testFile, "HEADER_PIXELS_APPENDED".getBytes());
+
+            // When/Then
+            assertThatThrownBy(() -> service.getBulkData(instance))
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("changed");
+        }
+
+        @Test
+        @DisplayName("Should not read beyond the Pixel Data")
+        void shouldRejectRangeBeyondPixelData() throws IOException
+        {
+            // Given
+            Path testFile = tempDir.resolve("bounded.dcm");
+            Files.write(testFile, "HEADER_PIXELS_TRAILER".getBytes());
+            BulkDataFile pixelData = service.getBulkData(indexed(testFile, 7, 6));
+
+            // When/Then
+            assertThatThrownBy(() -> read(pixelData, 0, 6))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Invalid range");
+        }
+
+        private static InstanceEty indexed(Path file, long offset, long length) throws IOException
+        {
+            InstanceEty instance = new InstanceEty("1.2.3", file.toString());
+            instance.setTransferSyntaxUID("1.2.840.10008.1.2.1");
+            instance.setPixelDataOffset(offset);
+            instance.setPixelDataLength(length);
+            instance.setFileSize(Files.size(file));
+            instance.setFileLastModified(Files.getLastModifiedTime(file).toMillis());
+            return instance;
+        }
+    }
+
+    @Nested
+    @DisplayName("Cache tests")
+    class CacheTests
     {
-        try (InputStream inputStream = resource.getInputStream();
-             ByteArrayOutputStream outputStream = new ByteArrayOutputStream())
+        private final InstanceRepository instanceRepository = mock(InstanceRepository.class);
+        private final BulkDataCache cache = new BulkDataCache(true, 1024, 1024, 2);
+
+        @AfterEach
+        void tearDown()
+        {
+            cache.shutdown();
+        }
+
+        @Test
+        @DisplayName("Should serve cached bulk data without touching the file")
+        void shouldServeCachedBulkData() throws IOException
         {
-            byte[] buffer = new byte[1024];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1)
+            // Given
+            Path file = Files.write(tempDir.resolve("cached.dcm"), "CACHED".getBytes());
+            InstanceEty instance = new InstanceEty("1.2.3", file.toString());
+            cache.preload(instance, new BulkDataFile(file, 6));
+            Files.delete(file);
+            service = new DicomBulkDataService(mock(InstanceFramesRepository.class), instanceRepository, cache);
+
+            // When
+            BulkDataFile bulkData = service.getBulkData(instance);
+
+            // Then
+            assertThat(bulkData.isCached()).isTrue();
+            assertThat(read(bulkData, 1, 3)).isEqualTo("ACH".getBytes());
+            assertThat(cache.getHitCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should not serve bulk data cached for the file an instance had before it was re-imported")
+        void shouldNotServeBulkDataOfReplacedFile() throws IOException
+        {
+            // Given
+            Path file = Files.write(tempDir.resolve("replaced.dcm"), "BEFORE".getBytes());
+            InstanceEty before = new InstanceEty("1.2.3", file.toString());
+            before.setFileLastModified(1L);
+            cache.preload(before, new BulkDataFile(file, 6));
+            Files.write(file, "AFTER".getBytes());
+            InstanceEty after = new InstanceEty("1.2.3", file.toString());
+            after.setFileLastModified(2L);
+            service = new DicomBulkDataService(mock(InstanceFramesRepository.class), instanceRepository, cache);
+
+            // When
+            BulkDataFile bulkData = service.getBulkData(after);
+
+            // Then
+            assertThat(bulkData.isCached()).isFalse();
+            assertThat(read(bulkData, 0, 5)).isEqualTo("AFTER".getBytes());
+            assertThat(cache.contains(before)).isFalse();
+            assertThat(cache.getMissCount()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Should load the next instances of a series a client walks through")
+        void shouldReadAheadInSeries() throws IOException
+        {
+            // Given
+            SeriesEty series = new SeriesEty("1.2");
+            InstanceEty first = instance(series, 1);
+            InstanceEty second = instance(series, 2);
+            InstanceEty third = instance(series, 3);
+            when(instanceRepository.findBySeriesIdAndInstanceNumberGreaterThan(eq(0L), eq(2), any()))
+                    .thenReturn(List.of(third));
+            service = new DicomBulkDataService(mock(InstanceFramesRepository.class), instanceRepository, cache);
+
+            // When
+            service.getBulkData(first);
+            service.getBulkData(second);
+
+            // Then
+            verify(instanceRepository, timeout(5000)).findBySeriesIdAndInstanceNumberGreaterThan(eq(0L), eq(2), any());
+            await(() -> cache.getReadAheadCount() == 1);
+            assertThat(cache.contains(third)).isTrue();
+        }
+
+        private InstanceEty instance(SeriesEty series, int number) throws IOException
+        {
+            Path file = Files.write(tempDir.resolve(number + ".dcm"), ("INSTANCE" + number).getBytes());
+            InstanceEty instance = new InstanceEty("1.2." + number, file.toString());
+            instance.setInstanceNumber(number);
+            series.addInstance(instance);
+            return instance;
+        }
+
+        private static void await(BooleanSupplier condition)
+        {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
             {
-                outputStream.write(buffer, 0, bytesRead);
+                Thread.onSpinWait();
             }
-            return outputStream.toByteArray();
         }
     }
-}
 
+    /**
+     * Helper method to copy a byte range of a file with {@link BulkDataFile#transferTo}.
+     *
+     * @param file  the file to read from
+     * @param start the first byte (inclusive)
+     * @param end   the last byte (inclusive)
+     * @return byte array containing the range
+     * @throws IOException if reading fails
+     */
+    private static byte[] read(BulkDataFile file, long start, long end) throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        file.transferTo(start, end - start + 1, outputStream);
+        return outputStream.toByteArray();
+    }
+}
@@ -1,6 +1,9 @@
 package de.famst.service;
 
 import de.famst.data.InstanceEty;
+import de.famst.data.InstanceFramesRepository;
+import de.famst.data.InstanceHeaderEty;
+import de.famst.data.InstanceHeaderRepository;
 import de.famst.data.InstanceRepository;
 import de.famst.data.PatientEty;
 import de.famst.data.PatientRepository;
@@ -8,25 +11,31 @@ import de.famst.data.SeriesEty;
 import de.famst.data.SeriesRepository;
 import de.famst.data.StudyEty;
 import de.famst.data.StudyRepository;
+import de.famst.data.TextIndex;
 import de.famst.dcm.DicomReader;
 import org.dcm4che3.data.Attributes;
 import org.dcm4che3.data.Tag;
 import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.never;
@@ -45,6 +54,12 @@ class DicomImportServiceTest
     @Mock
     private InstanceRepository instanceRepository;
 
+    @Mock
+    private InstanceHeaderRepository instanceHeaderRepository;
+
+    @Mock
+    private InstanceFramesRepository instanceFramesRepository;
+
     @Mock
     private SeriesRepository seriesRepository;
 
@@ -54,6 +69,12 @@ class DicomImportServiceTest
     @Mock
     private PatientRepository patientRepository;
 
+    @Mock
+    private TextIndex textIndex;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
     private DicomReader dicomReader;
 
     private Attributes dcmAttributes;
@@ -79,8 +100,9 @@ class DicomImportServiceTest
         dicomReader = new DicomReader();
         //dcmAttributes = org.mockito.Mockito.mock(Attributes.class);
 
-        dicomImportService = new DicomImportService(instanceRepository, seriesRepository,
-            studyRepository, patientRepository, dicomReader);
+        dicomImportService = new DicomImportService(instanceRepository, instanceHeaderRepository,
+            instanceFramesRepository, seriesRepository, studyRepository, patientRepository, dicomReader, textIndex,
+            eventPublisher);
 
         ReflectionTestUtils.setField(dicomImportService,"mupacsArchive", tempDir.resolve("archive").toString());
     }
@@ -243,6 +265,17 @@ class DicomImportServiceTest
 
         verify(instanceRepository).findByInstanceUID(INSTANCE_UID);
         verify(instanceRepository).save(any(InstanceEty.class));
+
+        ArgumentCaptor<InstanceHeaderEty> header = ArgumentCaptor.forClass(InstanceHeaderEty.class);
+        verify(instanceHeaderRepository).save(header.capture());
+        assertEquals(instance, header.getValue().getInstance());
+        assertEquals(INSTANCE_UID, header.getValue().getHeader().getString(Tag.SOPInstanceUID));
+
+        ArgumentCaptor<DicomImportedEvent> event = ArgumentCaptor.forClass(DicomImportedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(Set.of(QueryRetrieveLevel2.PATIENT, QueryRetrieveLevel2.STUDY,
+            QueryRetrieveLevel2.SERIES, QueryRetrieveLevel2.IMAGE), event.getValue().createdLevels());
+        assertEquals(STUDY_UID, event.getValue().studyInstanceUID());
     }
 
     @DisplayName("Should reuse existing patient when patient already exists")
@@ -334,6 +367,14 @@ class DicomImportServiceTest
         verify(seriesRepository).findBySeriesInstanceUID(SERIES_UID);
         verify(seriesRepository, never()).save(any(SeriesEty.class));
         verify(instanceRepository).save(any(InstanceEty.class));
+
+        ArgumentCaptor<DicomImportedEvent> event = ArgumentCaptor.forClass(DicomImportedEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(Set.of(QueryRetrieveLevel2.IMAGE), event.getValue().createdLevels());
+
+        // the new instance changes the query results of the existing study and series
+        assertNotNull(study.getLastModified());
+        assertNotNull(existingSeries.getLastModified());
     }
 
     @DisplayName("Should skip instance creation when instance already exists")
@@ -359,6 +400,8 @@ class DicomImportServiceTest
         // Then
         verify(instanceRepository).findByInstanceUID(INSTANCE_UID);
         verify(instanceRepository, never()).save(any(InstanceEty.class));
+        assertNull(study.getLastModified());
+        assertNull(series.getLastModified());
     }
 
     @DisplayName("Should not create any entities when all already exist")
@@ -386,6 +429,8 @@ class DicomImportServiceTest
         verify(studyRepository, never()).save(any(StudyEty.class));
         verify(seriesRepository, never()).save(any(SeriesEty.class));
         verify(instanceRepository, never()).save(any(InstanceEty.class));
+        verify(instanceHeaderRepository, never()).save(any(InstanceHeaderEty.class));
+        verify(eventPublisher, never()).publishEvent(any(Object.class));
     }
 
     @DisplayName("Should establish bidirectional relationships between entities")
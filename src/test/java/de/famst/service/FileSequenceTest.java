@@ -0,0 +1,95 @@
+package de.famst.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for FileSequence.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("FileSequence Tests")
+class FileSequenceTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void tearDown()
+    {
+        ioExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should write every file after its header, including empty files and files larger than the buffers")
+    void shouldWriteFilesWithHeaders() throws IOException
+    {
+        Path first = write("a.dcm", "0123456789ABCDEF");
+        Path empty = write("b.dcm", "");
+        Path last = write("c.dcm", "xyz");
+        FileSequence sequence = new FileSequence(List.of(first, empty, last), ioExecutor, 2, 4);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sequence.transferTo(out, (index, file, stream) ->
+            stream.write(("[" + index + ":" + file.getFileName() + "]").getBytes(StandardCharsets.US_ASCII)));
+
+        assertThat(out.toString(StandardCharsets.US_ASCII))
+            .isEqualTo("[0:a.dcm]0123456789ABCDEF[1:b.dcm][2:c.dcm]xyz");
+    }
+
+    @Test
+    @DisplayName("Should order existing files by their location on disk and reject missing files")
+    void shouldOrderFilesOnDisk() throws IOException
+    {
+        Path first = write("1.dcm", "1");
+        Path second = write("2.dcm", "2");
+
+        FileSequence sequence = FileSequence.inDiskOrder(
+            List.of(second.toString(), first.toString()), ioExecutor, 1, 16);
+
+        assertThat(sequence.files()).containsExactlyInAnyOrder(first, second);
+        assertThatThrownBy(() -> FileSequence.inDiskOrder(
+            List.of(tempDir.resolve("missing.dcm").toString()), ioExecutor, 1, 16))
+            .isInstanceOf(NoSuchFileException.class);
+    }
+
+    @Test
+    @DisplayName("Should fail after the files before an unreadable file")
+    void shouldFailOnUnreadableFile() throws IOException
+    {
+        Path first = write("a.dcm", "first");
+        Path deleted = write("b.dcm", "second");
+        FileSequence sequence = new FileSequence(List.of(first, deleted), ioExecutor, 1, 2);
+        Files.delete(deleted);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertThatThrownBy(() -> sequence.transferTo(out, (index, file, stream) -> {
+        }))
+            .isInstanceOf(IOException.class)
+            .hasMessageContaining("b.dcm");
+        assertThat(out.toString(StandardCharsets.US_ASCII)).isEqualTo("first");
+    }
+
+    private Path write(String name, String content) throws IOException
+    {
+        return Files.writeString(tempDir.resolve(name), content, StandardCharsets.US_ASCII);
+    }
+}
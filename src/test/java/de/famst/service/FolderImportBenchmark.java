@@ -0,0 +1,113 @@
+package de.famst.service;
+
+import de.famst.dcm.DcmFile;
+import org.dcm4che3.data.Attributes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the sequential folder import, a {@code Files.walk} which sniffs and parses one file
+ * after the other, against the {@link ImportPipeline} on a tree of small Part 10 files in study
+ * and series directories.
+ *
+ * <p>The writer only counts the files, so the benchmark measures enumeration, sniffing and
+ * parsing, the part the pipeline parallelizes; the database is written by a single thread either
+ * way. Run it on a cold cache to include the disk. It only runs on request, the number of files
+ * defaults to 100k:
+ * <pre>
+ * ./gradlew test --tests '*FolderImportBenchmark' -Dmupacs.benchmark=true -Dmupacs.benchmark.import-files=100000
+ * </pre>
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@EnabledIfSystemProperty(named = "mupacs.benchmark", matches = "true")
+@DisplayName("Folder import Benchmark")
+class FolderImportBenchmark
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FolderImportBenchmark.class);
+
+    private static final int FILES_PER_SERIES = 200;
+    private static final int SERIES_PER_STUDY = 5;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should report the throughput of the sequential and the pipelined import")
+    void shouldComparePipelineWithSequentialImport() throws Exception
+    {
+        int count = Integer.getInteger("mupacs.benchmark.import-files", 100_000);
+        int parseThreads = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < count; i++)
+        {
+            int series = i / FILES_PER_SERIES;
+            int study = series / SERIES_PER_STUDY;
+            Path directory = tempDir.resolve("ST" + study).resolve("SE" + series);
+            if (i % FILES_PER_SERIES == 0)
+            {
+                Files.createDirectories(directory);
+            }
+            ImportPipelineTest.writeInstance(directory.resolve("IM" + i), "1.2." + study,
+                "1.2." + study + "." + series, "1.2." + study + "." + series + "." + i);
+        }
+
+        for (int run = 0; run < 2; run++)
+        {
+            long startTime = System.nanoTime();
+            assertThat(sequential(tempDir)).isEqualTo(count);
+            long sequential = System.nanoTime() - startTime;
+
+            AtomicInteger written = new AtomicInteger();
+            startTime = System.nanoTime();
+            ImportPipeline.Result result = new ImportPipeline(2, parseThreads, 1024, 100)
+                .run(tempDir, batch -> written.addAndGet(batch.size()));
+            long pipelined = System.nanoTime() - startTime;
+
+            assertThat(result.parsed()).isEqualTo(count);
+            assertThat(written.get()).isEqualTo(count);
+
+            LOG.info("Run {}: {} files, sequential {} ms ({} files/s), pipeline with {} parse threads {} ms "
+                    + "({} files/s), speedup {}", run, count,
+                sequential / 1_000_000, count * 1_000_000_000L / sequential,
+                parseThreads, pipelined / 1_000_000, count * 1_000_000_000L / pipelined,
+                String.format("%.1f", (double) sequential / pipelined));
+        }
+    }
+
+    /**
+     * Reads the files like the folder import did before the pipeline.
+     */
+    private static int sequential(Path root) throws IOException
+    {
+        AtomicInteger parsed = new AtomicInteger();
+        try (Stream<Path> stream = Files.walk(root))
+        {
+            stream
+                .filter(Files::isRegularFile)
+                .filter(path -> DcmFile.isDCMFile(path.toFile()))
+                .forEach(path ->
+                {
+                    Attributes attributes = DcmFile.readContent(path.toFile());
+                    if (attributes != null)
+                    {
+                        parsed.incrementAndGet();
+                    }
+                });
+        }
+        return parsed.get();
+    }
+}
@@ -0,0 +1,143 @@
+package de.famst.service;
+
+import de.famst.dcm.DcmFile;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for ImportPipeline.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("ImportPipeline Tests")
+@Timeout(value = 30, unit = TimeUnit.SECONDS)
+class ImportPipelineTest
+{
+    @TempDir
+    Path tempDir;
+
+    @Test
+    @DisplayName("Should parse all DICOM files of the tree and write them in batches sorted by series")
+    void shouldImportTree() throws Exception
+    {
+        // two series spread over nested directories, plus files without DICM prefix
+        for (int i = 0; i < 40; i++)
+        {
+            String series = i % 2 == 0 ? "1.2.1" : "1.2.2";
+            Path directory = Files.createDirectories(tempDir.resolve("d" + i % 4).resolve("sub" + i % 3));
+            writeInstance(directory.resolve(i + ".dcm"), "1.2", series, series + "." + i);
+        }
+        Files.writeString(tempDir.resolve("README.txt"), "not DICOM");
+        Files.writeString(tempDir.resolve("d1").resolve("DICOMDIR.bak"), "short");
+
+        List<List<ImportPipeline.ParsedFile>> batches = Collections.synchronizedList(new ArrayList<>());
+        ImportPipeline.Result result = new ImportPipeline(2, 3, 8, 16).run(tempDir, batches::add);
+
+        assertThat(result.files()).isEqualTo(42);
+        assertThat(result.skipped()).isEqualTo(2);
+        assertThat(result.unreadable()).isZero();
+        assertThat(result.parsed()).isEqualTo(40);
+
+        List<String> instances = new ArrayList<>();
+        for (List<ImportPipeline.ParsedFile> batch : batches)
+        {
+            assertThat(batch).hasSizeLessThanOrEqualTo(16);
+            List<String> series = batch.stream()
+                .map(file -> file.attributes().getString(Tag.SeriesInstanceUID))
+                .toList();
+            assertThat(series).isSorted();
+            batch.forEach(file -> instances.add(file.attributes().getString(Tag.SOPInstanceUID)));
+        }
+        assertThat(instances).hasSize(40).doesNotHaveDuplicates();
+    }
+
+    @Test
+    @DisplayName("Should stop the import if the writer fails")
+    void shouldStopOnWriterFailure() throws IOException
+    {
+        for (int i = 0; i < 100; i++)
+        {
+            writeInstance(tempDir.resolve(i + ".dcm"), "1.2", "1.2.1", "1.2.1." + i);
+        }
+
+        assertThatThrownBy(() -> new ImportPipeline(1, 2, 4, 4).run(tempDir, batch ->
+        {
+            throw new IllegalStateException("database gone");
+        }))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessage("database gone");
+    }
+
+    @Test
+    @DisplayName("Should fail the import instead of waiting forever if a parse worker dies")
+    void shouldFailOnParseWorkerError() throws IOException
+    {
+        for (int i = 0; i < 20; i++)
+        {
+            writeInstance(tempDir.resolve(i + ".dcm"), "1.2", "1.2.1", "1.2.1." + i);
+        }
+
+        ImportPipeline pipeline = new ImportPipeline(1, 2, 4, 4, file ->
+        {
+            if (file.getName().equals("7.dcm"))
+            {
+                throw new AssertionError("worker killed");
+            }
+            return DcmFile.readContent(file);
+        });
+
+        assertThatThrownBy(() -> pipeline.run(tempDir, batch ->
+        {
+        }))
+            .isInstanceOf(IllegalStateException.class)
+            .hasRootCauseInstanceOf(AssertionError.class)
+            .hasRootCauseMessage("worker killed");
+    }
+
+    @Test
+    @DisplayName("Should finish for an empty directory")
+    void shouldImportEmptyDirectory() throws InterruptedException
+    {
+        ImportPipeline.Result result = new ImportPipeline(2, 2, 4, 4).run(tempDir, batch ->
+        {
+            throw new AssertionError("nothing to write");
+        });
+
+        assertThat(result).isEqualTo(new ImportPipeline.Result(0, 0, 0, 0));
+    }
+
+    static void writeInstance(Path path, String study, String series, String instance) throws IOException
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, instance);
+        dataset.setString(Tag.StudyInstanceUID, VR.UI, study);
+        dataset.setString(Tag.SeriesInstanceUID, VR.UI, series);
+        dataset.setString(Tag.PatientID, VR.LO, "4711");
+        dataset.setString(Tag.PatientName, VR.PN, "Doe^John");
+
+        try (DicomOutputStream dos = new DicomOutputStream(path.toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.PatientEty;
+import de.famst.data.PatientRepository;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.data.rest.core.event.AfterSaveEvent;
+import org.springframework.data.rest.core.event.BeforeSaveEvent;
+
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for PatientNameTrie.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("PatientNameTrie Tests")
+class PatientNameTrieTest
+{
+    @Mock
+    private DicomReadRepository dicomReadRepository;
+
+    @Mock
+    private PatientRepository patientRepository;
+
+    private PatientNameTrie trie;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(dicomReadRepository.streamPatientNames()).thenReturn(
+            Stream.of("Müller^Jürgen", "Muller^Anna", "Mulder^Fox", "Smith^John", "Doe^Smiley", "Müller^Jürgen"));
+
+        trie = new PatientNameTrie(dicomReadRepository, patientRepository);
+        assertThat(trie.rebuild()).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Should suggest names by family or given name prefix regardless of case and diacritics")
+    void shouldSuggestByComponentPrefix()
+    {
+        assertThat(trie.suggest("mul", 10)).containsExactly("Mulder^Fox", "Muller^Anna", "Müller^Jürgen");
+        assertThat(trie.suggest("MÜLLER^J", 10)).containsExactly("Müller^Jürgen");
+        assertThat(trie.suggest("smi", 10)).containsExactly("Doe^Smiley", "Smith^John");
+        assertThat(trie.suggest("x", 10)).isEmpty();
+        assertThat(trie.suggest(" ", 10)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Should return no more names than the limit")
+    void shouldLimitSuggestions()
+    {
+        assertThat(trie.suggest("m", 2)).hasSize(2);
+    }
+
+    @Test
+    @DisplayName("Should add the names of patients created by an import")
+    void shouldAddImportedPatients()
+    {
+        when(patientRepository.findByPatientId("4711")).thenReturn(new PatientEty("Mustermann^Max", "4711"));
+
+        trie.onDicomImported(new DicomImportedEvent("4711", "1.2", "1.2.3", "1.2.3.4",
+            Set.of(QueryRetrieveLevel2.PATIENT, QueryRetrieveLevel2.STUDY)));
+
+        assertThat(trie.suggest("must", 10)).containsExactly("Mustermann^Max");
+        assertThat(trie.size()).isEqualTo(6);
+    }
+
+    @Test
+    @DisplayName("Should ignore imports into existing patients")
+    void shouldIgnoreImportsIntoExistingPatients()
+    {
+        trie.onDicomImported(new DicomImportedEvent("4711", "1.2", "1.2.3", "1.2.3.4",
+            Set.of(QueryRetrieveLevel2.IMAGE)));
+
+        verify(patientRepository, never()).findByPatientId(any());
+    }
+
+    @Test
+    @DisplayName("Should keep the names of patients imported while the trie is rebuilt")
+    void shouldKeepNamesImportedDuringRebuild()
+    {
+        when(patientRepository.findByPatientId("4711")).thenReturn(new PatientEty("Mustermann^Max", "4711"));
+        when(dicomReadRepository.streamPatientNames()).thenReturn(Stream.of("Müller^Jürgen", "Smith^John")
+            .peek(name -> trie.onDicomImported(new DicomImportedEvent("4711", "1.2", "1.2.3", "1.2.3.4",
+                Set.of(QueryRetrieveLevel2.PATIENT)))));
+
+        assertThat(trie.rebuild()).isEqualTo(3);
+        assertThat(trie.suggest("must", 10)).containsExactly("Mustermann^Max");
+    }
+
+    @Test
+    @DisplayName("Should rebuild the trie when a patient is renamed or deleted through the REST API")
+    void shouldRebuildOnRestChanges()
+    {
+        PatientEty patient = new PatientEty("Mulder^Fox", "PAT001");
+        when(dicomReadRepository.streamPatientNames())
+            .thenReturn(Stream.of("Müller^Jürgen", "Scully^Dana"))
+            .thenReturn(Stream.of("Müller^Jürgen"));
+
+        trie.onRepositoryEvent(new BeforeSaveEvent(patient));
+        trie.onRepositoryEvent(new AfterSaveEvent(patient));
+        assertThat(trie.suggest("muld", 10)).isEmpty();
+        assertThat(trie.suggest("scu", 10)).containsExactly("Scully^Dana");
+
+        trie.onRepositoryEvent(new AfterDeleteEvent(patient));
+        assertThat(trie.suggest("scu", 10)).isEmpty();
+        assertThat(trie.size()).isEqualTo(1);
+        verify(dicomReadRepository, times(3)).streamPatientNames();
+    }
+}
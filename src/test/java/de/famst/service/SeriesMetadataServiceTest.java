@@ -0,0 +1,169 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceEty;
+import de.famst.data.InstanceHeaderEty;
+import de.famst.data.InstanceHeaderRepository;
+import de.famst.data.InstanceRecord;
+import jakarta.json.Json;
+import jakarta.json.JsonArray;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for SeriesMetadataService.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("SeriesMetadataService Tests")
+class SeriesMetadataServiceTest
+{
+    private static final String STUDY_UID = "1.2.3.4.5";
+    private static final String SERIES_UID = "1.2.3.4.5.6";
+    private static final String INSTANCE_UID = "1.2.3.4.5.6.7";
+
+    @Mock
+    private DicomReadRepository dicomReadRepository;
+
+    @Mock
+    private InstanceHeaderRepository instanceHeaderRepository;
+
+    @TempDir
+    Path tempDir;
+
+    private SeriesMetadataService metadataService;
+
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        file = tempDir.resolve("instance.dcm");
+        writeInstance(file);
+
+        InstanceRecord instance = new InstanceRecord(3L, 2L, SERIES_UID, INSTANCE_UID, file.toString(), 1,
+            null, null, null, null, null, null, 2, 2, 8, 8);
+        when(dicomReadRepository.findInstances(any())).thenReturn(List.of(instance));
+
+        metadataService = new SeriesMetadataService(dicomReadRepository, instanceHeaderRepository, tempDir.resolve("archive").toString(), 0);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        metadataService.shutdown();
+    }
+
+    private static Attributes dataset()
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, INSTANCE_UID);
+        dataset.setString(Tag.StudyInstanceUID, VR.UI, STUDY_UID);
+        dataset.setString(Tag.SeriesInstanceUID, VR.UI, SERIES_UID);
+        dataset.setString(Tag.PatientName, VR.PN, "Doe^John");
+        dataset.setInt(Tag.Rows, VR.US, 2);
+        dataset.setInt(Tag.Columns, VR.US, 2);
+        dataset.setInt(Tag.BitsAllocated, VR.US, 8);
+        dataset.setBytes(Tag.PixelData, VR.OB, new byte[]{1, 2, 3, 4});
+        return dataset;
+    }
+
+    private static void writeInstance(Path file) throws IOException
+    {
+        Attributes dataset = dataset();
+        try (DicomOutputStream dos = new DicomOutputStream(file.toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+        }
+    }
+
+    private static JsonArray read(Path document) throws IOException
+    {
+        try (JsonReader reader = Json.createReader(new GZIPInputStream(Files.newInputStream(document))))
+        {
+            return reader.readArray();
+        }
+    }
+
+    @Test
+    @DisplayName("Should store the instance headers compressed with a BulkDataURI for the pixel data")
+    void shouldBuildCompressedDocument() throws IOException
+    {
+        Path document = metadataService.getDocument(STUDY_UID, SERIES_UID, Instant.parse("2026-10-19T08:00:00Z"));
+
+        assertThat(document).isEqualTo(tempDir.resolve("archive").resolve(STUDY_UID).resolve(SERIES_UID)
+            .resolve(SeriesMetadataService.FILE_NAME));
+
+        JsonArray instances = read(document);
+        assertThat(instances).hasSize(1);
+
+        JsonObject header = instances.getJsonObject(0);
+        assertThat(header.getJsonObject("00080018").getJsonArray("Value").getString(0)).isEqualTo(INSTANCE_UID);
+        assertThat(header.getJsonObject("7FE00010").getString("BulkDataURI"))
+            .isEqualTo("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata");
+        assertThat(header.getJsonObject("7FE00010").containsKey("InlineBinary")).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should rebuild the document only when the series has been modified")
+    void shouldRebuildOnlyModifiedSeries() throws IOException
+    {
+        Instant built = Instant.parse("2026-10-19T08:00:00Z");
+
+        metadataService.getDocument(STUDY_UID, SERIES_UID, built);
+        metadataService.getDocument(STUDY_UID, SERIES_UID, built);
+        verify(dicomReadRepository, times(1)).findInstances(any());
+
+        metadataService.getDocument(STUDY_UID, SERIES_UID, built.plusMillis(1));
+        verify(dicomReadRepository, times(2)).findInstances(any());
+    }
+
+    @Test
+    @DisplayName("Should take the stored headers instead of reading the archive")
+    void shouldUseStoredHeaders() throws IOException
+    {
+        Attributes dataset = dataset();
+        dataset.setString(Tag.PatientName, VR.PN, "Stored^Header");
+        InstanceHeaderEty stored = new InstanceHeaderEty(new InstanceEty(INSTANCE_UID, file.toString()), dataset);
+        ReflectionTestUtils.setField(stored, "id", 3L);
+        when(instanceHeaderRepository.findBySeriesInstanceUID(SERIES_UID)).thenReturn(List.of(stored));
+        Files.delete(file);
+
+        JsonObject header = read(metadataService.getDocument(STUDY_UID, SERIES_UID, Instant.now())).getJsonObject(0);
+
+        assertThat(header.getJsonObject("00100010").getJsonArray("Value").getJsonObject(0).getString("Alphabetic"))
+            .isEqualTo("Stored^Header");
+        assertThat(header.getJsonObject("7FE00010").getString("BulkDataURI"))
+            .isEqualTo("/wado-rs/studies/1.2.3.4.5/series/1.2.3.4.5.6/instances/1.2.3.4.5.6.7/bulkdata");
+    }
+}
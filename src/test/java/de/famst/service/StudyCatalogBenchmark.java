@@ -0,0 +1,184 @@
+package de.famst.service;
+
+import de.famst.MuPACSApplication;
+import de.famst.data.DicomReadRepository;
+import de.famst.data.QueryOptions;
+import de.famst.data.StudyRecord;
+import jakarta.persistence.EntityManager;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.data.jpa.test.autoconfigure.DataJpaTest;
+import org.springframework.boot.jpa.test.autoconfigure.TestEntityManager;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.context.ContextConfiguration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the STUDY level queries of a worklist answered by the {@link StudyCatalog} with the
+ * same queries answered by SQL.
+ *
+ * <p>The archive is generated with native inserts: 200 instances per study in 5 series, 2 studies
+ * per patient, spread over 10 years. The benchmark only runs on request, the number of instances
+ * defaults to 10 million:
+ * <pre>
+ * ./gradlew test --tests '*StudyCatalogBenchmark' -Dmupacs.benchmark=true -Dmupacs.benchmark.instances=10000000
+ * </pre>
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DataJpaTest
+@ContextConfiguration(classes = {MuPACSApplication.class, StudyCatalogBenchmark.SpringConfig.class})
+@EnabledIfSystemProperty(named = "mupacs.benchmark", matches = "true")
+@DisplayName("StudyCatalog Benchmark")
+class StudyCatalogBenchmark
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StudyCatalogBenchmark.class);
+
+    private static final int INSTANCES_PER_SERIES = 40;
+    private static final int SERIES_PER_STUDY = 5;
+    private static final int STUDIES_PER_PATIENT = 2;
+
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    @Configuration
+    @ComponentScan("de.famst.data")
+    public static class SpringConfig
+    {
+    }
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private DicomReadRepository dicomReadRepository;
+
+    @Test
+    @DisplayName("Should answer worklist queries like SQL and report the time of both")
+    void shouldCompareCatalogWithSql()
+    {
+        long instances = Long.getLong("mupacs.benchmark.instances", 10_000_000L);
+        long studies = fillArchive(instances);
+
+        StudyCatalog catalog = new StudyCatalog(dicomReadRepository, true);
+        long startTime = System.nanoTime();
+        assertThat(catalog.rebuild()).isEqualTo(studies);
+        LOG.info("built catalog of {} studies in {} ms", studies, (System.nanoTime() - startTime) / 1_000_000);
+
+        Map<String, Attributes> queries = new LinkedHashMap<>();
+        queries.put("one week", keys(Tag.StudyDate, VR.DA, "20240101-20240107"));
+        queries.put("one week CT", keys(Tag.StudyDate, VR.DA, "20240101-20240107"));
+        queries.get("one week CT").setString(Tag.ModalitiesInStudy, VR.CS, "CT");
+        queries.put("one month MR", keys(Tag.StudyDate, VR.DA, "20240101-20240131"));
+        queries.get("one month MR").setString(Tag.ModalitiesInStudy, VR.CS, "MR");
+        queries.put("accession", keys(Tag.AccessionNumber, VR.SH, "ACC" + studies / 2));
+        queries.put("patient id", keys(Tag.PatientID, VR.LO, "PID" + studies / 4));
+        queries.put("patient name", keys(Tag.PatientName, VR.PN, "NAME17^*"));
+
+        for (Map.Entry<String, Attributes> query : queries.entrySet())
+        {
+            Attributes keys = query.getValue();
+            assertThat(catalog.canAnswer(keys, QueryOptions.ALL)).isTrue();
+
+            List<Long> sqlIds = ids(dicomReadRepository.findStudies(keys, QueryOptions.ALL));
+            List<Long> catalogIds = ids(catalog.findStudies(keys, QueryOptions.ALL));
+            assertThat(catalogIds).containsExactlyInAnyOrderElementsOf(sqlIds);
+
+            double sqlMillis = measure(k -> dicomReadRepository.findStudies(k, QueryOptions.ALL), keys);
+            double catalogMillis = measure(k -> catalog.findStudies(k, QueryOptions.ALL), keys);
+            LOG.info("[{}] {} matches: SQL {} ms, catalog {} ms",
+                query.getKey(), sqlIds.size(), String.format("%.3f", sqlMillis), String.format("%.3f", catalogMillis));
+        }
+    }
+
+    /**
+     * Generates the archive with one native insert per table.
+     *
+     * @return the number of studies
+     */
+    private long fillArchive(long instances)
+    {
+        long series = Math.max(1, instances / INSTANCES_PER_SERIES);
+        long studies = Math.max(1, series / SERIES_PER_STUDY);
+        long patients = Math.max(1, studies / STUDIES_PER_PATIENT);
+
+        EntityManager em = entityManager.getEntityManager();
+        long startTime = System.nanoTime();
+
+        em.createNativeQuery("""
+            INSERT INTO PATIENT (ID, PATIENT_NAME, PATIENT_FAMILY_NAME, PATIENT_GIVEN_NAME, PATIENT_ID,
+                                 PATIENT_BIRTH_DATE, PATIENT_SEX)
+            SELECT X, 'NAME' || MOD(X, 1000) || '^GIVEN' || X, 'NAME' || MOD(X, 1000), 'GIVEN' || X, 'PID' || X,
+                   DATEADD(DAY, -CAST(MOD(X, 30000) AS INT), DATE '2020-01-01'), CASE MOD(X, 2) WHEN 0 THEN 'F' ELSE 'M' END
+            FROM SYSTEM_RANGE(1, ?1)
+            """).setParameter(1, patients).executeUpdate();
+
+        em.createNativeQuery("""
+            INSERT INTO STUDY (ID, PATIENT_ID, STUDY_INSTANCEUID, STUDY_ID, STUDY_DESCRIPTION, STUDY_DATE,
+                               ACCESSION_NUMBER, MODALITIES_IN_STUDY, LAST_MODIFIED)
+            SELECT X, MOD(X - 1, ?2) + 1, '1.2.826.0.1.' || X, 'S' || X, 'Study ' || MOD(X, 50),
+                   DATEADD(DAY, -CAST(MOD(X, 3650) AS INT), DATE '2026-01-01'), 'ACC' || X,
+                   CASE MOD(X, 4) WHEN 0 THEN 'CT' WHEN 1 THEN 'MR' WHEN 2 THEN 'CT\\MR' ELSE 'US' END, CURRENT_TIMESTAMP
+            FROM SYSTEM_RANGE(1, ?1)
+            """).setParameter(1, studies).setParameter(2, patients).executeUpdate();
+
+        em.createNativeQuery("""
+            INSERT INTO SERIES (ID, STUDY_ID, SERIES_INSTANCEUID, SERIES_NUMBER, MODALITY, LAST_MODIFIED)
+            SELECT X, MOD(X - 1, ?2) + 1, '1.2.826.0.2.' || X, MOD(X, ?3), 'CT', CURRENT_TIMESTAMP
+            FROM SYSTEM_RANGE(1, ?1)
+            """).setParameter(1, series).setParameter(2, studies).setParameter(3, SERIES_PER_STUDY).executeUpdate();
+
+        em.createNativeQuery("""
+            INSERT INTO INSTANCE (ID, SERIES_ID, INSTANCEUID, PATH, INSTANCE_NUMBER)
+            SELECT X, MOD(X - 1, ?2) + 1, '1.2.826.0.3.' || X, 'PATH' || X, MOD(X, ?3)
+            FROM SYSTEM_RANGE(1, ?1)
+            """).setParameter(1, series * INSTANCES_PER_SERIES).setParameter(2, series)
+            .setParameter(3, INSTANCES_PER_SERIES).executeUpdate();
+
+        LOG.info("generated {} patients, {} studies, {} series, {} instances in {} s",
+            patients, studies, series, series * INSTANCES_PER_SERIES, (System.nanoTime() - startTime) / 1_000_000_000);
+        return studies;
+    }
+
+    private static double measure(Function<Attributes, List<StudyRecord>> query, Attributes keys)
+    {
+        for (int i = 0; i < WARMUP; i++)
+        {
+            query.apply(keys);
+        }
+
+        long startTime = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+        {
+            query.apply(keys);
+        }
+        return (System.nanoTime() - startTime) / 1_000_000.0 / ITERATIONS;
+    }
+
+    private static Attributes keys(int tag, VR vr, String value)
+    {
+        Attributes keys = new Attributes();
+        keys.setString(tag, vr, value);
+        return keys;
+    }
+
+    private static List<Long> ids(List<StudyRecord> studies)
+    {
+        return studies.stream().map(StudyRecord::id).toList();
+    }
+}
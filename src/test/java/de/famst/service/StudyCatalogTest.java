@@ -0,0 +1,198 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.PatientEty;
+import de.famst.data.QueryOptions;
+import de.famst.data.SeriesEty;
+import de.famst.data.StudyEty;
+import de.famst.data.StudyRecord;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.net.service.QueryRetrieveLevel2;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.rest.core.event.AfterDeleteEvent;
+import org.springframework.data.rest.core.event.BeforeDeleteEvent;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for StudyCatalog.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("StudyCatalog Tests")
+class StudyCatalogTest
+{
+    @Mock
+    private DicomReadRepository dicomReadRepository;
+
+    private StudyCatalog catalog;
+
+    @BeforeEach
+    void setUp()
+    {
+        when(dicomReadRepository.streamStudies(any(Attributes.class), any(QueryOptions.class))).thenReturn(Stream.of(
+            study(1, "Doe^John", "PAT001", "1.1", LocalDate.of(2024, 3, 1), "ACC1", "CT\\MR"),
+            study(2, "Smith^Jane", "PAT002", "1.2", LocalDate.of(2024, 1, 15), "ACC2", "MR"),
+            study(3, "Doe^Jane", "PAT003", "1.3", null, "ACC3", "CT"),
+            study(4, "Miller^Max", "PAT004", "1.4", LocalDate.of(2024, 2, 10), null, "US")));
+
+        catalog = new StudyCatalog(dicomReadRepository, true);
+        assertThat(catalog.rebuild()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Should answer nothing before it is built or when disabled")
+    void shouldAnswerNothingWhenDisabled()
+    {
+        StudyCatalog disabled = new StudyCatalog(dicomReadRepository, false);
+
+        assertThat(disabled.rebuild()).isZero();
+        assertThat(disabled.canAnswer(new Attributes(), QueryOptions.ALL)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should return the studies of a date range ordered by database id like the database")
+    void shouldMatchDateRange()
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.StudyDate, VR.DA, "20240201-");
+
+        assertThat(ids(catalog.findStudies(keys, QueryOptions.ALL))).containsExactly(1L, 4L);
+
+        keys.setString(Tag.StudyDate, VR.DA, "-20240301");
+        assertThat(ids(catalog.findStudies(keys, QueryOptions.ALL))).containsExactly(1L, 2L, 4L);
+
+        assertThat(ids(catalog.findStudies(new Attributes(), QueryOptions.ALL))).containsExactly(1L, 2L, 3L, 4L);
+    }
+
+    @Test
+    @DisplayName("Should match modalities, wild cards and lists like the database")
+    void shouldMatchKeysLikeDatabase()
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, "CT");
+        keys.setString(Tag.PatientName, VR.PN, "Doe^*");
+
+        assertThat(ids(catalog.findStudies(keys, QueryOptions.ALL))).containsExactly(1L, 3L);
+
+        Attributes uids = new Attributes();
+        uids.setString(Tag.StudyInstanceUID, VR.UI, "1.2", "1.4", "9.9");
+        assertThat(ids(catalog.findStudies(uids, QueryOptions.ALL))).containsExactly(2L, 4L);
+
+        Attributes accession = new Attributes();
+        accession.setString(Tag.AccessionNumber, VR.SH, "ACC?");
+        assertThat(ids(catalog.findStudies(accession, QueryOptions.ALL))).containsExactly(1L, 2L, 3L);
+    }
+
+    @Test
+    @DisplayName("Should leave fuzzy name matching and patient comments to the database")
+    void shouldRejectKeysItCannotMatch()
+    {
+        Attributes keys = new Attributes();
+        keys.setString(Tag.PatientName, VR.PN, "doe");
+
+        assertThat(catalog.canAnswer(keys, QueryOptions.ALL)).isTrue();
+        assertThat(catalog.canAnswer(keys, QueryOptions.FUZZY)).isFalse();
+
+        Attributes comments = new Attributes();
+        comments.setString(Tag.PatientComments, VR.LT, "allergy");
+        assertThat(catalog.canAnswer(comments, QueryOptions.ALL)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should apply the window and detect more matches after it")
+    void shouldApplyWindow()
+    {
+        QueryOptions window = new QueryOptions(1, 2, false, null);
+
+        assertThat(ids(catalog.findStudies(new Attributes(), window))).containsExactly(2L, 3L);
+        assertThat(catalog.hasMoreStudies(new Attributes(), window)).isTrue();
+        assertThat(catalog.hasMoreStudies(new Attributes(), new QueryOptions(2, 2, false, null))).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should insert imported studies at their id and replace extended ones")
+    void shouldUpdateImportedStudies()
+    {
+        when(dicomReadRepository.findStudies(any(Attributes.class))).thenReturn(
+            List.of(study(5, "New^Patient", "PAT005", "1.5", LocalDate.of(2024, 2, 1), "ACC5", "CR")),
+            List.of(study(2, "Smith^Jane", "PAT002", "1.2", LocalDate.of(2024, 1, 15), "ACC2", "MR\\SR")));
+
+        catalog.onDicomImported(new DicomImportedEvent("PAT005", "1.5", "1.5.1", "1.5.1.1",
+            Set.of(QueryRetrieveLevel2.PATIENT, QueryRetrieveLevel2.STUDY, QueryRetrieveLevel2.SERIES)));
+        catalog.onDicomImported(new DicomImportedEvent("PAT002", "1.2", "1.2.2", "1.2.2.1",
+            Set.of(QueryRetrieveLevel2.SERIES)));
+
+        assertThat(ids(catalog.findStudies(new Attributes(), QueryOptions.ALL))).containsExactly(1L, 2L, 3L, 4L, 5L);
+
+        Attributes keys = new Attributes();
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, "SR");
+        assertThat(ids(catalog.findStudies(keys, QueryOptions.ALL))).containsExactly(2L);
+        assertThat(catalog.size()).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Should re-read the studies of the patient of entities deleted through the REST API")
+    void shouldRefreshOnRepositoryEvents()
+    {
+        PatientEty patient = mock(PatientEty.class);
+        when(patient.getId()).thenReturn(2L);
+        StudyEty study = mock(StudyEty.class);
+        when(study.getPatient()).thenReturn(patient);
+
+        StudyEty studyOfSeries = mock(StudyEty.class);
+        when(studyOfSeries.getId()).thenReturn(1L);
+        SeriesEty series = mock(SeriesEty.class);
+        when(series.getStudy()).thenReturn(studyOfSeries);
+
+        when(dicomReadRepository.findStudiesOfPatients(anyCollection())).thenReturn(
+            List.of(),
+            List.of(study(1, "Doe^John", "PAT001", "1.1", LocalDate.of(2024, 3, 1), "ACC1", "CT")));
+
+        // the entity is still in the database before it is deleted
+        catalog.onRepositoryEvent(new BeforeDeleteEvent(study));
+        verify(dicomReadRepository, never()).findStudiesOfPatients(anyCollection());
+
+        catalog.onRepositoryEvent(new AfterDeleteEvent(study));
+        assertThat(ids(catalog.findStudies(new Attributes(), QueryOptions.ALL))).containsExactly(1L, 3L, 4L);
+
+        // the MR series of study 1 was deleted
+        catalog.onRepositoryEvent(new AfterDeleteEvent(series));
+        Attributes keys = new Attributes();
+        keys.setString(Tag.ModalitiesInStudy, VR.CS, "MR");
+        assertThat(ids(catalog.findStudies(keys, QueryOptions.ALL))).isEmpty();
+        assertThat(catalog.size()).isEqualTo(3);
+    }
+
+    private static StudyRecord study(long id, String patientName, String patientId, String studyInstanceUID,
+                                     LocalDate studyDate, String accessionNumber, String modalitiesInStudy)
+    {
+        return new StudyRecord(id, id, patientName, patientId, null, null, studyInstanceUID, null, studyDate, null,
+            null, accessionNumber, modalitiesInStudy, null);
+    }
+
+    private static List<Long> ids(List<StudyRecord> studies)
+    {
+        return studies.stream().map(StudyRecord::id).toList();
+    }
+}
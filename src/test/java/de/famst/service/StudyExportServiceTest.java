@@ -0,0 +1,92 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.data.InstanceRepository;
+import org.dcm4che3.data.UID;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.ZipFile;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for StudyExportService.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("StudyExportService Tests")
+class StudyExportServiceTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final InstanceRepository instanceRepository = mock(InstanceRepository.class);
+
+    private StudyExportService exportService;
+
+    private Path zipFile;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        exportService = new StudyExportService(instanceRepository, 2, 2);
+        zipFile = Files.writeString(tempDir.resolve("export.zip"), "PREVIOUS EXPORT");
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        exportService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should replace the ZIP file once the export is complete")
+    void shouldReplaceZipFile() throws IOException
+    {
+        when(instanceRepository.findFilesByStudyInstanceUIDs(List.of("1"))).thenReturn(List.of(
+            file("1.1.1", "FIRST"), file("1.1.2", "SECOND")));
+
+        assertThat(exportService.exportTo(zipFile, List.of("1"), false)).isEqualTo(2);
+
+        try (ZipFile zip = new ZipFile(zipFile.toFile()))
+        {
+            assertThat(zip.size()).isEqualTo(2);
+        }
+        assertThat(tempDir).isDirectoryNotContaining("glob:**.tmp");
+    }
+
+    @Test
+    @DisplayName("Should keep the previous ZIP file and leave no partial one if the export fails")
+    void shouldKeepZipFileOnFailure() throws IOException
+    {
+        // the second file is gone after the first one was written
+        when(instanceRepository.findFilesByStudyInstanceUIDs(List.of("1"))).thenReturn(List.of(
+            file("1.1.1", "FIRST"), new InstanceFileRecord("1", "1.1", "1.1.2",
+                tempDir.resolve("gone.dcm").toString(), UID.ExplicitVRLittleEndian)));
+
+        assertThatThrownBy(() -> exportService.exportTo(zipFile, List.of("1"), false))
+            .isInstanceOf(NoSuchFileException.class);
+
+        assertThat(zipFile).hasContent("PREVIOUS EXPORT");
+        assertThat(tempDir).isDirectoryNotContaining("glob:**.tmp");
+    }
+
+    private InstanceFileRecord file(String instance, String content) throws IOException
+    {
+        Path path = Files.writeString(tempDir.resolve(instance + ".dcm"), content);
+        return new InstanceFileRecord("1", "1.1", instance, path.toString(), UID.ExplicitVRLittleEndian);
+    }
+}
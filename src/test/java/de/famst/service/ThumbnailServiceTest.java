@@ -0,0 +1,236 @@
+package de.famst.service;
+
+import de.famst.data.DicomReadRepository;
+import de.famst.data.InstanceRepository;
+import de.famst.dcm.DcmImage;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests for ThumbnailService.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@ExtendWith(MockitoExtension.class)
+@DisplayName("ThumbnailService Tests")
+class ThumbnailServiceTest
+{
+    private static final String STUDY_UID = "1.2.3.4.5";
+    private static final String SERIES_UID = "1.2.3.4.5.6";
+
+    @Mock
+    private InstanceRepository instanceRepository;
+
+    @Mock
+    private DicomReadRepository dicomReadRepository;
+
+    @TempDir
+    Path tempDir;
+
+    private Path cacheDir;
+
+    private Path file;
+
+    private ThumbnailService thumbnailService;
+
+    @BeforeEach
+    void setUp() throws IOException
+    {
+        cacheDir = tempDir.resolve("thumbnails");
+        file = tempDir.resolve("instance.dcm");
+        writeInstance(file, 256, 200);
+
+        thumbnailService = service(Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        thumbnailService.shutdown();
+    }
+
+    private ThumbnailService service(long maxBytes)
+    {
+        return new ThumbnailService(instanceRepository, dicomReadRepository, cacheDir.toString(), 128, maxBytes,
+            1, false, 0);
+    }
+
+    private static void writeInstance(Path file, int columns, int rows) throws IOException
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, "1.2.3.4.5.6.7");
+        dataset.setInt(Tag.SamplesPerPixel, VR.US, 1);
+        dataset.setString(Tag.PhotometricInterpretation, VR.CS, "MONOCHROME2");
+        dataset.setInt(Tag.Rows, VR.US, rows);
+        dataset.setInt(Tag.Columns, VR.US, columns);
+        dataset.setInt(Tag.BitsAllocated, VR.US, 8);
+        dataset.setInt(Tag.BitsStored, VR.US, 8);
+        dataset.setInt(Tag.HighBit, VR.US, 7);
+        dataset.setInt(Tag.PixelRepresentation, VR.US, 0);
+
+        byte[] pixels = new byte[columns * rows];
+        for (int i = 0; i < pixels.length; i++)
+        {
+            pixels[i] = (byte) (i % columns);
+        }
+        dataset.setBytes(Tag.PixelData, VR.OB, pixels);
+
+        try (DicomOutputStream dos = new DicomOutputStream(file.toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+        }
+    }
+
+    private static BufferedImage decode(byte[] image) throws IOException
+    {
+        return ImageIO.read(new ByteArrayInputStream(image));
+    }
+
+    @Test
+    @DisplayName("Should render a series thumbnail fitting the size and serve it from the disk cache")
+    void shouldRenderSeriesThumbnail() throws IOException
+    {
+        when(dicomReadRepository.findSeriesLastModified(STUDY_UID, SERIES_UID)).thenReturn(Instant.EPOCH);
+        when(instanceRepository.findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID))
+            .thenReturn(List.of(file.toString()));
+
+        byte[] thumbnail = thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.JPEG);
+        byte[] cached = thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.JPEG);
+
+        BufferedImage image = decode(thumbnail);
+        assertThat(image.getWidth()).isEqualTo(128);
+        assertThat(image.getHeight()).isEqualTo(100);
+        assertThat(cached).isEqualTo(thumbnail);
+        assertThat(cacheDir.resolve(SERIES_UID + ".0.128.jpg")).exists();
+        assertThat(thumbnailService.getCachedBytes()).isEqualTo(thumbnail.length);
+        verify(instanceRepository, times(1)).findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID);
+    }
+
+    @Test
+    @DisplayName("Should render the thumbnail of a series again once it has been modified")
+    void shouldRerenderModifiedSeries() throws IOException
+    {
+        when(dicomReadRepository.findSeriesLastModified(STUDY_UID, SERIES_UID))
+            .thenReturn(Instant.EPOCH, Instant.now().plusSeconds(60));
+        when(instanceRepository.findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID))
+            .thenReturn(List.of(file.toString()));
+
+        thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.PNG);
+        byte[] thumbnail = thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.PNG);
+
+        assertThat(decode(thumbnail).getWidth()).isEqualTo(128);
+        verify(instanceRepository, times(2)).findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID);
+    }
+
+    @Test
+    @DisplayName("Should render a series thumbnail again for an import which committed after it was rendered")
+    void shouldRerenderSeriesModifiedBeforeRendering() throws IOException
+    {
+        // the import took its stamp before the first rendering, but committed after it
+        Instant imported = Instant.now().minusSeconds(30);
+        when(dicomReadRepository.findSeriesLastModified(STUDY_UID, SERIES_UID))
+            .thenReturn(imported.minusSeconds(30), imported);
+        when(instanceRepository.findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID))
+            .thenReturn(List.of(file.toString()));
+
+        thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.PNG);
+        thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.PNG);
+
+        verify(instanceRepository, times(2)).findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID);
+    }
+
+    @Test
+    @DisplayName("Should return null for unknown series and series without images")
+    void shouldReturnNullWithoutImage() throws IOException
+    {
+        when(dicomReadRepository.findSeriesLastModified(STUDY_UID, "9.9")).thenReturn(null);
+        when(dicomReadRepository.findSeriesLastModified(STUDY_UID, SERIES_UID)).thenReturn(Instant.EPOCH);
+        when(instanceRepository.findImagePathsBySeriesInstanceUID(STUDY_UID, SERIES_UID)).thenReturn(List.of());
+
+        assertThat(thumbnailService.getSeriesThumbnail(STUDY_UID, "9.9", DcmImage.Format.JPEG)).isNull();
+        assertThat(thumbnailService.getSeriesThumbnail(STUDY_UID, SERIES_UID, DcmImage.Format.JPEG)).isNull();
+    }
+
+    @Test
+    @DisplayName("Should render an instance into the viewport without upscaling it")
+    void shouldRenderInstanceIntoViewport() throws IOException
+    {
+        when(instanceRepository.findPath(STUDY_UID, SERIES_UID, "1.1")).thenReturn(file.toString());
+
+        BufferedImage small = decode(thumbnailService.getRendered(STUDY_UID, SERIES_UID, "1.1", 64, 64,
+            DcmImage.Format.PNG));
+        BufferedImage full = decode(thumbnailService.getRendered(STUDY_UID, SERIES_UID, "1.1", 1024, 1024,
+            DcmImage.Format.PNG));
+
+        assertThat(small.getWidth()).isEqualTo(64);
+        assertThat(small.getHeight()).isEqualTo(50);
+        assertThat(full.getWidth()).isEqualTo(256);
+        assertThat(full.getHeight()).isEqualTo(200);
+    }
+
+    @Test
+    @DisplayName("Should fail to render files without an image")
+    void shouldFailWithoutImage() throws IOException
+    {
+        Path text = Files.writeString(tempDir.resolve("text.dcm"), "no DICOM");
+        when(instanceRepository.findPath(STUDY_UID, SERIES_UID, "1.1")).thenReturn(text.toString());
+
+        assertThatThrownBy(() -> thumbnailService.getInstanceThumbnail(STUDY_UID, SERIES_UID, "1.1",
+            DcmImage.Format.JPEG)).isInstanceOf(IOException.class);
+        assertThat(cacheDir).isEmptyDirectory();
+    }
+
+    @Test
+    @DisplayName("Should evict the least recently served thumbnails when the cache is full")
+    void shouldEvictLeastRecentlyServed() throws IOException
+    {
+        when(instanceRepository.findPath(STUDY_UID, SERIES_UID, "1.1")).thenReturn(file.toString());
+        when(instanceRepository.findPath(STUDY_UID, SERIES_UID, "1.2")).thenReturn(file.toString());
+        when(instanceRepository.findPath(STUDY_UID, SERIES_UID, "1.3")).thenReturn(file.toString());
+
+        int size = thumbnailService.getInstanceThumbnail(STUDY_UID, SERIES_UID, "1.1", DcmImage.Format.JPEG).length;
+        thumbnailService.getInstanceThumbnail(STUDY_UID, SERIES_UID, "1.2", DcmImage.Format.JPEG);
+        Files.setLastModifiedTime(cacheDir.resolve("1.1.128.jpg"), FileTime.from(Instant.EPOCH));
+        Files.setLastModifiedTime(cacheDir.resolve("1.2.128.jpg"), FileTime.from(Instant.EPOCH.plusSeconds(1)));
+        thumbnailService.shutdown();
+
+        // room for two thumbnails, the third one evicts the least recently served
+        thumbnailService = service(2L * size);
+        assertThat(thumbnailService.getCachedBytes()).isEqualTo(2L * size);
+        thumbnailService.getInstanceThumbnail(STUDY_UID, SERIES_UID, "1.3", DcmImage.Format.JPEG);
+
+        assertThat(cacheDir.resolve("1.1.128.jpg")).doesNotExist();
+        assertThat(cacheDir.resolve("1.2.128.jpg")).doesNotExist();
+        assertThat(cacheDir.resolve("1.3.128.jpg")).exists();
+        assertThat(thumbnailService.getCachedBytes()).isLessThanOrEqualTo(2L * size / 10 * 9);
+    }
+}
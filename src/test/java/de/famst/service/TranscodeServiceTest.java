@@ -0,0 +1,185 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import de.famst.dcm.UnsupportedTransferSyntaxException;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomInputStream;
+import org.dcm4che3.io.DicomOutputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for TranscodeService.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("TranscodeService Tests")
+class TranscodeServiceTest
+{
+    private static final byte[] PIXELS = {1, 2, 3, 4, 5, 6, 7, 8};
+
+    @TempDir
+    Path tempDir;
+
+    private Path cacheDir;
+
+    private TranscodeService transcodeService;
+
+    @BeforeEach
+    void setUp()
+    {
+        cacheDir = tempDir.resolve("transcoded");
+        transcodeService = new TranscodeService(cacheDir.toString(), Long.MAX_VALUE, 2);
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+        transcodeService.shutdown();
+    }
+
+    @Test
+    @DisplayName("Should convert into a native transfer syntax and keep the pixel values")
+    void shouldConvertNativeTransferSyntaxes() throws IOException
+    {
+        InstanceFileRecord file = instance("1.1", UID.ExplicitVRLittleEndian);
+
+        for (String tsuid : List.of(UID.ImplicitVRLittleEndian, UID.ExplicitVRBigEndian,
+            UID.DeflatedExplicitVRLittleEndian))
+        {
+            Path variant = transcodeService.getVariant(file, tsuid);
+
+            assertThat(variant).isEqualTo(cacheDir.resolve("1.1." + tsuid + "."
+                + Files.getLastModifiedTime(Path.of(file.path())).toMillis() + ".dcm"));
+            try (DicomInputStream dis = new DicomInputStream(variant.toFile()))
+            {
+                Attributes fmi = dis.readFileMetaInformation();
+                Attributes dataset = dis.readDataset();
+                assertThat(fmi.getString(Tag.TransferSyntaxUID)).isEqualTo(tsuid);
+                assertThat(dis.getTransferSyntax()).isEqualTo(tsuid);
+                assertThat(dataset.getString(Tag.SOPInstanceUID)).isEqualTo("1.1");
+                // 16 bit values, swapped in big endian files
+                assertThat(dataset.getInts(Tag.PixelData)).containsExactly(0x0201, 0x0403, 0x0605, 0x0807);
+            }
+        }
+        assertThat(transcodeService.getCachedBytes()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Should serve the stored file without converting it")
+    void shouldServeStoredTransferSyntax() throws IOException
+    {
+        InstanceFileRecord file = instance("1.1", UID.ExplicitVRLittleEndian);
+
+        assertThat(transcodeService.getVariant(file, UID.ExplicitVRLittleEndian)).isEqualTo(Path.of(file.path()));
+        assertThat(cacheDir).isEmptyDirectory();
+    }
+
+    @Test
+    @DisplayName("Should serve a cached variant until the archived file is replaced")
+    void shouldCacheVariants() throws IOException
+    {
+        InstanceFileRecord file = instance("1.1", UID.ExplicitVRLittleEndian);
+        Files.setLastModifiedTime(Path.of(file.path()), FileTime.from(Instant.now().minusSeconds(60)));
+
+        Path variant = transcodeService.getVariant(file, UID.ImplicitVRLittleEndian);
+        Files.writeString(variant, "CACHED");
+        assertThat(Files.readString(transcodeService.getVariant(file, UID.ImplicitVRLittleEndian)))
+            .isEqualTo("CACHED");
+
+        // served after the replacement, the variant is newer than the archived file, but outdated
+        Files.setLastModifiedTime(Path.of(file.path()), FileTime.from(Instant.now()));
+        Files.setLastModifiedTime(variant, FileTime.from(Instant.now().plusSeconds(60)));
+        assertThat(Files.readString(transcodeService.getVariant(file, UID.ImplicitVRLittleEndian),
+            StandardCharsets.ISO_8859_1)).isNotEqualTo("CACHED");
+    }
+
+    @Test
+    @DisplayName("Should refuse conversions without decoder or encoder before converting anything")
+    void shouldRefuseUnsupportedConversions() throws IOException
+    {
+        InstanceFileRecord nativeFile = instance("1.1", UID.ExplicitVRLittleEndian);
+        InstanceFileRecord compressed = new InstanceFileRecord("1", "1.1", "1.2",
+            Files.writeString(tempDir.resolve("1.2.dcm"), "JPEG 2000").toString(), UID.JPEG2000);
+
+        assertThatThrownBy(() -> transcodeService.opener(List.of(nativeFile, compressed),
+            List.of(Path.of(nativeFile.path()), Path.of(compressed.path())), UID.ImplicitVRLittleEndian))
+            .isInstanceOf(UnsupportedTransferSyntaxException.class)
+            .hasMessageContaining("1.2");
+        assertThatThrownBy(() -> transcodeService.getVariant(nativeFile, UID.JPEGBaseline8Bit))
+            .isInstanceOf(UnsupportedTransferSyntaxException.class);
+        assertThat(cacheDir).isEmptyDirectory();
+    }
+
+    @Test
+    @DisplayName("Should convert while streaming when the cache holds less than the sequence")
+    void shouldStreamThroughSmallCache() throws IOException
+    {
+        transcodeService.shutdown();
+        transcodeService = new TranscodeService(cacheDir.toString(), 1, 2);
+
+        List<InstanceFileRecord> files = List.of(instance("1.1", UID.ExplicitVRLittleEndian),
+            instance("1.2", UID.ExplicitVRLittleEndian), instance("1.3", UID.ExplicitVRLittleEndian));
+        List<Path> paths = files.stream().map(file -> Path.of(file.path())).toList();
+
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        try
+        {
+            FileSequence sequence = new FileSequence(paths, ioExecutor, 2, 64)
+                .withOpener(transcodeService.opener(files, paths, UID.ImplicitVRLittleEndian));
+
+            List<Integer> headers = new ArrayList<>();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sequence.transferTo(out, (index, file, stream) -> headers.add(index));
+
+            assertThat(headers).containsExactly(0, 1, 2);
+            assertThat(out.toString(StandardCharsets.ISO_8859_1).split("DICM", -1)).hasSize(4);
+            // every variant evicts the others
+            assertThat(transcodeService.getCachedBytes()).isLessThan(out.size() / 2);
+        }
+        finally
+        {
+            ioExecutor.shutdownNow();
+        }
+    }
+
+    private InstanceFileRecord instance(String instanceUID, String tsuid) throws IOException
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, instanceUID);
+        dataset.setInt(Tag.Rows, VR.US, 2);
+        dataset.setInt(Tag.Columns, VR.US, 2);
+        dataset.setInt(Tag.BitsAllocated, VR.US, 16);
+        dataset.setBytes(Tag.PixelData, VR.OW, PIXELS);
+
+        Path path = tempDir.resolve(instanceUID + ".dcm");
+        try (DicomOutputStream dos = new DicomOutputStream(path.toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(tsuid), dataset);
+        }
+        return new InstanceFileRecord("1", "1.1", instanceUID, path.toString(), tsuid);
+    }
+}
@@ -0,0 +1,176 @@
+package de.famst.service;
+
+import de.famst.data.InstanceFileRecord;
+import org.dcm4che3.data.Attributes;
+import org.dcm4che3.data.Tag;
+import org.dcm4che3.data.UID;
+import org.dcm4che3.data.VR;
+import org.dcm4che3.io.DicomOutputStream;
+import org.dcm4che3.media.DicomDirReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Unit tests for ZipExport.
+ *
+ * @author jens
+ * @since 2026-10-19
+ */
+@DisplayName("ZipExport Tests")
+class ZipExportTest
+{
+    @TempDir
+    Path tempDir;
+
+    private final ExecutorService ioExecutor = Executors.newFixedThreadPool(2);
+
+    @AfterEach
+    void tearDown()
+    {
+        ioExecutor.shutdownNow();
+    }
+
+    @Test
+    @DisplayName("Should store compressed transfer syntaxes and deflate the others")
+    void shouldChooseMethodByTransferSyntax() throws IOException
+    {
+        // the content is not parsed without DICOMDIR when the transfer syntax is known
+        List<InstanceFileRecord> files = List.of(
+            file("1", "1.1", "1.1.1", "NATIVE NATIVE NATIVE", UID.ExplicitVRLittleEndian),
+            file("1", "1.1", "1.1.2", "JPEG", UID.JPEGBaseline8Bit),
+            file("2", "2.1", "2.1.1", "JPEG 2000", UID.JPEG2000));
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, String> contents = new LinkedHashMap<>();
+        unzip(write(new ZipExport(files, ioExecutor, 2, false)), entries, contents);
+
+        assertThat(entries.keySet()).containsExactly("1/1.1/1.1.1.dcm", "1/1.1/1.1.2.dcm", "2/2.1/2.1.1.dcm");
+        assertThat(entries.get("1/1.1/1.1.1.dcm").getMethod()).isEqualTo(ZipEntry.DEFLATED);
+        assertThat(entries.get("1/1.1/1.1.2.dcm").getMethod()).isEqualTo(ZipEntry.STORED);
+        assertThat(entries.get("2/2.1/2.1.1.dcm").getMethod()).isEqualTo(ZipEntry.STORED);
+        assertThat(contents.values()).containsExactly("NATIVE NATIVE NATIVE", "JPEG", "JPEG 2000");
+    }
+
+    @Test
+    @DisplayName("Should name the files by File IDs and add a DICOMDIR whose records can be followed")
+    void shouldWriteDicomDir() throws IOException
+    {
+        List<InstanceFileRecord> files = List.of(
+            instance("1.2.1", "1.2.1.1", "1.2.1.1.1"),
+            instance("1.2.1", "1.2.1.1", "1.2.1.1.2"),
+            instance("1.2.1", "1.2.1.2", "1.2.1.2.1"),
+            instance("1.2.2", "1.2.2.1", "1.2.2.1.1"));
+
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        Map<String, String> contents = new LinkedHashMap<>();
+        unzip(write(new ZipExport(files, ioExecutor, 3, true)), entries, contents);
+
+        assertThat(entries.keySet()).containsExactly(
+            "DICOM/ST000001/SE000001/IM000001",
+            "DICOM/ST000001/SE000001/IM000002",
+            "DICOM/ST000001/SE000002/IM000001",
+            "DICOM/ST000002/SE000001/IM000001",
+            ZipExport.DICOMDIR);
+
+        Path dicomDir = tempDir.resolve("DICOMDIR");
+        Files.writeString(dicomDir, contents.get(ZipExport.DICOMDIR), StandardCharsets.ISO_8859_1);
+        try (DicomDirReader reader = new DicomDirReader(dicomDir.toFile()))
+        {
+            Attributes patient = reader.readFirstRootDirectoryRecord();
+            assertThat(patient.getString(Tag.DirectoryRecordType)).isEqualTo("PATIENT");
+            assertThat(reader.readNextDirectoryRecord(patient)).isNull();
+
+            Attributes study = reader.readLowerDirectoryRecord(patient);
+            assertThat(study.getString(Tag.StudyInstanceUID)).isEqualTo("1.2.1");
+            Attributes series = reader.readNextDirectoryRecord(reader.readLowerDirectoryRecord(study));
+            assertThat(series.getString(Tag.SeriesInstanceUID)).isEqualTo("1.2.1.2");
+
+            Attributes image = reader.readLowerDirectoryRecord(series);
+            assertThat(image.getString(Tag.DirectoryRecordType)).isEqualTo("IMAGE");
+            assertThat(image.getStrings(Tag.ReferencedFileID)).containsExactly("DICOM", "ST000001", "SE000002", "IM000001");
+            assertThat(image.getString(Tag.ReferencedSOPInstanceUIDInFile)).isEqualTo("1.2.1.2.1");
+            assertThat(image.getString(Tag.ReferencedTransferSyntaxUIDInFile)).isEqualTo(UID.ExplicitVRLittleEndian);
+
+            Attributes secondStudy = reader.readNextDirectoryRecord(study);
+            assertThat(secondStudy.getString(Tag.StudyInstanceUID)).isEqualTo("1.2.2");
+        }
+    }
+
+    @Test
+    @DisplayName("Should fail if a file of the export is missing")
+    void shouldFailForMissingFile()
+    {
+        List<InstanceFileRecord> files = List.of(new InstanceFileRecord("1", "1.1", "1.1.1",
+            tempDir.resolve("gone.dcm").toString(), UID.ExplicitVRLittleEndian));
+
+        assertThatThrownBy(() -> write(new ZipExport(files, ioExecutor, 2, false)))
+            .isInstanceOf(NoSuchFileException.class);
+    }
+
+    private InstanceFileRecord file(String study, String series, String instance, String content,
+                                    String transferSyntaxUID) throws IOException
+    {
+        Path path = Files.writeString(tempDir.resolve(instance + ".dcm"), content);
+        return new InstanceFileRecord(study, series, instance, path.toString(), transferSyntaxUID);
+    }
+
+    private InstanceFileRecord instance(String study, String series, String instance) throws IOException
+    {
+        Attributes dataset = new Attributes();
+        dataset.setString(Tag.SOPClassUID, VR.UI, UID.SecondaryCaptureImageStorage);
+        dataset.setString(Tag.SOPInstanceUID, VR.UI, instance);
+        dataset.setString(Tag.StudyInstanceUID, VR.UI, study);
+        dataset.setString(Tag.SeriesInstanceUID, VR.UI, series);
+        dataset.setString(Tag.PatientName, VR.PN, "Doe^John");
+        dataset.setString(Tag.PatientID, VR.LO, "4711");
+        dataset.setString(Tag.Modality, VR.CS, "OT");
+        dataset.setBytes(Tag.PixelData, VR.OB, new byte[]{1, 2, 3, 4});
+
+        Path path = tempDir.resolve(instance + ".dcm");
+        try (DicomOutputStream dos = new DicomOutputStream(path.toFile()))
+        {
+            dos.writeDataset(dataset.createFileMetaInformation(UID.ExplicitVRLittleEndian), dataset);
+        }
+        return new InstanceFileRecord(study, series, instance, path.toString(), null);
+    }
+
+    private static byte[] write(ZipExport export) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.writeTo(out);
+        return out.toByteArray();
+    }
+
+    private static void unzip(byte[] zip, Map<String, ZipEntry> entries, Map<String, String> contents)
+        throws IOException
+    {
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(zip)))
+        {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry())
+            {
+                entries.put(entry.getName(), entry);
+                contents.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+}